@@ -1,31 +1,138 @@
 package de.delphi.phi;
 
 import de.delphi.phi.data.PhiCollection;
-import de.delphi.phi.data.PhiInt;
+import de.delphi.phi.data.PhiNull;
 import de.delphi.phi.data.PhiObject;
 
+import java.util.HashSet;
+import java.util.Set;
+
 public class PhiScope extends PhiCollection{
 
-    private PhiCollection parentScope;
+    /**
+     * Describes which variables of this scope are stored in slots. If this is null, all variables are stored by name.
+     */
+    private final ScopeLayout layout;
+
+    /**
+     * Values of the variables described by the layout. A slot contains null until its variable has been declared.
+     */
+    private PhiObject[] slots;
 
     public PhiScope(){
+        this((ScopeLayout) null);
+    }
 
+    public PhiScope(ScopeLayout layout){
+        this.layout = layout;
+        slots = layout != null ? new PhiObject[layout.size()] : null;
     }
 
     public PhiScope(PhiCollection parentScope){
+        this(parentScope, null);
+    }
+
+    public PhiScope(PhiCollection parentScope, ScopeLayout layout){
+        this(layout);
         setParentScope(parentScope);
     }
 
+    /**
+     * Sets the scope in which variables are looked up if they are not declared in this scope. Unlike a superclass,
+     * the parent scope does not require a 'super' list to be allocated for every scope.
+     */
     public void setParentScope(PhiCollection parentScope){
         this.parentScope = parentScope;
-        try {
-            PhiCollection superClassList = new PhiCollection();
-            superClassList.createMember(new PhiInt(0));
-            superClassList.setUnnamed(0, parentScope);
-            super.setNamed("super", superClassList);
-        }catch(PhiException e){
-            e.printStackTrace();
+    }
+
+    public PhiCollection getParentScope(){
+        return parentScope;
+    }
+
+    public ScopeLayout getLayout(){
+        return layout;
+    }
+
+    /**
+     * Returns the scope that lies {@code depth} levels above the given scope, provided that it is a PhiScope with the
+     * given layout. If the scope chain does not have the expected structure, null is returned and the caller has to
+     * fall back to accessing the variable by name.
+     * @param scope The scope to start from.
+     * @param depth The number of parent scopes to skip.
+     * @param layout The expected layout of the requested scope.
+     * @return The requested scope or null.
+     */
+    public static PhiScope getEnclosingScope(PhiCollection scope, int depth, ScopeLayout layout){
+        for(int i = 0; i < depth; i++){
+            if(!(scope instanceof PhiScope))
+                return null;
+            scope = ((PhiScope) scope).parentScope;
+        }
+        if(scope instanceof PhiScope && ((PhiScope) scope).layout == layout)
+            return (PhiScope) scope;
+        else
+            return null;
+    }
+
+    /**
+     * Returns the value stored in a slot, or null if the variable of the slot has not been declared yet.
+     */
+    public PhiObject getSlot(int slot){
+        return slots[slot];
+    }
+
+    public void setSlot(int slot, PhiObject value){
+        slots[slot] = value;
+    }
+
+    /**
+     * Declares the variable of a slot. This is the equivalent of {@code createMember()} for slots.
+     */
+    public void declareSlot(int slot){
+        if(slots[slot] == null)
+            slots[slot] = PhiNull.NULL;
+    }
+
+    @Override
+    protected PhiObject getOwnNamed(String key) {
+        int slot = layout != null ? layout.indexOf(key) : -1;
+        if(slot >= 0)
+            return slots[slot];
+        return super.getOwnNamed(key);
+    }
+
+    @Override
+    protected boolean setOwnNamed(String key, PhiObject value) {
+        int slot = layout != null ? layout.indexOf(key) : -1;
+        if(slot >= 0){
+            if(slots[slot] == null)
+                return false;
+            slots[slot] = value;
+            return true;
+        }
+        return super.setOwnNamed(key, value);
+    }
+
+    @Override
+    protected void createOwnNamed(String key) {
+        int slot = layout != null ? layout.indexOf(key) : -1;
+        if(slot >= 0)
+            declareSlot(slot);
+        else
+            super.createOwnNamed(key);
+    }
+
+    @Override
+    public Set<String> memberNames() {
+        if(layout == null)
+            return super.memberNames();
+
+        Set<String> names = new HashSet<>(super.memberNames());
+        for(int i = 0; i < slots.length; i++){
+            if(slots[i] != null)
+                names.add(layout.getName(i));
         }
+        return names;
     }
 
     @Override
@@ -43,4 +150,17 @@ public class PhiScope extends PhiCollection{
         }
         super.setNamed(key, value);
     }
+
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        PhiScope cloned = (PhiScope) super.clone();
+        if(slots != null){
+            cloned.slots = new PhiObject[slots.length];
+            for(int i = 0; i < slots.length; i++){
+                if(slots[i] != null)
+                    cloned.slots[i] = (PhiObject) slots[i].clone();
+            }
+        }
+        return cloned;
+    }
 }
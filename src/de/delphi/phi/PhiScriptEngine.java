@@ -1,22 +1,140 @@
 package de.delphi.phi;
 
+import de.delphi.phi.data.PhiNull;
+import de.delphi.phi.data.PhiObject;
+import de.delphi.phi.parser.Parser;
+import de.delphi.phi.parser.ast.Expression;
+import de.delphi.phi.vm.Chunk;
+import de.delphi.phi.vm.ClosureCompiler;
+import de.delphi.phi.vm.Compiler;
+import de.delphi.phi.vm.TieredCompilation;
+import de.delphi.phi.vm.VirtualMachine;
+
 import javax.script.*;
+import java.io.IOException;
 import java.io.Reader;
+import java.io.StringReader;
 
 public class PhiScriptEngine extends AbstractScriptEngine {
 
+    /**
+     * The ways in which an engine can evaluate scripts.
+     */
+    public enum Evaluator {
+        /**
+         * Evaluates the syntax tree directly. Every call of a Phi function uses several frames on the Java stack.
+         */
+        TREE_WALKING,
+
+        /**
+         * Compiles scripts to trees of Java lambdas (see ClosureCompiler), which do the same as the syntax tree
+         * without examining it on every evaluation. Calls are made on the Java stack.
+         */
+        CLOSURES,
+
+        /**
+         * Compiles scripts to bytecode, which is executed by the VirtualMachine. Calls are made on the Java stack.
+         */
+        BYTECODE,
+
+        /**
+         * Like BYTECODE, but calls between compiled functions keep their frames on the heap, so the depth of
+         * recursion is limited by the maximum stack size of the engine instead of the size of the Java stack.
+         */
+        HEAP_STACK,
+
+        /**
+         * Like BYTECODE, but functions and loops that are executed often are compiled to JVM code in the background,
+         * as configured by the TieredCompilation of the engine.
+         */
+        TIERED
+    }
+
+    /**
+     * Default maximum size of the call stack for the HEAP_STACK evaluator, in bytes
+     */
+    public static final long DEFAULT_MAX_STACK_SIZE = 64L << 20;
+
+    private final PhiScope globalScope = new PhiScope();
+
+    private volatile Evaluator evaluator = Evaluator.TREE_WALKING;
+
+    private volatile long maxStackSize = DEFAULT_MAX_STACK_SIZE;
+
+    private final TieredCompilation tieredCompilation = new TieredCompilation();
+
     /*package*/ PhiScriptEngine(){
 
     }
 
+    public Evaluator getEvaluator(){
+        return evaluator;
+    }
+
+    /**
+     * Sets the way in which this engine evaluates scripts from now on.
+     */
+    public void setEvaluator(Evaluator evaluator){
+        this.evaluator = evaluator;
+    }
+
+    public long getMaxStackSize(){
+        return maxStackSize;
+    }
+
+    /**
+     * Sets the maximum size of the call stack used by the HEAP_STACK evaluator.
+     * @param maxStackSize The maximum size in bytes. Only the frames are counted, not the values they refer to.
+     */
+    public void setMaxStackSize(long maxStackSize){
+        this.maxStackSize = maxStackSize;
+    }
+
+    /**
+     * Returns the TieredCompilation used by the TIERED evaluator, which can be used to configure the thresholds and
+     * to observe the promotions.
+     */
+    public TieredCompilation getTieredCompilation(){
+        return tieredCompilation;
+    }
+
+    private PhiObject evaluate(Expression expr) throws PhiRuntimeException {
+        switch(evaluator){
+            case CLOSURES:
+                return ClosureCompiler.compile(expr).eval(globalScope);
+            case BYTECODE:
+                return VirtualMachine.execute(Compiler.compile(expr), globalScope);
+            case HEAP_STACK:
+                return VirtualMachine.executeOnHeap(Compiler.compile(expr), globalScope, maxStackSize);
+            case TIERED: {
+                Chunk chunk = Compiler.compile(expr);
+                tieredCompilation.attach(chunk);
+                return VirtualMachine.execute(chunk, globalScope);
+            }
+            default:
+                return expr.evalAndLookUp(globalScope);
+        }
+    }
+
     @Override
     public Object eval(String script, ScriptContext context) throws ScriptException {
-        return null;
+        return eval(new StringReader(script), context);
     }
 
     @Override
     public Object eval(Reader reader, ScriptContext context) throws ScriptException {
-        return null;
+        try{
+            Parser parser = new Parser(reader);
+            PhiObject result = PhiNull.NULL;
+            do{
+                Expression expr = parser.nextExpression();
+                if(expr != null)
+                    result = evaluate(expr);
+            }while(!parser.eoi());
+            return result;
+        }catch(PhiException | IOException e){
+            throw new ScriptException(e.getMessage());
+        }
     }
 
     @Override
@@ -0,0 +1,92 @@
+package de.delphi.phi;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Describes the variables of a PhiScope that are known before the scope is created.
+ *
+ * Every variable in the layout is assigned a slot index. A PhiScope created with this layout stores the values of
+ * these variables in an array instead of in its member map, so that resolved accesses only cost an array index.
+ * Layouts are built by the Resolver while it walks the AST and are not modified afterwards.
+ */
+public class ScopeLayout {
+
+    /**
+     * Names of the variables, indexed by slot
+     */
+    private final ArrayList<String> names = new ArrayList<>();
+
+    /**
+     * Maps variable names to their slots
+     */
+    private final HashMap<String, Integer> slots = new HashMap<>();
+
+    /**
+     * Whether variables whose names are only known at runtime are declared in scopes with this layout
+     */
+    private boolean dynamic;
+
+    /**
+     * Whether temporary members are created in scopes with this layout, e.g. by QuoteExpr
+     */
+    private boolean temporaries;
+
+    /**
+     * Adds a variable to this layout, if it is not part of it already.
+     * @param name The name of the variable.
+     * @return The slot of the variable.
+     */
+    public int declare(String name){
+        Integer slot = slots.get(name);
+        if(slot == null){
+            slot = names.size();
+            names.add(name);
+            slots.put(name, slot);
+        }
+        return slot;
+    }
+
+    /**
+     * Returns the slot of the given variable, or -1 if the variable is not part of this layout.
+     * @param name The name of the variable.
+     */
+    public int indexOf(String name){
+        Integer slot = slots.get(name);
+        return slot != null ? slot : -1;
+    }
+
+    /**
+     * Returns the name of the variable stored in the given slot.
+     */
+    public String getName(int slot){
+        return names.get(slot);
+    }
+
+    public void markDynamic(){
+        dynamic = true;
+    }
+
+    public boolean isDynamic(){
+        return dynamic;
+    }
+
+    public void markTemporaries(){
+        temporaries = true;
+    }
+
+    /**
+     * Returns true if scopes with this layout never contain any members. Such scopes do not need to be created,
+     * the expression can be evaluated in its parent scope instead.
+     */
+    public boolean isEmpty(){
+        return names.isEmpty() && !dynamic && !temporaries;
+    }
+
+    /**
+     * Returns the number of slots in this layout.
+     */
+    public int size(){
+        return names.size();
+    }
+}
@@ -0,0 +1,179 @@
+package de.delphi.phi.data;
+
+import de.delphi.phi.PhiRuntimeException;
+import de.delphi.phi.parser.ast.FunctionBody;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+
+/**
+ * Inline cache for the functions called at one place in a program.
+ *
+ * Before a function can be called, the arguments have to be assigned to its parameters, which means looking up the
+ * names of named arguments and checking that every parameter gets a value. The cache remembers these bindings for
+ * the function bodies it has seen, so calls of these functions skip the checks and pass the arguments directly
+ * instead of collecting them in a PhiCollection first.
+ *
+ * Functions are identified by their body, because all functions created by the same definition share it. A cache
+ * that has seen more than {@code MAX_ENTRIES} different bodies is megamorphic and computes the binding for every call.
+ *
+ * Entries are never modified, only replaced, so concurrent calls can at worst evict each other's entries.
+ */
+public final class CallCache {
+
+    /**
+     * Maximum number of entries before the cache becomes megamorphic
+     */
+    static final int MAX_ENTRIES = 4;
+
+    private static final Entry[] NO_ENTRIES = new Entry[0];
+
+    private static final class Entry {
+
+        final FunctionBody body;
+
+        final ParameterBinding binding;
+
+        Entry(FunctionBody body, ParameterBinding binding){
+            this.body = body;
+            this.binding = binding;
+        }
+    }
+
+    /**
+     * Names of the arguments at the call site, or null for unnamed arguments
+     */
+    private final String[] argumentNames;
+
+    /**
+     * Cached entries, or null if the cache is megamorphic
+     */
+    private volatile Entry[] entries = NO_ENTRIES;
+
+    /**
+     * The body of the functions called from this call site, and whether functions with other bodies have been called
+     * as well. One of the functions is kept as an example, but only weakly, because it holds on to its creation
+     * scope, which would otherwise stay reachable as long as the program. All of these are only used for
+     * speculation, so lost updates are harmless.
+     */
+    private FunctionBody targetBody;
+    private WeakReference<PhiFunction> target;
+    private boolean multipleTargets;
+
+    public CallCache(String[] argumentNames){
+        this.argumentNames = argumentNames;
+    }
+
+    /**
+     * Creates a cache for a call site with only unnamed arguments.
+     */
+    public CallCache(int numArguments){
+        this(new String[numArguments]);
+    }
+
+    /**
+     * Returns whether the cache has seen too many functions and computes the binding for every call.
+     */
+    public boolean isMegamorphic(){
+        return entries == null;
+    }
+
+    /**
+     * Returns a function that has been called from this call site, if all functions called here share its body.
+     * Returns null if no functions or functions with different bodies have been called, or if the function is no
+     * longer reachable.
+     */
+    public PhiFunction getMonomorphicTarget(){
+        WeakReference<PhiFunction> target = this.target;
+        return multipleTargets || target == null ? null : target.get();
+    }
+
+    /**
+     * Returns the bodies of the functions that have been called from this call site, or an empty array if the
+     * cache is megamorphic.
+     */
+    public FunctionBody[] getTargets(){
+        Entry[] entries = this.entries;
+        if(entries == null)
+            return new FunctionBody[0];
+
+        FunctionBody[] targets = new FunctionBody[entries.length];
+        for(int i = 0; i < entries.length; i++)
+            targets[i] = entries[i].body;
+        return targets;
+    }
+
+    /**
+     * Calls a function with the given arguments.
+     * @param function The function to call.
+     * @param arguments The values of the arguments, in the order of the argument names.
+     * @return The result of the call.
+     * @throws PhiRuntimeException If the arguments do not match the parameters or the call fails.
+     */
+    public PhiObject call(PhiFunction function, PhiObject[] arguments) throws PhiRuntimeException{
+        return function.call(arguments, getBinding(function));
+    }
+
+    /**
+     * Prepares a call in tail position, which is performed by the caller of the calling function.
+     * @param function The function to call.
+     * @param arguments The values of the arguments, in the order of the argument names.
+     * @return The call, to be returned as the result of the calling function.
+     * @throws PhiRuntimeException If the arguments do not match the parameters.
+     */
+    public TailCall tailCall(PhiFunction function, PhiObject[] arguments) throws PhiRuntimeException{
+        return new TailCall(function, arguments, getBinding(function));
+    }
+
+    /**
+     * Returns the binding of the arguments at this call site to the parameters of a function.
+     * @param function The function to call.
+     * @return The binding, which is accepted by the parameter list of the function.
+     * @throws PhiRuntimeException If the arguments do not match the parameters.
+     */
+    public ParameterBinding getBinding(PhiFunction function) throws PhiRuntimeException{
+        FunctionBody body = function.getBody();
+        ParameterList parameters = function.getParameterList();
+
+        if(body != targetBody){
+            if(targetBody == null)
+                targetBody = body;
+            else
+                multipleTargets = true;
+        }
+        if(!multipleTargets && (target == null || target.get() == null))
+            target = new WeakReference<>(function);
+
+        Entry[] entries = this.entries;
+        if(entries == null)
+            return parameters.bind(argumentNames);
+        for(Entry entry: entries){
+            if(entry.body == body && parameters.accepts(entry.binding))
+                return entry.binding;
+        }
+
+        ParameterBinding binding = parameters.bind(argumentNames);
+        addEntry(new Entry(body, binding));
+        return binding;
+    }
+
+    private void addEntry(Entry entry){
+        Entry[] entries = this.entries;
+        if(entries == null)
+            return;
+
+        //Functions with computed parameter names can have different bindings for the same body
+        Entry[] next = new Entry[entries.length + 1];
+        int count = 0;
+        for(Entry other: entries){
+            if(other.body != entry.body)
+                next[count++] = other;
+        }
+        next[count++] = entry;
+
+        if(count > MAX_ENTRIES)
+            this.entries = null;
+        else
+            this.entries = Arrays.copyOf(next, count);
+    }
+}
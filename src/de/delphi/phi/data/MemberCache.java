@@ -0,0 +1,209 @@
+package de.delphi.phi.data;
+
+import de.delphi.phi.PhiRuntimeException;
+
+import java.util.Arrays;
+
+/**
+ * Inline cache for the lookup of a named member at one place in a program, e.g. {@code obj.field}.
+ *
+ * For every shape of the collections it has seen, the cache remembers in which collection the member was found and
+ * at which index. As long as a collection has one of these shapes, the member is loaded from that index without
+ * searching the collection and its superclasses. Members that were found in a superclass are only used as long as
+ * the collection has the same superclass list and no inheritance structure has changed in the meantime.
+ *
+ * Lookups that can not be cached, e.g. of special members, of members of scopes or of collections that do not use
+ * shapes, are performed with {@code getNamed()}. A cache that has seen more than {@code MAX_ENTRIES} different
+ * shapes is megamorphic and stops caching.
+ *
+ * Entries are never modified, only replaced, so concurrent lookups can at worst evict each other's entries.
+ */
+public final class MemberCache {
+
+    /**
+     * Maximum number of entries before the cache becomes megamorphic
+     */
+    static final int MAX_ENTRIES = 4;
+
+    private static final Entry[] NO_ENTRIES = new Entry[0];
+
+    /**
+     * Describes where the member is found for collections of one shape.
+     */
+    public static final class Entry {
+
+        final Shape shape;
+
+        /**
+         * Index of the member in the collection that stores it
+         */
+        final int index;
+
+        /**
+         * Superclass that stores the member, or null if it is stored in the collection itself
+         */
+        final PhiCollection owner;
+
+        /**
+         * Superclass list of the collection and its index, if the member is stored in a superclass
+         */
+        final PhiCollection superClasses;
+        final int superIndex;
+
+        /**
+         * Inheritance version at the time the owner was searched
+         */
+        final int version;
+
+        Entry(Shape shape, int index, PhiCollection owner, PhiCollection superClasses, int superIndex, int version){
+            this.shape = shape;
+            this.index = index;
+            this.owner = owner;
+            this.superClasses = superClasses;
+            this.superIndex = superIndex;
+            this.version = version;
+        }
+
+        public Shape getShape(){
+            return shape;
+        }
+
+        /**
+         * Returns the index of the member in the shape of the collection that stores it.
+         */
+        public int getIndex(){
+            return index;
+        }
+
+        /**
+         * Returns the superclass that stores the member, or null if it is stored in the collection itself. In that
+         * case, the entry is only valid while the inheritance version equals {@code getVersion()} and the
+         * collection has the superclass list {@code getSuperClasses()} at {@code getSuperIndex()}.
+         */
+        public PhiCollection getOwner(){
+            return owner;
+        }
+
+        public PhiCollection getSuperClasses(){
+            return superClasses;
+        }
+
+        public int getSuperIndex(){
+            return superIndex;
+        }
+
+        public int getVersion(){
+            return version;
+        }
+    }
+
+    private final String name;
+
+    /**
+     * Cached entries, or null if the cache is megamorphic
+     */
+    private volatile Entry[] entries;
+
+    public MemberCache(String name){
+        this.name = name;
+
+        //Special members are computed by getNamed() every time
+        if(name.equals("this") || name.equals("length") || name.equals("super"))
+            entries = null;
+        else
+            entries = NO_ENTRIES;
+    }
+
+    public String getName(){
+        return name;
+    }
+
+    /**
+     * Returns whether the cache has seen too many shapes and always performs a full lookup.
+     */
+    public boolean isMegamorphic(){
+        return entries == null;
+    }
+
+    /**
+     * Returns the only entry of the cache, or null if it has seen no or several shapes. The entry describes the
+     * members of all collections that have been accessed here so far.
+     */
+    public Entry getMonomorphicEntry(){
+        Entry[] entries = this.entries;
+        return entries != null && entries.length == 1 ? entries[0] : null;
+    }
+
+    /**
+     * Returns the value of the member in the given object. This is equivalent to {@code obj.getNamed(getName())}.
+     * @param obj The object containing the member.
+     * @return The value of the member.
+     * @throws PhiRuntimeException If the member can not be accessed.
+     */
+    public PhiObject get(PhiObject obj) throws PhiRuntimeException{
+        Entry[] entries = this.entries;
+        if(entries == null || obj.getClass() != PhiCollection.class)
+            return obj.getNamed(name);
+
+        PhiCollection collection = (PhiCollection) obj;
+        Shape shape = collection.getShape();
+        for(Entry entry: entries){
+            if(entry.shape != shape)
+                continue;
+
+            if(entry.owner == null)
+                return collection.getNamedValue(entry.index);
+            if(entry.version == PhiCollection.getInheritanceVersion()
+                    && collection.getNamedValue(entry.superIndex) == entry.superClasses)
+                return entry.owner.getNamedValue(entry.index);
+        }
+        return miss(collection, shape);
+    }
+
+    private PhiObject miss(PhiCollection collection, Shape shape) throws PhiRuntimeException{
+        //Read the version before searching, so changes during the search invalidate the entry
+        int version = PhiCollection.getInheritanceVersion();
+        PhiCollection owner = collection.findCacheableOwner(name);
+        if(owner == null)
+            return collection.getNamed(name);
+
+        Entry entry;
+        if(owner == collection){
+            entry = new Entry(shape, shape.indexOf(name), null, null, -1, version);
+        }else{
+            int superIndex = shape.indexOf("super");
+            PhiCollection superClasses = (PhiCollection) collection.getNamedValue(superIndex);
+            entry = new Entry(shape, owner.getShape().indexOf(name), owner, superClasses, superIndex, version);
+        }
+        addEntry(entry);
+
+        return (entry.owner != null ? entry.owner : collection).getNamedValue(entry.index);
+    }
+
+    private void addEntry(Entry entry){
+        Entry[] entries = this.entries;
+        if(entries == null)
+            return;
+
+        //Drop entries that are replaced by the new one or belong to an outdated inheritance structure
+        Entry[] next = new Entry[entries.length + 1];
+        int count = 0;
+        for(Entry other: entries){
+            boolean replaced = other.shape == entry.shape && other.superClasses == entry.superClasses;
+            boolean outdated = other.owner != null && other.version != entry.version;
+            if(!replaced && !outdated)
+                next[count++] = other;
+        }
+        next[count++] = entry;
+
+        if(count > MAX_ENTRIES)
+            this.entries = null;
+        else
+            this.entries = Arrays.copyOf(next, count);
+    }
+
+    @Override
+    public String toString(){
+        return name;
+    }
+}
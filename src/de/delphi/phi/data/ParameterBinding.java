@@ -0,0 +1,36 @@
+package de.delphi.phi.data;
+
+/**
+ * Describes how the arguments of a call are assigned to the parameters of a function.
+ *
+ * A binding is computed once by {@code ParameterList.bind()}, which also checks that every parameter gets a value.
+ * It can then be used for all calls with the same argument names to functions with the same parameters, which
+ * write the arguments and default values straight into the scope of the call.
+ */
+public final class ParameterBinding {
+
+    /**
+     * Parameters of the functions this binding was computed for
+     */
+    final String[] names;
+    final boolean[] availableValues;
+
+    /**
+     * Index of each argument that is used and the index of the parameter it is assigned to, in the order the
+     * assignments are made
+     */
+    final int[] arguments, parameters;
+
+    /**
+     * Indices of the parameters that do not get an argument and are set to their default values
+     */
+    final int[] defaults;
+
+    ParameterBinding(String[] names, boolean[] availableValues, int[] arguments, int[] parameters, int[] defaults){
+        this.names = names;
+        this.availableValues = availableValues;
+        this.arguments = arguments;
+        this.parameters = parameters;
+        this.defaults = defaults;
+    }
+}
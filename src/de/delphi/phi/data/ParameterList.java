@@ -1,11 +1,15 @@
 package de.delphi.phi.data;
 
+import de.delphi.phi.PhiAccessException;
 import de.delphi.phi.PhiArgumentException;
 import de.delphi.phi.PhiRuntimeException;
 import de.delphi.phi.PhiScope;
+import de.delphi.phi.ScopeLayout;
 import de.delphi.phi.parser.PhiInternalException;
 
+import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Represents the list of parameters that a PhiFunction accepts.
@@ -15,38 +19,112 @@ public class ParameterList {
     /**
      * Names of the parameters
      */
-    private String[] names;
+    private final String[] names;
 
     /**
-     * Default values of the parameters, if provided
+     * Default values of the parameters, or null for parameters without default value
      */
-    private PhiScope defaultValues;
+    private final PhiObject[] defaultValues;
 
     /**
      * stores which names have default values associated with them. Used to check if a function call has a value for
      * every parameter.
      */
-    private boolean[] availableValues;
+    private final boolean[] availableValues;
+
+    /**
+     * Layout of the scope created by supplyParameters(), or null if the parameters are stored by name.
+     */
+    private final ScopeLayout layout;
+
+    /**
+     * Slot of each parameter in the layout, or -1 if the parameter is stored by name
+     */
+    private final int[] slots;
+
+    /**
+     * Symbols used to declare the parameters that are stored by name
+     */
+    private final PhiSymbol[] symbols;
 
     public ParameterList(List<String> names, PhiScope defaultValues){
-        this.names = names.toArray(new String[0]);
-        this.defaultValues = defaultValues;
+        this(names, defaultValues, null);
+    }
+
+    public ParameterList(List<String> names, PhiScope defaultValues, ScopeLayout layout){
+        this(names.toArray(new String[0]), toArray(names, defaultValues), layout);
+    }
 
-        availableValues = new boolean[this.names.length];
-        for(String name: defaultValues.memberNames()){
-            availableValues[indexOf(name)] = true;
+    /**
+     * Creates a parameter list.
+     * @param names The names of the parameters.
+     * @param defaultValues The default value of each parameter, or null for parameters without default value.
+     * @param layout The layout of the scope in which the parameters are stored, or null to store them by name.
+     */
+    public ParameterList(String[] names, PhiObject[] defaultValues, ScopeLayout layout){
+        this.names = names;
+        this.layout = layout;
+
+        availableValues = new boolean[names.length];
+        for(int i = 0; i < names.length; i++){
+            if(defaultValues[i] != null)
+                availableValues[indexOf(names[i])] = true;
+        }
+        this.defaultValues = withIndicesOfNames(defaultValues);
+
+        slots = new int[names.length];
+        symbols = new PhiSymbol[names.length];
+        for(int i = 0; i < names.length; i++){
+            slots[i] = layout != null ? layout.indexOf(names[i]) : -1;
+            if(slots[i] < 0)
+                symbols[i] = new PhiSymbol(names[i]);
         }
     }
 
     /**
-     * Returns a copy of the default values. This can be used as the scope of the function call.
+     * Creates a parameter list that shares everything but the default values with a template.
      */
-    public PhiScope getDefaultValues(){
-        try {
-            return (PhiScope) defaultValues.clone();
-        }catch(CloneNotSupportedException e){
+    private ParameterList(ParameterList template, PhiObject[] defaultValues){
+        names = template.names;
+        availableValues = template.availableValues;
+        layout = template.layout;
+        slots = template.slots;
+        symbols = template.symbols;
+        this.defaultValues = withIndicesOfNames(defaultValues);
+    }
+
+    private static PhiObject[] toArray(List<String> names, PhiScope defaultValues){
+        PhiObject[] values = new PhiObject[names.size()];
+        try{
+            for(String name: defaultValues.memberNames())
+                values[names.indexOf(name)] = defaultValues.getNamed(name);
+        }catch(PhiAccessException e){
             throw new PhiInternalException(e);
         }
+        return values;
+    }
+
+    /**
+     * Moves default values to the first parameter with the same name, which is the one that named arguments are
+     * assigned to.
+     */
+    private PhiObject[] withIndicesOfNames(PhiObject[] defaultValues){
+        PhiObject[] values = new PhiObject[names.length];
+        for(int i = 0; i < names.length; i++){
+            if(defaultValues[i] != null)
+                values[indexOf(names[i])] = defaultValues[i];
+        }
+        return values;
+    }
+
+    /**
+     * Returns a parameter list with the same parameters as this one, but different default values. Functions that
+     * are created by the same definition can share everything else.
+     * @param defaultValues The default value of each parameter. Values must be given for the same parameters as
+     *                      for this list.
+     */
+    public ParameterList withDefaultValues(PhiObject[] defaultValues){
+        return new ParameterList(this, defaultValues);
     }
 
     /**
@@ -73,37 +151,121 @@ public class ParameterList {
      * @throws PhiRuntimeException If too few, too many or wrong parameters are supplied.
      */
     public PhiScope supplyParameters(PhiCollection params) throws PhiRuntimeException {
-        if(params.getLength().longValue() > names.length)
+        int numUnnamed = (int) params.getLength().longValue();
+        if(numUnnamed > names.length)
             throw new PhiArgumentException("Too many parameters.");
 
-        boolean[] valueSupplied = availableValues.clone();
-        PhiScope values = getDefaultValues();
+        Set<String> namedParams = params.memberNames();
+        String[] argumentNames = new String[numUnnamed + namedParams.size()];
+        PhiObject[] arguments = new PhiObject[argumentNames.length];
+        for(int i = 0; i < numUnnamed; i++)
+            arguments[i] = params.getUnnamed(i);
+        int index = numUnnamed;
+        for(String name: namedParams){
+            argumentNames[index] = name;
+            arguments[index] = params.getNamed(name);
+            index++;
+        }
+
+        return supplyParameters(arguments, bind(argumentNames));
+    }
 
-        //Set with unnamed values
-        int numSuppliedParams = (int) params.getLength().longValue();
-        for(int i = 0; i < names.length; i++){
-            values.createMember(new PhiSymbol(names[i]));
-            if(i < numSuppliedParams) {
-                values.setNamed(names[i], params.getUnnamed(i));
-                valueSupplied[i] = true;
+    /**
+     * Computes how the arguments of a call are assigned to the parameters and which parameters get their default
+     * values. The unnamed arguments are assigned in order first, then the named arguments are assigned, overriding
+     * unnamed ones.
+     * @param argumentNames The names of the arguments, or null for unnamed arguments.
+     * @return The binding of the arguments.
+     * @throws PhiRuntimeException If too few, too many or wrong parameters are supplied.
+     */
+    public ParameterBinding bind(String[] argumentNames) throws PhiRuntimeException {
+        int numUnnamed = 0;
+        for(String name: argumentNames){
+            if(name == null)
+                numUnnamed++;
+        }
+        if(numUnnamed > names.length)
+            throw new PhiArgumentException("Too many parameters.");
+
+        boolean[] valueSupplied = new boolean[names.length];
+        int[] arguments = new int[argumentNames.length];
+        int[] parameters = new int[argumentNames.length];
+        int count = 0;
+
+        //Bind unnamed values
+        for(int i = 0; i < argumentNames.length; i++){
+            if(argumentNames[i] == null){
+                arguments[count] = i;
+                parameters[count] = count;
+                valueSupplied[count] = true;
+                count++;
             }
         }
 
-        //Set with named values
-        for(String name: params.memberNames()){
-            int index = indexOf(name);
-            if(index >= 0) {
-                values.setNamed(name, params.getNamed(name));
+        //Bind named values
+        for(int i = 0; i < argumentNames.length; i++){
+            if(argumentNames[i] != null){
+                int index = indexOf(argumentNames[i]);
+                if(index < 0)
+                    throw new PhiArgumentException("Parameter " + argumentNames[i] + " does not exist.");
+                arguments[count] = i;
+                parameters[count] = index;
                 valueSupplied[index] = true;
-            }else
-                throw new PhiArgumentException("Parameter " + name + " does not exist.");
+                count++;
+            }
         }
 
+        //Parameters without an argument get their default values
+        int numDefaults = 0;
+        int[] defaults = new int[names.length];
         for(int i = 0; i < names.length; i++){
-            if(!valueSupplied[i])
+            if(valueSupplied[i])
+                continue;
+            if(!availableValues[i])
                 throw new PhiArgumentException("Missing value for parameter " + names[i]);
+            defaults[numDefaults++] = i;
         }
 
+        return new ParameterBinding(names, availableValues, arguments, parameters, Arrays.copyOf(defaults, numDefaults));
+    }
+
+    /**
+     * Returns whether a binding that was computed by bind() of another parameter list can be used for this one,
+     * i.e. whether both have the same parameters and default values for the same parameters.
+     */
+    public boolean accepts(ParameterBinding binding){
+        return (binding.names == names || Arrays.equals(binding.names, names))
+                && (binding.availableValues == availableValues || Arrays.equals(binding.availableValues, availableValues));
+    }
+
+    /**
+     * Creates a scope from the names in this ParameterList and the given arguments. The arguments are stored
+     * directly in the slots of the parameters.
+     * @param arguments The values of the arguments.
+     * @param binding The binding of the arguments, which must be accepted by this ParameterList.
+     * @return A PhiScope in which the parameter names are associated with the given values.
+     * @throws PhiRuntimeException If the scope can not be set up.
+     */
+    public PhiScope supplyParameters(PhiObject[] arguments, ParameterBinding binding) throws PhiRuntimeException {
+        PhiScope values = new PhiScope(layout);
+        try{
+            for(int parameter: binding.defaults)
+                supply(values, parameter, (PhiObject) defaultValues[parameter].clone());
+        }catch(CloneNotSupportedException e){
+            throw new PhiInternalException(e);
+        }
+        for(int i = 0; i < binding.arguments.length; i++)
+            supply(values, binding.parameters[i], arguments[binding.arguments[i]]);
         return values;
     }
+
+    private void supply(PhiScope values, int parameter, PhiObject value) throws PhiRuntimeException {
+        int slot = slots[parameter];
+        if(slot >= 0){
+            values.setSlot(slot, value);
+        }else{
+            values.createMember(symbols[parameter]);
+            values.setNamed(names[parameter], value);
+        }
+    }
 }
@@ -6,10 +6,8 @@ import de.delphi.phi.PhiStructureException;
 import de.delphi.phi.PhiTypeException;
 import de.delphi.phi.parser.PhiInternalException;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Set;
-import java.util.Stack;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Represents a collection.
@@ -28,15 +26,55 @@ import java.util.Stack;
 public class PhiCollection extends PhiObject {
 
     /**
-     * Initial capacity of the unnamed members array
+     * Capacity of the unnamed members array when the first unnamed member is created
      */
     private static final int INITIAL_CAPACITY = 16;
 
     /**
-     * Map that contains all named members i.e members defined by a symbol instead of an index:
+     * Shared array for collections without unnamed members. Many collections, especially scopes, never
+     * create an unnamed member, so the array is only allocated when it is needed.
+     */
+    private static final PhiObject[] NO_MEMBERS = new PhiObject[0];
+
+    /**
+     * Counter that changes whenever the result of a member lookup in a superclass might change. This happens when
+     * a superclass list is modified or a collection that has been searched as a superclass by a MemberCache
+     * gets new members.
+     */
+    private static final AtomicInteger inheritanceVersion = new AtomicInteger();
+
+    /**
+     * Marker for member lookups that can not be cached
+     */
+    private static final PhiCollection NOT_CACHEABLE = new PhiCollection();
+
+    /**
+     * Capacity of the named values array when the first named member is created
+     */
+    private static final int INITIAL_NAMED_CAPACITY = 4;
+
+    /**
+     * Shape describing the named members i.e members defined by a symbol instead of an index:
      * var coll.alpha = 25
+     * If this is null, the collection has become too dynamic for shapes and stores its named members in the
+     * dictionary instead.
      */
-    protected HashMap<String, PhiObject> namedMembers;
+    private Shape shape;
+
+    /**
+     * Values of the named members, at the indices given by the shape
+     */
+    private PhiObject[] namedValues;
+
+    /**
+     * Number of shapes this collection has created, because no other collection had added the same members before
+     */
+    private int createdShapes;
+
+    /**
+     * Map that contains all named members, if the collection does not use a shape
+     */
+    private HashMap<String, PhiObject> dictionary;
 
     /**
      * Array that contains all unnamed members
@@ -64,7 +102,16 @@ public class PhiCollection extends PhiObject {
      */
     private int isSuperClassCollectionOf;
 
-    private PhiCollection parentScope;
+    /**
+     * Whether a MemberCache has searched this collection as a superclass. Changes to the named members of such a
+     * collection change the inheritance version.
+     */
+    private boolean isCachedSuperClass;
+
+    /**
+     * Collection in which members are looked up if they are not found in this collection or its superclasses
+     */
+    protected PhiCollection parentScope;
 
     public PhiCollection(){
         this(null,false);
@@ -81,8 +128,9 @@ public class PhiCollection extends PhiObject {
     private PhiCollection(PhiCollection parentScope, boolean isSuperClassCollection){
         this.parentScope = parentScope;
         isSuperClassCollectionOf = isSuperClassCollection ? 1:0;
-        namedMembers = new HashMap<>();
-        unnamedMembers = new PhiObject[INITIAL_CAPACITY];
+        shape = Shape.EMPTY;
+        namedValues = NO_MEMBERS;
+        unnamedMembers = NO_MEMBERS;
     }
 
     @Override
@@ -92,13 +140,14 @@ public class PhiCollection extends PhiObject {
 
     @Override
     public String toString() {
-        int numStrings = length + namedMembers.size();
+        Set<String> names = memberNames();
+        int numStrings = length + names.size();
         ArrayList<String> strings = new ArrayList<>(numStrings);
         for(int i = 0; i < length; i++) {
             strings.add(unnamedMembers[i].toString());
         }
-        for(String key: namedMembers.keySet()){
-            strings.add(key + " = " + namedMembers.get(key).toString());
+        for(String key: names){
+            strings.add(key + " = " + getStoredNamed(key).toString());
         }
         StringBuilder sb = new StringBuilder();
         sb.append('[');
@@ -152,7 +201,7 @@ public class PhiCollection extends PhiObject {
 
             //Increase capacity if necessary
             if(index >= unnamedMembers.length){
-                int newCapacity = Math.max(index + 1, 2 * unnamedMembers.length);
+                int newCapacity = Math.max(index + 1, Math.max(INITIAL_CAPACITY, 2 * unnamedMembers.length));
                 setCapacity(newCapacity);
             }
             //Initialize new members to PhiNull
@@ -160,15 +209,15 @@ public class PhiCollection extends PhiObject {
                 unnamedMembers[i] = PhiNull.NULL;
 
             length = index + 1;
+            if(isSuperClassCollectionOf > 0)
+                inheritanceVersion.incrementAndGet();
         }
         else if(key.getType() == Type.SYMBOL){
             String symbolName = key.toString();
             if(symbolName.equals("this") || symbolName.equals("length") || symbolName.equals("super"))
                 throw new PhiAccessException("Cannot create reserved symbol " + symbolName);
 
-            if(!namedMembers.containsKey(symbolName)){
-                namedMembers.put(symbolName, PhiNull.NULL);
-            }
+            createOwnNamed(symbolName);
         }
         else {
             throw new PhiTypeException("Key must be of type INT or SYMBOL");
@@ -224,6 +273,185 @@ public class PhiCollection extends PhiObject {
             return result;
     }
 
+    /**
+     * Retrieves an unnamed member at an index that is known to be valid, without checking it. Only collections
+     * with superclasses are searched like in {@code getUnnamed()}.
+     * @param index The index of the requested unnamed member, with 0 <= index < getLength().
+     * @return The unnamed member at the given index.
+     */
+    public PhiObject getElement(int index) throws PhiAccessException{
+        //Without superclasses, the length is the number of members in this collection
+        if(!hasSuperClassCollection)
+            return unnamedMembers[index];
+        return getUnnamed(index);
+    }
+
+    /**
+     * Returns a named member that is stored directly in this collection, without considering superclasses, the
+     * parent scope or special members.
+     * @param key The name of the member.
+     * @return The member with the given name or null if this collection does not contain it.
+     */
+    protected PhiObject getOwnNamed(String key){
+        return getStoredNamed(key);
+    }
+
+    /**
+     * Sets a named member that is stored directly in this collection, without considering superclasses, the
+     * parent scope or special members.
+     * @param key The name of the member.
+     * @param value The new value of the member.
+     * @return true if the member exists and has been set, false otherwise.
+     */
+    protected boolean setOwnNamed(String key, PhiObject value){
+        if(getStoredNamed(key) != null){
+            putStoredNamed(key, value);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Creates a named member directly in this collection and initializes it to NULL. Does nothing if the member
+     * already exists.
+     * @param key The name of the new member.
+     */
+    protected void createOwnNamed(String key){
+        if(getStoredNamed(key) == null){
+            putStoredNamed(key, PhiNull.NULL);
+        }
+    }
+
+    /**
+     * Returns the value of a named member stored in this collection, or null if there is none.
+     */
+    private PhiObject getStoredNamed(String key){
+        if(shape != null){
+            int index = shape.indexOf(key);
+            return index >= 0 ? namedValues[index] : null;
+        }
+        return dictionary.get(key);
+    }
+
+    /**
+     * Sets a named member stored in this collection, creating it if necessary.
+     */
+    private void putStoredNamed(String key, PhiObject value){
+        if(shape != null){
+            int index = shape.indexOf(key);
+            if(index < 0){
+                if(isCachedSuperClass)
+                    inheritanceVersion.incrementAndGet();
+
+                Shape next = shape.getTransition(key);
+                if(next == null && ++createdShapes <= Shape.MAX_CREATED_SHAPES)
+                    next = shape.addMember(key);
+                if(next == null){
+                    //Too many members or too many new shapes, this collection is better off with a map
+                    toDictionary();
+                    dictionary.put(key, value);
+                    return;
+                }
+
+                index = shape.size();
+                if(index >= namedValues.length)
+                    namedValues = Arrays.copyOf(namedValues, Math.max(INITIAL_NAMED_CAPACITY, 2 * namedValues.length));
+                shape = next;
+            }
+            namedValues[index] = value;
+        }else{
+            if(isCachedSuperClass && !dictionary.containsKey(key))
+                inheritanceVersion.incrementAndGet();
+            dictionary.put(key, value);
+        }
+    }
+
+    /**
+     * Removes a named member stored in this collection. Shapes can only grow, so the collection stops using them.
+     */
+    private void removeStoredNamed(String key){
+        if(isCachedSuperClass)
+            inheritanceVersion.incrementAndGet();
+        toDictionary();
+        dictionary.remove(key);
+    }
+
+    /**
+     * Moves the named members from the shape based storage into the dictionary.
+     */
+    private void toDictionary(){
+        if(shape == null)
+            return;
+
+        dictionary = new HashMap<>();
+        for(int i = 0; i < shape.size(); i++)
+            dictionary.put(shape.getName(i), namedValues[i]);
+        shape = null;
+        namedValues = NO_MEMBERS;
+    }
+
+    /**
+     * Returns the shape of the named members of this collection, or null if the collection stores its named members
+     * in a map because it has been too dynamic. Collections with the same shape store the same named members at the
+     * same indices.
+     */
+    public Shape getShape(){
+        return shape;
+    }
+
+    /**
+     * Returns the value of the named member at the given index of the shape of this collection.
+     */
+    public PhiObject getNamedValue(int index){
+        return namedValues[index];
+    }
+
+    /**
+     * Returns the inheritance version, which changes whenever a member is added to or removed from a superclass
+     * that has been searched by a MemberCache, or a superclass list changes.
+     */
+    public static int getInheritanceVersion(){
+        return inheritanceVersion.get();
+    }
+
+    /**
+     * Searches the collection that stores a named member in the same order as {@code getNamed()}, for use by
+     * a MemberCache. The searched superclasses are marked, so that the inheritance version changes when they get
+     * new members.
+     * @param key The name of the member.
+     * @return The collection that stores the member, or null if the member is not found or the result of the search
+     * can not be cached, because it involves scopes or collections that do not use shapes.
+     */
+    PhiCollection findCacheableOwner(String key){
+        PhiCollection owner = findCacheableOwnerRecursive(this, key);
+        return owner != NOT_CACHEABLE ? owner : null;
+    }
+
+    private static PhiCollection findCacheableOwnerRecursive(PhiCollection collection, String key){
+        //Scopes store some of their members in slots
+        if(collection.getClass() != PhiCollection.class || collection.shape == null)
+            return NOT_CACHEABLE;
+        if(collection.shape.indexOf(key) >= 0)
+            return collection;
+        if(!collection.hasSuperClassCollection)
+            return null;
+
+        PhiCollection superClasses = collection.getSuperClasses();
+        if(superClasses.getClass() != PhiCollection.class || superClasses.hasSuperClassCollection)
+            return NOT_CACHEABLE;
+        for(int i = 0; i < superClasses.length; i++){
+            PhiObject superClass = superClasses.unnamedMembers[i];
+            if(superClass.getType() != Type.COLLECTION)
+                return NOT_CACHEABLE;
+
+            ((PhiCollection) superClass).isCachedSuperClass = true;
+            PhiCollection owner = findCacheableOwnerRecursive((PhiCollection) superClass, key);
+            if(owner != null)
+                return owner;
+        }
+        return null;
+    }
+
     /**
      * Recursively access an unnamed element in the given collection. If {@code collection} contains the
      * requested element, it is returned. Otherwise, the superclasses of {@code collection} are searched
@@ -233,7 +461,7 @@ public class PhiCollection extends PhiObject {
      * @return The member with the given name or null if none is found.
      */
     private PhiObject getNamedRecursive(PhiCollection collection, String key){
-        PhiObject result = collection.namedMembers.get(key);
+        PhiObject result = collection.getOwnNamed(key);
 
         if(result == null && collection.hasSuperClassCollection){
             try {
@@ -258,12 +486,12 @@ public class PhiCollection extends PhiObject {
      * @return The superclass collection for this collection.
      */
     public PhiCollection getSuperClasses(){
-        PhiObject superClasses = namedMembers.get("super");
+        PhiObject superClasses = getStoredNamed("super");
 
         // If this is a newly created collection, create a 'super' member.
         if(superClasses == null) {
             superClasses = new PhiCollection(true);
-            namedMembers.put("super", superClasses);
+            putStoredNamed("super", superClasses);
             hasSuperClassCollection = true;
         }
         return (PhiCollection) superClasses;
@@ -348,7 +576,13 @@ public class PhiCollection extends PhiObject {
      * Returns a set containing the names of all named members
      */
     public Set<String> memberNames(){
-        return namedMembers.keySet();
+        if(shape == null)
+            return Collections.unmodifiableSet(dictionary.keySet());
+
+        Set<String> names = new LinkedHashSet<>();
+        for(int i = 0; i < shape.size(); i++)
+            names.add(shape.getName(i));
+        return names;
     }
 
     /**
@@ -481,6 +715,8 @@ public class PhiCollection extends PhiObject {
         boolean success = setUnnamedRecursive(this, index, value);
         if (!success)
             throw new PhiAccessException("Index " + index + " is out of bounds: length is " + length + ".");
+        if (isSuperClassCollectionOf > 0)
+            inheritanceVersion.incrementAndGet();
 
         //If this collection is a super class collection, do additional checks to prevent circular inheritance
         if (isSuperClassCollectionOf > 0) {
@@ -508,8 +744,7 @@ public class PhiCollection extends PhiObject {
      */
     private boolean setNamedRecursive(PhiCollection collection, String key, PhiObject value){
         //Name was found, perform the set
-        if(collection.namedMembers.containsKey(key)){
-            collection.namedMembers.put(key, value);
+        if(collection.setOwnNamed(key, value)){
             return true;
         }
         else if(collection.hasSuperClassCollection){
@@ -563,6 +798,7 @@ public class PhiCollection extends PhiObject {
 
         if(key.equals("super")){
             validateTypes(value);
+            inheritanceVersion.incrementAndGet();
 
             //Back up current state in case we have to roll it back later
             PhiCollection prevValue = null;
@@ -573,16 +809,16 @@ public class PhiCollection extends PhiObject {
 
             //Perform the set
             ((PhiCollection) value).isSuperClassCollectionOf++;
-            namedMembers.put("super", value);
+            putStoredNamed("super", value);
             hasSuperClassCollection = true;
 
             //Check if a circular inheritance was created and roll back the previous state if it was.
             boolean invalid = containsCycles((PhiCollection) value, new Stack<>());
             if(invalid){
                 if(prevValue == null)
-                    namedMembers.remove("super");
+                    removeStoredNamed("super");
                 else
-                    namedMembers.put("super", prevValue);
+                    putStoredNamed("super", prevValue);
                 hasSuperClassCollection = prevHasSuperClassCollection;
                 ((PhiCollection) value).isSuperClassCollectionOf--;
                 throw new PhiStructureException("Collection can not be it's own super class");
@@ -610,9 +846,17 @@ public class PhiCollection extends PhiObject {
             cloned.unnamedMembers[i] = (PhiObject) this.unnamedMembers[i].clone();
         }
 
-        cloned.namedMembers = new HashMap<>();
-        for(String key: namedMembers.keySet()){
-            cloned.namedMembers.put(key, (PhiObject) namedMembers.get(key).clone());
+        if(shape != null){
+            //The clone shares the shape, only the values are copied
+            cloned.namedValues = new PhiObject[this.namedValues.length];
+            for(int i = 0; i < shape.size(); i++){
+                cloned.namedValues[i] = (PhiObject) this.namedValues[i].clone();
+            }
+        }else{
+            cloned.dictionary = new HashMap<>();
+            for(String key: dictionary.keySet()){
+                cloned.dictionary.put(key, (PhiObject) dictionary.get(key).clone());
+            }
         }
 
         return cloned;
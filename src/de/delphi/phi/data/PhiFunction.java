@@ -2,7 +2,6 @@ package de.delphi.phi.data;
 
 import de.delphi.phi.PhiRuntimeException;
 import de.delphi.phi.PhiScope;
-import de.delphi.phi.parser.ast.Expression;
 import de.delphi.phi.parser.ast.FunctionBody;
 
 public class PhiFunction extends PhiObject {
@@ -29,13 +28,80 @@ public class PhiFunction extends PhiObject {
         return super.toString();
     }
 
-    public PhiObject call(PhiCollection params) throws PhiRuntimeException {
+    /**
+     * Creates a function that shares the parameters, body and creation scope of another function.
+     */
+    protected PhiFunction(PhiFunction other){
+        this(other.creationScope, other.parameterList, other.body);
+    }
+
+    public FunctionBody getBody(){
+        return body;
+    }
+
+    ParameterList getParameterList(){
+        return parameterList;
+    }
+
+    /**
+     * Returns whether a binding that has been computed for another function can be used for calls of this function.
+     */
+    public boolean accepts(ParameterBinding binding){
+        return parameterList.accepts(binding);
+    }
+
+    /**
+     * Creates the scope in which the body is executed. It contains the parameters and has the creation scope as its
+     * parent scope.
+     * @param params A collection containing values for parameters.
+     * @throws PhiRuntimeException If too few, too many or wrong parameters are supplied.
+     */
+    protected PhiScope createScope(PhiCollection params) throws PhiRuntimeException {
         PhiScope scope = parameterList.supplyParameters(params);
         scope.setParentScope(creationScope);
+        return scope;
+    }
+
+    /**
+     * Creates the scope in which the body is executed from arguments that have already been bound to the
+     * parameters.
+     * @param arguments The values of the arguments.
+     * @param binding The binding of the arguments, which must be accepted by the parameter list of this function.
+     * @throws PhiRuntimeException If the scope can not be set up.
+     */
+    protected PhiScope createScope(PhiObject[] arguments, ParameterBinding binding) throws PhiRuntimeException {
+        PhiScope scope = parameterList.supplyParameters(arguments, binding);
+        scope.setParentScope(creationScope);
+        return scope;
+    }
+
+    /**
+     * Executes the body of this function in the given scope.
+     */
+    protected PhiObject execute(PhiScope scope) throws PhiRuntimeException {
+        return body.evalAndLookUp(scope);
+    }
+
+    public PhiObject call(PhiCollection params) throws PhiRuntimeException {
+        return complete(execute(createScope(params)));
+    }
+
+    /**
+     * Calls this function with arguments that have already been bound to the parameters, e.g. by a CallCache.
+     * @param arguments The values of the arguments.
+     * @param binding The binding of the arguments, which must be accepted by the parameter list of this function.
+     * @return The result of the call.
+     * @throws PhiRuntimeException If the call fails.
+     */
+    public PhiObject call(PhiObject[] arguments, ParameterBinding binding) throws PhiRuntimeException {
+        return complete(execute(createScope(arguments, binding)));
+    }
 
-        PhiObject result = body.eval(scope);
-        result = Expression.bindAndLookUp(result, scope);
-        return result;
+    /**
+     * Makes the call in tail position that a body may have returned instead of a value.
+     */
+    private static PhiObject complete(PhiObject result) throws PhiRuntimeException {
+        return result instanceof TailCall ? ((TailCall) result).complete() : result;
     }
 
     @Override
@@ -0,0 +1,134 @@
+package de.delphi.phi.data;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+
+/**
+ * Describes the named members of a PhiCollection and the indices at which their values are stored.
+ *
+ * Collections that create the same members in the same order share a shape, so the names and the map from names to
+ * indices only exist once, while every collection only stores an array of values. Shapes form a tree: creating a
+ * member moves a collection from its shape to a child shape, which is created by the first collection that makes this
+ * transition and reused by all later ones.
+ *
+ * Apart from the transitions, shapes never change, so two collections with the same shape are guaranteed to store the
+ * same members at the same indices.
+ *
+ * Transitions are only referenced weakly, so shapes that no collection uses anymore are removed from the tree. Every
+ * shape references its parent, so the shapes leading to a shape in use stay in the tree as well.
+ */
+public final class Shape {
+
+    /**
+     * Maximum number of members of a shape. Collections with more named members do not use shapes.
+     */
+    static final int MAX_MEMBERS = 64;
+
+    /**
+     * Maximum number of shapes a single collection may create. A collection that adds members no other collection has
+     * added before that often is too dynamic to profit from shapes, e.g. because it uses computed member names. The
+     * limit is counted per collection, so that the shapes near the root, which all collections pass through, can have
+     * any number of transitions.
+     */
+    static final int MAX_CREATED_SHAPES = 16;
+
+    private static final int INITIAL_PRUNE_THRESHOLD = 8;
+
+    /**
+     * The shape of collections without named members
+     */
+    static final Shape EMPTY = new Shape(null, new String[0], new HashMap<>());
+
+    /**
+     * Names of the members, by index
+     */
+    private final String[] names;
+
+    private final HashMap<String, Integer> indices;
+
+    /**
+     * The shape this shape has been created from, or null for EMPTY. It is only referenced to keep the transitions
+     * leading to this shape in the tree.
+     */
+    private final Shape parent;
+
+    /**
+     * Shapes that result from adding a member to this shape. Guarded by this shape.
+     */
+    private HashMap<String, WeakReference<Shape>> transitions;
+
+    /**
+     * Number of transitions at which the transitions are next searched for shapes that have been removed
+     */
+    private int pruneThreshold = INITIAL_PRUNE_THRESHOLD;
+
+    private Shape(Shape parent, String[] names, HashMap<String, Integer> indices){
+        this.parent = parent;
+        this.names = names;
+        this.indices = indices;
+    }
+
+    /**
+     * Returns the index of a member, or -1 if the member is not part of this shape.
+     */
+    public int indexOf(String name){
+        Integer index = indices.get(name);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * Returns the name of the member with the given index.
+     */
+    public String getName(int index){
+        return names[index];
+    }
+
+    /**
+     * Returns the number of members of this shape.
+     */
+    public int size(){
+        return names.length;
+    }
+
+    /**
+     * Returns the shape that a collection with this shape gets when it adds a member, if some collection has made
+     * this transition before.
+     * @return The existing shape, or null if there is none.
+     */
+    synchronized Shape getTransition(String name){
+        if(transitions == null)
+            return null;
+        WeakReference<Shape> next = transitions.get(name);
+        return next != null ? next.get() : null;
+    }
+
+    /**
+     * Returns the shape of a collection with the members of this shape and an additional member at index
+     * {@code size()}, creating it if necessary.
+     * @param name The name of the new member. It must not be part of this shape yet.
+     * @return The new shape, or null if the collection should not use shapes anymore.
+     */
+    synchronized Shape addMember(String name){
+        Shape next = getTransition(name);
+        if(next != null)
+            return next;
+        if(names.length >= MAX_MEMBERS)
+            return null;
+
+        String[] nextNames = new String[names.length + 1];
+        System.arraycopy(names, 0, nextNames, 0, names.length);
+        nextNames[names.length] = name;
+        HashMap<String, Integer> nextIndices = new HashMap<>(indices);
+        nextIndices.put(name, names.length);
+
+        next = new Shape(this, nextNames, nextIndices);
+        if(transitions == null)
+            transitions = new HashMap<>();
+        transitions.put(name, new WeakReference<>(next));
+        if(transitions.size() >= pruneThreshold){
+            transitions.values().removeIf(shape -> shape.get() == null);
+            pruneThreshold = Math.max(INITIAL_PRUNE_THRESHOLD, 2 * transitions.size());
+        }
+        return next;
+    }
+}
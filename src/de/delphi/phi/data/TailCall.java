@@ -0,0 +1,69 @@
+package de.delphi.phi.data;
+
+import de.delphi.phi.PhiRuntimeException;
+import de.delphi.phi.PhiScope;
+
+/**
+ * A call in tail position that the called function leaves to its caller.
+ *
+ * When the last thing a function does is calling another function, the frame of the calling function is no longer
+ * needed. Instead of making the call, the body returns a TailCall, which is performed by {@code PhiFunction.call()}
+ * after the body has returned. This way, tail recursive functions run in constant stack space.
+ *
+ * TailCalls never leave {@code PhiFunction.call()} or the VirtualMachine, so they are never seen by Phi code.
+ */
+public final class TailCall extends PhiObject {
+
+    private final PhiFunction function;
+
+    private final PhiObject[] arguments;
+
+    private final ParameterBinding binding;
+
+    TailCall(PhiFunction function, PhiObject[] arguments, ParameterBinding binding){
+        this.function = function;
+        this.arguments = arguments;
+        this.binding = binding;
+    }
+
+    /**
+     * Returns the function that is called.
+     */
+    public PhiFunction getFunction(){
+        return function;
+    }
+
+    /**
+     * Creates the scope in which the body of the called function is executed.
+     * @throws PhiRuntimeException If the scope can not be set up.
+     */
+    public PhiScope createScope() throws PhiRuntimeException {
+        return function.createScope(arguments, binding);
+    }
+
+    /**
+     * Makes this call and all calls in tail position that it leads to, until a function returns a value. Each
+     * call is only made after the function that made it has returned, so the stack does not grow.
+     * @return The result of the last call.
+     * @throws PhiRuntimeException If one of the calls fails.
+     */
+    public PhiObject complete() throws PhiRuntimeException {
+        PhiObject result = this;
+        while(result instanceof TailCall){
+            TailCall call = (TailCall) result;
+            result = call.function.execute(call.createScope());
+        }
+        return result;
+    }
+
+    @Override
+    public Type getType() {
+        //Anything but SYMBOL, so the call passes unchanged through lookups
+        return Type.NULL;
+    }
+
+    @Override
+    public String toString() {
+        return "TailCall";
+    }
+}
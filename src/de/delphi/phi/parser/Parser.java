@@ -17,6 +17,11 @@ public class Parser {
 
     private StringBuilder errorLog;
 
+    /**
+     * Whether expressions are simplified by the ConstantFolder as they are parsed
+     */
+    private boolean constantFolding = true;
+
     public Parser(Reader in){
         lexer = new Lexer(in);
     }
@@ -25,6 +30,18 @@ public class Parser {
         lexer = new Lexer(input);
     }
 
+    /**
+     * Sets whether literal operands are folded (see ConstantFolder). If not, the expressions are returned exactly as
+     * they are written. Folding is enabled by default.
+     */
+    public void setConstantFolding(boolean constantFolding){
+        this.constantFolding = constantFolding;
+    }
+
+    private Expression fold(Expression expr){
+        return constantFolding ? ConstantFolder.fold(expr) : expr;
+    }
+
     private void consume() throws IOException{
         try {
             peek = lexer.nextToken();
@@ -84,7 +101,7 @@ public class Parser {
             consume();
             falseExpr = expression();
         }
-        return new IfExpr(condition, trueExpr, falseExpr);
+        return fold(new IfExpr(condition, trueExpr, falseExpr));
     }
 
     private Expression whileExpr() throws IOException{
@@ -268,7 +285,7 @@ public class Parser {
         if(children.size() == 1)
             return children.get(0);
         else
-            return new OrExpr(children);
+            return fold(new OrExpr(children));
     }
 
     private Expression xorExpr() throws IOException{
@@ -282,7 +299,7 @@ public class Parser {
         if(children.size() == 1)
             return children.get(0);
         else
-            return new XorExpr(children);
+            return fold(new XorExpr(children));
     }
 
     public Expression andExpr() throws IOException{
@@ -296,7 +313,7 @@ public class Parser {
         if(children.size() == 1)
             return children.get(0);
         else
-            return new AndExpr(children);
+            return fold(new AndExpr(children));
     }
 
     public Expression relExpr() throws IOException{
@@ -319,7 +336,7 @@ public class Parser {
         if(children.size() == 1)
             return children.get(0);
         else
-            return new RelationalExpr(children, operators);
+            return fold(new RelationalExpr(children, operators));
     }
 
     public Expression shiftExpr() throws IOException{
@@ -338,7 +355,7 @@ public class Parser {
         if(children.size() == 1)
             return children.get(0);
         else
-            return new ShiftExpr(children, operators);
+            return fold(new ShiftExpr(children, operators));
     }
 
     public Expression addExpr() throws IOException{
@@ -357,7 +374,7 @@ public class Parser {
         if(children.size() == 1)
             return children.get(0);
         else
-            return new AddExpr(children, operators);
+            return fold(new AddExpr(children, operators));
     }
 
     public Expression mulExpr() throws IOException{
@@ -377,13 +394,13 @@ public class Parser {
         if(children.size() == 1)
             return children.get(0);
         else
-            return new MulExpr(children, operators);
+            return fold(new MulExpr(children, operators));
     }
 
     public Expression unaryExpr() throws IOException{
         switch(peek.tag){
-            case SUB: consume(); return new NegationExpr(postfixExpr());
-            case NOT: consume(); return new NotExpr(postfixExpr());
+            case SUB: consume(); return fold(new NegationExpr(postfixExpr()));
+            case NOT: consume(); return fold(new NotExpr(postfixExpr()));
             case NEW: consume(); return new NewExpr(postfixExpr());
             default: return postfixExpr();
         }
@@ -457,6 +474,8 @@ public class Parser {
         Expression expr = expression();
         if(errorLog.length() > 0)
             throw new PhiSyntaxException(errorLog.toString());
+        if(expr != null)
+            Resolver.resolve(expr);
         return expr;
     }
 }
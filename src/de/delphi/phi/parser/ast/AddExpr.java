@@ -1,7 +1,6 @@
 package de.delphi.phi.parser.ast;
 
 import de.delphi.phi.PhiRuntimeException;
-import de.delphi.phi.PhiScope;
 import de.delphi.phi.PhiTypeException;
 import de.delphi.phi.data.*;
 
@@ -20,7 +19,7 @@ public class AddExpr extends BinaryExpr {
         super(left, operator, right);
     }
 
-    private PhiObject add(PhiObject po1, PhiObject po2) throws PhiRuntimeException {
+    public static PhiObject add(PhiObject po1, PhiObject po2) throws PhiRuntimeException {
         Type commonType = Type.coerceTypes(po1.getType(), po2.getType());
         switch(commonType){
             case INT: return new PhiInt(po1.longValue() + po2.longValue());
@@ -31,7 +30,7 @@ public class AddExpr extends BinaryExpr {
         }
     }
 
-    private PhiObject sub(PhiObject po1, PhiObject po2) throws PhiRuntimeException{
+    public static PhiObject sub(PhiObject po1, PhiObject po2) throws PhiRuntimeException{
         Type commonType = Type.coerceTypes(po1.getType(), po2.getType());
         switch(commonType){
             case INT: return new PhiInt(po1.longValue() - po2.longValue());
@@ -42,18 +41,29 @@ public class AddExpr extends BinaryExpr {
 
     @Override
     public PhiObject eval(PhiCollection parentScope) throws PhiRuntimeException {
-        scope = new PhiScope(parentScope);
-        PhiObject result = operands[0].eval(scope);
-        result = bindAndLookUp(result, scope);
+        PhiCollection scope = openScope(parentScope);
+        PhiObject result = operands[0].evalAndLookUp(scope);
 
         for(int i = 1; i < operands.length; i++){
-            PhiObject po2 = operands[i].eval(scope);
+            PhiObject po2 = operands[i].evalAndLookUp(scope);
 
-            po2 = bindAndLookUp(po2, scope);
-
-            switch (operators[i]){
-                case OP_ADD: result = add(result, po2); break;
-                case OP_SUB: result = sub(result, po2); break;
+            boolean isAdd = operators[i] == OP_ADD;
+            switch(specialize(i, result, po2)){
+                case INT:
+                    result = new PhiInt(isAdd ? result.longValue() + po2.longValue() : result.longValue() - po2.longValue());
+                    break;
+                case FLOAT:
+                    result = new PhiFloat(isAdd ? result.doubleValue() + po2.doubleValue() :
+                            result.doubleValue() - po2.doubleValue());
+                    break;
+                case STRING:
+                    if(isAdd){
+                        result = new PhiString(result.toString() + po2.toString());
+                        break;
+                    }
+                    //Strings can not be subtracted, let the generic implementation report the error
+                default:
+                    result = isAdd ? add(result, po2) : sub(result, po2);
             }
         }
         return result;
@@ -1,7 +1,6 @@
 package de.delphi.phi.parser.ast;
 
 import de.delphi.phi.PhiRuntimeException;
-import de.delphi.phi.PhiScope;
 import de.delphi.phi.PhiTypeException;
 import de.delphi.phi.data.PhiCollection;
 import de.delphi.phi.data.PhiInt;
@@ -21,21 +20,27 @@ public class AndExpr extends BinaryExpr {
         super(left, 0, right);
     }
 
+    public static PhiObject and(PhiObject po1, PhiObject po2) throws PhiRuntimeException {
+        if(po1.getType() != Type.INT)
+            throw new PhiTypeException("& operator can not perform on " + po1.getType());
+        if(po2.getType() != Type.INT)
+            throw new PhiTypeException("& operator can not perform on " + po2.getType());
+        return new PhiInt(po1.longValue() & po2.longValue());
+    }
+
     @Override
     public PhiObject eval(PhiCollection parentScope) throws PhiRuntimeException {
-        scope = new PhiScope(parentScope);
-        PhiObject result = operands[0].eval(scope);
-        result = bindAndLookUp(result, scope);
+        PhiCollection scope = openScope(parentScope);
+        PhiObject result = operands[0].evalAndLookUp(scope);
         if(result.getType() != Type.INT)
             throw new PhiTypeException("& operator can not perform on " + result.getType());
 
         for (int i = 1; i < operands.length; i++) {
-            PhiObject po2 = operands[i].eval(scope);
-            po2 = bindAndLookUp(po2, scope);
-            if (po2.getType() != Type.INT) {
-                throw new PhiTypeException("& operator can not perform on " + po2.getType());
-            }
-            result = new PhiInt(result.longValue() & po2.longValue());
+            PhiObject po2 = operands[i].evalAndLookUp(scope);
+            if(specialize(i, result, po2) == Specialization.INT)
+                result = new PhiInt(result.longValue() & po2.longValue());
+            else
+                result = and(result, po2);
         }
         return result;
     }
@@ -1,9 +1,10 @@
 package de.delphi.phi.parser.ast;
 
 import de.delphi.phi.PhiRuntimeException;
-import de.delphi.phi.PhiScope;
 import de.delphi.phi.PhiTypeException;
 import de.delphi.phi.data.PhiCollection;
+import de.delphi.phi.data.PhiFloat;
+import de.delphi.phi.data.PhiInt;
 import de.delphi.phi.data.PhiObject;
 import de.delphi.phi.data.PhiSymbol;
 import de.delphi.phi.data.Type;
@@ -26,10 +27,21 @@ public class AssignExpr extends Expression {
 
     private final int operator;
 
+    /**
+     * Whether the left side is a plain variable name, which is looked up and assigned directly
+     */
+    private final boolean assignsVariable;
+
+    /**
+     * Operand types seen by a compound assignment. See Specialization.
+     */
+    private Specialization specialization = Specialization.UNINITIALIZED;
+
     public AssignExpr(Expression leftExpr, int operator, Expression rightExpr){
         this.leftExpr = leftExpr;
         this.rightExpr = rightExpr;
         this.operator = operator;
+        assignsVariable = leftExpr instanceof Atom && ((Atom) leftExpr).isVariable();
 
         leftExpr.parentExpression = this;
         rightExpr.parentExpression = this;
@@ -39,11 +51,36 @@ public class AssignExpr extends Expression {
         this.leftExpr = leftExpr;
         this.rightExpr = rightExpr;
         operator = OP_ASSIGN;
+        assignsVariable = leftExpr instanceof Atom && ((Atom) leftExpr).isVariable();
 
         leftExpr.parentExpression = this;
         rightExpr.parentExpression = this;
     }
 
+    @Override
+    void resolve(Resolver resolver) {
+        //A variable on the left side is bound to the parent scope
+        if(assignsVariable)
+            leftExpr.resolveValue(resolver);
+
+        layout = resolver.openFrame();
+        if(!assignsVariable)
+            leftExpr.resolve(resolver);
+        rightExpr.resolveValue(resolver);
+        resolver.closeFrame();
+    }
+
+    public int getOperator(){
+        return operator;
+    }
+
+    /**
+     * Returns true if the left side is a plain variable name.
+     */
+    public boolean assignsVariable(){
+        return assignsVariable;
+    }
+
     @Override
     public Expression getChild(int index) {
         switch(index){
@@ -58,66 +95,73 @@ public class AssignExpr extends Expression {
         return 2;
     }
 
-    @Override
-    public PhiObject eval(PhiCollection parentScope) throws PhiRuntimeException {
-        scope = new PhiScope(parentScope);
-
-        PhiObject left = leftExpr.eval(scope);
-        if(left.getType() != Type.SYMBOL)
-            throw new PhiTypeException("Values can only be assigned to SYMBOLs");
-        if(!((PhiSymbol) left).isBound())
-            left = new PhiSymbol(left.toString(), parentScope);
-        PhiObject leftValue = bindAndLookUp(left, parentScope);
+    /**
+     * Computes the new value of a compound assignment like +=.
+     */
+    private PhiObject modify(PhiObject leftValue, PhiObject right) throws PhiRuntimeException {
+        Specialization current = specialization;
+        if(!current.accepts(leftValue, right)){
+            current = current.next(leftValue, right);
+            specialization = current;
+        }
 
-        PhiObject right = rightExpr.eval(scope);
-        right = bindAndLookUp(right, scope);
+        if(current == Specialization.INT){
+            long a = leftValue.longValue(), b = right.longValue();
+            switch(operator){
+                case OP_ASSIGN_ADD: return new PhiInt(a + b);
+                case OP_ASSIGN_SUB: return new PhiInt(a - b);
+                case OP_ASSIGN_MUL: return new PhiInt(a * b);
+            }
+        }else if(current == Specialization.FLOAT){
+            double a = leftValue.doubleValue(), b = right.doubleValue();
+            switch(operator){
+                case OP_ASSIGN_ADD: return new PhiFloat(a + b);
+                case OP_ASSIGN_SUB: return new PhiFloat(a - b);
+                case OP_ASSIGN_MUL: return new PhiFloat(a * b);
+            }
+        }
 
-        Expression synthesized;
-        PhiObject assignModifyResult = right;
         switch(operator){
-            case OP_ASSIGN_ADD:
-                synthesized = new AddExpr(new Atom(leftValue), AddExpr.OP_ADD, new Atom(right));
-                assignModifyResult = synthesized.eval(scope);
-                break;
-            case OP_ASSIGN_SUB:
-                synthesized = new AddExpr(new Atom(leftValue), AddExpr.OP_SUB, new Atom(right));
-                assignModifyResult = synthesized.eval(scope);
-                break;
-            case OP_ASSIGN_MUL:
-                synthesized = new MulExpr(new Atom(leftValue), MulExpr.OP_MUL, new Atom(right));
-                assignModifyResult = synthesized.eval(scope);
-                break;
-            case OP_ASSIGN_DIV:
-                synthesized = new MulExpr(new Atom(leftValue), MulExpr.OP_DIV, new Atom(right));
-                assignModifyResult = synthesized.eval(scope);
-                break;
-            case OP_ASSIGN_MOD:
-                synthesized = new MulExpr(new Atom(leftValue), MulExpr.OP_MOD, new Atom(right));
-                assignModifyResult = synthesized.eval(scope);
-                break;
-            case OP_ASSIGN_AND:
-                synthesized = new AndExpr(new Atom(leftValue), new Atom(right));
-                assignModifyResult = synthesized.eval(scope);
-                break;
-            case OP_ASSIGN_OR:
-                synthesized = new OrExpr(new Atom(leftValue), new Atom(right));
-                assignModifyResult = synthesized.eval(scope);
-                break;
-            case OP_ASSIGN_XOR:
-                synthesized = new XorExpr(new Atom(leftValue), new Atom(right));
-                assignModifyResult = synthesized.eval(scope);
-                break;
-            case OP_ASSIGN_SHIFT_LEFT:
-                synthesized = new ShiftExpr(new Atom(leftValue), ShiftExpr.OP_SHIFT_LEFT, new Atom(right));
-                assignModifyResult = synthesized.eval(scope);
-                break;
-            case OP_ASSIGN_SHIFT_RIGHT:
-                synthesized = new ShiftExpr(new Atom(leftValue), ShiftExpr.OP_SHIFT_RIGHT, new Atom(right));
-                assignModifyResult = synthesized.eval(scope);
-                break;
+            case OP_ASSIGN_ADD: return AddExpr.add(leftValue, right);
+            case OP_ASSIGN_SUB: return AddExpr.sub(leftValue, right);
+            case OP_ASSIGN_MUL: return MulExpr.mul(leftValue, right);
+            case OP_ASSIGN_DIV: return MulExpr.div(leftValue, right);
+            case OP_ASSIGN_MOD: return MulExpr.mod(leftValue, right);
+            case OP_ASSIGN_AND: return AndExpr.and(leftValue, right);
+            case OP_ASSIGN_OR: return OrExpr.or(leftValue, right);
+            case OP_ASSIGN_XOR: return XorExpr.xor(leftValue, right);
+            case OP_ASSIGN_SHIFT_LEFT: return ShiftExpr.shift(leftValue, ShiftExpr.OP_SHIFT_LEFT, right);
+            case OP_ASSIGN_SHIFT_RIGHT: return ShiftExpr.shift(leftValue, ShiftExpr.OP_SHIFT_RIGHT, right);
+            default: return right;
+        }
+    }
+
+    @Override
+    public PhiObject eval(PhiCollection parentScope) throws PhiRuntimeException {
+        PhiCollection scope = openScope(parentScope);
+
+        PhiObject left = null, leftValue;
+        if(assignsVariable){
+            leftValue = leftExpr.evalAndLookUp(parentScope);
+        }else {
+            left = leftExpr.eval(scope);
+            if(left.getType() != Type.SYMBOL)
+                throw new PhiTypeException("Values can only be assigned to SYMBOLs");
+            if(!((PhiSymbol) left).isBound())
+                left = new PhiSymbol(left.toString(), parentScope);
+            leftValue = bindAndLookUp(left, parentScope);
         }
 
-        ((PhiSymbol) left).assign(assignModifyResult);
+        PhiObject right = rightExpr.evalAndLookUp(scope);
+
+        //The operands of a compound assignment are looked up once more, like the operands of an operator
+        PhiObject assignModifyResult = operator == OP_ASSIGN ? right :
+                modify(bindAndLookUp(leftValue, scope), bindAndLookUp(right, scope));
+
+        if(assignsVariable)
+            ((Atom) leftExpr).assign(parentScope, assignModifyResult);
+        else
+            ((PhiSymbol) left).assign(assignModifyResult);
 
         return right;
     }
@@ -1,16 +1,79 @@
 package de.delphi.phi.parser.ast;
 
+import de.delphi.phi.PhiRuntimeException;
+import de.delphi.phi.PhiScope;
+import de.delphi.phi.ScopeLayout;
 import de.delphi.phi.data.PhiCollection;
 import de.delphi.phi.data.PhiObject;
+import de.delphi.phi.data.PhiSymbol;
+import de.delphi.phi.data.Type;
 
 public class Atom extends Expression {
 
-    private PhiObject content;
+    private final PhiObject content;
+
+    /**
+     * Lexical address of the variable, if content is a symbol that has been resolved. A depth of -1 means that
+     * the variable is looked up by name.
+     */
+    private int depth = -1, slot;
+
+    /**
+     * Layout of the scope that declares the variable
+     */
+    private ScopeLayout declaringLayout;
 
     public Atom(PhiObject content){
         this.content = content;
     }
 
+    /**
+     * Returns true if this atom is a variable name, i.e. an unbound symbol.
+     */
+    public boolean isVariable(){
+        return content.getType() == Type.SYMBOL && !((PhiSymbol) content).isBound();
+    }
+
+    public String getName(){
+        return content.toString();
+    }
+
+    public PhiObject getContent(){
+        return content;
+    }
+
+    /**
+     * Returns the number of scopes between this atom and the scope declaring its variable, or -1 if the variable
+     * is looked up by name.
+     */
+    public int getDepth(){
+        return depth;
+    }
+
+    public int getSlot(){
+        return slot;
+    }
+
+    public ScopeLayout getDeclaringLayout(){
+        return declaringLayout;
+    }
+
+    void setAddress(int depth, int slot, ScopeLayout declaringLayout){
+        this.depth = depth;
+        this.slot = slot;
+        this.declaringLayout = declaringLayout;
+    }
+
+    @Override
+    void resolve(Resolver resolver) {
+        //Content is used as is, so there is nothing to resolve
+    }
+
+    @Override
+    void resolveValue(Resolver resolver) {
+        if(isVariable())
+            resolver.reference(this);
+    }
 
     @Override
     public Expression getChild(int index) {
@@ -26,4 +89,37 @@ public class Atom extends Expression {
     public PhiObject eval(PhiCollection scope) {
         return content;
     }
+
+    @Override
+    public PhiObject evalAndLookUp(PhiCollection scope) throws PhiRuntimeException {
+        if(depth >= 0){
+            PhiScope declaringScope = PhiScope.getEnclosingScope(scope, depth, declaringLayout);
+            if(declaringScope != null){
+                PhiObject value = declaringScope.getSlot(slot);
+                //null means that the variable has not been declared yet, so it may still be found further up.
+                if(value != null)
+                    return value;
+            }
+        }
+        if(isVariable())
+            return scope.getNamed(content.toString());
+        return bindAndLookUp(content, scope);
+    }
+
+    /**
+     * Assigns a value to the variable named by this atom.
+     * @param scope The scope in which the variable is looked up.
+     * @param value The new value.
+     * @throws PhiRuntimeException If the variable does not exist.
+     */
+    void assign(PhiCollection scope, PhiObject value) throws PhiRuntimeException {
+        if(depth >= 0){
+            PhiScope declaringScope = PhiScope.getEnclosingScope(scope, depth, declaringLayout);
+            if(declaringScope != null && declaringScope.getSlot(slot) != null){
+                declaringScope.setSlot(slot, value);
+                return;
+            }
+        }
+        scope.setNamed(content.toString(), value);
+    }
 }
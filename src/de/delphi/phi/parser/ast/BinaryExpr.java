@@ -1,16 +1,26 @@
 package de.delphi.phi.parser.ast;
 
+import de.delphi.phi.data.PhiObject;
+
+import java.util.Arrays;
 import java.util.List;
 
-abstract class BinaryExpr extends Expression{
+public abstract class BinaryExpr extends Expression{
+
+    protected final Expression[] operands;
 
-    protected Expression[] operands;
+    protected final Integer[] operators;
 
-    protected Integer[] operators;
+    /**
+     * Operand types seen by each operator. See Specialization.
+     */
+    private final Specialization[] specializations;
 
     public BinaryExpr(List<Expression> operands, List<Integer> operators){
         this.operands = operands.toArray(new Expression[0]);
         this.operators = operators.toArray(new Integer[0]);
+        specializations = new Specialization[this.operands.length];
+        Arrays.fill(specializations, Specialization.UNINITIALIZED);
 
         for(Expression expr: operands)
             expr.parentExpression = this;
@@ -19,10 +29,46 @@ abstract class BinaryExpr extends Expression{
     public BinaryExpr(Expression left, int operator, Expression right){
         operands = new Expression[]{left, right};
         operators = new Integer[]{0, operator};
+        specializations = new Specialization[]{Specialization.UNINITIALIZED, Specialization.UNINITIALIZED};
         left.parentExpression = this;
         right.parentExpression = this;
     }
 
+    @Override
+    void resolve(Resolver resolver) {
+        layout = resolver.openFrame();
+        for(Expression operand: operands)
+            operand.resolveValue(resolver);
+        resolver.closeFrame();
+    }
+
+    /**
+     * Returns the operator that combines the operand with the given index with the result of the previous operands.
+     */
+    public int getOperator(int index){
+        return operators[index];
+    }
+
+    /**
+     * Records the types of the operands of an operator and returns the specialization the operator should use for
+     * them. Specialized variants must only be used if this method returns them.
+     * @param index The index of the operator.
+     * @param left The result of the previous operands.
+     * @param right The operand with the given index.
+     */
+    Specialization specialize(int index, PhiObject left, PhiObject right){
+        Specialization specialization = specializations[index];
+        if(!specialization.accepts(left, right)){
+            specialization = specialization.next(left, right);
+            specializations[index] = specialization;
+        }
+        return specialization;
+    }
+
+    Specialization getSpecialization(int index){
+        return specializations[index];
+    }
+
     @Override
     public Expression getChild(int index) {
         if(index >= operands.length || index < 0)
@@ -7,7 +7,17 @@ import de.delphi.phi.data.PhiObject;
 
 public class BreakExpr extends Expression {
 
-    private Expression returnExpr;
+    private final Expression returnExpr;
+
+    /**
+     * The loop that is targeted by this expression, as determined by the Resolver
+     */
+    private Expression target;
+
+    /**
+     * Preallocated ControlTransfer, if this expression does not have a return value
+     */
+    private ControlTransfer signal;
 
     public BreakExpr(Expression returnExpr){
         this.returnExpr = returnExpr;
@@ -15,8 +25,21 @@ public class BreakExpr extends Expression {
             returnExpr.parentExpression = this;
     }
 
-    private boolean isLoopExpression(Expression expr){
-        return (expr instanceof WhileExpr) || (expr instanceof ForExpr);
+    @Override
+    void resolve(Resolver resolver) {
+        if(returnExpr != null)
+            returnExpr.resolveValue(resolver);
+
+        target = resolver.currentLoop();
+        if(target != null && returnExpr == null)
+            signal = new ControlTransfer(ControlTransfer.Kind.BREAK, target, PhiNull.NULL);
+    }
+
+    /**
+     * Returns the loop targeted by this expression, or null if it is not inside of a loop.
+     */
+    public Expression getTarget(){
+        return target;
     }
 
     @Override
@@ -34,20 +57,22 @@ public class BreakExpr extends Expression {
 
     @Override
     public PhiObject eval(PhiCollection parentScope) throws PhiRuntimeException {
+        if(signal != null)
+            throw signal;
+
         PhiObject retVal = PhiNull.NULL;
         if(returnExpr != null){
-            retVal = returnExpr.eval(parentScope);
-            retVal = bindAndLookUp(retVal, parentScope);
+            retVal = returnExpr.evalAndLookUp(parentScope);
         }
 
-        Expression current = this;
-        while(!isLoopExpression(current)){
-            if(current instanceof ExitableExpr)
-                ((ExitableExpr) current).exit(retVal);
-            current = current.parentExpression;
-        }
-        //break actual loop
-        ((ExitableExpr) current).exit(retVal);
-        return retVal;
+        if(target == null)
+            throw new PhiRuntimeException("break is not inside of a loop.");
+        throw new ControlTransfer(ControlTransfer.Kind.BREAK, target, retVal);
+    }
+
+    @Override
+    public PhiObject evalAndLookUp(PhiCollection parentScope) throws PhiRuntimeException {
+        //The return value has already been looked up
+        return eval(parentScope);
     }
 }
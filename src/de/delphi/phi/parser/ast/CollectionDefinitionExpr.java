@@ -9,7 +9,7 @@ import de.delphi.phi.data.Type;
 
 public class CollectionDefinitionExpr extends Expression {
 
-    private ExpressionList content;
+    private final ExpressionList content;
 
     public CollectionDefinitionExpr(ExpressionList content){
         this.content = content;
@@ -21,6 +21,19 @@ public class CollectionDefinitionExpr extends Expression {
         }
     }
 
+    @Override
+    void resolve(Resolver resolver) {
+        //Members of a collection can be changed at any time, so variables are not resolved past the collection
+        resolver.openDynamicFrame();
+        for(int i = 0; i < content.length(); i++){
+            content.getName(i).resolve(resolver);
+            Expression valueExpr = content.getValue(i);
+            if(valueExpr != null)
+                valueExpr.resolveValue(resolver);
+        }
+        resolver.closeFrame();
+    }
+
     @Override
     public Expression getChild(int index) {
         if(index >= 2 * content.length() || index < 0)
@@ -49,8 +62,7 @@ public class CollectionDefinitionExpr extends Expression {
                 if(name.getType() != Type.SYMBOL)
                     throw new PhiTypeException("Name of collection member must be of type SYMBOL.");
 
-                PhiObject value = valueExpr.eval(collection);
-                value = bindAndLookUp(value, collection);
+                PhiObject value = valueExpr.evalAndLookUp(collection);
                 collection.createMember(name);
                 collection.setNamed(name.toString(), value);
             }else{
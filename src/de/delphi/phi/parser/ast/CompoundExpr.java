@@ -1,16 +1,15 @@
 package de.delphi.phi.parser.ast;
 
 import de.delphi.phi.PhiRuntimeException;
-import de.delphi.phi.PhiScope;
 import de.delphi.phi.data.PhiCollection;
 import de.delphi.phi.data.PhiNull;
 import de.delphi.phi.data.PhiObject;
 
 import java.util.List;
 
-public class CompoundExpr extends ExitableExpr{
+public class CompoundExpr extends Expression{
 
-    private Expression[] children;
+    private final Expression[] children;
 
     public CompoundExpr(List<Expression> children){
         this.children = children.toArray(new Expression[0]);
@@ -18,6 +17,28 @@ public class CompoundExpr extends ExitableExpr{
             expr.parentExpression = this;
     }
 
+    @Override
+    void resolve(Resolver resolver) {
+        layout = resolver.openFrame();
+        for(Expression child: children)
+            child.resolve(resolver);
+        resolver.closeFrame();
+    }
+
+    @Override
+    void resolveValue(Resolver resolver) {
+        layout = resolver.openFrame();
+        for(int i = 0; i < children.length - 1; i++)
+            children[i].resolve(resolver);
+        children[children.length - 1].resolveValue(resolver);
+        resolver.closeFrame();
+    }
+
+    @Override
+    void markTailPosition() {
+        children[children.length - 1].markTailPosition();
+    }
+
     @Override
     public Expression getChild(int index) {
         if(index >= children.length || index < 0)
@@ -31,17 +52,27 @@ public class CompoundExpr extends ExitableExpr{
         return children.length;
     }
 
-    public PhiObject eval(PhiCollection parentScope) throws PhiRuntimeException {
-        this.scope = new PhiScope(parentScope);
+    private PhiObject evaluate(PhiCollection parentScope, boolean lookUpResult) throws PhiRuntimeException {
+        PhiCollection scope = openScope(parentScope);
 
-        shouldExit = false;
         PhiObject result = PhiNull.NULL;
-        for (Expression child : children) {
-            result = child.eval(scope);
-            if(shouldExit){
-                return returnValue;
-            }
+        for (int i = 0; i < children.length; i++) {
+            //The last child is looked up in this scope, because variables declared here are not visible outside
+            if(lookUpResult && i == children.length - 1)
+                result = children[i].evalAndLookUp(scope);
+            else
+                result = children[i].eval(scope);
         }
         return result;
     }
+
+    @Override
+    public PhiObject eval(PhiCollection parentScope) throws PhiRuntimeException {
+        return evaluate(parentScope, false);
+    }
+
+    @Override
+    public PhiObject evalAndLookUp(PhiCollection parentScope) throws PhiRuntimeException {
+        return evaluate(parentScope, true);
+    }
 }
@@ -0,0 +1,275 @@
+package de.delphi.phi.parser.ast;
+
+import de.delphi.phi.PhiRuntimeException;
+import de.delphi.phi.data.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Simplifies expressions whose operands are literals, before they are resolved.
+ *
+ * Operators whose operands are all literals are replaced by the literal they evaluate to, and leading literals of
+ * longer chains like {@code 60 * 60 * 1000 * x} are combined. Literals are combined with the same methods that
+ * evaluate the operators, so the result follows the same type coercion (see {@code Type.coerceTypes()}). Operators
+ * that would fail on their literals are kept, so the error is still raised when the expression is evaluated.
+ *
+ * Conditionals with a literal condition are replaced by the branch that is taken, and operations that can not change
+ * their other operand ({@code x * 1}, {@code x / 1}, {@code x - 0} and {@code x + 0}) are removed. Since removing
+ * them would also remove the type errors for non-numeric operands, and {@code -0.0 + 0} is {@code 0.0}, they are
+ * only removed if the other operand is known to be numeric, or an INT in the case of +.
+ *
+ * The folder works on one expression at a time. The Parser folds every expression right after creating it, so the
+ * operands have already been folded.
+ */
+public class ConstantFolder {
+
+    private ConstantFolder(){
+
+    }
+
+    /**
+     * Simplifies an expression whose children have already been simplified.
+     * @param expr An expression that has not been resolved yet.
+     * @return The simplified expression, or the expression itself if it can not be simplified.
+     */
+    public static Expression fold(Expression expr){
+        if(expr instanceof BinaryExpr && !(expr instanceof RelationalExpr))
+            return foldArithmetic((BinaryExpr) expr);
+        else if(expr instanceof RelationalExpr)
+            return foldRelational((RelationalExpr) expr);
+        else if(expr instanceof NotExpr || expr instanceof NegationExpr)
+            return foldUnary((UnaryExpr) expr);
+        else if(expr instanceof IfExpr)
+            return foldIf((IfExpr) expr);
+        return expr;
+    }
+
+    /**
+     * Returns the value of a literal, or null if the expression is not a literal.
+     */
+    private static PhiObject literal(Expression expr){
+        if(!(expr instanceof Atom))
+            return null;
+        PhiObject content = ((Atom) expr).getContent();
+        return content.getType() != Type.SYMBOL ? content : null;
+    }
+
+    private static boolean isIntLiteral(Expression expr, long value){
+        PhiObject literal = literal(expr);
+        return literal instanceof PhiInt && ((PhiInt) literal).longValue() == value;
+    }
+
+    /**
+     * Returns the type every successful evaluation of the expression has, or null if it is not known. Only literals
+     * and operators with numeric results are considered.
+     */
+    static Type knownType(Expression expr){
+        PhiObject literal = literal(expr);
+        if(literal != null)
+            return literal.getType();
+        if(expr instanceof RelationalExpr || expr instanceof NotExpr || expr instanceof ShiftExpr ||
+                expr instanceof AndExpr || expr instanceof OrExpr || expr instanceof XorExpr)
+            return Type.INT;
+        if(expr instanceof NegationExpr)
+            return numericType(Collections.singletonList(expr.getChild(0)));
+        if(expr instanceof AddExpr || expr instanceof MulExpr)
+            return numericType(Arrays.asList(((BinaryExpr) expr).operands));
+        return null;
+    }
+
+    /**
+     * Returns the type of the result of + and * operators on the given operands, if the types of all of them are
+     * known to be numeric. Otherwise null is returned, since + also concatenates.
+     */
+    private static Type numericType(List<Expression> operands){
+        Type type = Type.INT;
+        for(Expression operand: operands){
+            Type operandType = knownType(operand);
+            if(operandType == null || !operandType.isNumeric())
+                return null;
+            type = Type.coerceTypes(type, operandType);
+        }
+        return type;
+    }
+
+    /**
+     * Returns whether every successful evaluation of the expression yields an INT or a FLOAT.
+     */
+    static boolean isNumeric(Expression expr){
+        Type type = knownType(expr);
+        if(type != null)
+            return type.isNumeric();
+        return expr instanceof NegationExpr || expr instanceof MulExpr ||
+                expr instanceof AddExpr && isNumeric((BinaryExpr) expr, expr.countChildren());
+    }
+
+    /**
+     * Returns whether the result of the first operands of an addition or multiplication is numeric.
+     */
+    private static boolean isNumeric(BinaryExpr expr, List<Expression> operands, List<Integer> operators, int count){
+        if(count == 1)
+            return isNumeric(operands.get(0));
+        //* and - fail on anything else
+        if(expr instanceof MulExpr || operators.get(count - 1) == AddExpr.OP_SUB)
+            return true;
+        return numericType(operands.subList(0, count)) != null;
+    }
+
+    private static boolean isNumeric(BinaryExpr expr, int count){
+        return isNumeric(expr, Arrays.asList(expr.operands), Arrays.asList(expr.operators), count);
+    }
+
+    private static PhiObject apply(BinaryExpr expr, PhiObject left, int operator, PhiObject right)
+            throws PhiRuntimeException {
+        if(expr instanceof AddExpr)
+            return operator == AddExpr.OP_ADD ? AddExpr.add(left, right) : AddExpr.sub(left, right);
+        else if(expr instanceof MulExpr){
+            switch(operator){
+                case MulExpr.OP_MUL: return MulExpr.mul(left, right);
+                case MulExpr.OP_DIV: return MulExpr.div(left, right);
+                default: return MulExpr.mod(left, right);
+            }
+        }
+        else if(expr instanceof ShiftExpr)
+            return ShiftExpr.shift(left, operator, right);
+        else if(expr instanceof AndExpr)
+            return AndExpr.and(left, right);
+        else if(expr instanceof OrExpr)
+            return OrExpr.or(left, right);
+        else
+            return XorExpr.xor(left, right);
+    }
+
+    /**
+     * Returns whether the operand with the given index does not change the result of the previous operands.
+     */
+    private static boolean isIdentity(BinaryExpr expr, List<Expression> operands, List<Integer> operators, int index){
+        Expression right = operands.get(index);
+        int operator = operators.get(index);
+        if(expr instanceof MulExpr)
+            return operator != MulExpr.OP_MOD && isIntLiteral(right, 1) && isNumeric(expr, operands, operators, index);
+        if(expr instanceof AddExpr && isIntLiteral(right, 0)){
+            if(operator == AddExpr.OP_SUB)
+                return isNumeric(expr, operands, operators, index);
+            return numericType(operands.subList(0, index)) == Type.INT;
+        }
+        return false;
+    }
+
+    private static Expression foldArithmetic(BinaryExpr expr){
+        List<Expression> operands = new ArrayList<>(Arrays.asList(expr.operands));
+        List<Integer> operators = new ArrayList<>(Arrays.asList(expr.operators));
+        boolean changed = false;
+
+        //Combine the leading literals
+        PhiObject value = literal(operands.get(0));
+        while(value != null && operands.size() > 1){
+            PhiObject right = literal(operands.get(1));
+            if(right == null)
+                break;
+            try{
+                value = apply(expr, value, operators.get(1), right);
+            }catch(PhiRuntimeException e){
+                //The error is raised when the expression is evaluated
+                break;
+            }
+            operands.set(0, new Atom(value));
+            operands.remove(1);
+            operators.remove(1);
+            changed = true;
+        }
+
+        //Remove identities
+        for(int i = operands.size() - 1; i > 0; i--){
+            if(isIdentity(expr, operands, operators, i)){
+                operands.remove(i);
+                operators.remove(i);
+                changed = true;
+            }
+        }
+        //A leading 1 * or 0 + in front of a single operand
+        if(operands.size() == 2){
+            boolean isMul = expr instanceof MulExpr && operators.get(1) == MulExpr.OP_MUL;
+            boolean isAdd = expr instanceof AddExpr && operators.get(1) == AddExpr.OP_ADD;
+            if(isMul && isIntLiteral(operands.get(0), 1) && isNumeric(operands.get(1)) ||
+                    isAdd && isIntLiteral(operands.get(0), 0) && knownType(operands.get(1)) == Type.INT){
+                operands.remove(0);
+                changed = true;
+            }
+        }
+
+        if(!changed)
+            return expr;
+        if(operands.size() == 1)
+            return operands.get(0);
+        return create(expr, operands, operators);
+    }
+
+    /**
+     * Creates an expression of the same class as the given one, with other operands.
+     */
+    private static BinaryExpr create(BinaryExpr expr, List<Expression> operands, List<Integer> operators){
+        if(expr instanceof AddExpr)
+            return new AddExpr(operands, operators);
+        else if(expr instanceof MulExpr)
+            return new MulExpr(operands, operators);
+        else if(expr instanceof ShiftExpr)
+            return new ShiftExpr(operands, operators);
+        else if(expr instanceof AndExpr)
+            return new AndExpr(operands);
+        else if(expr instanceof OrExpr)
+            return new OrExpr(operands);
+        else
+            return new XorExpr(operands);
+    }
+
+    private static Expression foldRelational(RelationalExpr expr){
+        PhiObject[] values = new PhiObject[expr.operands.length];
+        for(int i = 0; i < values.length; i++){
+            values[i] = literal(expr.operands[i]);
+            if(values[i] == null)
+                return expr;
+        }
+
+        try{
+            boolean result = true;
+            for(int i = 1; i < values.length; i++)
+                result = result && RelationalExpr.relOp(values[i - 1], expr.operators[i], values[i]);
+            return new Atom(result ? PhiInt.TRUE : PhiInt.FALSE);
+        }catch(PhiRuntimeException e){
+            return expr;
+        }
+    }
+
+    private static Expression foldUnary(UnaryExpr expr){
+        PhiObject value = literal(expr.body);
+        if(value == null)
+            return expr;
+        try{
+            return new Atom(expr instanceof NotExpr ? NotExpr.not(value) : NegationExpr.negate(value));
+        }catch(PhiRuntimeException e){
+            return expr;
+        }
+    }
+
+    private static Expression foldIf(IfExpr expr){
+        PhiObject condition = literal(expr.getChild(0));
+        long value;
+        if(condition instanceof PhiInt)
+            value = ((PhiInt) condition).longValue();
+        else if(condition instanceof PhiFloat)
+            value = ((PhiFloat) condition).longValue();
+        else
+            return expr;
+
+        Expression branch = value != 0 ? expr.getChild(1) :
+                expr.countChildren() > 2 ? expr.getChild(2) : null;
+        if(branch == null)
+            return new Atom(PhiNull.NULL);
+        //The branch is still evaluated in a scope of its own
+        return new CompoundExpr(Collections.singletonList(branch));
+    }
+}
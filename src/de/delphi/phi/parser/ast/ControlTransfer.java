@@ -0,0 +1,46 @@
+package de.delphi.phi.parser.ast;
+
+import de.delphi.phi.PhiRuntimeException;
+import de.delphi.phi.data.PhiObject;
+
+/**
+ * Thrown by BreakExpr, ContinueExpr and ReturnExpr to transfer control to the enclosing loop or function body.
+ *
+ * The exception carries the target and the value of the jump, so that no state of the jump has to be stored in the
+ * AST itself. Since it is only used for control flow, it does not record a stack trace. The target is determined by
+ * the Resolver, so a jump costs the same no matter how deeply it is nested in its target. Jumps without a value
+ * throw an instance that is created once by the Resolver.
+ */
+class ControlTransfer extends PhiRuntimeException {
+
+    enum Kind{
+        BREAK("Unhandled break."), CONTINUE("Unhandled continue."), RETURN("Unhandled return.");
+
+        private final String message;
+
+        Kind(String message){
+            this.message = message;
+        }
+    }
+
+    final Kind kind;
+
+    /**
+     * The loop or FunctionBody that handles this transfer
+     */
+    final Expression target;
+
+    final PhiObject value;
+
+    ControlTransfer(Kind kind, Expression target, PhiObject value){
+        super(kind.message);
+        this.kind = kind;
+        this.target = target;
+        this.value = value;
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
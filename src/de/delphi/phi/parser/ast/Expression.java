@@ -2,6 +2,7 @@ package de.delphi.phi.parser.ast;
 
 import de.delphi.phi.PhiRuntimeException;
 import de.delphi.phi.PhiScope;
+import de.delphi.phi.ScopeLayout;
 import de.delphi.phi.data.PhiCollection;
 import de.delphi.phi.data.PhiObject;
 import de.delphi.phi.data.PhiSymbol;
@@ -11,7 +12,16 @@ public abstract class Expression {
 
     protected Expression parentExpression;
 
-    protected PhiScope scope;
+    /**
+     * Layout of the scope opened by this expression. This is set by the Resolver. Expressions that have not been
+     * resolved open scopes that store all variables by name.
+     *
+     * Like all other fields of an expression, the layout does not change once the expression has been parsed. All
+     * state of an evaluation is kept in the scopes, so the same expression can be evaluated by several threads
+     * and recursive function calls at the same time. The only exception is the type feedback of operators (see
+     * Specialization), which never changes the result of an evaluation.
+     */
+    ScopeLayout layout;
 
     public static PhiObject bindAndLookUp(PhiObject obj, PhiCollection scope) throws PhiRuntimeException {
         if(obj.getType() == Type.SYMBOL) {
@@ -23,9 +33,68 @@ public abstract class Expression {
         return obj;
     }
 
+    /**
+     * Returns the layout of the scope opened by this expression, or null if the expression has not been resolved or
+     * does not open a scope.
+     */
+    public ScopeLayout getLayout(){
+        return layout;
+    }
+
+    /**
+     * Creates the scope in which the children of this expression are evaluated. If the Resolver found that no
+     * members are ever created in that scope, no scope is created and the parent scope is returned instead.
+     */
+    protected PhiCollection openScope(PhiCollection parentScope){
+        if(layout != null && layout.isEmpty())
+            return parentScope;
+        return new PhiScope(parentScope, layout);
+    }
+
+    /**
+     * Resolves the variables used by this expression and its children. The result of this expression is used as is,
+     * i.e. a symbol is not looked up by the parent expression.
+     *
+     * The default implementation resolves all children in the current scope.
+     */
+    void resolve(Resolver resolver){
+        for(int i = 0; i < countChildren(); i++){
+            Expression child = getChild(i);
+            if(child != null)
+                child.resolve(resolver);
+        }
+    }
+
+    /**
+     * Resolves the variables used by this expression and its children. The result of this expression is
+     * looked up by the parent expression, i.e. the parent calls {@code evalAndLookUp()}.
+     */
+    void resolveValue(Resolver resolver){
+        resolve(resolver);
+    }
+
+    /**
+     * Called by the Resolver if the value of this expression is the result of the enclosing function, i.e. the
+     * function returns right after evaluating it. Expressions pass this on to the children whose value they
+     * return. The default implementation does nothing.
+     */
+    void markTailPosition(){
+
+    }
+
     public abstract Expression getChild(int index);
 
     public abstract int countChildren();
 
     public abstract PhiObject eval(PhiCollection parentScope) throws PhiRuntimeException;
+
+    /**
+     * Evaluates this expression and looks up the result in the given scope, if it is a symbol.
+     * @param parentScope The scope in which this expression is evaluated.
+     * @return The value of this expression.
+     * @throws PhiRuntimeException If the evaluation or the lookup fails.
+     */
+    public PhiObject evalAndLookUp(PhiCollection parentScope) throws PhiRuntimeException {
+        return bindAndLookUp(eval(parentScope), parentScope);
+    }
 }
@@ -4,7 +4,7 @@ import java.util.List;
 
 public class ExpressionList {
 
-    private Expression[] names, values;
+    private final Expression[] names, values;
 
     public ExpressionList(List<Expression> names, List<Expression> values){
         this.names = names.toArray(new Expression[0]);
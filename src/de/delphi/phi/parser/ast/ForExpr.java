@@ -1,14 +1,13 @@
 package de.delphi.phi.parser.ast;
 
 import de.delphi.phi.PhiRuntimeException;
-import de.delphi.phi.PhiScope;
 import de.delphi.phi.data.PhiCollection;
 import de.delphi.phi.data.PhiNull;
 import de.delphi.phi.data.PhiObject;
 
-public class ForExpr extends ExitableExpr{
+public class ForExpr extends Expression{
 
-    private Expression init, condition, iteration, body;
+    private final Expression init, condition, iteration, body;
 
     public ForExpr(Expression init, Expression condition, Expression iteration, Expression body){
         this.init = init;
@@ -22,6 +21,18 @@ public class ForExpr extends ExitableExpr{
         body.parentExpression = this;
     }
 
+    @Override
+    void resolve(Resolver resolver) {
+        layout = resolver.openFrame();
+        init.resolve(resolver);
+        condition.resolveValue(resolver);
+        iteration.resolve(resolver);
+        resolver.enterLoop(this);
+        body.resolve(resolver);
+        resolver.exitJumpTarget();
+        resolver.closeFrame();
+    }
+
     @Override
     public Expression getChild(int index) {
         switch(index){
@@ -35,19 +46,23 @@ public class ForExpr extends ExitableExpr{
 
     @Override
     public int countChildren() {
-        return 0;
+        return 4;
     }
 
     @Override
     public PhiObject eval(PhiCollection parentScope) throws PhiRuntimeException {
-        this.scope = new PhiScope(parentScope);
+        PhiCollection scope = openScope(parentScope);
 
-        shouldExit = false;
         PhiObject result = PhiNull.NULL;
-        for(init.eval(scope); condition.eval(scope).longValue() != 0; iteration.eval(scope)){
-            result = body.eval(scope);
-            if(shouldExit){
-                return returnValue;
+        for(init.eval(scope); condition.evalAndLookUp(scope).longValue() != 0; iteration.eval(scope)){
+            try {
+                result = body.eval(scope);
+            }catch(ControlTransfer transfer){
+                if(transfer.target != this)
+                    throw transfer;
+                if(transfer.kind == ControlTransfer.Kind.BREAK)
+                    return transfer.value;
+                result = transfer.value;
             }
         }
         return result;
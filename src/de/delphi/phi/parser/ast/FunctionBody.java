@@ -8,15 +8,30 @@ import de.delphi.phi.data.PhiObject;
  * Wraps another expression, to mark it as the direct body of a function. This is
  * needed to make ReturnExpr work correctly.
  */
-public class FunctionBody extends ExitableExpr {
+public class FunctionBody extends Expression {
 
-    private Expression body;
+    private final Expression body;
 
     public FunctionBody(Expression body){
         this.body = body;
         body.parentExpression = this;
     }
 
+    @Override
+    void resolve(Resolver resolver) {
+        body.resolve(resolver);
+    }
+
+    @Override
+    void resolveValue(Resolver resolver) {
+        body.resolveValue(resolver);
+    }
+
+    @Override
+    void markTailPosition() {
+        body.markTailPosition();
+    }
+
     @Override
     public Expression getChild(int index) {
         if(index == 0)
@@ -32,10 +47,23 @@ public class FunctionBody extends ExitableExpr {
 
     @Override
     public PhiObject eval(PhiCollection parentScope) throws PhiRuntimeException {
-        PhiObject result = body.eval(parentScope);
-        if(shouldExit)
-            return returnValue;
-        else
-            return result;
+        try {
+            return body.eval(parentScope);
+        }catch(ControlTransfer transfer){
+            if(transfer.target != this)
+                throw transfer;
+            return transfer.value;
+        }
+    }
+
+    @Override
+    public PhiObject evalAndLookUp(PhiCollection parentScope) throws PhiRuntimeException {
+        try {
+            return body.evalAndLookUp(parentScope);
+        }catch(ControlTransfer transfer){
+            if(transfer.target != this)
+                throw transfer;
+            return transfer.value;
+        }
     }
 }
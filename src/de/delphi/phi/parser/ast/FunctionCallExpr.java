@@ -1,19 +1,30 @@
 package de.delphi.phi.parser.ast;
 
 import de.delphi.phi.PhiRuntimeException;
-import de.delphi.phi.PhiScope;
 import de.delphi.phi.PhiTypeException;
 import de.delphi.phi.data.*;
 
 public class FunctionCallExpr extends Expression {
 
-    private Expression functionExpr;
+    private final Expression functionExpr;
 
-    private ExpressionList params;
+    private final ExpressionList params;
+
+    /**
+     * Inline cache for the called functions, or null if the names of named parameters are computed
+     */
+    private final CallCache cache;
+
+    /**
+     * Whether the enclosing function returns the result of this call, as determined by the Resolver. Such calls
+     * are left to the caller of the function (see TailCall).
+     */
+    private boolean tailCall;
 
     public FunctionCallExpr(Expression functionExpr, ExpressionList params){
         this.functionExpr = functionExpr;
         this.params = params;
+        this.cache = createCache(params);
 
         functionExpr.parentExpression = this;
         for(int i = 0; i < params.length(); i++){
@@ -24,11 +35,64 @@ public class FunctionCallExpr extends Expression {
         }
     }
 
+    private static CallCache createCache(ExpressionList params){
+        String[] argumentNames = new String[params.length()];
+        for(int i = 0; i < params.length(); i++){
+            if(params.getValue(i) == null)
+                continue;
+
+            Expression nameExpr = params.getName(i);
+            if(!(nameExpr instanceof Atom) || ((Atom) nameExpr).getContent().getType() != Type.SYMBOL)
+                return null;
+            String name = ((Atom) nameExpr).getName();
+            //Reserved names are rejected by PhiCollection.createMember()
+            if(name.equals("this") || name.equals("length") || name.equals("super"))
+                return null;
+            argumentNames[i] = name;
+        }
+        return new CallCache(argumentNames);
+    }
+
+    /**
+     * Returns the inline cache for the called functions, or null if the names of named parameters are computed.
+     */
+    public CallCache getCache(){
+        return cache;
+    }
+
+    /**
+     * Returns whether the enclosing function returns the result of this call.
+     */
+    public boolean isTailCall(){
+        return tailCall;
+    }
+
+    @Override
+    void markTailPosition() {
+        tailCall = true;
+    }
+
+    @Override
+    void resolve(Resolver resolver) {
+        layout = resolver.openFrame();
+        functionExpr.resolveValue(resolver);
+        for(int i = 0; i < params.length(); i++){
+            Expression valueExpr = params.getValue(i);
+            if(valueExpr != null){
+                params.getName(i).resolve(resolver);
+                valueExpr.resolveValue(resolver);
+            }else{
+                params.getName(i).resolveValue(resolver);
+            }
+        }
+        resolver.closeFrame();
+    }
+
     @Override
     public Expression getChild(int index) {
         if(index == 0)
             return functionExpr;
-        else if(index > params.length() || index < 0){
+        else if(index > 0 && index < countChildren()){
             int paramIndex = index - 1;
             if((paramIndex & 1) == 0)
                 return params.getName(paramIndex >> 1);
@@ -45,27 +109,36 @@ public class FunctionCallExpr extends Expression {
 
     @Override
     public PhiObject eval(PhiCollection parentScope) throws PhiRuntimeException {
-        scope = new PhiScope(parentScope);
+        PhiCollection scope = openScope(parentScope);
 
-        PhiObject function = functionExpr.eval(scope);
+        PhiObject function = functionExpr.evalAndLookUp(scope);
         if(function.getType() != Type.FUNCTION)
             throw new PhiTypeException(function.getType() + " is not callable.");
 
+        if(cache != null){
+            PhiObject[] arguments = new PhiObject[params.length()];
+            for(int i = 0; i < params.length(); i++){
+                Expression valueExpr = params.getValue(i);
+                arguments[i] = (valueExpr != null ? valueExpr : params.getName(i)).evalAndLookUp(scope);
+            }
+            if(tailCall)
+                return cache.tailCall((PhiFunction) function, arguments);
+            return cache.call((PhiFunction) function, arguments);
+        }
+
         PhiCollection paramCollection = new PhiCollection();
         int numUnnamed = 0;
         for(int i = 0; i < params.length(); i++){
-            PhiObject paramName = params.getName(i).eval(scope);
-
             Expression valueExpr = params.getValue(i);
             if(valueExpr != null){
-                PhiObject paramValue = valueExpr.eval(scope);
-                paramValue = bindAndLookUp(paramValue, scope);
+                PhiObject paramName = params.getName(i).eval(scope);
+                PhiObject paramValue = valueExpr.evalAndLookUp(scope);
                 paramCollection.createMember(paramName);
                 paramCollection.setNamed(paramName.toString(), paramValue);
             }else{
-                paramName = bindAndLookUp(paramName, scope);
+                PhiObject paramValue = params.getName(i).evalAndLookUp(scope);
                 paramCollection.createMember(new PhiInt(numUnnamed));
-                paramCollection.setUnnamed(numUnnamed, paramName);
+                paramCollection.setUnnamed(numUnnamed, paramValue);
                 numUnnamed++;
             }
         }
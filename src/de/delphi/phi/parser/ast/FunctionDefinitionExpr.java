@@ -3,20 +3,61 @@ package de.delphi.phi.parser.ast;
 import de.delphi.phi.PhiRuntimeException;
 import de.delphi.phi.PhiScope;
 import de.delphi.phi.PhiTypeException;
+import de.delphi.phi.ScopeLayout;
 import de.delphi.phi.data.*;
 
 import java.util.ArrayList;
 
 public class FunctionDefinitionExpr extends Expression {
 
-    private ExpressionList params;
+    private final ExpressionList params;
 
-    private FunctionBody body;
+    private final FunctionBody body;
+
+    /**
+     * Layout of the scope in which the body is executed. It contains the parameters and all variables declared
+     * directly in the body.
+     */
+    private ScopeLayout bodyLayout;
+
+    /**
+     * Names of the parameters, or null if some names are computed when the function is created
+     */
+    private final String[] names;
+
+    /**
+     * Whether all default values are literals, so that all functions created by this definition can share the
+     * same ParameterList
+     */
+    private final boolean constantDefaults;
+
+    /**
+     * Parameter list that is shared by the functions created by this definition, if the names are known. It is
+     * created by the first evaluation, after the Resolver has set the layout of the body. Concurrent evaluations
+     * may create it more than once, which is harmless.
+     */
+    private ParameterList template;
 
     public FunctionDefinitionExpr(ExpressionList params, FunctionBody body){
         this.params = params;
         this.body = body;
 
+        String[] names = new String[params.length()];
+        boolean constantDefaults = true;
+        for(int i = 0; i < params.length(); i++){
+            Expression nameExpr = params.getName(i);
+            if(names != null && nameExpr instanceof Atom && ((Atom) nameExpr).getContent().getType() == Type.SYMBOL)
+                names[i] = ((Atom) nameExpr).getName();
+            else
+                names = null;
+
+            Expression valueExpr = params.getValue(i);
+            if(valueExpr != null && !isLiteral(valueExpr))
+                constantDefaults = false;
+        }
+        this.names = names;
+        this.constantDefaults = constantDefaults;
+
         for(int i = 0; i < params.length(); i++){
             params.getName(i).parentExpression = this;
             Expression valueExpr = params.getValue(i);
@@ -26,11 +67,45 @@ public class FunctionDefinitionExpr extends Expression {
         body.parentExpression = this;
     }
 
+    @Override
+    void resolve(Resolver resolver) {
+        layout = resolver.openFrame();
+        for(int i = 0; i < params.length(); i++){
+            params.getName(i).resolve(resolver);
+            Expression valueExpr = params.getValue(i);
+            if(valueExpr != null)
+                valueExpr.resolveValue(resolver);
+        }
+        resolver.closeFrame();
+
+        //The function body is executed in a new scope below the scope the function was defined in
+        bodyLayout = resolver.openFunctionFrame();
+        for(int i = 0; i < params.length(); i++){
+            Expression nameExpr = params.getName(i);
+            if(nameExpr instanceof Atom && ((Atom) nameExpr).isVariable())
+                resolver.declare(((Atom) nameExpr).getName());
+            else
+                resolver.declareDynamic();
+        }
+        resolver.enterFunction(body);
+        body.resolveValue(resolver);
+        body.markTailPosition();
+        resolver.exitJumpTarget();
+        resolver.closeFrame();
+    }
+
+    /**
+     * Returns the layout of the scopes the body is executed in, which hold the parameters.
+     */
+    ScopeLayout getBodyLayout(){
+        return bodyLayout;
+    }
+
     @Override
     public Expression getChild(int index) {
         if(index == 0)
             return body;
-        else if(index > params.length() || index < 0){
+        else if(index > 0 && index < countChildren()){
             int paramIndex = index - 1;
             if((paramIndex & 1) == 0)
                 return params.getName(paramIndex >> 1);
@@ -47,8 +122,49 @@ public class FunctionDefinitionExpr extends Expression {
 
     @Override
     public PhiObject eval(PhiCollection parentScope) throws PhiRuntimeException {
-        scope = new PhiScope(parentScope);
+        if(names == null)
+            return new PhiFunction(parentScope, createParameterList(openScope(parentScope)), body);
+
+        ParameterList template = this.template;
+        if(template == null){
+            template = createTemplate();
+            this.template = template;
+        }
+        if(constantDefaults)
+            return new PhiFunction(parentScope, template, body);
+
+        //Only the default values have to be evaluated for every function
+        PhiCollection scope = openScope(parentScope);
+        PhiObject[] defaultValues = new PhiObject[params.length()];
+        for(int i = 0; i < params.length(); i++){
+            Expression valueExpr = params.getValue(i);
+            if(valueExpr != null)
+                defaultValues[i] = valueExpr.evalAndLookUp(scope);
+        }
+        return new PhiFunction(parentScope, template.withDefaultValues(defaultValues), body);
+    }
+
+    private static boolean isLiteral(Expression expr){
+        return expr instanceof Atom && ((Atom) expr).getContent().getType() != Type.SYMBOL;
+    }
+
+    private ParameterList createTemplate(){
+        //Literal default values are the same for all functions, the others are filled in for every function
+        PhiObject[] defaultValues = new PhiObject[params.length()];
+        for(int i = 0; i < params.length(); i++){
+            Expression valueExpr = params.getValue(i);
+            if(isLiteral(valueExpr))
+                defaultValues[i] = ((Atom) valueExpr).getContent();
+            else if(valueExpr != null)
+                defaultValues[i] = PhiNull.NULL;
+        }
+        return new ParameterList(names, defaultValues, bodyLayout);
+    }
 
+    /**
+     * Creates the parameter list for a function whose parameter names are computed.
+     */
+    private ParameterList createParameterList(PhiCollection scope) throws PhiRuntimeException {
         ArrayList<String> names = new ArrayList<>();
         PhiScope defaultValues = new PhiScope();
         for(int i = 0; i < params.length(); i++){
@@ -59,14 +175,12 @@ public class FunctionDefinitionExpr extends Expression {
 
             Expression valueExpr = params.getValue(i);
             if(valueExpr != null){
-                PhiObject value = valueExpr.eval(scope);
-                value = bindAndLookUp(value, scope);
+                PhiObject value = valueExpr.evalAndLookUp(scope);
                 defaultValues.createMember(name);
                 defaultValues.setNamed(name.toString(), value);
             }
         }
 
-        ParameterList paramList = new ParameterList(names, defaultValues);
-        return new PhiFunction(parentScope, paramList, body);
+        return new ParameterList(names, defaultValues, bodyLayout);
     }
 }
@@ -1,14 +1,13 @@
 package de.delphi.phi.parser.ast;
 
 import de.delphi.phi.PhiRuntimeException;
-import de.delphi.phi.PhiScope;
 import de.delphi.phi.data.PhiCollection;
 import de.delphi.phi.data.PhiNull;
 import de.delphi.phi.data.PhiObject;
 
 public class IfExpr extends Expression{
 
-    private Expression condition, trueExpr, falseExpr;
+    private final Expression condition, trueExpr, falseExpr;
 
     public IfExpr(Expression condition, Expression trueExpr, Expression falseExpr){
         this.condition = condition;
@@ -21,6 +20,38 @@ public class IfExpr extends Expression{
             falseExpr.parentExpression = this;
     }
 
+    private void resolve(Resolver resolver, boolean lookUpResult){
+        layout = resolver.openFrame();
+        condition.resolveValue(resolver);
+        if(lookUpResult){
+            trueExpr.resolveValue(resolver);
+            if(falseExpr != null)
+                falseExpr.resolveValue(resolver);
+        }else{
+            trueExpr.resolve(resolver);
+            if(falseExpr != null)
+                falseExpr.resolve(resolver);
+        }
+        resolver.closeFrame();
+    }
+
+    @Override
+    void resolve(Resolver resolver) {
+        resolve(resolver, false);
+    }
+
+    @Override
+    void resolveValue(Resolver resolver) {
+        resolve(resolver, true);
+    }
+
+    @Override
+    void markTailPosition() {
+        trueExpr.markTailPosition();
+        if(falseExpr != null)
+            falseExpr.markTailPosition();
+    }
+
     @Override
     public Expression getChild(int index) {
         switch(index){
@@ -36,17 +67,25 @@ public class IfExpr extends Expression{
         return falseExpr == null ? 2:3;
     }
 
+    private Expression selectBranch(PhiCollection scope) throws PhiRuntimeException {
+        PhiObject conditionResult = condition.evalAndLookUp(scope);
+        return conditionResult.longValue() != 0 ? trueExpr : falseExpr;
+    }
+
     @Override
     public PhiObject eval(PhiCollection parentScope) throws PhiRuntimeException {
-        scope = new PhiScope(parentScope);
-
-        PhiObject conditionResult = condition.eval(scope);
-        conditionResult = bindAndLookUp(conditionResult, scope);
-        if(conditionResult.longValue() != 0){
-            return trueExpr.eval(scope);
-        }else if(falseExpr != null){
-            return falseExpr.eval(scope);
-        }else
-            return PhiNull.NULL;
+        PhiCollection scope = openScope(parentScope);
+
+        Expression branch = selectBranch(scope);
+        return branch != null ? branch.eval(scope) : PhiNull.NULL;
+    }
+
+    @Override
+    public PhiObject evalAndLookUp(PhiCollection parentScope) throws PhiRuntimeException {
+        PhiCollection scope = openScope(parentScope);
+
+        //The branch is looked up in this scope, because variables declared here are not visible outside
+        Expression branch = selectBranch(scope);
+        return branch != null ? branch.evalAndLookUp(scope) : PhiNull.NULL;
     }
 }
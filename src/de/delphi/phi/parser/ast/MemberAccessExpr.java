@@ -1,8 +1,8 @@
 package de.delphi.phi.parser.ast;
 
 import de.delphi.phi.PhiRuntimeException;
-import de.delphi.phi.PhiScope;
 import de.delphi.phi.PhiTypeException;
+import de.delphi.phi.data.MemberCache;
 import de.delphi.phi.data.PhiCollection;
 import de.delphi.phi.data.PhiObject;
 import de.delphi.phi.data.PhiSymbol;
@@ -10,16 +10,34 @@ import de.delphi.phi.data.Type;
 
 public class MemberAccessExpr extends Expression {
 
-    private Expression collectionExpr, nameExpr;
+    private final Expression collectionExpr, nameExpr;
+
+    /**
+     * Inline cache for reading the member, if the name is a literal symbol
+     */
+    private final MemberCache cache;
 
     public MemberAccessExpr(Expression collectionExpr, Expression nameExpr){
         this.collectionExpr = collectionExpr;
         this.nameExpr = nameExpr;
 
+        if(nameExpr instanceof Atom && ((Atom) nameExpr).getContent().getType() == Type.SYMBOL)
+            cache = new MemberCache(((Atom) nameExpr).getName());
+        else
+            cache = null;
+
         collectionExpr.parentExpression = this;
         nameExpr.parentExpression = this;
     }
 
+    @Override
+    void resolve(Resolver resolver) {
+        layout = resolver.openFrame();
+        collectionExpr.resolveValue(resolver);
+        nameExpr.resolve(resolver);
+        resolver.closeFrame();
+    }
+
     @Override
     public Expression getChild(int index) {
         switch(index){
@@ -34,12 +52,18 @@ public class MemberAccessExpr extends Expression {
         return 2;
     }
 
+    /**
+     * Returns the inline cache for reading the member, or null if the name of the member is computed.
+     */
+    public MemberCache getCache(){
+        return cache;
+    }
+
     @Override
     public PhiObject eval(PhiCollection parentScope) throws PhiRuntimeException {
-        scope = new PhiScope(parentScope);
+        PhiCollection scope = openScope(parentScope);
 
-        PhiObject collection = collectionExpr.eval(scope);
-        collection = bindAndLookUp(collection, parentScope);
+        PhiObject collection = collectionExpr.evalAndLookUp(scope);
 
         PhiObject name = nameExpr.eval(scope);
         if(name.getType() != Type.SYMBOL)
@@ -47,4 +71,14 @@ public class MemberAccessExpr extends Expression {
 
         return new PhiSymbol(name.toString(), collection);
     }
+
+    @Override
+    public PhiObject evalAndLookUp(PhiCollection parentScope) throws PhiRuntimeException {
+        if(cache == null)
+            return super.evalAndLookUp(parentScope);
+
+        //The member is read through the cache, so there is no need for a symbol
+        PhiCollection scope = openScope(parentScope);
+        return cache.get(collectionExpr.evalAndLookUp(scope));
+    }
 }
@@ -1,7 +1,6 @@
 package de.delphi.phi.parser.ast;
 
 import de.delphi.phi.PhiRuntimeException;
-import de.delphi.phi.PhiScope;
 import de.delphi.phi.PhiTypeException;
 import de.delphi.phi.data.*;
 
@@ -21,7 +20,13 @@ public class MulExpr extends BinaryExpr {
         super(left, operator, right);
     }
 
-    private PhiObject mul(PhiObject po1, PhiObject po2) throws PhiRuntimeException{
+    private static long checkDivisor(long divisor) throws PhiRuntimeException{
+        if(divisor == 0)
+            throw new PhiRuntimeException("Division by 0");
+        return divisor;
+    }
+
+    public static PhiObject mul(PhiObject po1, PhiObject po2) throws PhiRuntimeException{
         Type commonType = Type.coerceTypes(po1.getType(), po2.getType());
         switch(commonType){
             case INT: return new PhiInt(po1.longValue() * po2.longValue());
@@ -30,27 +35,19 @@ public class MulExpr extends BinaryExpr {
         }
     }
 
-    private PhiObject div(PhiObject po1, PhiObject po2) throws PhiRuntimeException{
+    public static PhiObject div(PhiObject po1, PhiObject po2) throws PhiRuntimeException{
         Type commonType = Type.coerceTypes(po1.getType(), po2.getType());
         switch(commonType){
-            case INT: {
-                if(po2.longValue() == 0)
-                    throw new PhiRuntimeException("Division by 0");
-                return new PhiInt(po1.longValue() / po2.longValue());
-            }
+            case INT: return new PhiInt(po1.longValue() / checkDivisor(po2.longValue()));
             case FLOAT: return new PhiFloat(po1.doubleValue() / po2.doubleValue());
             default: throw new PhiTypeException("/ operator can not operate on types " + po1.getType() + ", " + po2.getType());
         }
     }
 
-    private PhiObject mod(PhiObject po1, PhiObject po2) throws PhiRuntimeException{
+    public static PhiObject mod(PhiObject po1, PhiObject po2) throws PhiRuntimeException{
         Type commonType = Type.coerceTypes(po1.getType(), po2.getType());
         switch(commonType){
-            case INT: {
-                if(po2.longValue() == 0)
-                    throw new PhiRuntimeException("Division by 0");
-                return new PhiInt(po1.longValue() % po2.longValue());
-            }
+            case INT: return new PhiInt(po1.longValue() % checkDivisor(po2.longValue()));
             case FLOAT: return new PhiFloat(po1.doubleValue() % po2.doubleValue());
             default: throw new PhiTypeException("% operator can not operate on types " + po1.getType() + ", " + po2.getType());
         }
@@ -58,19 +55,33 @@ public class MulExpr extends BinaryExpr {
 
     @Override
     public PhiObject eval(PhiCollection parentScope) throws PhiRuntimeException {
-        scope = new PhiScope(parentScope);
-        PhiObject result = operands[0].eval(scope);
-        result = bindAndLookUp(result, scope);
+        PhiCollection scope = openScope(parentScope);
+        PhiObject result = operands[0].evalAndLookUp(scope);
 
         for(int i = 1; i < operands.length; i++){
-            PhiObject po2 = operands[i].eval(scope);
-
-            po2 = bindAndLookUp(po2, scope);
+            PhiObject po2 = operands[i].evalAndLookUp(scope);
 
-            switch(operators[i]) {
-                case OP_MUL: result = mul(result, po2); break;
-                case OP_DIV: result = div(result, po2); break;
-                case OP_MOD: result = mod(result, po2); break;
+            Specialization specialization = specialize(i, result, po2);
+            if(specialization == Specialization.INT){
+                long a = result.longValue(), b = po2.longValue();
+                switch(operators[i]) {
+                    case OP_MUL: result = new PhiInt(a * b); break;
+                    case OP_DIV: result = new PhiInt(a / checkDivisor(b)); break;
+                    case OP_MOD: result = new PhiInt(a % checkDivisor(b)); break;
+                }
+            }else if(specialization == Specialization.FLOAT){
+                double a = result.doubleValue(), b = po2.doubleValue();
+                switch(operators[i]) {
+                    case OP_MUL: result = new PhiFloat(a * b); break;
+                    case OP_DIV: result = new PhiFloat(a / b); break;
+                    case OP_MOD: result = new PhiFloat(a % b); break;
+                }
+            }else{
+                switch(operators[i]) {
+                    case OP_MUL: result = mul(result, po2); break;
+                    case OP_DIV: result = div(result, po2); break;
+                    case OP_MOD: result = mod(result, po2); break;
+                }
             }
         }
         return result;
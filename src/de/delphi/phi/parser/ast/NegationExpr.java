@@ -13,15 +13,21 @@ public class NegationExpr extends UnaryExpr {
         super(body);
     }
 
-    @Override
-    public PhiObject eval(PhiCollection parentScope) throws PhiRuntimeException {
-        PhiObject result = body.eval(parentScope);
-        result = bindAndLookUp(result, parentScope);
-
+    public static PhiObject negate(PhiObject result) throws PhiRuntimeException {
         switch(result.getType()){
             case INT: return new PhiInt(-result.longValue());
             case FLOAT: return new PhiFloat(-result.doubleValue());
             default: throw new PhiTypeException("Cannot negate type " + result.getType());
         }
     }
+
+    @Override
+    public PhiObject eval(PhiCollection parentScope) throws PhiRuntimeException {
+        PhiObject value = body.evalAndLookUp(parentScope);
+        switch(specialize(value)){
+            case INT: return new PhiInt(-value.longValue());
+            case FLOAT: return new PhiFloat(-value.doubleValue());
+            default: return negate(value);
+        }
+    }
 }
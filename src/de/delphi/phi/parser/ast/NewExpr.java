@@ -15,8 +15,7 @@ public class NewExpr extends UnaryExpr {
 
     @Override
     public PhiObject eval(PhiCollection parentScope) throws PhiRuntimeException {
-        PhiObject result = body.eval(parentScope);
-        result = bindAndLookUp(result, parentScope);
+        PhiObject result = body.evalAndLookUp(parentScope);
 
         if(result.getType() == Type.COLLECTION)
             try {
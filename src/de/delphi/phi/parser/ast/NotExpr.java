@@ -13,14 +13,18 @@ public class NotExpr extends UnaryExpr {
         super(body);
     }
 
-    @Override
-    public PhiObject eval(PhiCollection parentScope) throws PhiRuntimeException {
-        PhiObject result = body.eval(parentScope);
-        result = bindAndLookUp(result, parentScope);
-
+    public static PhiObject not(PhiObject result) throws PhiRuntimeException {
         if(result.getType() == Type.INT)
             return new PhiInt(~result.longValue());
         else
             throw new PhiTypeException("Cannot invert type " + result.getType());
     }
+
+    @Override
+    public PhiObject eval(PhiCollection parentScope) throws PhiRuntimeException {
+        PhiObject value = body.evalAndLookUp(parentScope);
+        if(specialize(value) == Specialization.INT)
+            return new PhiInt(~value.longValue());
+        return not(value);
+    }
 }
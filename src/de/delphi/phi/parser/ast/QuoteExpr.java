@@ -13,6 +13,13 @@ public class QuoteExpr extends UnaryExpr {
         super(body);
     }
 
+    @Override
+    void resolve(Resolver resolver) {
+        //The body is quoted, so it is not looked up
+        body.resolve(resolver);
+        resolver.declareTemporary();
+    }
+
     @Override
     public PhiObject eval(PhiCollection parentScope) throws PhiRuntimeException {
         PhiObject value = body.eval(parentScope);
@@ -1,7 +1,6 @@
 package de.delphi.phi.parser.ast;
 
 import de.delphi.phi.PhiRuntimeException;
-import de.delphi.phi.PhiScope;
 import de.delphi.phi.PhiTypeException;
 import de.delphi.phi.data.PhiCollection;
 import de.delphi.phi.data.PhiInt;
@@ -27,7 +26,7 @@ public class RelationalExpr extends BinaryExpr {
         super(left, operator, right);
     }
 
-    private boolean opEquals(PhiObject left, PhiObject right) throws PhiRuntimeException{
+    private static boolean opEquals(PhiObject left, PhiObject right) throws PhiRuntimeException{
         Type commonType = Type.coerceTypes(left.getType(), right.getType());
         switch(commonType){
             case INT: return left.longValue() == right.longValue();
@@ -39,7 +38,7 @@ public class RelationalExpr extends BinaryExpr {
         }
     }
 
-    private boolean opLess(PhiObject left, PhiObject right) throws PhiRuntimeException{
+    private static boolean opLess(PhiObject left, PhiObject right) throws PhiRuntimeException{
         Type commonType = Type.coerceTypes(left.getType(), right.getType());
         switch(commonType){
             case INT: return left.longValue() < right.longValue();
@@ -51,7 +50,7 @@ public class RelationalExpr extends BinaryExpr {
         }
     }
 
-    private boolean relOp(PhiObject left, int op, PhiObject right) throws PhiRuntimeException{
+    public static boolean relOp(PhiObject left, int op, PhiObject right) throws PhiRuntimeException{
         switch(op){
             case OP_EQUALS: return opEquals(left, right);
             case OP_NOT_EQUALS: return !opEquals(left, right);
@@ -63,25 +62,59 @@ public class RelationalExpr extends BinaryExpr {
         }
     }
 
+    /**
+     * Combines the results of a less than and an equals comparison to the result of a relational operator, like
+     * relOp() does.
+     */
+    private static boolean combine(int op, boolean less, boolean equal){
+        switch(op){
+            case OP_EQUALS: return equal;
+            case OP_NOT_EQUALS: return !equal;
+            case OP_LESS_THAN: return less;
+            case OP_LESS_EQUALS: return less || equal;
+            case OP_GREATER_THAN: return !(less || equal);
+            default: return !less;
+        }
+    }
+
+    /**
+     * Applies the operator with the given index, using a variant specialized for the types seen so far.
+     */
+    private boolean relation(int index, PhiObject left, PhiObject right) throws PhiRuntimeException{
+        switch(specialize(index, left, right)){
+            case INT: {
+                long a = left.longValue(), b = right.longValue();
+                return combine(operators[index], a < b, a == b);
+            }
+            case FLOAT: {
+                double a = left.doubleValue(), b = right.doubleValue();
+                return combine(operators[index], a < b, a == b);
+            }
+            case STRING: {
+                int comparison = left.toString().compareTo(right.toString());
+                return combine(operators[index], comparison < 0, comparison == 0);
+            }
+            default:
+                return relOp(left, operators[index], right);
+        }
+    }
+
     @Override
     public PhiObject eval(PhiCollection parentScope) throws PhiRuntimeException {
-        scope = new PhiScope(parentScope);
+        PhiCollection scope = openScope(parentScope);
 
-        PhiObject left = operands[0].eval(scope);
-        left = bindAndLookUp(left, scope);
+        PhiObject left = operands[0].evalAndLookUp(scope);
 
-        PhiObject right = operands[1].eval(scope);
-        right = bindAndLookUp(right, scope);
+        PhiObject right = operands[1].evalAndLookUp(scope);
 
         //Result is not the left side of the next operator, but the overall result
         //This enables expressions like  0 < alpha < 5
-        boolean result = relOp(left, operators[1], right);
+        boolean result = relation(1, left, right);
 
         for(int i = 2; i < operands.length; i++){
             left = right;
-            right = operands[i].eval(scope);
-            right = bindAndLookUp(right, scope);
-            result = result && relOp(left, operators[i], right);
+            right = operands[i].evalAndLookUp(scope);
+            result = result && relation(i, left, right);
         }
         return result ? PhiInt.TRUE : PhiInt.FALSE;
     }
@@ -0,0 +1,227 @@
+package de.delphi.phi.parser.ast;
+
+import de.delphi.phi.ScopeLayout;
+
+import java.util.ArrayList;
+
+/**
+ * Assigns lexical addresses to the variables of an AST.
+ *
+ * The Resolver mirrors the scopes that are created while an expression is evaluated. Every expression that opens a
+ * scope gets a ScopeLayout, which lists the variables declared in that scope. A variable that is read or assigned
+ * is then given an address of the form (depth, slot): the number of scopes between the access and the declaring
+ * scope, and the slot of the variable within that scope. At runtime such an access only has to follow
+ * {@code depth} parent scopes and index the slot array, instead of probing the member maps of the whole scope chain.
+ *
+ * Scopes that do not contain any declarations are not created at all (see {@code ScopeLayout.isEmpty()}), so they
+ * are not counted in the depth of an address.
+ *
+ * Lookups that cannot be resolved statically keep using names. This is the case for variables declared outside of
+ * the resolved expression, for variables found in collections (which can change their members and superclasses at
+ * any time) and for scopes that contain declarations with computed names.
+ */
+public class Resolver {
+
+    private static class Frame {
+
+        final Frame parent;
+
+        /**
+         * Layout of the scope, or null if the frame is a collection or the scope the expression is evaluated in.
+         * Those scopes are only known at runtime, so resolution stops there.
+         */
+        final ScopeLayout layout;
+
+        /**
+         * Whether the scope is omitted at runtime if its layout is empty. This is not the case for function bodies,
+         * whose scope always holds the parameters.
+         */
+        final boolean elidable;
+
+        Frame(Frame parent, ScopeLayout layout, boolean elidable){
+            this.parent = parent;
+            this.layout = layout;
+            this.elidable = elidable;
+        }
+
+        boolean isElided(){
+            return elidable && layout.isEmpty();
+        }
+    }
+
+    private static class Reference {
+
+        final Atom atom;
+
+        final Frame frame;
+
+        Reference(Atom atom, Frame frame){
+            this.atom = atom;
+            this.frame = frame;
+        }
+    }
+
+    /**
+     * Targets of break, continue and return at the current position in the AST
+     */
+    private static class JumpTargets {
+
+        final JumpTargets parent;
+
+        final Expression loop;
+
+        final FunctionBody function;
+
+        JumpTargets(JumpTargets parent, Expression loop, FunctionBody function){
+            this.parent = parent;
+            this.loop = loop;
+            this.function = function;
+        }
+    }
+
+    private Frame current;
+
+    private JumpTargets jumpTargets = new JumpTargets(null, null, null);
+
+    private final ArrayList<Reference> references = new ArrayList<>();
+
+    private Resolver(){
+        current = new Frame(null, null, false);
+    }
+
+    /**
+     * Resolves all variables and jump targets in the given expression. The expression can then be evaluated in any
+     * scope. Expressions created by the Parser are already resolved, other expressions must be resolved before
+     * they are evaluated.
+     * @param expr The expression to resolve.
+     */
+    public static void resolve(Expression expr){
+        Resolver resolver = new Resolver();
+        expr.resolve(resolver);
+        resolver.resolveReferences();
+    }
+
+    /**
+     * Opens the scope of an expression. All declarations and references until the matching call to
+     * {@code closeFrame()} belong to this scope.
+     * @return The layout of the new scope.
+     */
+    ScopeLayout openFrame(){
+        current = new Frame(current, new ScopeLayout(), true);
+        return current.layout;
+    }
+
+    /**
+     * Opens the scope of a function body. Unlike other scopes, it is created even if nothing is declared in it.
+     * @return The layout of the new scope.
+     */
+    ScopeLayout openFunctionFrame(){
+        current = new Frame(current, new ScopeLayout(), false);
+        return current.layout;
+    }
+
+    /**
+     * Opens a scope whose members are only known at runtime, e.g. a collection.
+     */
+    void openDynamicFrame(){
+        current = new Frame(current, null, false);
+    }
+
+    void closeFrame(){
+        current = current.parent;
+    }
+
+    /**
+     * Returns the layout of the current scope, or null if it is not known statically.
+     */
+    ScopeLayout currentLayout(){
+        return current.layout;
+    }
+
+    /**
+     * Declares a variable in the current scope.
+     * @param name The name of the variable.
+     * @return The slot of the variable or -1 if the current scope does not have a layout.
+     */
+    int declare(String name){
+        if(current.layout == null)
+            return -1;
+        return current.layout.declare(name);
+    }
+
+    /**
+     * Marks the current scope as containing declarations whose names are not known statically.
+     */
+    void declareDynamic(){
+        if(current.layout != null)
+            current.layout.markDynamic();
+    }
+
+    /**
+     * Marks the current scope as containing temporary members, so that it is not elided.
+     */
+    void declareTemporary(){
+        if(current.layout != null)
+            current.layout.markTemporaries();
+    }
+
+    /**
+     * Makes the given loop the target of break and continue, until the matching call to {@code exitJumpTarget()}.
+     */
+    void enterLoop(Expression loop){
+        jumpTargets = new JumpTargets(jumpTargets, loop, jumpTargets.function);
+    }
+
+    /**
+     * Makes the given function body the target of return, until the matching call to {@code exitJumpTarget()}.
+     * Loops outside of the function can not be targeted by break and continue.
+     */
+    void enterFunction(FunctionBody body){
+        jumpTargets = new JumpTargets(jumpTargets, null, body);
+    }
+
+    void exitJumpTarget(){
+        jumpTargets = jumpTargets.parent;
+    }
+
+    /**
+     * Returns the innermost loop of the current function, or null if there is none.
+     */
+    Expression currentLoop(){
+        return jumpTargets.loop;
+    }
+
+    /**
+     * Returns the body of the innermost function, or null if there is none.
+     */
+    FunctionBody currentFunction(){
+        return jumpTargets.function;
+    }
+
+    /**
+     * Records a variable access in the current scope. The access is resolved once the whole expression has been
+     * visited, so that declarations which appear later in the same scope are taken into account.
+     */
+    void reference(Atom atom){
+        references.add(new Reference(atom, current));
+    }
+
+    private void resolveReferences(){
+        for(Reference reference: references){
+            String name = reference.atom.getName();
+            int depth = 0;
+            for(Frame frame = reference.frame; frame != null && frame.layout != null; frame = frame.parent){
+                if(frame.isElided())
+                    continue;
+                int slot = frame.layout.indexOf(name);
+                if(slot >= 0){
+                    reference.atom.setAddress(depth, slot, frame.layout);
+                    break;
+                }
+                if(frame.layout.isDynamic())
+                    break;
+                depth++;
+            }
+        }
+    }
+}
@@ -6,23 +6,42 @@ import de.delphi.phi.data.PhiObject;
 
 public class ReturnExpr extends UnaryExpr {
 
+    /**
+     * The function body that is targeted by this expression, as determined by the Resolver
+     */
+    private FunctionBody target;
+
     public ReturnExpr(Expression body){
         super(body);
     }
 
+    @Override
+    void resolve(Resolver resolver) {
+        super.resolve(resolver);
+        target = resolver.currentFunction();
+        if(target != null)
+            body.markTailPosition();
+    }
+
+    /**
+     * Returns the function body targeted by this expression, or null if it is not inside of a function.
+     */
+    public FunctionBody getTarget(){
+        return target;
+    }
+
     @Override
     public PhiObject eval(PhiCollection parentScope) throws PhiRuntimeException {
-        PhiObject retVal = body.eval(parentScope);
-        retVal = bindAndLookUp(retVal, parentScope);
-
-        Expression current = this;
-        while(!(current instanceof FunctionBody)){
-            if(current instanceof ExitableExpr)
-                ((ExitableExpr) current).exit(retVal);
-            current = current.parentExpression;
-        }
-        //Set return value of the function
-        ((ExitableExpr) current).exit(retVal);
-        return retVal;
+        PhiObject retVal = body.evalAndLookUp(parentScope);
+
+        if(target == null)
+            throw new PhiRuntimeException("return is not inside of a function.");
+        throw new ControlTransfer(ControlTransfer.Kind.RETURN, target, retVal);
+    }
+
+    @Override
+    public PhiObject evalAndLookUp(PhiCollection parentScope) throws PhiRuntimeException {
+        //The return value has already been looked up
+        return eval(parentScope);
     }
 }
@@ -1,7 +1,6 @@
 package de.delphi.phi.parser.ast;
 
 import de.delphi.phi.PhiRuntimeException;
-import de.delphi.phi.PhiScope;
 import de.delphi.phi.PhiTypeException;
 import de.delphi.phi.data.PhiCollection;
 import de.delphi.phi.data.PhiInt;
@@ -23,32 +22,34 @@ public class ShiftExpr extends BinaryExpr {
         super(left, operator, right);
     }
 
+    public static PhiObject shift(PhiObject po1, int operator, PhiObject po2) throws PhiRuntimeException {
+        if(po1.getType() != Type.INT)
+            throw new PhiTypeException("Shift operator can not perform on " + po1.getType());
+        if(po2.getType() != Type.INT)
+            throw new PhiTypeException("Shift operator can not perform on " + po2.getType());
+
+        switch(operator){
+            case OP_SHIFT_LEFT: return new PhiInt(po1.longValue() << po2.longValue());
+            case OP_SHIFT_RIGHT: return new PhiInt(po1.longValue() >>> po2.longValue());
+            default: throw new PhiTypeException("Bad operand " + operator);
+        }
+    }
+
     @Override
     public PhiObject eval(PhiCollection parentScope) throws PhiRuntimeException {
-        scope = new PhiScope(parentScope);
+        PhiCollection scope = openScope(parentScope);
 
-        PhiObject result = operands[0].eval(scope);
-        result = bindAndLookUp(result, scope);
+        PhiObject result = operands[0].evalAndLookUp(scope);
         if(result.getType() != Type.INT)
             throw new PhiTypeException("Shift operator can not perform on " + result.getType());
 
         for(int i = 1; i < operands.length; i++){
-            PhiObject po2 = operands[i].eval(scope);
-            po2 = bindAndLookUp(po2, scope);
-
-            if(po2.getType() != Type.INT)
-                throw new PhiTypeException("Shift operator can not perform on " + po2.getType());
-
-            switch(operators[i]){
-                case OP_SHIFT_LEFT: {
-                    result = new PhiInt(result.longValue() << po2.longValue());
-                    break;
-                }
-                case OP_SHIFT_RIGHT:{
-                    result = new PhiInt(result.longValue() >>> po2.longValue());
-                    break;
-                }
-            }
+            PhiObject po2 = operands[i].evalAndLookUp(scope);
+            if(specialize(i, result, po2) == Specialization.INT){
+                long a = result.longValue(), b = po2.longValue();
+                result = new PhiInt(operators[i] == OP_SHIFT_LEFT ? a << b : a >>> b);
+            }else
+                result = shift(result, operators[i], po2);
         }
         return result;
     }
@@ -0,0 +1,65 @@
+package de.delphi.phi.parser.ast;
+
+import de.delphi.phi.data.PhiFloat;
+import de.delphi.phi.data.PhiInt;
+import de.delphi.phi.data.PhiObject;
+import de.delphi.phi.data.PhiString;
+
+/**
+ * The operand types an operator has been specialized for.
+ *
+ * An operator starts out UNINITIALIZED and specializes itself for the types of the first operands it sees. As long as
+ * the operands keep these types, the operator can skip the type coercion of the generic implementation. Once other
+ * types show up, the operator becomes GENERIC for good.
+ *
+ * The state only moves in one direction and every specialized operation checks the types of its operands, so
+ * concurrent evaluations that race on the state still compute correct results.
+ */
+enum Specialization {
+
+    UNINITIALIZED,
+
+    /** Both operands are INTs */
+    INT,
+
+    /** Both operands are FLOATs */
+    FLOAT,
+
+    /** Both operands are STRINGs */
+    STRING,
+
+    GENERIC;
+
+    /**
+     * Returns whether the operands have the types this specialization was made for.
+     */
+    boolean accepts(PhiObject left, PhiObject right){
+        switch(this){
+            case INT: return left instanceof PhiInt && right instanceof PhiInt;
+            case FLOAT: return left instanceof PhiFloat && right instanceof PhiFloat;
+            case STRING: return left instanceof PhiString && right instanceof PhiString;
+            case GENERIC: return true;
+            default: return false;
+        }
+    }
+
+    /**
+     * Returns the specialization to use for the given operands. This is either this specialization, if it accepts
+     * the operands, the specialization for the operands if this one is UNINITIALIZED, or GENERIC.
+     */
+    Specialization next(PhiObject left, PhiObject right){
+        if(accepts(left, right))
+            return this;
+        if(this != UNINITIALIZED)
+            return GENERIC;
+
+        if(INT.accepts(left, right))
+            return INT;
+        else if(FLOAT.accepts(left, right))
+            return FLOAT;
+        else if(STRING.accepts(left, right))
+            return STRING;
+        else
+            return GENERIC;
+    }
+}
@@ -1,7 +1,6 @@
 package de.delphi.phi.parser.ast;
 
 import de.delphi.phi.PhiRuntimeException;
-import de.delphi.phi.PhiScope;
 import de.delphi.phi.PhiTypeException;
 import de.delphi.phi.data.PhiCollection;
 import de.delphi.phi.data.PhiObject;
@@ -10,7 +9,7 @@ import de.delphi.phi.data.Type;
 
 public class SubscriptExpr extends Expression {
 
-    private Expression collectionExpr, indexExpr;
+    private final Expression collectionExpr, indexExpr;
 
     public SubscriptExpr(Expression collectionExpr, Expression indexExpr){
         this.collectionExpr = collectionExpr;
@@ -20,6 +19,14 @@ public class SubscriptExpr extends Expression {
         indexExpr.parentExpression = this;
     }
 
+    @Override
+    void resolve(Resolver resolver) {
+        layout = resolver.openFrame();
+        collectionExpr.resolveValue(resolver);
+        indexExpr.resolveValue(resolver);
+        resolver.closeFrame();
+    }
+
     @Override
     public Expression getChild(int index) {
         switch(index){
@@ -36,13 +43,11 @@ public class SubscriptExpr extends Expression {
 
     @Override
     public PhiObject eval(PhiCollection parentScope) throws PhiRuntimeException {
-        scope = new PhiScope(parentScope);
+        PhiCollection scope = openScope(parentScope);
 
-        PhiObject collection = collectionExpr.eval(scope);
-        collection = bindAndLookUp(collection, parentScope);
+        PhiObject collection = collectionExpr.evalAndLookUp(scope);
 
-        PhiObject index = indexExpr.eval(scope);
-        index = bindAndLookUp(index, scope);
+        PhiObject index = indexExpr.evalAndLookUp(scope);
         if(index.getType() != Type.INT)
             throw new PhiTypeException("Subscript must be of type INT.");
 
@@ -0,0 +1,654 @@
+package de.delphi.phi.parser.ast;
+
+import de.delphi.phi.ScopeLayout;
+import de.delphi.phi.data.PhiObject;
+import de.delphi.phi.data.Type;
+
+import java.util.*;
+
+/**
+ * Infers the types that the expressions of a resolved AST can evaluate to.
+ *
+ * The inference follows the evaluation order of the expressions and tracks the types of every variable that the
+ * Resolver gave an address to. Literals have their own type, operators get the types that {@code Type.coerceTypes()}
+ * yields for the types of their operands (operand types for which an operator fails do not contribute), and an
+ * assignment sets the types of its variable to those of the assigned value. Where control flow joins, after
+ * conditionals and at the start of loops, the types of a variable are the union of the types on all incoming paths.
+ * Loops are analyzed until the types at their start no longer change.
+ *
+ * Everything the inference can not see through has all types: results of calls, members, subscripts, parameters and
+ * variables that are looked up by name. Variables that may be assigned where the inference does not follow, i.e. in
+ * nested functions or by name, have all types everywhere. Function bodies are analyzed on their own, as they may be
+ * called at any time.
+ *
+ * Whenever the types of a variable become more than one type, the reason is recorded, so that scripts can be changed
+ * to keep their variables monomorphic (see {@code dump()}).
+ */
+public class TypeInference {
+
+    private static final Set<Type> ALL = Collections.unmodifiableSet(EnumSet.allOf(Type.class));
+
+    private static final Set<Type> NONE = Collections.unmodifiableSet(EnumSet.noneOf(Type.class));
+
+    /**
+     * How an operator treats the types of its operands
+     */
+    private enum Operation {
+
+        /**
+         * +, which also concatenates strings and symbols
+         */
+        ADD,
+
+        /**
+         * -, *, / and %, which only work on numbers
+         */
+        NUMERIC,
+
+        /**
+         * Shifts and bitwise operators, which only work on INTs
+         */
+        INTEGER
+    }
+
+    /**
+     * A variable with a lexical address
+     */
+    private static final class Variable {
+
+        final ScopeLayout layout;
+
+        final int slot;
+
+        Variable(ScopeLayout layout, int slot){
+            this.layout = layout;
+            this.slot = slot;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Variable && ((Variable) obj).layout == layout && ((Variable) obj).slot == slot;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(layout) * 31 + slot;
+        }
+
+        @Override
+        public String toString() {
+            return layout.getName(slot);
+        }
+    }
+
+    /**
+     * Types of the variables at one point of the evaluation. Variables that are not contained have all types.
+     */
+    private static final class State {
+
+        final HashMap<Variable, Set<Type>> variables = new HashMap<>();
+
+        /**
+         * Variables whose slots have been declared on every path to the point. The slot of any other variable may
+         * still be empty, so that accesses fall back to a variable with the same name in an enclosing scope.
+         */
+        final HashSet<Variable> declared = new HashSet<>();
+
+        /**
+         * Whether the point can be reached at all, i.e. no break, continue or return has been evaluated before it
+         */
+        boolean reachable = true;
+
+        State copy(){
+            State copy = new State();
+            copy.variables.putAll(variables);
+            copy.declared.addAll(declared);
+            copy.reachable = reachable;
+            return copy;
+        }
+    }
+
+    /**
+     * A loop or function body that breaks, continues and returns jump to
+     */
+    private static final class Target {
+
+        State breaks, continues;
+
+        Set<Type> values = NONE;
+    }
+
+    private final IdentityHashMap<Expression, Set<Type>> types = new IdentityHashMap<>();
+
+    /**
+     * Union of the types of each variable at all reads and writes
+     */
+    private final LinkedHashMap<Variable, Set<Type>> variableTypes = new LinkedHashMap<>();
+
+    /**
+     * Reasons of widenings, by variable and the expression where it happened
+     */
+    private final LinkedHashMap<String, String> widenings = new LinkedHashMap<>();
+
+    private final IdentityHashMap<Expression, Target> targets = new IdentityHashMap<>();
+
+    /**
+     * Variables that may be assigned where the inference can not follow
+     */
+    private final Set<Variable> escaped = new HashSet<>();
+
+    private final Set<String> assignedByName = new HashSet<>();
+
+    /**
+     * Names of the variables that are assigned before their slot is declared, which assigns them by name
+     */
+    private final Set<String> assignedBeforeDeclaration = new HashSet<>();
+
+    /**
+     * Whether the expression assigns to computed names, which may be any variable
+     */
+    private boolean dynamicAssignments;
+
+    /**
+     * Function that declares the variables of each scope layout, null for the top level expression
+     */
+    private final IdentityHashMap<ScopeLayout, FunctionBody> owners = new IdentityHashMap<>();
+
+    private TypeInference(){
+
+    }
+
+    /**
+     * Infers the types of an expression and all expressions in it.
+     * @param expr A resolved expression.
+     * @return The inferred types.
+     */
+    public static TypeInference infer(Expression expr){
+        Set<String> byName = new HashSet<>();
+        while(true){
+            TypeInference inference = new TypeInference();
+            inference.assignedByName.addAll(byName);
+            inference.findEscapes(expr, null);
+            inference.analyze(expr, new State());
+            //Reads before the assignment did not know that the variables are assigned by name, so they are analyzed
+            //again
+            if(byName.containsAll(inference.assignedBeforeDeclaration))
+                return inference;
+            byName.addAll(inference.assignedBeforeDeclaration);
+        }
+    }
+
+    /**
+     * Returns the types the value of an expression may have, after looking it up. The set is empty if the
+     * expression is never evaluated successfully, and contains all types if nothing is known about it.
+     */
+    public Set<Type> getTypes(Expression expr){
+        Set<Type> result = types.get(expr);
+        return result != null ? Collections.unmodifiableSet(result) : ALL;
+    }
+
+    /**
+     * Returns whether the value of an expression always has the given type when its evaluation succeeds, so that
+     * code for it does not have to check the type.
+     */
+    public boolean isProven(Expression expr, Type type){
+        Set<Type> result = getTypes(expr);
+        return result.size() == 1 && result.contains(type);
+    }
+
+    /**
+     * Returns the reasons why variables have more than one type, one for each variable and place.
+     */
+    public List<String> getWidenings(){
+        return new ArrayList<>(widenings.values());
+    }
+
+    /**
+     * Returns a listing of the types of all variables, over all places where they are read or written, followed by
+     * the reasons of the widenings.
+     */
+    public String dump(){
+        StringBuilder sb = new StringBuilder("Variables:\n");
+        for(Map.Entry<Variable, Set<Type>> entry: variableTypes.entrySet())
+            sb.append("  ").append(entry.getKey()).append(": ").append(format(entry.getValue())).append('\n');
+        sb.append("Widenings:\n");
+        for(String widening: widenings.values())
+            sb.append("  ").append(widening).append('\n');
+        return sb.toString();
+    }
+
+    private static String format(Set<Type> set){
+        if(set.size() == ALL.size())
+            return "any";
+        if(set.isEmpty())
+            return "none";
+        StringJoiner joiner = new StringJoiner(", ");
+        for(Type type: set)
+            joiner.add(type.toString());
+        return joiner.toString();
+    }
+
+    private static Set<Type> union(Set<Type> a, Set<Type> b){
+        if(a.containsAll(b))
+            return a;
+        if(b.containsAll(a))
+            return b;
+        EnumSet<Type> result = EnumSet.copyOf(a);
+        result.addAll(b);
+        return result;
+    }
+
+    private void widen(Variable variable, Expression site, String reason){
+        widenings.put(variable + "@" + System.identityHashCode(site), variable + ": " + reason);
+    }
+
+    /*
+    Escapes
+     */
+
+    private Variable variable(Atom atom){
+        return atom.getDepth() >= 0 ? new Variable(atom.getDeclaringLayout(), atom.getSlot()) : null;
+    }
+
+    private void own(ScopeLayout layout, FunctionBody function){
+        if(layout != null && !owners.containsKey(layout))
+            owners.put(layout, function);
+    }
+
+    /**
+     * Finds the variables that are assigned in functions other than the one declaring them, and the names that are
+     * assigned by name.
+     */
+    private void findEscapes(Expression expr, FunctionBody function){
+        if(expr == null)
+            return;
+        own(expr.getLayout(), function);
+
+        if(expr instanceof FunctionDefinitionExpr){
+            FunctionBody body = (FunctionBody) expr.getChild(0);
+            own(((FunctionDefinitionExpr) expr).getBodyLayout(), body);
+            for(int i = 1; i < expr.countChildren(); i++)
+                findEscapes(expr.getChild(i), function);
+            findEscapes(body.getChild(0), body);
+            return;
+        }
+        if(expr instanceof VariableDeclarationExpr)
+            own(((VariableDeclarationExpr) expr).getDeclaringLayout(), function);
+        else if(expr instanceof AssignExpr){
+            Expression left = expr.getChild(0);
+            if(((AssignExpr) expr).assignsVariable()){
+                Variable variable = variable((Atom) left);
+                if(variable == null)
+                    assignedByName.add(((Atom) left).getName());
+                else if(!owners.containsKey(variable.layout) || owners.get(variable.layout) != function){
+                    escaped.add(variable);
+                    widen(variable, expr, "any type, because it is assigned in a nested function");
+                }
+            }
+            else if(!(left instanceof MemberAccessExpr || left instanceof SubscriptExpr))
+                dynamicAssignments = true;
+        }
+
+        for(int i = 0; i < expr.countChildren(); i++)
+            findEscapes(expr.getChild(i), function);
+    }
+
+    /*
+    Analysis
+     */
+
+    /**
+     * Returns the types of a variable at the current point, and records them for the dump.
+     */
+    private Set<Type> read(Variable variable, State state){
+        Set<Type> result = state.variables.get(variable);
+        if(result == null || !state.declared.contains(variable) || escaped.contains(variable) || dynamicAssignments ||
+                assignedByName.contains(variable.toString()))
+            result = ALL;
+        variableTypes.merge(variable, result, TypeInference::union);
+        return result;
+    }
+
+    private void write(Variable variable, Set<Type> value, State state, Expression site){
+        if(variable == null || !state.reachable)
+            return;
+        if(!state.declared.contains(variable)){
+            //The value is stored in a variable with the same name in an enclosing scope
+            if(assignedBeforeDeclaration.add(variable.toString()) && !escaped.contains(variable))
+                widen(variable, site, "any type, because it is assigned before it is declared");
+            return;
+        }
+        Set<Type> previous = state.variables.get(variable);
+        if(value.size() > 1 && (previous == null || previous.size() <= 1) && !escaped.contains(variable))
+            widen(variable, site, "assigned a value of types " + format(value));
+        state.variables.put(variable, value);
+        variableTypes.merge(variable, value, TypeInference::union);
+    }
+
+    /**
+     * Merges the state of another path into a state. Variables only known on one of the paths are not accessible
+     * after the join, or have all types anyway.
+     * @param site The expression where the paths join, for the reasons of widenings.
+     */
+    private void join(State state, State other, Expression site, String where){
+        if(other == null || !other.reachable)
+            return;
+        if(!state.reachable){
+            state.variables.clear();
+            state.variables.putAll(other.variables);
+            state.declared.clear();
+            state.declared.addAll(other.declared);
+            state.reachable = true;
+            return;
+        }
+        state.declared.retainAll(other.declared);
+
+        Iterator<Map.Entry<Variable, Set<Type>>> iterator = state.variables.entrySet().iterator();
+        while(iterator.hasNext()){
+            Map.Entry<Variable, Set<Type>> entry = iterator.next();
+            Set<Type> otherTypes = other.variables.get(entry.getKey());
+            if(otherTypes == null){
+                iterator.remove();
+                continue;
+            }
+            Set<Type> joined = union(entry.getValue(), otherTypes);
+            if(joined != entry.getValue() && joined.size() > 1 && !entry.getValue().isEmpty() &&
+                    !escaped.contains(entry.getKey()))
+                widen(entry.getKey(), site, format(entry.getValue()) + " and " + format(otherTypes) + " meet " + where);
+            entry.setValue(joined);
+        }
+    }
+
+    private Set<Type> record(Expression expr, Set<Type> result){
+        types.merge(expr, result, TypeInference::union);
+        return result;
+    }
+
+    /**
+     * Analyzes an expression and updates the state to the point after it.
+     * @return The types of the value of the expression.
+     */
+    private Set<Type> analyze(Expression expr, State state){
+        if(expr == null)
+            return NONE;
+        if(!state.reachable)
+            return record(expr, NONE);
+        //The slots of a scope that is opened again are empty until they are declared
+        ScopeLayout layout = expr.getLayout();
+        if(layout != null && !layout.isEmpty())
+            state.declared.removeIf(variable -> variable.layout == layout);
+
+        if(expr instanceof Atom)
+            return record(expr, analyzeAtom((Atom) expr, state));
+        else if(expr instanceof RelationalExpr){
+            analyzeChildren(expr, state);
+            return record(expr, EnumSet.of(Type.INT));
+        }
+        else if(expr instanceof BinaryExpr)
+            return record(expr, analyzeArithmetic((BinaryExpr) expr, state));
+        else if(expr instanceof NotExpr){
+            Set<Type> operand = analyze(expr.getChild(0), state);
+            return record(expr, operand.contains(Type.INT) ? EnumSet.of(Type.INT) : NONE);
+        }
+        else if(expr instanceof NegationExpr){
+            Set<Type> operand = analyze(expr.getChild(0), state);
+            EnumSet<Type> result = EnumSet.noneOf(Type.class);
+            for(Type type: operand){
+                if(type.isNumeric())
+                    result.add(type);
+            }
+            return record(expr, result);
+        }
+        else if(expr instanceof CompoundExpr){
+            Set<Type> result = EnumSet.of(Type.NULL);
+            for(int i = 0; i < expr.countChildren(); i++)
+                result = analyze(expr.getChild(i), state);
+            return record(expr, result);
+        }
+        else if(expr instanceof IfExpr)
+            return record(expr, analyzeIf((IfExpr) expr, state));
+        else if(expr instanceof WhileExpr || expr instanceof ForExpr)
+            return record(expr, analyzeLoop(expr, state));
+        else if(expr instanceof BreakExpr || expr instanceof ContinueExpr || expr instanceof ReturnExpr)
+            return record(expr, analyzeJump(expr, state));
+        else if(expr instanceof VariableDeclarationExpr)
+            return record(expr, analyzeDeclaration((VariableDeclarationExpr) expr, state));
+        else if(expr instanceof AssignExpr)
+            return record(expr, analyzeAssignment((AssignExpr) expr, state));
+        else if(expr instanceof FunctionDefinitionExpr){
+            for(int i = 1; i < expr.countChildren(); i++)
+                analyze(expr.getChild(i), state);
+            analyzeFunction((FunctionDefinitionExpr) expr);
+            return record(expr, EnumSet.of(Type.FUNCTION));
+        }
+        else if(expr instanceof CollectionDefinitionExpr || expr instanceof NewExpr){
+            analyzeChildren(expr, state);
+            return record(expr, EnumSet.of(Type.COLLECTION));
+        }
+
+        //Calls, members, subscripts and everything else
+        analyzeChildren(expr, state);
+        return record(expr, ALL);
+    }
+
+    private void analyzeChildren(Expression expr, State state){
+        //Member names are not evaluated as variables
+        int numChildren = expr instanceof MemberAccessExpr ? 1 : expr.countChildren();
+        for(int i = 0; i < numChildren; i++)
+            analyze(expr.getChild(i), state);
+    }
+
+    private Set<Type> analyzeAtom(Atom atom, State state){
+        PhiObject content = atom.getContent();
+        if(content.getType() != Type.SYMBOL)
+            return EnumSet.of(content.getType());
+        Variable variable = atom.isVariable() ? variable(atom) : null;
+        return variable != null ? read(variable, state) : ALL;
+    }
+
+    private static Operation operation(BinaryExpr expr, int operator){
+        if(expr instanceof AddExpr)
+            return operator == AddExpr.OP_ADD ? Operation.ADD : Operation.NUMERIC;
+        return expr instanceof MulExpr ? Operation.NUMERIC : Operation.INTEGER;
+    }
+
+    /**
+     * Returns the operation performed by an assignment operator, or null for a plain assignment.
+     */
+    private static Operation operation(int assignOperator){
+        switch(assignOperator){
+            case AssignExpr.OP_ASSIGN: return null;
+            case AssignExpr.OP_ASSIGN_ADD: return Operation.ADD;
+            case AssignExpr.OP_ASSIGN_SUB:
+            case AssignExpr.OP_ASSIGN_MUL:
+            case AssignExpr.OP_ASSIGN_DIV:
+            case AssignExpr.OP_ASSIGN_MOD: return Operation.NUMERIC;
+            default: return Operation.INTEGER;
+        }
+    }
+
+    /**
+     * Returns the types an operation yields for operands of the given types.
+     */
+    private static Set<Type> apply(Operation operation, Set<Type> left, Set<Type> right){
+        EnumSet<Type> result = EnumSet.noneOf(Type.class);
+        for(Type a: left){
+            for(Type b: right){
+                Type common = Type.coerceTypes(a, b);
+                if(operation == Operation.ADD){
+                    //Symbols are looked up by the parent and can have any value
+                    if(common == Type.SYMBOL)
+                        return ALL;
+                    if(common.isNumeric() || common == Type.STRING)
+                        result.add(common);
+                }
+                else if(operation == Operation.NUMERIC){
+                    if(common.isNumeric())
+                        result.add(common);
+                }
+                else if(a == Type.INT && b == Type.INT)
+                    result.add(Type.INT);
+            }
+        }
+        return result;
+    }
+
+    private Set<Type> analyzeArithmetic(BinaryExpr expr, State state){
+        Set<Type> result = analyze(expr.getChild(0), state);
+        for(int i = 1; i < expr.countChildren(); i++){
+            Set<Type> operand = analyze(expr.getChild(i), state);
+            result = apply(operation(expr, expr.getOperator(i)), result, operand);
+        }
+        return result;
+    }
+
+    private Set<Type> analyzeIf(IfExpr expr, State state){
+        analyze(expr.getChild(0), state);
+        State otherwise = state.copy();
+        Set<Type> result = analyze(expr.getChild(1), state);
+        Set<Type> elseResult = expr.countChildren() > 2 ? analyze(expr.getChild(2), otherwise) : EnumSet.of(Type.NULL);
+        join(state, otherwise, expr, "after an if");
+        return union(result, elseResult);
+    }
+
+    private Set<Type> analyzeLoop(Expression expr, State state){
+        boolean isFor = expr instanceof ForExpr;
+        Expression condition = expr.getChild(isFor ? 1 : 0);
+        Expression iteration = isFor ? expr.getChild(2) : null;
+        Expression body = expr.getChild(isFor ? 3 : 1);
+        String where = "at the start of " + (isFor ? "a for loop" : "a while loop");
+
+        if(isFor)
+            analyze(expr.getChild(0), state);
+
+        Set<Type> result = EnumSet.of(Type.NULL);
+        Target target = new Target();
+        targets.put(expr, target);
+        State exit;
+        while(true){
+            State head = state.copy();
+            analyze(condition, head);
+            exit = head.copy();
+
+            target.breaks = null;
+            target.continues = null;
+            result = union(result, analyze(body, head));
+            if(target.continues != null)
+                join(head, target.continues, expr, "where a continue jumps to");
+            if(iteration != null)
+                analyze(iteration, head);
+
+            //The types at the start of the next iteration
+            State next = state.copy();
+            join(next, head, expr, where);
+            if(next.reachable == state.reachable && next.variables.equals(state.variables) &&
+                    next.declared.equals(state.declared))
+                break;
+            state.variables.clear();
+            state.variables.putAll(next.variables);
+            state.declared.clear();
+            state.declared.addAll(next.declared);
+            state.reachable = next.reachable;
+        }
+        targets.remove(expr);
+
+        if(target.breaks != null)
+            join(exit, target.breaks, expr, "where a break jumps to");
+        state.variables.clear();
+        state.variables.putAll(exit.variables);
+        state.declared.clear();
+        state.declared.addAll(exit.declared);
+        state.reachable = exit.reachable;
+        return union(result, target.values);
+    }
+
+    private Set<Type> analyzeJump(Expression expr, State state){
+        Expression targetExpr;
+        if(expr instanceof BreakExpr)
+            targetExpr = ((BreakExpr) expr).getTarget();
+        else if(expr instanceof ContinueExpr)
+            targetExpr = ((ContinueExpr) expr).getTarget();
+        else
+            targetExpr = ((ReturnExpr) expr).getTarget();
+
+        Set<Type> value = expr.countChildren() > 0 ? analyze(expr.getChild(0), state) :
+                expr instanceof ContinueExpr ? NONE : EnumSet.of(Type.NULL);
+        Target target = targets.get(targetExpr);
+        if(target != null && state.reachable){
+            if(expr instanceof ContinueExpr){
+                if(target.continues == null)
+                    target.continues = state.copy();
+                else
+                    join(target.continues, state, expr, "where a continue jumps to");
+            }else if(expr instanceof BreakExpr){
+                if(target.breaks == null)
+                    target.breaks = state.copy();
+                else
+                    join(target.breaks, state, expr, "where a break jumps to");
+            }
+            target.values = union(target.values, value);
+        }
+        state.reachable = false;
+        return NONE;
+    }
+
+    private void analyzeFunction(FunctionDefinitionExpr expr){
+        FunctionBody body = (FunctionBody) expr.getChild(0);
+        ScopeLayout bodyLayout = expr.getBodyLayout();
+        State state = new State();
+        //The parameters are declared when the function is called
+        for(int i = 1; i < expr.countChildren(); i += 2){
+            Expression name = expr.getChild(i);
+            if(!(name instanceof Atom) || ((Atom) name).getContent().getType() != Type.SYMBOL)
+                continue;
+            int slot = bodyLayout.indexOf(((Atom) name).getName());
+            if(slot >= 0)
+                state.declared.add(new Variable(bodyLayout, slot));
+        }
+
+        Target target = new Target();
+        targets.put(body, target);
+        Set<Type> result = analyze(body.getChild(0), state);
+        targets.remove(body);
+        record(body, union(result, target.values));
+    }
+
+    private Set<Type> analyzeDeclaration(VariableDeclarationExpr expr, State state){
+        Set<Type> result = EnumSet.of(Type.NULL);
+        for(int i = 0; i < expr.countChildren() / 2; i++){
+            Expression valueExpr = expr.getChild(2 * i + 1);
+            Set<Type> value = valueExpr != null ? analyze(valueExpr, state) : EnumSet.of(Type.NULL);
+            int slot = expr.getSlot(i);
+            if(slot >= 0){
+                Variable variable = new Variable(expr.getDeclaringLayout(), slot);
+                if(state.reachable)
+                    state.declared.add(variable);
+                write(variable, value, state, expr);
+                result = read(variable, state);
+                record(expr.getChild(2 * i), result);
+            }else
+                result = ALL;
+        }
+        return result;
+    }
+
+    private Set<Type> analyzeAssignment(AssignExpr expr, State state){
+        Expression left = expr.getChild(0);
+        Operation operation = operation(expr.getOperator());
+        if(!expr.assignsVariable()){
+            analyzeChildren(left, state);
+            Set<Type> value = analyze(expr.getChild(1), state);
+            return operation == null ? value : ALL;
+        }
+
+        Variable variable = variable((Atom) left);
+        Set<Type> current = operation != null ? record(left, variable != null ? read(variable, state) : ALL) : null;
+        Set<Type> value = analyze(expr.getChild(1), state);
+        //Symbols among the operands of a compound assignment are looked up and can have any value
+        if(operation != null)
+            value = current.contains(Type.SYMBOL) || value.contains(Type.SYMBOL) ? ALL :
+                    apply(operation, current, value);
+        write(variable, value, state, expr);
+        return value;
+    }
+}
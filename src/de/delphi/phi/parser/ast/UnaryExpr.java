@@ -1,14 +1,42 @@
 package de.delphi.phi.parser.ast;
 
+import de.delphi.phi.data.PhiObject;
+
 abstract class UnaryExpr extends Expression{
 
-    protected Expression body;
+    protected final Expression body;
+
+    /**
+     * Operand type seen by this operator. See Specialization.
+     */
+    private Specialization specialization = Specialization.UNINITIALIZED;
 
     public UnaryExpr(Expression body){
         this.body = body;
         body.parentExpression = this;
     }
 
+    /**
+     * Records the type of the operand and returns the specialization this operator should use for it.
+     */
+    protected Specialization specialize(PhiObject operand){
+        Specialization current = specialization;
+        if(!current.accepts(operand, operand)){
+            current = current.next(operand, operand);
+            specialization = current;
+        }
+        return current;
+    }
+
+    Specialization getSpecialization(){
+        return specialization;
+    }
+
+    @Override
+    void resolve(Resolver resolver) {
+        body.resolveValue(resolver);
+    }
+
     @Override
     public Expression getChild(int index) {
         if(index == 0)
@@ -3,11 +3,22 @@ package de.delphi.phi.parser.ast;
 import de.delphi.phi.PhiRuntimeException;
 import de.delphi.phi.PhiScope;
 import de.delphi.phi.PhiTypeException;
+import de.delphi.phi.ScopeLayout;
 import de.delphi.phi.data.*;
 
 public class VariableDeclarationExpr extends Expression {
 
-    private ExpressionList content;
+    private final ExpressionList content;
+
+    /**
+     * Layout of the scope the variables are declared in, as determined by the Resolver
+     */
+    private ScopeLayout declaringLayout;
+
+    /**
+     * Slots of the declared variables in the declaring scope. A slot of -1 means that the variable is declared by name.
+     */
+    private int[] slots;
 
     public VariableDeclarationExpr(ExpressionList content){
         this.content = content;
@@ -19,6 +30,41 @@ public class VariableDeclarationExpr extends Expression {
         }
     }
 
+    @Override
+    void resolve(Resolver resolver) {
+        declaringLayout = resolver.currentLayout();
+        slots = new int[content.length()];
+        for(int i = 0; i < content.length(); i++){
+            Expression nameExpr = content.getName(i);
+            if(nameExpr instanceof Atom && ((Atom) nameExpr).isVariable()) {
+                slots[i] = resolver.declare(((Atom) nameExpr).getName());
+            }else{
+                slots[i] = -1;
+                nameExpr.resolve(resolver);
+                resolver.declareDynamic();
+            }
+        }
+
+        layout = resolver.openFrame();
+        for(int i = 0; i < content.length(); i++){
+            Expression valueExpr = content.getValue(i);
+            if(valueExpr != null)
+                valueExpr.resolveValue(resolver);
+        }
+        resolver.closeFrame();
+    }
+
+    /**
+     * Returns the slot of the variable with the given index in the declaring scope, or -1 if it is declared by name.
+     */
+    public int getSlot(int index){
+        return slots != null ? slots[index] : -1;
+    }
+
+    public ScopeLayout getDeclaringLayout(){
+        return declaringLayout;
+    }
+
     @Override
     public Expression getChild(int index) {
         if(index >= 2 * content.length() || index < 0)
@@ -37,24 +83,34 @@ public class VariableDeclarationExpr extends Expression {
 
     @Override
     public PhiObject eval(PhiCollection parentScope) throws PhiRuntimeException {
-        scope = new PhiScope(parentScope);
-        PhiObject name = PhiNull.NULL;
+        PhiCollection scope = openScope(parentScope);
+        PhiScope declaringScope = null;
+        if(declaringLayout != null)
+            declaringScope = PhiScope.getEnclosingScope(parentScope, 0, declaringLayout);
+
+        PhiObject result = PhiNull.NULL;
         for(int i = 0; i < content.length(); i++){
-            name = content.getName(i).eval(parentScope);
+            Expression valueExpr = content.getValue(i);
+            if(declaringScope != null && slots[i] >= 0){
+                declaringScope.declareSlot(slots[i]);
+                if(valueExpr != null)
+                    declaringScope.setSlot(slots[i], valueExpr.evalAndLookUp(scope));
+                result = declaringScope.getSlot(slots[i]);
+                continue;
+            }
+
+            PhiObject name = content.getName(i).eval(parentScope);
             if(name.getType() != Type.SYMBOL)
                 throw new PhiTypeException("Variable name must be of type SYMBOL");
             if(!((PhiSymbol) name).isBound())
                 name = new PhiSymbol(name.toString(), parentScope);
             ((PhiSymbol) name).declare();
 
-            Expression valueExpr = content.getValue(i);
-            if(valueExpr != null){
-                PhiObject value = valueExpr.eval(scope);
-                value = bindAndLookUp(value, scope);
-                parentScope.setNamed(name.toString(), value);
-            }
+            if(valueExpr != null)
+                ((PhiSymbol) name).assign(valueExpr.evalAndLookUp(scope));
+            result = ((PhiSymbol) name).lookUp();
         }
 
-        return bindAndLookUp(name, parentScope);
+        return result;
     }
 }
@@ -1,14 +1,13 @@
 package de.delphi.phi.parser.ast;
 
 import de.delphi.phi.PhiRuntimeException;
-import de.delphi.phi.PhiScope;
 import de.delphi.phi.data.PhiCollection;
 import de.delphi.phi.data.PhiNull;
 import de.delphi.phi.data.PhiObject;
 
-public class WhileExpr extends ExitableExpr{
+public class WhileExpr extends Expression{
 
-    private Expression condition, body;
+    private final Expression condition, body;
 
     public WhileExpr(Expression condition, Expression body){
         this.condition = condition;
@@ -18,6 +17,16 @@ public class WhileExpr extends ExitableExpr{
         body.parentExpression = this;
     }
 
+    @Override
+    void resolve(Resolver resolver) {
+        layout = resolver.openFrame();
+        condition.resolveValue(resolver);
+        resolver.enterLoop(this);
+        body.resolve(resolver);
+        resolver.exitJumpTarget();
+        resolver.closeFrame();
+    }
+
     @Override
     public Expression getChild(int index) {
         switch(index){
@@ -34,14 +43,18 @@ public class WhileExpr extends ExitableExpr{
 
     @Override
     public PhiObject eval(PhiCollection parentScope) throws PhiRuntimeException {
-        this.scope = new PhiScope(parentScope);
+        PhiCollection scope = openScope(parentScope);
 
-        shouldExit = false;
         PhiObject result = PhiNull.NULL;
-        while(condition.eval(scope).longValue() != 0) {
-            result = body.eval(scope);
-            if(shouldExit){
-                return returnValue;
+        while(condition.evalAndLookUp(scope).longValue() != 0) {
+            try {
+                result = body.eval(scope);
+            }catch(ControlTransfer transfer){
+                if(transfer.target != this)
+                    throw transfer;
+                if(transfer.kind == ControlTransfer.Kind.BREAK)
+                    return transfer.value;
+                result = transfer.value;
             }
         }
 
@@ -0,0 +1,78 @@
+package de.delphi.phi.vm;
+
+import de.delphi.phi.PhiRuntimeException;
+import de.delphi.phi.data.PhiCollection;
+import de.delphi.phi.data.PhiObject;
+
+/**
+ * The frames of the functions that wait for a call to return, when the VirtualMachine keeps them on the heap instead
+ * of the Java stack.
+ *
+ * The depth of the stack is limited by an estimate of the memory used by the frames, which only includes the frames
+ * and their registers, but not the scopes and values they refer to.
+ */
+final class CallStack {
+
+    /**
+     * Estimated size of a frame and the header of its register array in bytes
+     */
+    static final int FRAME_SIZE = 56;
+
+    /**
+     * Estimated size of a register in bytes
+     */
+    static final int REGISTER_SIZE = 8;
+
+    static final class Frame {
+
+        final Chunk chunk;
+
+        /**
+         * Position of the CALL instruction the function waits for
+         */
+        final int pc;
+
+        final PhiObject[] registers;
+
+        final PhiCollection scope;
+
+        final Frame caller;
+
+        Frame(Chunk chunk, int pc, PhiObject[] registers, PhiCollection scope, Frame caller){
+            this.chunk = chunk;
+            this.pc = pc;
+            this.registers = registers;
+            this.scope = scope;
+            this.caller = caller;
+        }
+    }
+
+    private final long maxSize;
+
+    private long size = 0;
+
+    private Frame top = null;
+
+    CallStack(long maxSize){
+        this.maxSize = maxSize;
+    }
+
+    boolean isEmpty(){
+        return top == null;
+    }
+
+    void push(Chunk chunk, int pc, PhiObject[] registers, PhiCollection scope) throws PhiRuntimeException {
+        long nextSize = size + FRAME_SIZE + (long) REGISTER_SIZE * registers.length;
+        if(nextSize > maxSize)
+            throw new PhiRuntimeException("Stack overflow: the call stack exceeds " + maxSize + " bytes.");
+        size = nextSize;
+        top = new Frame(chunk, pc, registers, scope, top);
+    }
+
+    Frame pop(){
+        Frame frame = top;
+        top = frame.caller;
+        size -= FRAME_SIZE + (long) REGISTER_SIZE * frame.registers.length;
+        return frame;
+    }
+}
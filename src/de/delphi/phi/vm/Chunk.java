@@ -0,0 +1,138 @@
+package de.delphi.phi.vm;
+
+/**
+ * A compiled expression or function body.
+ *
+ * A chunk consists of a flat array of instructions (see Opcode), a constant pool and the number of registers it
+ * needs. Chunks are not modified after they have been created by the Compiler, so they can be executed by several
+ * threads at the same time. The only exception is the JVM code installed by the JitCompiler, which replaces the
+ * instructions as a whole.
+ */
+public class Chunk {
+
+    final int[] code;
+
+    final Object[] constants;
+
+    final int numRegisters;
+
+    /**
+     * JVM code generated for this chunk by the JitCompiler, or null if the chunk is executed by the VirtualMachine
+     */
+    volatile JitCode jitCode;
+
+    /**
+     * TieredCompilation that promotes this chunk to JVM code once it is executed often enough, or null if the
+     * executions of this chunk are not counted.
+     */
+    TieredCompilation tiering;
+
+    /**
+     * Number of executions of this chunk and of jumps back to the start of a loop in it. Both are only counted while
+     * the chunk belongs to a TieredCompilation. Increments from concurrent executions may be lost, which only delays
+     * the promotion.
+     */
+    int invocations, backEdges;
+
+    /**
+     * Whether the chunk has been queued for compilation by its TieredCompilation
+     */
+    boolean queued;
+
+    /**
+     * Instructions for which the JitCompiler emits generic code instead of speculating, because the VirtualMachine
+     * has seen operands that the speculation does not hold for or a speculation has already failed.
+     */
+    final boolean[] genericSites;
+
+    /**
+     * Number of times the JVM code of this chunk has been discarded because a speculation failed
+     */
+    int deoptimizations;
+
+    /**
+     * Number of calls whose function the JVM code of this chunk executes itself, without calling it
+     */
+    int inlinedCalls;
+
+    Chunk(int[] code, Object[] constants, int numRegisters){
+        this.code = code;
+        this.constants = constants;
+        this.numRegisters = numRegisters;
+        genericSites = new boolean[code.length];
+    }
+
+    /**
+     * Discards the JVM code of this chunk after a speculation at the given instruction failed. The instruction is
+     * compiled without speculation from now on. If the chunk belongs to a TieredCompilation, it is promoted again
+     * once it reaches the thresholds anew.
+     */
+    void deoptimize(int pc){
+        genericSites[pc] = true;
+        jitCode = null;
+        inlinedCalls = 0;
+        deoptimizations++;
+        invocations = 0;
+        backEdges = 0;
+        queued = false;
+    }
+
+    public int getNumRegisters(){
+        return numRegisters;
+    }
+
+    /**
+     * Returns whether this chunk has been compiled to JVM code.
+     */
+    public boolean isJitCompiled(){
+        return jitCode != null;
+    }
+
+    /**
+     * Returns how often this chunk has been executed by the VirtualMachine while it belonged to a TieredCompilation.
+     */
+    public int getInvocationCount(){
+        return invocations;
+    }
+
+    /**
+     * Returns how often the loops in this chunk have jumped back to their start in the VirtualMachine while the
+     * chunk belonged to a TieredCompilation.
+     */
+    public int getBackEdgeCount(){
+        return backEdges;
+    }
+
+    /**
+     * Returns how often the JVM code of this chunk has been discarded because one of its speculations failed.
+     */
+    public int getDeoptimizationCount(){
+        return deoptimizations;
+    }
+
+    /**
+     * Returns how many calls the JVM code of this chunk makes by executing the body of the called function in place
+     * of the call (see JitCompiler). This is 0 if the chunk has not been compiled to JVM code.
+     */
+    public int getInlinedCallCount(){
+        return inlinedCalls;
+    }
+
+    /**
+     * Returns a human readable listing of the instructions in this chunk.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        int pc = 0;
+        while(pc < code.length){
+            int opcode = code[pc];
+            sb.append(pc).append(": ").append(Opcode.getName(opcode));
+            for(int i = 1; i <= Opcode.getNumOperands(opcode); i++)
+                sb.append(' ').append(code[pc + i]);
+            sb.append('\n');
+            pc += Opcode.getNumOperands(opcode) + 1;
+        }
+        return sb.toString();
+    }
+}
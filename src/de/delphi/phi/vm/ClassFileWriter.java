@@ -0,0 +1,413 @@
+package de.delphi.phi.vm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Writes JVM class files with the small subset of features used by the JitCompiler.
+ *
+ * The class files use version 49 (Java 5), so the methods do not need StackMapTable attributes and are checked by
+ * the type inferring verifier instead.
+ */
+class ClassFileWriter {
+
+    private static final int VERSION = 49;
+
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_PRIVATE = 0x0002;
+    static final int ACC_STATIC = 0x0008;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    //Opcodes of the JVM
+    static final int ACONST_NULL = 0x01;
+    static final int ICONST_0 = 0x03;
+    static final int LCONST_0 = 0x09;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int LDC = 0x12;
+    static final int LDC_W = 0x13;
+    static final int ILOAD = 0x15;
+    static final int ALOAD = 0x19;
+    static final int ILOAD_0 = 0x1a;
+    static final int ALOAD_0 = 0x2a;
+    static final int AALOAD = 0x32;
+    static final int AASTORE = 0x53;
+    static final int ASTORE = 0x3a;
+    static final int ASTORE_0 = 0x4b;
+    static final int DUP = 0x59;
+    static final int LADD = 0x61;
+    static final int DADD = 0x63;
+    static final int LSUB = 0x65;
+    static final int DSUB = 0x67;
+    static final int LMUL = 0x69;
+    static final int DMUL = 0x6b;
+    static final int LCMP = 0x94;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9a;
+    static final int IFLT = 0x9b;
+    static final int IFGE = 0x9c;
+    static final int IFGT = 0x9d;
+    static final int IFLE = 0x9e;
+    static final int IF_ICMPEQ = 0x9f;
+    static final int IF_ICMPNE = 0xa0;
+    static final int IF_ACMPNE = 0xa6;
+    static final int GOTO = 0xa7;
+    static final int ARETURN = 0xb0;
+    static final int RETURN = 0xb1;
+    static final int GETSTATIC = 0xb2;
+    static final int PUTSTATIC = 0xb3;
+    static final int INVOKEVIRTUAL = 0xb6;
+    static final int INVOKESPECIAL = 0xb7;
+    static final int INVOKESTATIC = 0xb8;
+    static final int NEW = 0xbb;
+    static final int ANEWARRAY = 0xbd;
+    static final int CHECKCAST = 0xc0;
+    static final int INSTANCEOF = 0xc1;
+    static final int WIDE = 0xc4;
+    static final int IFNULL = 0xc6;
+    static final int IFNONNULL = 0xc7;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    /**
+     * A position in the code of a method
+     */
+    static class Label {
+
+        int position = -1;
+
+        /**
+         * Positions of the branch instructions that jump to this label before its position is known
+         */
+        final ArrayList<Integer> references = new ArrayList<>();
+    }
+
+    /**
+     * The code of a method
+     */
+    class Code {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        private final ArrayList<Label> labels = new ArrayList<>();
+
+        void op(int opcode){
+            bytes.write(opcode);
+        }
+
+        private void u2(int value){
+            bytes.write(value >> 8);
+            bytes.write(value);
+        }
+
+        void pushInt(int value){
+            if(value >= -1 && value <= 5)
+                op(ICONST_0 + value);
+            else if(value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE){
+                op(BIPUSH);
+                bytes.write(value);
+            }else if(value >= Short.MIN_VALUE && value <= Short.MAX_VALUE){
+                op(SIPUSH);
+                u2(value);
+            }else
+                ldc(integerConstant(value));
+        }
+
+        void pushString(String value){
+            ldc(stringConstant(value));
+        }
+
+        void pushClass(String name){
+            ldc(classConstant(name));
+        }
+
+        private void ldc(int index){
+            if(index < 256){
+                op(LDC);
+                bytes.write(index);
+            }else{
+                op(LDC_W);
+                u2(index);
+            }
+        }
+
+        void iload(int local){
+            localOp(ILOAD, ILOAD_0, local);
+        }
+
+        void aload(int local){
+            localOp(ALOAD, ALOAD_0, local);
+        }
+
+        void astore(int local){
+            localOp(ASTORE, ASTORE_0, local);
+        }
+
+        private void localOp(int opcode, int shortOpcode, int local){
+            if(local < 4)
+                op(shortOpcode + local);
+            else if(local < 256){
+                op(opcode);
+                bytes.write(local);
+            }else{
+                op(WIDE);
+                op(opcode);
+                u2(local);
+            }
+        }
+
+        /**
+         * Emits an instruction that references a class, like NEW or CHECKCAST.
+         */
+        void typeOp(int opcode, String className){
+            op(opcode);
+            u2(classConstant(className));
+        }
+
+        void fieldOp(int opcode, String owner, String name, String descriptor){
+            op(opcode);
+            u2(memberConstant(CONSTANT_FIELDREF, owner, name, descriptor));
+        }
+
+        void methodOp(int opcode, String owner, String name, String descriptor){
+            op(opcode);
+            u2(memberConstant(CONSTANT_METHODREF, owner, name, descriptor));
+        }
+
+        Label newLabel(){
+            Label label = new Label();
+            labels.add(label);
+            return label;
+        }
+
+        void mark(Label label){
+            label.position = bytes.size();
+        }
+
+        void jump(int opcode, Label target){
+            target.references.add(bytes.size());
+            op(opcode);
+            u2(0);
+        }
+
+        /**
+         * Returns the code with the offsets of all jumps filled in.
+         * @throws IllegalStateException If a label has not been marked or a jump is too far.
+         */
+        byte[] toByteArray(){
+            byte[] code = bytes.toByteArray();
+            if(code.length >= 65536)
+                throw new IllegalStateException("Method is too large.");
+            for(Label label: labels){
+                if(label.references.isEmpty())
+                    continue;
+                if(label.position < 0)
+                    throw new IllegalStateException("Jump to unmarked label.");
+                for(int reference: label.references){
+                    int offset = label.position - reference;
+                    if(offset < Short.MIN_VALUE || offset > Short.MAX_VALUE)
+                        throw new IllegalStateException("Jump is too far.");
+                    code[reference + 1] = (byte) (offset >> 8);
+                    code[reference + 2] = (byte) offset;
+                }
+            }
+            return code;
+        }
+    }
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+
+    private final HashMap<String, Integer> poolIndices = new HashMap<>();
+
+    private int poolCount = 1;
+
+    private final ByteArrayOutputStream fieldBytes = new ByteArrayOutputStream();
+
+    private final DataOutputStream fields = new DataOutputStream(fieldBytes);
+
+    private int fieldCount;
+
+    private final ByteArrayOutputStream methodBytes = new ByteArrayOutputStream();
+
+    private final DataOutputStream methods = new DataOutputStream(methodBytes);
+
+    private int methodCount;
+
+    private final String className;
+
+    ClassFileWriter(String className){
+        this.className = className;
+    }
+
+    Code newCode(){
+        return new Code();
+    }
+
+    void addField(int access, String name, String descriptor){
+        try {
+            fields.writeShort(access);
+            fields.writeShort(utf8Constant(name));
+            fields.writeShort(utf8Constant(descriptor));
+            fields.writeShort(0);
+            fieldCount++;
+        }catch(IOException e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void addMethod(int access, String name, String descriptor, Code code, int maxStack, int maxLocals){
+        byte[] bytecode = code.toByteArray();
+        try {
+            methods.writeShort(access);
+            methods.writeShort(utf8Constant(name));
+            methods.writeShort(utf8Constant(descriptor));
+            methods.writeShort(1);
+            methods.writeShort(utf8Constant("Code"));
+            methods.writeInt(12 + bytecode.length);
+            methods.writeShort(maxStack);
+            methods.writeShort(maxLocals);
+            methods.writeInt(bytecode.length);
+            methods.write(bytecode);
+            methods.writeShort(0);
+            methods.writeShort(0);
+            methodCount++;
+        }catch(IOException e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+    byte[] toByteArray(int access, String superName, String... interfaces){
+        int thisIndex = classConstant(className);
+        int superIndex = classConstant(superName);
+        int[] interfaceIndices = new int[interfaces.length];
+        for(int i = 0; i < interfaces.length; i++)
+            interfaceIndices[i] = classConstant(interfaces[i]);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(poolCount);
+            poolBytes.writeTo(out);
+            out.writeShort(access);
+            out.writeShort(thisIndex);
+            out.writeShort(superIndex);
+            out.writeShort(interfaces.length);
+            for(int index: interfaceIndices)
+                out.writeShort(index);
+            out.writeShort(fieldCount);
+            fieldBytes.writeTo(out);
+            out.writeShort(methodCount);
+            methodBytes.writeTo(out);
+            out.writeShort(0);
+        }catch(IOException e){
+            throw new IllegalStateException(e);
+        }
+        if(poolCount >= 65536)
+            throw new IllegalStateException("Constant pool is too large.");
+        return bytes.toByteArray();
+    }
+
+    private int utf8Constant(String value){
+        Integer index = poolIndices.get("U" + value);
+        if(index != null)
+            return index;
+        try {
+            pool.writeByte(CONSTANT_UTF8);
+            pool.writeUTF(value);
+        }catch(IOException e){
+            throw new IllegalStateException(e);
+        }
+        return register("U" + value);
+    }
+
+    private int integerConstant(int value){
+        Integer index = poolIndices.get("I" + value);
+        if(index != null)
+            return index;
+        try {
+            pool.writeByte(CONSTANT_INTEGER);
+            pool.writeInt(value);
+        }catch(IOException e){
+            throw new IllegalStateException(e);
+        }
+        return register("I" + value);
+    }
+
+    private int stringConstant(String value){
+        return referenceConstant(CONSTANT_STRING, "S", value);
+    }
+
+    private int classConstant(String name){
+        return referenceConstant(CONSTANT_CLASS, "C", name);
+    }
+
+    /**
+     * Adds a constant that refers to a single UTF8 constant.
+     */
+    private int referenceConstant(int tag, String prefix, String value){
+        Integer index = poolIndices.get(prefix + value);
+        if(index != null)
+            return index;
+        int utf8 = utf8Constant(value);
+        try {
+            pool.writeByte(tag);
+            pool.writeShort(utf8);
+        }catch(IOException e){
+            throw new IllegalStateException(e);
+        }
+        return register(prefix + value);
+    }
+
+    private int memberConstant(int tag, String owner, String name, String descriptor){
+        String key = "M" + tag + owner + "." + name + ":" + descriptor;
+        Integer index = poolIndices.get(key);
+        if(index != null)
+            return index;
+
+        int ownerIndex = classConstant(owner);
+        String nameAndTypeKey = "N" + name + ":" + descriptor;
+        Integer nameAndType = poolIndices.get(nameAndTypeKey);
+        if(nameAndType == null){
+            int nameIndex = utf8Constant(name);
+            int descriptorIndex = utf8Constant(descriptor);
+            try {
+                pool.writeByte(CONSTANT_NAME_AND_TYPE);
+                pool.writeShort(nameIndex);
+                pool.writeShort(descriptorIndex);
+            }catch(IOException e){
+                throw new IllegalStateException(e);
+            }
+            nameAndType = register(nameAndTypeKey);
+        }
+
+        try {
+            pool.writeByte(tag);
+            pool.writeShort(ownerIndex);
+            pool.writeShort(nameAndType);
+        }catch(IOException e){
+            throw new IllegalStateException(e);
+        }
+        return register(key);
+    }
+
+    private int register(String key){
+        int index = poolCount++;
+        poolIndices.put(key, index);
+        return index;
+    }
+}
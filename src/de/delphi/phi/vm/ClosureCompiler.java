@@ -0,0 +1,719 @@
+package de.delphi.phi.vm;
+
+import de.delphi.phi.PhiRuntimeException;
+import de.delphi.phi.PhiScope;
+import de.delphi.phi.ScopeLayout;
+import de.delphi.phi.data.*;
+import de.delphi.phi.parser.ast.*;
+
+import java.util.IdentityHashMap;
+
+/**
+ * Compiles resolved expressions into trees of Java lambdas.
+ *
+ * Every expression is turned into a Node that does exactly the work of that expression for the operators, operand
+ * counts and constant operands it actually has. These are examined once by the compiler, instead of on every
+ * evaluation like in the tree walking interpreter. Compiling is about as cheap as resolving, so this is a good fit
+ * for code that is not run often enough to be worth the Compiler and the JitCompiler.
+ *
+ * Like the Compiler, the ClosureCompiler creates the same scopes as the tree walking interpreter and falls back to it
+ * for the expressions it does not handle itself. Breaks, continues and returns are compiled into exceptions that are
+ * caught by the compiled loop or function body they target. Interpreted expressions use the exceptions of the
+ * interpreter instead, so an expression that contains a jump to a target outside of it can not be interpreted on its
+ * own. In that case the whole top level expression or function body is interpreted.
+ *
+ * Additions, subtractions and multiplications whose operands are all INTs according to the TypeInference do not check
+ * the types of their operands at all.
+ */
+public class ClosureCompiler {
+
+    /**
+     * A compiled expression.
+     */
+    @FunctionalInterface
+    public interface Node {
+
+        /**
+         * Evaluates the expression in the given scope.
+         */
+        PhiObject eval(PhiCollection scope) throws PhiRuntimeException;
+    }
+
+    /**
+     * A binary operator, selected once by the compiler
+     */
+    @FunctionalInterface
+    private interface Operator {
+
+        PhiObject apply(PhiObject left, PhiObject right) throws PhiRuntimeException;
+    }
+
+    private static class UnsupportedExpressionException extends RuntimeException {
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+    /**
+     * Thrown by compiled breaks, continues and returns, and caught by the loop or function body they target.
+     */
+    private static final class Jump extends PhiRuntimeException {
+
+        final Expression target;
+
+        final boolean isBreak;
+
+        final PhiObject value;
+
+        Jump(Expression target, boolean isBreak, PhiObject value){
+            super("Unhandled jump.");
+            this.target = target;
+            this.isBreak = isBreak;
+            this.value = value;
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+    /**
+     * A function whose body has been compiled by the ClosureCompiler. It behaves exactly like the PhiFunction it was
+     * created from.
+     */
+    private static final class ClosureFunction extends PhiFunction {
+
+        private final Node body;
+
+        ClosureFunction(PhiFunction function, Node body){
+            super(function);
+            this.body = body;
+        }
+
+        @Override
+        protected PhiObject execute(PhiScope scope) throws PhiRuntimeException {
+            return body.eval(scope);
+        }
+    }
+
+    /**
+     * Whether a compiled jump targets an expression that is being compiled, by loop or function body
+     */
+    private final IdentityHashMap<Expression, Boolean> targets = new IdentityHashMap<>();
+
+    /**
+     * Body of the function that is compiled, or null for a top level expression
+     */
+    private final FunctionBody function;
+
+    /**
+     * Types inferred for the expressions that are compiled
+     */
+    private final TypeInference types;
+
+    private ClosureCompiler(FunctionBody function, TypeInference types){
+        this.function = function;
+        this.types = types;
+    }
+
+    /**
+     * Compiles a top level expression. Evaluating the node yields the same value as {@code expr.evalAndLookUp()}.
+     * @param expr A resolved expression.
+     * @return The compiled expression.
+     */
+    public static Node compile(Expression expr){
+        try{
+            return new ClosureCompiler(null, TypeInference.infer(expr)).compile(expr, true);
+        }catch(UnsupportedExpressionException e){
+            return expr::evalAndLookUp;
+        }
+    }
+
+    /**
+     * Compiles the body of a function. The node has to be evaluated in the scope created for the call.
+     * @param body The function body.
+     * @return The compiled function body.
+     */
+    public static Node compileFunction(FunctionBody body){
+        return compileFunction(body, TypeInference.infer(body));
+    }
+
+    private static Node compileFunction(FunctionBody body, TypeInference types){
+        try{
+            ClosureCompiler compiler = new ClosureCompiler(body, types);
+            compiler.targets.put(body, false);
+            Node node = compiler.compile(body.getChild(0), true);
+            if(!compiler.targets.get(body))
+                return node;
+            return scope -> {
+                try{
+                    return node.eval(scope);
+                }catch(Jump jump){
+                    if(jump.target != body)
+                        throw jump;
+                    return jump.value;
+                }
+            };
+        }catch(UnsupportedExpressionException e){
+            return body::evalAndLookUp;
+        }
+    }
+
+    /**
+     * Compiles an expression.
+     * @param expr The expression to compile.
+     * @param lookUp Whether the result is looked up like in {@code Expression.evalAndLookUp()}, or returned as is
+     *               like in {@code Expression.eval()}.
+     */
+    private Node compile(Expression expr, boolean lookUp){
+        if(expr instanceof Atom)
+            return compileAtom((Atom) expr, lookUp);
+        else if(expr instanceof AddExpr || expr instanceof MulExpr || expr instanceof ShiftExpr ||
+                expr instanceof AndExpr || expr instanceof OrExpr || expr instanceof XorExpr)
+            return compileArithmetic((BinaryExpr) expr, lookUp);
+        else if(expr instanceof RelationalExpr)
+            return compileRelational((RelationalExpr) expr);
+        else if(expr instanceof NotExpr){
+            Node operand = compile(expr.getChild(0), true);
+            return scope -> NotExpr.not(operand.eval(scope));
+        }
+        else if(expr instanceof NegationExpr){
+            Node operand = compile(expr.getChild(0), true);
+            return scope -> NegationExpr.negate(operand.eval(scope));
+        }
+        else if(expr instanceof CompoundExpr)
+            return compileCompound((CompoundExpr) expr, lookUp);
+        else if(expr instanceof IfExpr)
+            return compileIf((IfExpr) expr, lookUp);
+        else if(expr instanceof WhileExpr || expr instanceof ForExpr)
+            return compileLoop(expr, lookUp);
+        else if(expr instanceof BreakExpr || expr instanceof ContinueExpr)
+            return compileJump(expr, lookUp);
+        else if(expr instanceof ReturnExpr)
+            return compileReturn((ReturnExpr) expr, lookUp);
+        else if(expr instanceof VariableDeclarationExpr)
+            return compileDeclaration((VariableDeclarationExpr) expr, lookUp);
+        else if(expr instanceof AssignExpr)
+            return compileAssignment((AssignExpr) expr, lookUp);
+        else if(expr instanceof MemberAccessExpr && lookUp)
+            return compileMemberAccess((MemberAccessExpr) expr);
+        else if(expr instanceof SubscriptExpr && lookUp)
+            return compileSubscript((SubscriptExpr) expr);
+        else if(expr instanceof FunctionCallExpr)
+            return compileCall((FunctionCallExpr) expr, lookUp);
+        else if(expr instanceof FunctionDefinitionExpr)
+            return compileFunctionDefinition((FunctionDefinitionExpr) expr);
+        else
+            return compileInterpreted(expr, lookUp);
+    }
+
+    private Node compileInterpreted(Expression expr, boolean lookUp){
+        if(Compiler.containsEscapingJump(expr))
+            throw new UnsupportedExpressionException();
+        return lookUp ? expr::evalAndLookUp : expr::eval;
+    }
+
+    /**
+     * Returns whether the given expression opens a scope, i.e. unless the Resolver found that it is not needed.
+     */
+    private static boolean opensScope(Expression expr){
+        ScopeLayout layout = expr.getLayout();
+        return layout == null || !layout.isEmpty();
+    }
+
+    /**
+     * Wraps a node so that it is evaluated in the scope opened by the given expression.
+     */
+    private static Node inScope(Expression expr, Node node){
+        if(!opensScope(expr))
+            return node;
+        ScopeLayout layout = expr.getLayout();
+        return scope -> node.eval(new PhiScope(scope, layout));
+    }
+
+    private Node compileAtom(Atom atom, boolean lookUp){
+        PhiObject content = atom.getContent();
+        if(!lookUp || content.getType() != Type.SYMBOL)
+            return scope -> content;
+        if(!atom.isVariable())
+            return compileInterpreted(atom, true);
+
+        String name = atom.getName();
+        if(atom.getDepth() < 0)
+            return scope -> scope.getNamed(name);
+        int depth = atom.getDepth(), slot = atom.getSlot();
+        ScopeLayout layout = atom.getDeclaringLayout();
+        return scope -> VirtualMachine.loadSlot(scope, depth, slot, layout, name);
+    }
+
+    /**
+     * Returns the INT value of a literal, or null if the expression is not an INT literal.
+     */
+    private static PhiInt intLiteral(Expression expr){
+        if(expr instanceof Atom && ((Atom) expr).getContent() instanceof PhiInt)
+            return (PhiInt) ((Atom) expr).getContent();
+        return null;
+    }
+
+    /**
+     * Selects an operator of a binary expression.
+     * @param kind The class of the expression.
+     * @param operator The operator within that class, like {@code AddExpr.OP_SUB}.
+     */
+    private static Operator selectOperator(Class<? extends BinaryExpr> kind, int operator){
+        if(kind == AddExpr.class){
+            if(operator == AddExpr.OP_ADD)
+                return (a, b) -> a instanceof PhiInt && b instanceof PhiInt ?
+                        new PhiInt(a.longValue() + b.longValue()) : AddExpr.add(a, b);
+            return (a, b) -> a instanceof PhiInt && b instanceof PhiInt ?
+                    new PhiInt(a.longValue() - b.longValue()) : AddExpr.sub(a, b);
+        }
+        else if(kind == MulExpr.class){
+            switch(operator){
+                case MulExpr.OP_MUL:
+                    return (a, b) -> a instanceof PhiInt && b instanceof PhiInt ?
+                            new PhiInt(a.longValue() * b.longValue()) : MulExpr.mul(a, b);
+                case MulExpr.OP_DIV: return MulExpr::div;
+                default: return MulExpr::mod;
+            }
+        }
+        else if(kind == ShiftExpr.class)
+            return (a, b) -> ShiftExpr.shift(a, operator, b);
+        else if(kind == AndExpr.class)
+            return AndExpr::and;
+        else if(kind == OrExpr.class)
+            return OrExpr::or;
+        else
+            return XorExpr::xor;
+    }
+
+    /**
+     * Compiles a single operator. Additions, subtractions and multiplications get their own nodes, with the INT
+     * operand inlined if it is a literal.
+     */
+    private static Node compileOperator(BinaryExpr expr, int operator, Node left, Expression rightExpr, Node right){
+        PhiInt literal = intLiteral(rightExpr);
+        boolean isAdd = expr instanceof AddExpr && operator == AddExpr.OP_ADD;
+        boolean isSub = expr instanceof AddExpr && operator == AddExpr.OP_SUB;
+        boolean isMul = expr instanceof MulExpr && operator == MulExpr.OP_MUL;
+
+        if(literal != null){
+            long b = literal.longValue();
+            if(isAdd)
+                return scope -> {
+                    PhiObject a = left.eval(scope);
+                    return a instanceof PhiInt ? new PhiInt(a.longValue() + b) : AddExpr.add(a, literal);
+                };
+            if(isSub)
+                return scope -> {
+                    PhiObject a = left.eval(scope);
+                    return a instanceof PhiInt ? new PhiInt(a.longValue() - b) : AddExpr.sub(a, literal);
+                };
+            if(isMul)
+                return scope -> {
+                    PhiObject a = left.eval(scope);
+                    return a instanceof PhiInt ? new PhiInt(a.longValue() * b) : MulExpr.mul(a, literal);
+                };
+        }
+
+        if(isAdd)
+            return scope -> {
+                PhiObject a = left.eval(scope), b = right.eval(scope);
+                return a instanceof PhiInt && b instanceof PhiInt ? new PhiInt(a.longValue() + b.longValue()) :
+                        AddExpr.add(a, b);
+            };
+        if(isSub)
+            return scope -> {
+                PhiObject a = left.eval(scope), b = right.eval(scope);
+                return a instanceof PhiInt && b instanceof PhiInt ? new PhiInt(a.longValue() - b.longValue()) :
+                        AddExpr.sub(a, b);
+            };
+        if(isMul)
+            return scope -> {
+                PhiObject a = left.eval(scope), b = right.eval(scope);
+                return a instanceof PhiInt && b instanceof PhiInt ? new PhiInt(a.longValue() * b.longValue()) :
+                        MulExpr.mul(a, b);
+            };
+        Operator op = selectOperator(expr.getClass(), operator);
+        return scope -> op.apply(left.eval(scope), right.eval(scope));
+    }
+
+    /**
+     * Returns whether all operands of an addition or multiplication are known to be INTs, which makes all partial
+     * results INTs as well.
+     */
+    private boolean isProvenInt(BinaryExpr expr){
+        if(!(expr instanceof AddExpr || expr instanceof MulExpr))
+            return false;
+        for(int i = 0; i < expr.countChildren(); i++){
+            if(!types.isProven(expr.getChild(i), Type.INT))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Compiles an operator whose operands are known to be INTs, so that it does not check their types.
+     */
+    private static Node compileIntOperator(BinaryExpr expr, int operator, Node left, Node right){
+        if(expr instanceof AddExpr && operator == AddExpr.OP_ADD)
+            return scope -> new PhiInt(left.eval(scope).longValue() + right.eval(scope).longValue());
+        if(expr instanceof AddExpr)
+            return scope -> new PhiInt(left.eval(scope).longValue() - right.eval(scope).longValue());
+        if(operator == MulExpr.OP_MUL)
+            return scope -> new PhiInt(left.eval(scope).longValue() * right.eval(scope).longValue());
+        //Division by zero is checked by the operator itself
+        Operator op = selectOperator(MulExpr.class, operator);
+        return scope -> op.apply(left.eval(scope), right.eval(scope));
+    }
+
+    private Node compileArithmetic(BinaryExpr expr, boolean lookUp){
+        boolean provenInt = isProvenInt(expr);
+        Node result = compile(expr.getChild(0), true);
+        for(int i = 1; i < expr.countChildren(); i++){
+            Node right = compile(expr.getChild(i), true);
+            if(provenInt)
+                result = compileIntOperator(expr, expr.getOperator(i), result, right);
+            else
+                result = compileOperator(expr, expr.getOperator(i), result, expr.getChild(i), right);
+        }
+        Node node = inScope(expr, result);
+
+        //Only + can produce symbols
+        if(lookUp && expr instanceof AddExpr)
+            return scope -> Expression.bindAndLookUp(node.eval(scope), scope);
+        return node;
+    }
+
+    private Node compileRelational(RelationalExpr expr){
+        int numOperands = expr.countChildren();
+        if(numOperands == 2){
+            int operator = expr.getOperator(1);
+            Node left = compile(expr.getChild(0), true);
+            PhiInt literal = intLiteral(expr.getChild(1));
+            if(literal != null)
+                return inScope(expr, scope -> VirtualMachine.relation(left.eval(scope), operator, literal));
+            Node right = compile(expr.getChild(1), true);
+            return inScope(expr, scope -> VirtualMachine.relation(left.eval(scope), operator, right.eval(scope)));
+        }
+
+        //All operands are evaluated, but the comparisons stop at the first one that fails
+        Node[] operands = new Node[numOperands];
+        int[] operators = new int[numOperands];
+        for(int i = 0; i < numOperands; i++){
+            operands[i] = compile(expr.getChild(i), true);
+            if(i > 0)
+                operators[i] = expr.getOperator(i);
+        }
+        return inScope(expr, scope -> {
+            PhiObject left = operands[0].eval(scope);
+            boolean result = true;
+            for(int i = 1; i < operands.length; i++){
+                PhiObject right = operands[i].eval(scope);
+                result = result && VirtualMachine.relation(left, operators[i], right) == PhiInt.TRUE;
+                left = right;
+            }
+            return result ? PhiInt.TRUE : PhiInt.FALSE;
+        });
+    }
+
+    private Node compileCompound(CompoundExpr expr, boolean lookUp){
+        int numChildren = expr.countChildren();
+        if(numChildren == 0)
+            return scope -> PhiNull.NULL;
+        if(numChildren == 1)
+            return inScope(expr, compile(expr.getChild(0), lookUp));
+
+        Node[] effects = new Node[numChildren - 1];
+        for(int i = 0; i < effects.length; i++)
+            effects[i] = compile(expr.getChild(i), false);
+        Node last = compile(expr.getChild(numChildren - 1), lookUp);
+        return inScope(expr, scope -> {
+            for(Node effect: effects)
+                effect.eval(scope);
+            return last.eval(scope);
+        });
+    }
+
+    private Node compileIf(IfExpr expr, boolean lookUp){
+        Node condition = compile(expr.getChild(0), true);
+        Node then = compile(expr.getChild(1), lookUp);
+        if(expr.countChildren() <= 2)
+            return inScope(expr, scope -> condition.eval(scope).longValue() != 0 ? then.eval(scope) : PhiNull.NULL);
+        Node otherwise = compile(expr.getChild(2), lookUp);
+        return inScope(expr, scope -> condition.eval(scope).longValue() != 0 ? then.eval(scope) : otherwise.eval(scope));
+    }
+
+    private Node compileLoop(Expression expr, boolean lookUp){
+        boolean isFor = expr instanceof ForExpr;
+        Node init = isFor ? compile(expr.getChild(0), false) : null;
+        Node condition = compile(expr.getChild(isFor ? 1 : 0), true);
+        Node iteration = isFor ? compile(expr.getChild(2), false) : null;
+
+        //The loop returns the raw result of the last iteration
+        targets.put(expr, false);
+        Node body = compile(expr.getChild(isFor ? 3 : 1), false);
+        boolean jumps = targets.remove(expr);
+
+        Node loop;
+        if(!jumps){
+            loop = scope -> {
+                PhiObject result = PhiNull.NULL;
+                if(init != null)
+                    init.eval(scope);
+                while(condition.eval(scope).longValue() != 0){
+                    result = body.eval(scope);
+                    if(iteration != null)
+                        iteration.eval(scope);
+                }
+                return result;
+            };
+        }else{
+            loop = scope -> {
+                PhiObject result = PhiNull.NULL;
+                if(init != null)
+                    init.eval(scope);
+                while(condition.eval(scope).longValue() != 0){
+                    try{
+                        result = body.eval(scope);
+                    }catch(Jump jump){
+                        if(jump.target != expr)
+                            throw jump;
+                        if(jump.isBreak)
+                            return jump.value;
+                        result = jump.value;
+                    }
+                    if(iteration != null)
+                        iteration.eval(scope);
+                }
+                return result;
+            };
+        }
+
+        Node node = inScope(expr, loop);
+        if(lookUp)
+            return scope -> Expression.bindAndLookUp(node.eval(scope), scope);
+        return node;
+    }
+
+    private Node compileJump(Expression expr, boolean lookUp){
+        boolean isBreak = expr instanceof BreakExpr;
+        Expression target = isBreak ? ((BreakExpr) expr).getTarget() : ((ContinueExpr) expr).getTarget();
+        if(target == null || !targets.containsKey(target)){
+            //Jumps that are not inside of a loop raise an error
+            return compileInterpreted(expr, lookUp);
+        }
+        targets.put(target, true);
+
+        if(expr.countChildren() == 0){
+            Jump jump = new Jump(target, isBreak, PhiNull.NULL);
+            return scope -> {
+                throw jump;
+            };
+        }
+        Node value = compile(expr.getChild(0), true);
+        return scope -> {
+            throw new Jump(target, isBreak, value.eval(scope));
+        };
+    }
+
+    private Node compileReturn(ReturnExpr expr, boolean lookUp){
+        FunctionBody target = expr.getTarget();
+        if(function == null || target != function)
+            return compileInterpreted(expr, lookUp);
+        targets.put(target, true);
+
+        Node value = compile(expr.getChild(0), true);
+        return scope -> {
+            throw new Jump(target, false, value.eval(scope));
+        };
+    }
+
+    private Node compileDeclaration(VariableDeclarationExpr expr, boolean lookUp){
+        int numVariables = expr.countChildren() / 2;
+        ScopeLayout valueLayout = expr.getLayout();
+        boolean supported = valueLayout != null && valueLayout.isEmpty() && numVariables > 0;
+        for(int i = 0; i < numVariables; i++){
+            Expression name = expr.getChild(2 * i);
+            supported &= name instanceof Atom && ((Atom) name).isVariable();
+        }
+        if(!supported)
+            return compileInterpreted(expr, lookUp);
+
+        ScopeLayout layout = expr.getDeclaringLayout();
+        String[] names = new String[numVariables];
+        int[] slots = new int[numVariables];
+        Node[] values = new Node[numVariables];
+        for(int i = 0; i < numVariables; i++){
+            names[i] = ((Atom) expr.getChild(2 * i)).getName();
+            slots[i] = expr.getSlot(i);
+            Expression valueExpr = expr.getChild(2 * i + 1);
+            if(valueExpr != null)
+                values[i] = compile(valueExpr, true);
+        }
+
+        //The result is the value of the last variable
+        int last = numVariables - 1;
+        return scope -> {
+            for(int i = 0; i < names.length; i++){
+                if(slots[i] >= 0){
+                    VirtualMachine.declareSlot(scope, slots[i], layout, names[i]);
+                    if(values[i] != null)
+                        VirtualMachine.storeDeclared(scope, slots[i], layout, names[i], values[i].eval(scope));
+                }else{
+                    VirtualMachine.declareName(scope, names[i]);
+                    if(values[i] != null)
+                        scope.setNamed(names[i], values[i].eval(scope));
+                }
+            }
+            if(slots[last] >= 0)
+                return VirtualMachine.loadSlot(scope, 0, slots[last], layout, names[last]);
+            return scope.getNamed(names[last]);
+        };
+    }
+
+    private Node compileAssignment(AssignExpr expr, boolean lookUp){
+        int operator = expr.getOperator();
+        Operator modify = operator != AssignExpr.OP_ASSIGN ? assignOperator(operator) : null;
+        Expression left = expr.getChild(0);
+        Node right = compile(expr.getChild(1), true);
+        boolean opensScope = opensScope(expr);
+        ScopeLayout layout = expr.getLayout();
+
+        if(expr.assignsVariable()){
+            Atom variable = (Atom) left;
+            Node load = compileAtom(variable, true);
+            String name = variable.getName();
+            int depth = variable.getDepth(), slot = variable.getSlot();
+            ScopeLayout declaringLayout = variable.getDeclaringLayout();
+            return scope -> {
+                PhiObject current = modify != null ? load.eval(scope) : null;
+                PhiCollection inner = opensScope ? new PhiScope(scope, layout) : scope;
+                PhiObject value = right.eval(inner);
+                PhiObject result = modify != null ? modify(modify, current, value, inner) : value;
+                if(depth >= 0)
+                    VirtualMachine.storeSlot(scope, depth, slot, declaringLayout, name, result);
+                else
+                    scope.setNamed(name, result);
+                return value;
+            };
+        }
+        else if(left instanceof MemberAccessExpr && ((MemberAccessExpr) left).getCache() != null){
+            MemberCache cache = ((MemberAccessExpr) left).getCache();
+            String name = cache.getName();
+            Node object = inScope(left, compile(left.getChild(0), true));
+            return scope -> {
+                PhiCollection inner = opensScope ? new PhiScope(scope, layout) : scope;
+                PhiObject target = object.eval(inner);
+                PhiObject current = modify != null ? cache.get(target) : null;
+                PhiObject value = right.eval(inner);
+                target.setNamed(name, modify != null ? modify(modify, current, value, inner) : value);
+                return value;
+            };
+        }
+        else if(left instanceof SubscriptExpr){
+            Node object = compile(left.getChild(0), true);
+            Node index = compile(left.getChild(1), true);
+            boolean subscriptOpensScope = opensScope(left);
+            ScopeLayout subscriptLayout = left.getLayout();
+            return scope -> {
+                PhiCollection inner = opensScope ? new PhiScope(scope, layout) : scope;
+                PhiCollection subscriptScope = subscriptOpensScope ? new PhiScope(inner, subscriptLayout) : inner;
+                PhiObject target = object.eval(subscriptScope);
+                PhiObject position = index.eval(subscriptScope);
+                PhiObject current = modify != null ? VirtualMachine.getIndex(target, position) : null;
+                PhiObject value = right.eval(inner);
+                VirtualMachine.setIndex(target, position,
+                        modify != null ? modify(modify, current, value, inner) : value);
+                return value;
+            };
+        }
+        else
+            return compileInterpreted(expr, lookUp);
+    }
+
+    /**
+     * Computes the new value of a compound assignment. Like in {@code AssignExpr.eval()}, symbols among the operands
+     * are looked up first.
+     */
+    private static PhiObject modify(Operator operator, PhiObject current, PhiObject value, PhiCollection scope)
+            throws PhiRuntimeException {
+        return operator.apply(Expression.bindAndLookUp(current, scope), Expression.bindAndLookUp(value, scope));
+    }
+
+    /**
+     * Selects the operator of a compound assignment like +=.
+     */
+    private static Operator assignOperator(int operator){
+        switch(operator){
+            case AssignExpr.OP_ASSIGN_ADD: return selectOperator(AddExpr.class, AddExpr.OP_ADD);
+            case AssignExpr.OP_ASSIGN_SUB: return selectOperator(AddExpr.class, AddExpr.OP_SUB);
+            case AssignExpr.OP_ASSIGN_MUL: return selectOperator(MulExpr.class, MulExpr.OP_MUL);
+            case AssignExpr.OP_ASSIGN_DIV: return selectOperator(MulExpr.class, MulExpr.OP_DIV);
+            case AssignExpr.OP_ASSIGN_MOD: return selectOperator(MulExpr.class, MulExpr.OP_MOD);
+            case AssignExpr.OP_ASSIGN_AND: return selectOperator(AndExpr.class, 0);
+            case AssignExpr.OP_ASSIGN_OR: return selectOperator(OrExpr.class, 0);
+            case AssignExpr.OP_ASSIGN_XOR: return selectOperator(XorExpr.class, 0);
+            case AssignExpr.OP_ASSIGN_SHIFT_LEFT: return selectOperator(ShiftExpr.class, ShiftExpr.OP_SHIFT_LEFT);
+            default: return selectOperator(ShiftExpr.class, ShiftExpr.OP_SHIFT_RIGHT);
+        }
+    }
+
+    private Node compileMemberAccess(MemberAccessExpr expr){
+        MemberCache cache = expr.getCache();
+        if(cache == null)
+            return compileInterpreted(expr, true);
+
+        Node object = inScope(expr, compile(expr.getChild(0), true));
+        return scope -> cache.get(object.eval(scope));
+    }
+
+    private Node compileSubscript(SubscriptExpr expr){
+        Node object = compile(expr.getChild(0), true);
+        Node index = compile(expr.getChild(1), true);
+        return inScope(expr, scope -> VirtualMachine.getIndex(object.eval(scope), index.eval(scope)));
+    }
+
+    private Node compileCall(FunctionCallExpr expr, boolean lookUp){
+        CallCache cache = expr.getCache();
+        int numParams = (expr.countChildren() - 1) / 2;
+        for(int i = 0; i < numParams; i++){
+            //Named parameters are left to the interpreter
+            if(expr.getChild(2 + 2 * i) != null)
+                return compileInterpreted(expr, lookUp);
+        }
+
+        Node function = compile(expr.getChild(0), true);
+        Node[] arguments = new Node[numParams];
+        for(int i = 0; i < numParams; i++)
+            arguments[i] = compile(expr.getChild(1 + 2 * i), true);
+
+        Node call;
+        if(expr.isTailCall() && this.function != null && lookUp){
+            call = scope -> {
+                PhiFunction callee = VirtualMachine.toFunction(function.eval(scope));
+                PhiObject[] values = new PhiObject[arguments.length];
+                for(int i = 0; i < values.length; i++)
+                    values[i] = arguments[i].eval(scope);
+                return cache.tailCall(callee, values);
+            };
+        }else{
+            call = scope -> {
+                PhiFunction callee = VirtualMachine.toFunction(function.eval(scope));
+                PhiObject[] values = new PhiObject[arguments.length];
+                for(int i = 0; i < values.length; i++)
+                    values[i] = arguments[i].eval(scope);
+                return cache.call(callee, values);
+            };
+        }
+        return inScope(expr, call);
+    }
+
+    private Node compileFunctionDefinition(FunctionDefinitionExpr expr){
+        Node body = compileFunction((FunctionBody) expr.getChild(0), types);
+        return scope -> new ClosureFunction((PhiFunction) expr.eval(scope), body);
+    }
+}
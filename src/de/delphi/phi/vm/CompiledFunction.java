@@ -0,0 +1,37 @@
+package de.delphi.phi.vm;
+
+import de.delphi.phi.PhiRuntimeException;
+import de.delphi.phi.PhiScope;
+import de.delphi.phi.data.ParameterBinding;
+import de.delphi.phi.data.PhiFunction;
+import de.delphi.phi.data.PhiObject;
+
+/**
+ * A function whose body is executed by the VirtualMachine. It behaves exactly like the PhiFunction it was created
+ * from, so it can be called from both compiled and interpreted code.
+ */
+public class CompiledFunction extends PhiFunction {
+
+    private final Chunk chunk;
+
+    public CompiledFunction(PhiFunction function, Chunk chunk){
+        super(function);
+        this.chunk = chunk;
+    }
+
+    public Chunk getChunk(){
+        return chunk;
+    }
+
+    /**
+     * Creates the scope for a call that the VirtualMachine executes on its own CallStack.
+     */
+    PhiScope enter(PhiObject[] arguments, ParameterBinding binding) throws PhiRuntimeException {
+        return createScope(arguments, binding);
+    }
+
+    @Override
+    protected PhiObject execute(PhiScope scope) throws PhiRuntimeException {
+        return VirtualMachine.execute(chunk, scope);
+    }
+}
@@ -0,0 +1,867 @@
+package de.delphi.phi.vm;
+
+import de.delphi.phi.ScopeLayout;
+import de.delphi.phi.data.MemberCache;
+import de.delphi.phi.data.PhiInt;
+import de.delphi.phi.data.PhiNull;
+import de.delphi.phi.data.PhiObject;
+import de.delphi.phi.data.Type;
+import de.delphi.phi.parser.ast.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Compiles resolved expressions into Chunks for the VirtualMachine.
+ *
+ * The compiled code creates the same scopes as the tree walking interpreter, so variables, closures and collections
+ * behave exactly the same. Intermediate values are kept in registers instead. Expressions that the compiler does not
+ * handle itself are evaluated by the tree walking interpreter via EVAL instructions. This is not possible if such an
+ * expression contains a break, continue or return that leaves it, because the jump would have to be handled by
+ * compiled code. In that case the whole chunk falls back to the interpreter.
+ *
+ * Expressions in loops that yield the same value in every iteration (see {@code LoopInvariants}) are only evaluated
+ * once per execution of the loop. Their value is kept in a register that is cleared before the loop starts.
+ * Subscripts in counted loops whose index is known to be in range (see {@code CountedLoops}) read the collection
+ * without checking the index.
+ *
+ * Collection definitions that are only read by the subscript or member access that contains them (see
+ * {@code TemporaryCollections}) are not created at all. Their members are evaluated into registers instead.
+ *
+ * Some frequent sequences of instructions are fused into superinstructions while they are emitted: comparisons
+ * followed by conditional jumps, increments of variables by INT literals and chains of member accesses.
+ */
+public class Compiler {
+
+    /**
+     * The result is looked up like in {@code Expression.evalAndLookUp()}
+     */
+    private static final int VALUE = 0;
+
+    /**
+     * The result is returned as is, like in {@code Expression.eval()}
+     */
+    private static final int RAW = 1;
+
+    /**
+     * The result is not used
+     */
+    private static final int EFFECT = 2;
+
+    private static class UnsupportedExpressionException extends RuntimeException {
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+    /**
+     * A loop that is being compiled
+     */
+    private static class Loop {
+
+        /**
+         * Number of scopes that are open inside of the loop
+         */
+        final int scopeDepth;
+
+        /**
+         * Register that holds the result of the loop
+         */
+        final int result;
+
+        final ArrayList<Integer> breaks = new ArrayList<>();
+
+        final ArrayList<Integer> continues = new ArrayList<>();
+
+        Loop(int scopeDepth, int result){
+            this.scopeDepth = scopeDepth;
+            this.result = result;
+        }
+    }
+
+    private int[] code = new int[64];
+
+    private int codeLength;
+
+    /**
+     * Position of the last instruction emitted, and the last position that has become the target of a jump
+     */
+    private int lastInstruction = -1, lastLabel = -1;
+
+    private final ArrayList<Object> constants = new ArrayList<>();
+
+    private int nextRegister, numRegisters;
+
+    /**
+     * Number of scopes opened by the code emitted so far
+     */
+    private int scopeDepth;
+
+    private final IdentityHashMap<Expression, Loop> loops = new IdentityHashMap<>();
+
+    /**
+     * Registers that keep the values of the loop invariant expressions of the loops that are being compiled
+     */
+    private final IdentityHashMap<Expression, Integer> invariants = new IdentityHashMap<>();
+
+    /**
+     * Subscripts in the loops that are being compiled whose index is known to be in range
+     */
+    private final Set<Expression> safeSubscripts = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * Body of the function that is compiled, or null for a top level expression
+     */
+    private final FunctionBody function;
+
+    private Compiler(FunctionBody function){
+        this.function = function;
+    }
+
+    /**
+     * Compiles a top level expression. Executing the chunk yields the same value as {@code expr.evalAndLookUp()}.
+     * @param expr A resolved expression.
+     * @return The compiled expression.
+     */
+    public static Chunk compile(Expression expr){
+        try {
+            Compiler compiler = new Compiler(null);
+            int result = compiler.allocateRegister();
+            compiler.compile(expr, VALUE, result);
+            compiler.emit(Opcode.RETURN, result);
+            return compiler.finish();
+        }catch(UnsupportedExpressionException e){
+            return interpretedChunk(expr);
+        }
+    }
+
+    /**
+     * Compiles the body of a function. The chunk has to be executed in the scope created for the call.
+     * @param body The function body.
+     * @return The compiled function body.
+     */
+    public static Chunk compileFunction(FunctionBody body){
+        try {
+            Compiler compiler = new Compiler(body);
+            int result = compiler.allocateRegister();
+            compiler.compile(body.getChild(0), VALUE, result);
+            compiler.emit(Opcode.RETURN, result);
+            return compiler.finish();
+        }catch(UnsupportedExpressionException e){
+            return interpretedChunk(body);
+        }
+    }
+
+    /**
+     * Creates a chunk that evaluates the given expression with the tree walking interpreter.
+     */
+    private static Chunk interpretedChunk(Expression expr){
+        return new Chunk(new int[]{Opcode.EVAL, 0, 0, Opcode.RETURN, 0}, new Object[]{expr}, 1);
+    }
+
+    private Chunk finish(){
+        return new Chunk(Arrays.copyOf(code, codeLength), constants.toArray(), numRegisters);
+    }
+
+    private int allocateRegister(){
+        int register = nextRegister++;
+        numRegisters = Math.max(numRegisters, nextRegister);
+        return register;
+    }
+
+    private int constant(Object value){
+        for(int i = 0; i < constants.size(); i++){
+            Object constant = constants.get(i);
+            //Names are compared by value, everything else by identity
+            if(constant == value || value instanceof String && value.equals(constant))
+                return i;
+        }
+        constants.add(value);
+        return constants.size() - 1;
+    }
+
+    /**
+     * Appends an instruction and returns its position.
+     */
+    private int emit(int opcode, int... operands){
+        if(codeLength + operands.length + 1 > code.length)
+            code = Arrays.copyOf(code, Math.max(2 * code.length, codeLength + operands.length + 1));
+
+        int position = codeLength;
+        code[codeLength++] = opcode;
+        for(int operand: operands)
+            code[codeLength++] = operand;
+        lastInstruction = position;
+        return position;
+    }
+
+    /**
+     * Returns the instruction that was emitted last if it can be fused with the next one, or -1. That is only
+     * possible if nothing jumps to the next instruction.
+     */
+    private int fusable(int opcode){
+        if(lastInstruction < 0 || lastLabel == codeLength || code[lastInstruction] != opcode)
+            return -1;
+        return lastInstruction;
+    }
+
+    /**
+     * Returns the position of the next instruction, which becomes the target of a jump.
+     */
+    private int label(){
+        lastLabel = codeLength;
+        return codeLength;
+    }
+
+    /**
+     * Emits a conditional jump on a register that is not used afterwards. A comparison right before it is fused
+     * into a JUMP_UNLESS_REL instruction.
+     * @return The position of the jump.
+     */
+    private int emitJumpIfFalse(int condition){
+        int relation = fusable(Opcode.REL);
+        if(relation < 0 || code[relation + 1] != condition)
+            return emit(Opcode.JUMP_IF_FALSE, condition, 0);
+
+        int left = code[relation + 2], right = code[relation + 3], operator = code[relation + 4];
+        codeLength = relation;
+        emit(Opcode.JUMP_UNLESS_REL, left, right, operator, 0);
+        return relation;
+    }
+
+    /**
+     * Sets the target of the jump at the given position to the end of the code emitted so far.
+     */
+    private void patchJump(int position){
+        int target = label();
+        if(code[position] == Opcode.JUMP)
+            code[position + 1] = target;
+        else if(code[position] == Opcode.JUMP_UNLESS_REL)
+            code[position + 4] = target;
+        else
+            code[position + 2] = target;
+    }
+
+    /**
+     * Emits the code to open the scope of an expression, unless the Resolver found that it is not needed.
+     * @return Whether a scope has been opened.
+     */
+    private boolean enterScope(Expression expr){
+        ScopeLayout layout = expr.getLayout();
+        if(layout != null && layout.isEmpty())
+            return false;
+
+        emit(Opcode.ENTER_SCOPE, constant(layout));
+        scopeDepth++;
+        return true;
+    }
+
+    private void exitScope(boolean scopeOpened){
+        if(scopeOpened){
+            emit(Opcode.EXIT_SCOPE);
+            scopeDepth--;
+        }
+    }
+
+    /**
+     * Emits the code for an expression.
+     * @param expr The expression to compile.
+     * @param mode VALUE, RAW or EFFECT.
+     * @param dst The register that receives the result.
+     */
+    private void compile(Expression expr, int mode, int dst){
+        int mark = nextRegister;
+
+        Integer invariant = mode == VALUE ? invariants.get(expr) : null;
+        if(invariant != null)
+            compileInvariant(expr, invariant, dst);
+        else if(expr instanceof Atom)
+            compileAtom((Atom) expr, mode, dst);
+        else if(expr instanceof AddExpr || expr instanceof MulExpr || expr instanceof ShiftExpr ||
+                expr instanceof AndExpr || expr instanceof OrExpr || expr instanceof XorExpr)
+            compileArithmetic(expr, mode, dst);
+        else if(expr instanceof RelationalExpr)
+            compileRelational((RelationalExpr) expr, dst);
+        else if(expr instanceof NotExpr || expr instanceof NegationExpr)
+            compileUnary(expr, dst);
+        else if(expr instanceof CompoundExpr)
+            compileCompound((CompoundExpr) expr, mode, dst);
+        else if(expr instanceof IfExpr)
+            compileIf((IfExpr) expr, mode, dst);
+        else if(expr instanceof WhileExpr || expr instanceof ForExpr)
+            compileLoop(expr, mode, dst);
+        else if(expr instanceof BreakExpr || expr instanceof ContinueExpr)
+            compileJump(expr, mode, dst);
+        else if(expr instanceof ReturnExpr)
+            compileReturn((ReturnExpr) expr, mode, dst);
+        else if(expr instanceof VariableDeclarationExpr)
+            compileDeclaration((VariableDeclarationExpr) expr, mode, dst);
+        else if(expr instanceof AssignExpr)
+            compileAssignment((AssignExpr) expr, mode, dst);
+        else if(expr instanceof MemberAccessExpr && mode == VALUE)
+            compileMemberAccess((MemberAccessExpr) expr, dst);
+        else if(expr instanceof SubscriptExpr && mode == VALUE)
+            compileSubscript((SubscriptExpr) expr, dst);
+        else if(expr instanceof FunctionCallExpr)
+            compileCall((FunctionCallExpr) expr, mode, dst);
+        else if(expr instanceof FunctionDefinitionExpr)
+            compileFunctionDefinition((FunctionDefinitionExpr) expr, dst);
+        else
+            compileInterpreted(expr, mode, dst);
+
+        nextRegister = mark;
+    }
+
+    private void compileEffect(Expression expr){
+        int mark = nextRegister;
+        compile(expr, EFFECT, allocateRegister());
+        nextRegister = mark;
+    }
+
+    private void compileInterpreted(Expression expr, int mode, int dst){
+        if(containsEscapingJump(expr))
+            throw new UnsupportedExpressionException();
+        emit(mode == VALUE ? Opcode.EVAL : Opcode.EVAL_RAW, dst, constant(expr));
+    }
+
+    private void compileAtom(Atom atom, int mode, int dst){
+        if(mode == EFFECT)
+            return;
+
+        PhiObject content = atom.getContent();
+        if(mode == RAW || content.getType() != Type.SYMBOL)
+            emit(Opcode.LOAD_CONST, dst, constant(content));
+        else if(atom.isVariable())
+            emitLoad(atom, dst);
+        else
+            compileInterpreted(atom, mode, dst);
+    }
+
+    private void emitLoad(Atom atom, int dst){
+        if(atom.getDepth() >= 0)
+            emit(Opcode.LOAD_SLOT, dst, atom.getDepth(), atom.getSlot(), constant(atom.getDeclaringLayout()),
+                    constant(atom.getName()));
+        else
+            emit(Opcode.LOAD_NAME, dst, constant(atom.getName()));
+    }
+
+    private void emitStore(Atom atom, int src){
+        if(atom.getDepth() >= 0)
+            emit(Opcode.STORE_SLOT, src, atom.getDepth(), atom.getSlot(), constant(atom.getDeclaringLayout()),
+                    constant(atom.getName()));
+        else
+            emit(Opcode.STORE_NAME, src, constant(atom.getName()));
+    }
+
+    private void emitOperator(Expression expr, int operator, int dst, int left, int right){
+        if(expr instanceof AddExpr)
+            emit(operator == AddExpr.OP_ADD ? Opcode.ADD : Opcode.SUB, dst, left, right);
+        else if(expr instanceof MulExpr){
+            switch(operator){
+                case MulExpr.OP_MUL: emit(Opcode.MUL, dst, left, right); break;
+                case MulExpr.OP_DIV: emit(Opcode.DIV, dst, left, right); break;
+                case MulExpr.OP_MOD: emit(Opcode.MOD, dst, left, right); break;
+            }
+        }
+        else if(expr instanceof ShiftExpr)
+            emit(Opcode.SHIFT, dst, left, right, operator);
+        else if(expr instanceof AndExpr)
+            emit(Opcode.AND, dst, left, right);
+        else if(expr instanceof OrExpr)
+            emit(Opcode.OR, dst, left, right);
+        else
+            emit(Opcode.XOR, dst, left, right);
+    }
+
+    private void compileArithmetic(Expression expr, int mode, int dst){
+        BinaryExpr binary = (BinaryExpr) expr;
+
+        boolean scopeOpened = enterScope(expr);
+        compile(expr.getChild(0), VALUE, dst);
+        int operand = allocateRegister();
+        for(int i = 1; i < expr.countChildren(); i++){
+            compile(expr.getChild(i), VALUE, operand);
+            emitOperator(expr, binary.getOperator(i), dst, dst, operand);
+        }
+        exitScope(scopeOpened);
+
+        //Only + can produce symbols
+        if(mode == VALUE && expr instanceof AddExpr)
+            emit(Opcode.LOOKUP, dst);
+    }
+
+    private void compileRelational(RelationalExpr expr, int dst){
+        boolean scopeOpened = enterScope(expr);
+        int left = allocateRegister();
+        int right = allocateRegister();
+        compile(expr.getChild(0), VALUE, left);
+        compile(expr.getChild(1), VALUE, right);
+        emit(Opcode.REL, dst, left, right, expr.getOperator(1));
+
+        //All operands are evaluated, but the comparisons stop at the first one that fails
+        for(int i = 2; i < expr.countChildren(); i++){
+            int previous = right;
+            right = left;
+            left = previous;
+            compile(expr.getChild(i), VALUE, right);
+            int skip = emit(Opcode.JUMP_IF_FALSE, dst, 0);
+            emit(Opcode.REL, dst, left, right, expr.getOperator(i));
+            patchJump(skip);
+        }
+        exitScope(scopeOpened);
+    }
+
+    private void compileUnary(Expression expr, int dst){
+        compile(expr.getChild(0), VALUE, dst);
+        emit(expr instanceof NotExpr ? Opcode.NOT : Opcode.NEG, dst, dst);
+    }
+
+    private void compileCompound(CompoundExpr expr, int mode, int dst){
+        boolean scopeOpened = enterScope(expr);
+        int numChildren = expr.countChildren();
+        for(int i = 0; i < numChildren - 1; i++)
+            compileEffect(expr.getChild(i));
+        if(numChildren > 0)
+            compile(expr.getChild(numChildren - 1), mode, dst);
+        else
+            emit(Opcode.LOAD_CONST, dst, constant(PhiNull.NULL));
+        exitScope(scopeOpened);
+    }
+
+    private void compileIf(IfExpr expr, int mode, int dst){
+        boolean scopeOpened = enterScope(expr);
+        compile(expr.getChild(0), VALUE, dst);
+        int jumpToElse = emitJumpIfFalse(dst);
+        compile(expr.getChild(1), mode, dst);
+        int jumpToEnd = emit(Opcode.JUMP, 0);
+        patchJump(jumpToElse);
+        if(expr.countChildren() > 2)
+            compile(expr.getChild(2), mode, dst);
+        else
+            emit(Opcode.LOAD_CONST, dst, constant(PhiNull.NULL));
+        patchJump(jumpToEnd);
+        exitScope(scopeOpened);
+    }
+
+    private void compileLoop(Expression expr, int mode, int dst){
+        boolean isFor = expr instanceof ForExpr;
+        Expression init = isFor ? expr.getChild(0) : null;
+        Expression condition = expr.getChild(isFor ? 1 : 0);
+        Expression iteration = isFor ? expr.getChild(2) : null;
+        Expression body = expr.getChild(isFor ? 3 : 1);
+
+        emit(Opcode.LOAD_CONST, dst, constant(PhiNull.NULL));
+        boolean scopeOpened = enterScope(expr);
+        Loop loop = new Loop(scopeDepth, dst);
+        loops.put(expr, loop);
+
+        if(init != null)
+            compileEffect(init);
+
+        //Invariants that are not already kept for an enclosing loop get a register for the whole loop
+        List<Expression> loopInvariants = LoopInvariants.find(expr);
+        loopInvariants.removeIf(invariants::containsKey);
+        for(Expression invariant: loopInvariants){
+            int register = allocateRegister();
+            emit(Opcode.CLEAR, register);
+            invariants.put(invariant, register);
+        }
+        List<Expression> loopSubscripts = CountedLoops.findSafeSubscripts(expr);
+        safeSubscripts.addAll(loopSubscripts);
+
+        int start = label();
+        int conditionRegister = allocateRegister();
+        compile(condition, VALUE, conditionRegister);
+        int exit = emitJumpIfFalse(conditionRegister);
+        nextRegister = conditionRegister;
+
+        //The loop returns the raw result of the last iteration
+        compile(body, RAW, dst);
+
+        int continueTarget = label();
+        if(iteration != null)
+            compileEffect(iteration);
+        emit(Opcode.JUMP, start);
+
+        patchJump(exit);
+        for(int position: loop.breaks)
+            patchJump(position);
+        for(int position: loop.continues)
+            code[position + 1] = continueTarget;
+        loops.remove(expr);
+        for(Expression invariant: loopInvariants)
+            invariants.remove(invariant);
+        safeSubscripts.removeAll(loopSubscripts);
+        exitScope(scopeOpened);
+
+        if(mode == VALUE)
+            emit(Opcode.LOOKUP, dst);
+    }
+
+    /**
+     * Emits the code for a loop invariant expression. The expression is evaluated where it is, so errors and the
+     * order of evaluation do not change, but only the first time it is reached in each execution of the loop.
+     * @param register The register that keeps the value for the rest of the loop.
+     */
+    private void compileInvariant(Expression expr, int register, int dst){
+        int skip = emit(Opcode.JUMP_IF_SET, register, 0);
+        invariants.remove(expr);
+        compile(expr, VALUE, register);
+        invariants.put(expr, register);
+        patchJump(skip);
+        emit(Opcode.MOVE, dst, register);
+    }
+
+    private void compileJump(Expression expr, int mode, int dst){
+        Expression target = expr instanceof BreakExpr ? ((BreakExpr) expr).getTarget() : ((ContinueExpr) expr).getTarget();
+        Loop loop = target != null ? loops.get(target) : null;
+        if(loop == null){
+            //Jumps that are not inside of a loop raise an error
+            compileInterpreted(expr, mode, dst);
+            return;
+        }
+
+        if(expr.countChildren() > 0)
+            compile(expr.getChild(0), VALUE, loop.result);
+        else
+            emit(Opcode.LOAD_CONST, loop.result, constant(PhiNull.NULL));
+
+        for(int i = scopeDepth; i > loop.scopeDepth; i--)
+            emit(Opcode.EXIT_SCOPE);
+        int jump = emit(Opcode.JUMP, 0);
+        if(expr instanceof BreakExpr)
+            loop.breaks.add(jump);
+        else
+            loop.continues.add(jump);
+    }
+
+    private void compileReturn(ReturnExpr expr, int mode, int dst){
+        if(function == null || expr.getTarget() != function){
+            compileInterpreted(expr, mode, dst);
+            return;
+        }
+
+        int result = allocateRegister();
+        compile(expr.getChild(0), VALUE, result);
+        emit(Opcode.RETURN, result);
+    }
+
+    private void compileDeclaration(VariableDeclarationExpr expr, int mode, int dst){
+        int numVariables = expr.countChildren() / 2;
+        ScopeLayout valueLayout = expr.getLayout();
+        boolean supported = valueLayout != null && valueLayout.isEmpty();
+        for(int i = 0; i < numVariables; i++){
+            Expression name = expr.getChild(2 * i);
+            supported &= name instanceof Atom && ((Atom) name).isVariable();
+        }
+        if(!supported){
+            compileInterpreted(expr, mode, dst);
+            return;
+        }
+
+        ScopeLayout layout = expr.getDeclaringLayout();
+        int value = allocateRegister();
+        for(int i = 0; i < numVariables; i++){
+            int name = constant(((Atom) expr.getChild(2 * i)).getName());
+            int slot = expr.getSlot(i);
+            if(slot >= 0)
+                emit(Opcode.DECLARE_SLOT, slot, constant(layout), name);
+            else
+                emit(Opcode.DECLARE_NAME, name);
+
+            Expression valueExpr = expr.getChild(2 * i + 1);
+            if(valueExpr != null){
+                compile(valueExpr, VALUE, value);
+                if(slot >= 0)
+                    emit(Opcode.STORE_DECLARED, value, slot, constant(layout), name);
+                else
+                    emit(Opcode.STORE_NAME, value, name);
+            }
+        }
+
+        //The result is the value of the last variable
+        if(mode == EFFECT)
+            return;
+        if(numVariables == 0){
+            emit(Opcode.LOAD_CONST, dst, constant(PhiNull.NULL));
+            return;
+        }
+        int last = numVariables - 1;
+        int name = constant(((Atom) expr.getChild(2 * last)).getName());
+        if(expr.getSlot(last) >= 0)
+            emit(Opcode.LOAD_SLOT, dst, 0, expr.getSlot(last), constant(layout), name);
+        else
+            emit(Opcode.LOAD_NAME, dst, name);
+    }
+
+    private int assignOperatorToOpcode(int operator){
+        switch(operator){
+            case AssignExpr.OP_ASSIGN_ADD: return Opcode.ADD;
+            case AssignExpr.OP_ASSIGN_SUB: return Opcode.SUB;
+            case AssignExpr.OP_ASSIGN_MUL: return Opcode.MUL;
+            case AssignExpr.OP_ASSIGN_DIV: return Opcode.DIV;
+            case AssignExpr.OP_ASSIGN_MOD: return Opcode.MOD;
+            case AssignExpr.OP_ASSIGN_AND: return Opcode.AND;
+            case AssignExpr.OP_ASSIGN_OR: return Opcode.OR;
+            case AssignExpr.OP_ASSIGN_XOR: return Opcode.XOR;
+            default: return Opcode.SHIFT;
+        }
+    }
+
+    /**
+     * Emits the operation of a compound assignment like +=. Like in {@code AssignExpr.eval()}, symbols among the
+     * operands are looked up first. The register of the right side keeps its value, because it is the value of the
+     * assignment.
+     * @return The register containing the value to assign.
+     */
+    private int emitAssignOperator(int operator, int current, Expression rightExpr, int right){
+        if(operator == AssignExpr.OP_ASSIGN)
+            return right;
+
+        emit(Opcode.LOOKUP, current);
+        if(mayBeSymbol(rightExpr)){
+            int operand = allocateRegister();
+            emit(Opcode.MOVE, operand, right);
+            emit(Opcode.LOOKUP, operand);
+            right = operand;
+        }
+        int result = allocateRegister();
+        int opcode = assignOperatorToOpcode(operator);
+        if(opcode != Opcode.SHIFT)
+            emit(opcode, result, current, right);
+        else if(operator == AssignExpr.OP_ASSIGN_SHIFT_LEFT)
+            emit(Opcode.SHIFT, result, current, right, ShiftExpr.OP_SHIFT_LEFT);
+        else
+            emit(Opcode.SHIFT, result, current, right, ShiftExpr.OP_SHIFT_RIGHT);
+        return result;
+    }
+
+    /**
+     * Returns whether the value of an expression may be a symbol. Literals and the results of operators that only
+     * work on numbers never are.
+     */
+    private static boolean mayBeSymbol(Expression expr){
+        if(expr instanceof Atom)
+            return ((Atom) expr).isVariable() || ((Atom) expr).getContent().getType() == Type.SYMBOL;
+        if(expr instanceof AddExpr)
+            return ((AddExpr) expr).getOperator(expr.countChildren() - 1) == AddExpr.OP_ADD;
+        return !(expr instanceof BinaryExpr || expr instanceof NotExpr || expr instanceof NegationExpr);
+    }
+
+    /**
+     * Returns the name of a member access with a literal name, or null if the name is computed.
+     */
+    private String getMemberName(MemberAccessExpr expr){
+        MemberCache cache = expr.getCache();
+        return cache != null ? cache.getName() : null;
+    }
+
+    private void compileAssignment(AssignExpr expr, int mode, int dst){
+        int operator = expr.getOperator();
+        Expression left = expr.getChild(0);
+        Expression right = expr.getChild(1);
+
+        if(isIncrement(expr)){
+            //x += 1 and the like are fused into one instruction. The value of the assignment is the right side.
+            Atom variable = (Atom) left;
+            emit(Opcode.INC_SLOT, variable.getDepth(), variable.getSlot(), constant(variable.getDeclaringLayout()),
+                    constant(variable.getName()), constant(((Atom) right).getContent()));
+            if(mode != EFFECT)
+                emit(Opcode.LOAD_CONST, dst, constant(((Atom) right).getContent()));
+        }
+        else if(expr.assignsVariable()){
+            Atom variable = (Atom) left;
+            int current = -1;
+            if(operator != AssignExpr.OP_ASSIGN){
+                current = allocateRegister();
+                emitLoad(variable, current);
+            }
+            boolean scopeOpened = enterScope(expr);
+            compile(right, VALUE, dst);
+            int result = emitAssignOperator(operator, current, right, dst);
+            exitScope(scopeOpened);
+            emitStore(variable, result);
+        }
+        else if(left instanceof MemberAccessExpr && getMemberName((MemberAccessExpr) left) != null){
+            int name = constant(getMemberName((MemberAccessExpr) left));
+            boolean scopeOpened = enterScope(expr);
+            int object = allocateRegister();
+            boolean memberScopeOpened = enterScope(left);
+            compile(left.getChild(0), VALUE, object);
+            exitScope(memberScopeOpened);
+
+            int current = -1;
+            if(operator != AssignExpr.OP_ASSIGN){
+                current = allocateRegister();
+                emit(Opcode.GET_MEMBER, current, object, constant(((MemberAccessExpr) left).getCache()));
+            }
+            compile(right, VALUE, dst);
+            int result = emitAssignOperator(operator, current, right, dst);
+            emit(Opcode.SET_MEMBER, object, name, result);
+            exitScope(scopeOpened);
+        }
+        else if(left instanceof SubscriptExpr){
+            boolean scopeOpened = enterScope(expr);
+            int object = allocateRegister();
+            int index = allocateRegister();
+            boolean subscriptScopeOpened = enterScope(left);
+            compile(left.getChild(0), VALUE, object);
+            compile(left.getChild(1), VALUE, index);
+            exitScope(subscriptScopeOpened);
+
+            int current = -1;
+            if(operator != AssignExpr.OP_ASSIGN){
+                current = allocateRegister();
+                emit(Opcode.GET_INDEX, current, object, index);
+            }
+            compile(right, VALUE, dst);
+            int result = emitAssignOperator(operator, current, right, dst);
+            emit(Opcode.SET_INDEX, object, index, result);
+            exitScope(scopeOpened);
+        }
+        else
+            compileInterpreted(expr, mode, dst);
+    }
+
+    /**
+     * Returns whether an assignment adds an INT literal to a variable with a resolved address, without opening
+     * a scope.
+     */
+    private static boolean isIncrement(AssignExpr expr){
+        if(!expr.assignsVariable() || expr.getOperator() != AssignExpr.OP_ASSIGN_ADD ||
+                ((Atom) expr.getChild(0)).getDepth() < 0)
+            return false;
+        Expression right = expr.getChild(1);
+        ScopeLayout layout = expr.getLayout();
+        return right instanceof Atom && ((Atom) right).getContent().getType() == Type.INT &&
+                layout != null && layout.isEmpty();
+    }
+
+    private void compileMemberAccess(MemberAccessExpr expr, int dst){
+        String name = getMemberName(expr);
+        int member = TemporaryCollections.findMember(expr);
+        if(member != TemporaryCollections.NONE){
+            compileTemporaryCollection(expr, member, dst);
+            return;
+        }
+        if(name == null){
+            compileInterpreted(expr, VALUE, dst);
+            return;
+        }
+
+        boolean scopeOpened = enterScope(expr);
+        compile(expr.getChild(0), VALUE, dst);
+        exitScope(scopeOpened);
+
+        //Member chains like a.b.c read two members at a time
+        int previous = fusable(Opcode.GET_MEMBER);
+        if(previous >= 0 && code[previous + 1] == dst){
+            int object = code[previous + 2], cache = code[previous + 3];
+            codeLength = previous;
+            emit(Opcode.GET_MEMBER_PATH, dst, object, cache, constant(expr.getCache()));
+        }
+        else
+            emit(Opcode.GET_MEMBER, dst, dst, constant(expr.getCache()));
+    }
+
+    private void compileSubscript(SubscriptExpr expr, int dst){
+        int member = TemporaryCollections.findMember(expr);
+        if(member != TemporaryCollections.NONE){
+            compileTemporaryCollection(expr, member, dst);
+            return;
+        }
+
+        boolean scopeOpened = enterScope(expr);
+        int index = allocateRegister();
+        compile(expr.getChild(0), VALUE, dst);
+        compile(expr.getChild(1), VALUE, index);
+        exitScope(scopeOpened);
+        emit(safeSubscripts.contains(expr) ? Opcode.GET_ELEMENT : Opcode.GET_INDEX, dst, dst, index);
+    }
+
+    /**
+     * Emits the code for a subscript or member access of a collection definition that does not escape it. The
+     * members are evaluated in order like in {@code CollectionDefinitionExpr.eval()}, but only the one that is read
+     * is kept.
+     * @param member The child of the collection definition that is read, or TemporaryCollections.LENGTH.
+     */
+    private void compileTemporaryCollection(Expression access, int member, int dst){
+        Expression collection = access.getChild(0);
+        boolean scopeOpened = enterScope(access);
+        int scratch = allocateRegister();
+        for(int i = 0; i < collection.countChildren(); i += 2){
+            boolean unnamed = collection.getChild(i + 1) == null;
+            int child = unnamed ? i : i + 1;
+            //Unnamed members are stored without looking them up
+            compile(collection.getChild(child), unnamed ? RAW : VALUE, child == member ? dst : scratch);
+        }
+        exitScope(scopeOpened);
+        if(member == TemporaryCollections.LENGTH)
+            emit(Opcode.LOAD_CONST, dst, constant(new PhiInt(TemporaryCollections.findLength(collection))));
+    }
+
+    private void compileCall(FunctionCallExpr expr, int mode, int dst){
+        int numParams = (expr.countChildren() - 1) / 2;
+        for(int i = 0; i < numParams; i++){
+            //Named parameters are left to the interpreter
+            if(expr.getChild(2 + 2 * i) != null){
+                compileInterpreted(expr, mode, dst);
+                return;
+            }
+        }
+
+        boolean scopeOpened = enterScope(expr);
+        int function = allocateRegister();
+        compile(expr.getChild(0), VALUE, function);
+        int first = nextRegister;
+        for(int i = 0; i < numParams; i++){
+            int param = allocateRegister();
+            compile(expr.getChild(1 + 2 * i), VALUE, param);
+        }
+        if(expr.isTailCall() && this.function != null && mode == VALUE)
+            emit(Opcode.TAIL_CALL, function, first, numParams, constant(expr.getCache()));
+        else
+            emit(Opcode.CALL, dst, function, first, numParams, constant(expr.getCache()));
+        exitScope(scopeOpened);
+    }
+
+    private void compileFunctionDefinition(FunctionDefinitionExpr expr, int dst){
+        Chunk body = compileFunction((FunctionBody) expr.getChild(0));
+        emit(Opcode.MAKE_FUNCTION, dst, constant(expr), constant(body));
+    }
+
+    /**
+     * Returns true if the given expression contains a break, continue or return whose target lies outside of the
+     * expression.
+     */
+    static boolean containsEscapingJump(Expression expr){
+        return containsEscapingJump(expr, Collections.newSetFromMap(new IdentityHashMap<>()));
+    }
+
+    private static boolean containsEscapingJump(Expression expr, Set<Expression> enclosing){
+        Expression target = null;
+        if(expr instanceof BreakExpr)
+            target = ((BreakExpr) expr).getTarget();
+        else if(expr instanceof ContinueExpr)
+            target = ((ContinueExpr) expr).getTarget();
+        else if(expr instanceof ReturnExpr)
+            target = ((ReturnExpr) expr).getTarget();
+        if(target != null && !enclosing.contains(target))
+            return true;
+
+        enclosing.add(expr);
+        for(int i = 0; i < expr.countChildren(); i++){
+            Expression child = expr.getChild(i);
+            if(child != null && containsEscapingJump(child, enclosing))
+                return true;
+        }
+        enclosing.remove(expr);
+        return false;
+    }
+}
@@ -0,0 +1,117 @@
+package de.delphi.phi.vm;
+
+import de.delphi.phi.parser.ast.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Finds the subscripts in counted loops like {@code for var i = 0; i < c.length; i += 1 do ... c[i]} whose index
+ * is known to be in range, so that the Compiler can read them without checking the index.
+ *
+ * A loop is counted if its counter starts at a non-negative INT literal, is increased by a positive INT literal
+ * and is compared to the length of a collection variable before each iteration. If the body neither assigns the
+ * counter nor the collection variable, and has no effects the analysis does not know about (see
+ * {@code LoopInvariants}), the counter is an INT with 0 <= i < c.length in the whole body, because collections
+ * never get shorter. Subscripts {@code c[i]} in the body then refer to an existing member.
+ */
+final class CountedLoops {
+
+    private CountedLoops(){
+
+    }
+
+    /**
+     * Returns the subscripts in the body of a loop whose index is known to be in range.
+     * @param loop A WhileExpr or ForExpr.
+     */
+    static List<Expression> findSafeSubscripts(Expression loop){
+        if(!(loop instanceof ForExpr))
+            return Collections.emptyList();
+
+        String counter = counterName(loop.getChild(0));
+        String collection = boundName(loop.getChild(1), counter);
+        if(counter == null || collection == null || !isIncrement(loop.getChild(2), counter))
+            return Collections.emptyList();
+
+        Expression body = loop.getChild(3);
+        Set<String> written = LoopInvariants.findWrittenNames(body);
+        if(written == null || written.contains(counter) || written.contains(collection))
+            return Collections.emptyList();
+
+        List<Expression> subscripts = new ArrayList<>();
+        collect(body, counter, collection, subscripts);
+        return subscripts;
+    }
+
+    private static String variableName(Expression expr){
+        if(expr instanceof Atom && ((Atom) expr).isVariable())
+            return ((Atom) expr).getName();
+        return null;
+    }
+
+    /**
+     * Returns the name of the counter that is initialized by the first part of a loop, or null.
+     */
+    private static String counterName(Expression init){
+        if(init instanceof VariableDeclarationExpr && init.countChildren() == 2 &&
+                LoopInvariants.intLiteral(init.getChild(1)) >= 0)
+            return variableName(init.getChild(0));
+        if(init instanceof AssignExpr && ((AssignExpr) init).assignsVariable() &&
+                ((AssignExpr) init).getOperator() == AssignExpr.OP_ASSIGN &&
+                LoopInvariants.intLiteral(init.getChild(1)) >= 0)
+            return variableName(init.getChild(0));
+        return null;
+    }
+
+    /**
+     * Returns the name of the collection whose length bounds the counter in the condition of a loop, or null.
+     */
+    private static String boundName(Expression condition, String counter){
+        if(!(condition instanceof RelationalExpr) || condition.countChildren() != 2 || counter == null)
+            return null;
+
+        RelationalExpr relation = (RelationalExpr) condition;
+        Expression index, length;
+        if(relation.getOperator(1) == RelationalExpr.OP_LESS_THAN){
+            index = relation.getChild(0);
+            length = relation.getChild(1);
+        }
+        else if(relation.getOperator(1) == RelationalExpr.OP_GREATER_THAN){
+            index = relation.getChild(1);
+            length = relation.getChild(0);
+        }
+        else
+            return null;
+
+        if(!counter.equals(variableName(index)) || !(length instanceof MemberAccessExpr))
+            return null;
+        MemberAccessExpr member = (MemberAccessExpr) length;
+        if(member.getCache() == null || !member.getCache().getName().equals("length"))
+            return null;
+        return variableName(member.getChild(0));
+    }
+
+    private static boolean isIncrement(Expression iteration, String counter){
+        if(!(iteration instanceof AssignExpr) || !((AssignExpr) iteration).assignsVariable())
+            return false;
+        AssignExpr assignment = (AssignExpr) iteration;
+        return assignment.getOperator() == AssignExpr.OP_ASSIGN_ADD &&
+                counter.equals(variableName(assignment.getChild(0))) &&
+                LoopInvariants.intLiteral(assignment.getChild(1)) > 0;
+    }
+
+    private static void collect(Expression expr, String counter, String collection, List<Expression> subscripts){
+        if(expr == null || expr instanceof Atom)
+            return;
+        if(expr instanceof SubscriptExpr && collection.equals(variableName(expr.getChild(0))) &&
+                counter.equals(variableName(expr.getChild(1))))
+            subscripts.add(expr);
+        //The name of a member is not an expression of its own
+        int numChildren = expr instanceof MemberAccessExpr ? 1 : expr.countChildren();
+        for(int i = 0; i < numChildren; i++)
+            collect(expr.getChild(i), counter, collection, subscripts);
+    }
+}
@@ -0,0 +1,150 @@
+package de.delphi.phi.vm;
+
+import de.delphi.phi.PhiException;
+import de.delphi.phi.parser.Parser;
+import de.delphi.phi.parser.ast.Expression;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Counts the sequences of instructions that occur in compiled code, to find candidates for superinstructions.
+ *
+ * A sequence is identified by the names of its opcodes. Sequences do not extend across the target of a jump,
+ * because the instructions of a superinstruction always run together. The bodies of functions, which are compiled
+ * into chunks of their own, are counted as well. The counts are static: A sequence counts once for every place it
+ * occurs in the code, no matter how often it is executed.
+ *
+ * The main method mines a corpus of scripts:
+ * {@code InstructionStatistics [-n length] [-top count] files...}
+ * prints the most frequent sequences of the given length (default 2) in all files, one per line with its count.
+ */
+public class InstructionStatistics {
+
+    private final int length;
+
+    private final HashMap<String, Integer> counts = new HashMap<>();
+
+    /**
+     * Chunks that have been counted, so that shared function bodies are only counted once
+     */
+    private final Set<Chunk> counted = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * @param length Number of instructions in the counted sequences.
+     */
+    public InstructionStatistics(int length){
+        if(length < 1)
+            throw new IllegalArgumentException("Sequences must contain at least one instruction.");
+        this.length = length;
+    }
+
+    /**
+     * Counts the sequences in a chunk and the bodies of the functions defined in it.
+     */
+    public void add(Chunk chunk){
+        if(!counted.add(chunk))
+            return;
+
+        int[] code = chunk.code;
+        List<Integer> positions = new ArrayList<>();
+        boolean[] targets = findJumpTargets(code);
+        for(int pc = 0; pc < code.length; pc += Opcode.getNumOperands(code[pc]) + 1){
+            if(targets[pc])
+                positions.clear();
+            positions.add(pc);
+            if(positions.size() > length)
+                positions.remove(0);
+            if(positions.size() == length)
+                counts.merge(sequence(code, positions), 1, Integer::sum);
+        }
+
+        for(Object constant: chunk.constants){
+            if(constant instanceof Chunk)
+                add((Chunk) constant);
+        }
+    }
+
+    /**
+     * Compiles all expressions of a script and counts the sequences in them.
+     * @throws PhiException If the script can not be parsed.
+     */
+    public void addScript(String script) throws PhiException, IOException{
+        Parser parser = new Parser(script);
+        do{
+            Expression expr = parser.nextExpression();
+            if(expr != null)
+                add(Compiler.compile(expr));
+        }while(!parser.eoi());
+    }
+
+    /**
+     * Returns the number of times each sequence occurs.
+     */
+    public Map<String, Integer> getCounts(){
+        return Collections.unmodifiableMap(counts);
+    }
+
+    /**
+     * Returns the sequences that occur most often, together with their counts, in descending order.
+     * @param count The maximum number of sequences.
+     */
+    public List<Map.Entry<String, Integer>> getMostFrequent(int count){
+        List<Map.Entry<String, Integer>> entries = new ArrayList<>(counts.entrySet());
+        entries.sort(Map.Entry.<String, Integer>comparingByValue().reversed()
+                .thenComparing(Map.Entry.comparingByKey()));
+        return entries.subList(0, Math.min(count, entries.size()));
+    }
+
+    private static String sequence(int[] code, List<Integer> positions){
+        StringJoiner joiner = new StringJoiner(" ");
+        for(int pc: positions)
+            joiner.add(Opcode.getName(code[pc]));
+        return joiner.toString();
+    }
+
+    private static boolean[] findJumpTargets(int[] code){
+        boolean[] targets = new boolean[code.length + 1];
+        for(int pc = 0; pc < code.length; pc += Opcode.getNumOperands(code[pc]) + 1){
+            switch(code[pc]){
+                case Opcode.JUMP: targets[code[pc + 1]] = true; break;
+                case Opcode.JUMP_IF_FALSE:
+                case Opcode.JUMP_IF_SET: targets[code[pc + 2]] = true; break;
+                case Opcode.JUMP_UNLESS_REL: targets[code[pc + 4]] = true; break;
+            }
+        }
+        return targets;
+    }
+
+    public static void main(String[] args) throws IOException{
+        int length = 2, top = 20;
+        List<String> files = new ArrayList<>();
+        for(int i = 0; i < args.length; i++){
+            if(args[i].equals("-n") && i + 1 < args.length)
+                length = Integer.parseInt(args[++i]);
+            else if(args[i].equals("-top") && i + 1 < args.length)
+                top = Integer.parseInt(args[++i]);
+            else
+                files.add(args[i]);
+        }
+        if(files.isEmpty()){
+            System.err.println("Usage: InstructionStatistics [-n length] [-top count] files...");
+            System.exit(1);
+        }
+
+        InstructionStatistics statistics = new InstructionStatistics(length);
+        for(String file: files){
+            String script = new String(Files.readAllBytes(Paths.get(file)), StandardCharsets.UTF_8);
+            try {
+                statistics.addScript(script);
+            }catch(PhiException e){
+                System.err.println(file + ": " + e.getMessage());
+            }
+        }
+        for(Map.Entry<String, Integer> entry: statistics.getMostFrequent(top))
+            System.out.printf("%8d  %s%n", entry.getValue(), entry.getKey());
+    }
+}
@@ -0,0 +1,33 @@
+package de.delphi.phi.vm;
+
+import de.delphi.phi.PhiRuntimeException;
+import de.delphi.phi.data.PhiCollection;
+import de.delphi.phi.data.PhiObject;
+
+/**
+ * Interface implemented by the classes generated by the JitCompiler.
+ */
+interface JitCode {
+
+    /**
+     * Executes the generated code. This has the same effect as executing the chunk the code was generated from.
+     * @param scope The scope to execute the code in.
+     * @return The result of the chunk.
+     * @throws PhiRuntimeException If an error occurs during the execution.
+     */
+    default PhiObject execute(PhiCollection scope) throws PhiRuntimeException {
+        return resume(scope, null, 0);
+    }
+
+    /**
+     * Continues an execution of the chunk that was started by the VirtualMachine at the start of a loop (on-stack
+     * replacement).
+     * @param scope The current scope of the execution.
+     * @param registers The registers of the execution, or null to start a new execution.
+     * @param pc The position of the instruction to continue with, which must be the target of a jump back to the
+     *           start of a loop. Ignored if registers is null.
+     * @return The result of the chunk.
+     * @throws PhiRuntimeException If an error occurs during the execution.
+     */
+    PhiObject resume(PhiCollection scope, PhiObject[] registers, int pc) throws PhiRuntimeException;
+}
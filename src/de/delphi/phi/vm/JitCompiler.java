@@ -0,0 +1,1063 @@
+package de.delphi.phi.vm;
+
+import de.delphi.phi.parser.ast.Expression;
+import de.delphi.phi.parser.ast.RelationalExpr;
+
+import de.delphi.phi.PhiRuntimeException;
+import de.delphi.phi.data.CallCache;
+import de.delphi.phi.data.MemberCache;
+import de.delphi.phi.data.ParameterBinding;
+import de.delphi.phi.data.PhiFunction;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static de.delphi.phi.vm.ClassFileWriter.*;
+
+/**
+ * Compiles Chunks to JVM bytecode.
+ *
+ * Every chunk is translated into a hidden class whose {@code execute} method performs the instructions of the chunk.
+ * Registers become local variables, jumps become JVM branches and the constants of the chunk become static final
+ * fields, which the JVM treats as true constants. ADD, SUB, MUL and REL on two INTs or two FLOATs are emitted as
+ * plain Java arithmetic; everything else calls the same methods the VirtualMachine uses.
+ *
+ * Chunks that have been executed by the VirtualMachine under a TieredCompilation are compiled speculatively: Arithmetic
+ * and comparisons that have only seen INTs, calls that have always called functions with the same code and member
+ * accesses that have only seen one shape are emitted without the generic paths, behind guards. If a guard fails, the code
+ * deoptimizes: the registers are handed to the VirtualMachine, which continues at the failing instruction, and the
+ * chunk is later compiled again without that speculation.
+ *
+ * Calls that speculate on a small compiled function execute its body in place of the call (inlining). The body still
+ * gets a scope of its own, so parameters, closures and {@code return} behave as in a call, but the JVM sees the body
+ * together with the code around the call and can optimize both at once.
+ *
+ * The hidden classes are only referenced by their chunks, so they are unloaded together with the script they were
+ * generated for.
+ */
+public class JitCompiler {
+
+    private static final String VM = "de/delphi/phi/vm/VirtualMachine";
+    private static final String OBJECT = "de/delphi/phi/data/PhiObject";
+    private static final String INT = "de/delphi/phi/data/PhiInt";
+    private static final String FLOAT = "de/delphi/phi/data/PhiFloat";
+    private static final String COLLECTION = "de/delphi/phi/data/PhiCollection";
+    private static final String FUNCTION = "de/delphi/phi/data/PhiFunction";
+    private static final String COMPILED_FUNCTION = "de/delphi/phi/vm/CompiledFunction";
+    private static final String SCOPE = "de/delphi/phi/PhiScope";
+    private static final String LAYOUT = "de/delphi/phi/ScopeLayout";
+    private static final String EXPRESSION = "de/delphi/phi/parser/ast/Expression";
+    private static final String CHUNK = "de/delphi/phi/vm/Chunk";
+    private static final String CALL_CACHE = "de/delphi/phi/data/CallCache";
+    private static final String MEMBER_CACHE = "de/delphi/phi/data/MemberCache";
+    private static final String TAIL_CALL = "de/delphi/phi/data/TailCall";
+    private static final String BINDING = "de/delphi/phi/data/ParameterBinding";
+    private static final String FUNCTION_BODY = "de/delphi/phi/parser/ast/FunctionBody";
+    private static final String SHAPE = "de/delphi/phi/data/Shape";
+    private static final String STRING = "java/lang/String";
+    private static final String WEAK_REFERENCE = "java/lang/ref/WeakReference";
+
+    private static final String OBJECT_DESC = "L" + OBJECT + ";";
+    private static final String COLLECTION_DESC = "L" + COLLECTION + ";";
+    private static final String LAYOUT_DESC = "L" + LAYOUT + ";";
+    private static final String STRING_DESC = "L" + STRING + ";";
+    private static final String BINARY_DESC = "(" + OBJECT_DESC + OBJECT_DESC + ")" + OBJECT_DESC;
+
+    /**
+     * Name of the generated classes. The JVM appends a unique suffix to the names of hidden classes.
+     */
+    private static final String CLASS_NAME = "de/delphi/phi/vm/GeneratedCode";
+
+    private static final int MAX_STACK = 8;
+
+    /**
+     * Maximum length of the code of a function that is inlined, and of all functions inlined into one chunk
+     */
+    private static final int MAX_INLINED_LENGTH = 80, MAX_TOTAL_INLINED_LENGTH = 800;
+
+    /**
+     * Local variable holding the current scope. Local 0 holds {@code this}.
+     */
+    private static final int SCOPE_LOCAL = 1;
+
+    /**
+     * Locals holding the registers and the position at which an execution of the chunk is resumed
+     */
+    private static final int REGISTERS_LOCAL = 2, ENTRY_LOCAL = 3;
+
+    /**
+     * Local variable of the first register
+     */
+    private static final int FIRST_REGISTER = 4;
+
+    private final Chunk chunk;
+
+    private final ClassFileWriter writer = new ClassFileWriter(CLASS_NAME);
+
+    private final ClassFileWriter.Code code = writer.newCode();
+
+    /**
+     * Labels of the instructions of the chunk, indexed by their position
+     */
+    private final ClassFileWriter.Label[] labels;
+
+    /**
+     * Constants of the generated class: the constants of the chunk, followed by those added for speculations
+     */
+    private final List<Object> classData;
+
+    /**
+     * Types of the static fields holding the constants
+     */
+    private final List<String> constantTypes;
+
+    /**
+     * Whether the VirtualMachine has collected the operand types and call targets that speculations rely on
+     */
+    private final boolean speculate;
+
+    /**
+     * Labels of the code that deoptimizes at an instruction, indexed by its position
+     */
+    private final ClassFileWriter.Label[] deoptimizations;
+
+    /**
+     * Chunk whose instructions are emitted: the compiled chunk or the body of a function that is inlined into it
+     */
+    private Chunk current;
+
+    private ClassFileWriter.Label[] currentLabels;
+
+    /**
+     * Local variable of the first register of the current chunk
+     */
+    private int firstRegister = FIRST_REGISTER;
+
+    /**
+     * Index of the first constant of the current chunk in the constants of the generated class
+     */
+    private int firstConstant;
+
+    /**
+     * Local variable that receives the result of the inlined function, and the code after its body
+     */
+    private int inlinedResult;
+
+    private ClassFileWriter.Label inlinedExit;
+
+    private int numLocals;
+
+    /**
+     * Local variable for the intermediate values of superinstructions
+     */
+    private final int scratch;
+
+    /**
+     * Number of calls that have been inlined, and the total length of the inlined code
+     */
+    private int inlinedCalls, inlinedLength;
+
+    private JitCompiler(Chunk chunk){
+        this.chunk = chunk;
+        current = chunk;
+        numLocals = FIRST_REGISTER + chunk.numRegisters;
+        scratch = numLocals++;
+        labels = new ClassFileWriter.Label[chunk.code.length];
+        currentLabels = labels;
+        deoptimizations = new ClassFileWriter.Label[chunk.code.length];
+        classData = new ArrayList<>(Arrays.asList(chunk.constants));
+        constantTypes = new ArrayList<>(Arrays.asList(new String[chunk.constants.length]));
+        speculate = chunk.tiering != null;
+    }
+
+    /**
+     * Compiles an expression to JVM code. The result can be executed with {@code VirtualMachine.execute()}. If the
+     * expression cannot be compiled to JVM code, it is executed by the VirtualMachine instead.
+     * @param expr A resolved expression.
+     * @return The compiled expression.
+     */
+    public static Chunk compile(Expression expr){
+        Chunk chunk = Compiler.compile(expr);
+        compile(chunk);
+        return chunk;
+    }
+
+    /**
+     * Compiles a chunk and the bodies of all functions defined in it to JVM code. The generated code is used by all
+     * further executions of the chunk.
+     * @param chunk The chunk to compile.
+     * @return Whether the chunk is executed as JVM code from now on.
+     */
+    public static boolean compile(Chunk chunk){
+        if(chunk.jitCode != null)
+            return true;
+
+        for(Object constant: chunk.constants){
+            if(constant instanceof Chunk)
+                compile((Chunk) constant);
+        }
+        return compileSingle(chunk);
+    }
+
+    /**
+     * Compiles a chunk to JVM code, but not the bodies of the functions defined in it.
+     * @param chunk The chunk to compile.
+     * @return Whether the chunk is executed as JVM code from now on.
+     */
+    static boolean compileSingle(Chunk chunk){
+        if(chunk.jitCode != null)
+            return true;
+
+        try {
+            JitCompiler compiler = new JitCompiler(chunk);
+            JitCode jitCode = compiler.generate();
+            chunk.inlinedCalls = compiler.inlinedCalls;
+            chunk.jitCode = jitCode;
+            return true;
+        }catch(IllegalStateException | ReflectiveOperationException e){
+            //The chunk is too large for a JVM method or the JVM rejected the class, so it stays in the VM.
+            return false;
+        }
+    }
+
+    private JitCode generate() throws ReflectiveOperationException {
+        int[] instructions = chunk.code;
+        for(int pc = 0; pc < instructions.length; pc += Opcode.getNumOperands(instructions[pc]) + 1)
+            labels[pc] = code.newLabel();
+
+        //Registers are initialized, because the verifier can not know that they are written before they are read
+        for(int i = 0; i < chunk.numRegisters; i++){
+            code.op(ACONST_NULL);
+            code.astore(FIRST_REGISTER + i);
+        }
+        emitResumption();
+        for(int pc = 0; pc < instructions.length; pc += Opcode.getNumOperands(instructions[pc]) + 1){
+            code.mark(labels[pc]);
+            emitInstruction(pc);
+        }
+        emitDeoptimizations();
+        writer.addMethod(ACC_PUBLIC, "resume", "(" + COLLECTION_DESC + "[" + OBJECT_DESC + "I)" + OBJECT_DESC, code,
+                MAX_STACK, numLocals);
+
+        emitConstructor();
+        emitStaticInitializer();
+
+        byte[] bytes = writer.toByteArray(ACC_FINAL | ACC_SUPER, "java/lang/Object", "de/delphi/phi/vm/JitCode");
+        MethodHandles.Lookup lookup = MethodHandles.lookup()
+                .defineHiddenClassWithClassData(bytes, classData.toArray(), true);
+        try {
+            return (JitCode) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+        }catch(Throwable e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Emits the code that takes over the registers of an execution started by the VirtualMachine and jumps to the
+     * start of the loop it was in. Only the targets of jumps back to the start of a loop can be resumed.
+     */
+    private void emitResumption(){
+        code.aload(REGISTERS_LOCAL);
+        code.jump(IFNULL, labels[0]);
+        for(int i = 0; i < chunk.numRegisters; i++){
+            code.aload(REGISTERS_LOCAL);
+            code.pushInt(i);
+            code.op(AALOAD);
+            code.astore(FIRST_REGISTER + i);
+        }
+
+        int[] instructions = chunk.code;
+        boolean[] resumable = new boolean[instructions.length];
+        for(int pc = 0; pc < instructions.length; pc += Opcode.getNumOperands(instructions[pc]) + 1){
+            if(instructions[pc] != Opcode.JUMP)
+                continue;
+            int target = instructions[pc + 1];
+            if(target < pc && !resumable[target]){
+                resumable[target] = true;
+                code.iload(ENTRY_LOCAL);
+                code.pushInt(target);
+                code.jump(IF_ICMPEQ, labels[target]);
+            }
+        }
+    }
+
+    private void emitConstructor(){
+        ClassFileWriter.Code constructor = writer.newCode();
+        constructor.aload(0);
+        constructor.methodOp(INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+        constructor.op(RETURN);
+        writer.addMethod(ACC_PUBLIC, "<init>", "()V", constructor, 1, 1);
+    }
+
+    /**
+     * Emits the static initializer that copies the constants of the chunk from the class data into static fields.
+     */
+    private void emitStaticInitializer(){
+        ClassFileWriter.Code initializer = writer.newCode();
+        initializer.methodOp(INVOKESTATIC, "java/lang/invoke/MethodHandles", "lookup",
+                "()Ljava/lang/invoke/MethodHandles$Lookup;");
+        initializer.pushString("_");
+        initializer.pushClass("[Ljava/lang/Object;");
+        initializer.methodOp(INVOKESTATIC, "java/lang/invoke/MethodHandles", "classData",
+                "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/Class;)Ljava/lang/Object;");
+        initializer.typeOp(CHECKCAST, "[Ljava/lang/Object;");
+        initializer.astore(0);
+
+        for(int i = 0; i < constantTypes.size(); i++){
+            String type = constantTypes.get(i);
+            if(type == null)
+                continue;
+            writer.addField(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, constantName(i), "L" + type + ";");
+            initializer.aload(0);
+            initializer.pushInt(i);
+            initializer.op(AALOAD);
+            initializer.typeOp(CHECKCAST, type);
+            initializer.fieldOp(PUTSTATIC, CLASS_NAME, constantName(i), "L" + type + ";");
+        }
+        initializer.op(RETURN);
+        writer.addMethod(ACC_STATIC, "<clinit>", "()V", initializer, 4, 1);
+    }
+
+    private static String constantName(int index){
+        return "k" + index;
+    }
+
+    private void loadConstant(int index, String type){
+        constantTypes.set(index, type);
+        code.fieldOp(GETSTATIC, CLASS_NAME, constantName(index), "L" + type + ";");
+    }
+
+    /**
+     * Adds a constant that is not in the constant pool of the chunk.
+     * @return The index of the constant.
+     */
+    private int addConstant(Object value){
+        classData.add(value);
+        constantTypes.add(null);
+        return classData.size() - 1;
+    }
+
+    /**
+     * Loads a constant of the current chunk.
+     */
+    private void loadChunkConstant(int index, String type){
+        loadConstant(firstConstant + index, type);
+    }
+
+    private void loadRegister(int register){
+        code.aload(firstRegister + register);
+    }
+
+    private void storeRegister(int register){
+        code.astore(firstRegister + register);
+    }
+
+    private void loadScope(){
+        code.aload(SCOPE_LOCAL);
+    }
+
+    private void callVM(String name, String descriptor){
+        code.methodOp(INVOKESTATIC, VM, name, descriptor);
+    }
+
+    private void emitInstruction(int pc){
+        int[] instructions = current.code;
+        int a = pc + 1 < instructions.length ? instructions[pc + 1] : 0;
+        int b = pc + 2 < instructions.length ? instructions[pc + 2] : 0;
+        int c = pc + 3 < instructions.length ? instructions[pc + 3] : 0;
+        int d = pc + 4 < instructions.length ? instructions[pc + 4] : 0;
+        int e = pc + 5 < instructions.length ? instructions[pc + 5] : 0;
+
+        switch(instructions[pc]){
+            case Opcode.LOAD_CONST:
+                loadChunkConstant(b, OBJECT);
+                storeRegister(a);
+                break;
+            case Opcode.LOAD_SLOT:
+                loadScope();
+                code.pushInt(b);
+                code.pushInt(c);
+                loadChunkConstant(d, LAYOUT);
+                loadChunkConstant(e, STRING);
+                callVM("loadSlot", "(" + COLLECTION_DESC + "II" + LAYOUT_DESC + STRING_DESC + ")" + OBJECT_DESC);
+                storeRegister(a);
+                break;
+            case Opcode.LOAD_NAME:
+                loadScope();
+                loadChunkConstant(b, STRING);
+                code.methodOp(INVOKEVIRTUAL, COLLECTION, "getNamed", "(" + STRING_DESC + ")" + OBJECT_DESC);
+                storeRegister(a);
+                break;
+            case Opcode.STORE_SLOT:
+                loadScope();
+                code.pushInt(b);
+                code.pushInt(c);
+                loadChunkConstant(d, LAYOUT);
+                loadChunkConstant(e, STRING);
+                loadRegister(a);
+                callVM("storeSlot", "(" + COLLECTION_DESC + "II" + LAYOUT_DESC + STRING_DESC + OBJECT_DESC + ")V");
+                break;
+            case Opcode.STORE_NAME:
+                loadScope();
+                loadChunkConstant(b, STRING);
+                loadRegister(a);
+                code.methodOp(INVOKEVIRTUAL, COLLECTION, "setNamed", "(" + STRING_DESC + OBJECT_DESC + ")V");
+                break;
+            case Opcode.DECLARE_SLOT:
+                loadScope();
+                code.pushInt(a);
+                loadChunkConstant(b, LAYOUT);
+                loadChunkConstant(c, STRING);
+                callVM("declareSlot", "(" + COLLECTION_DESC + "I" + LAYOUT_DESC + STRING_DESC + ")V");
+                break;
+            case Opcode.STORE_DECLARED:
+                loadScope();
+                code.pushInt(b);
+                loadChunkConstant(c, LAYOUT);
+                loadChunkConstant(d, STRING);
+                loadRegister(a);
+                callVM("storeDeclared", "(" + COLLECTION_DESC + "I" + LAYOUT_DESC + STRING_DESC + OBJECT_DESC + ")V");
+                break;
+            case Opcode.DECLARE_NAME:
+                loadScope();
+                loadChunkConstant(a, STRING);
+                callVM("declareName", "(" + COLLECTION_DESC + STRING_DESC + ")V");
+                break;
+            case Opcode.MOVE:
+                loadRegister(b);
+                storeRegister(a);
+                break;
+            case Opcode.LOOKUP:
+                loadRegister(a);
+                loadScope();
+                code.methodOp(INVOKESTATIC, EXPRESSION, "bindAndLookUp", "(" + OBJECT_DESC + COLLECTION_DESC + ")" + OBJECT_DESC);
+                storeRegister(a);
+                break;
+            case Opcode.ADD:
+                emitArithmetic(pc, a, b, c, LADD, DADD, "de/delphi/phi/parser/ast/AddExpr", "add");
+                break;
+            case Opcode.SUB:
+                emitArithmetic(pc, a, b, c, LSUB, DSUB, "de/delphi/phi/parser/ast/AddExpr", "sub");
+                break;
+            case Opcode.MUL:
+                emitArithmetic(pc, a, b, c, LMUL, DMUL, "de/delphi/phi/parser/ast/MulExpr", "mul");
+                break;
+            case Opcode.DIV:
+                emitBinaryCall(a, b, c, "de/delphi/phi/parser/ast/MulExpr", "div");
+                break;
+            case Opcode.MOD:
+                emitBinaryCall(a, b, c, "de/delphi/phi/parser/ast/MulExpr", "mod");
+                break;
+            case Opcode.AND:
+                emitBinaryCall(a, b, c, "de/delphi/phi/parser/ast/AndExpr", "and");
+                break;
+            case Opcode.OR:
+                emitBinaryCall(a, b, c, "de/delphi/phi/parser/ast/OrExpr", "or");
+                break;
+            case Opcode.XOR:
+                emitBinaryCall(a, b, c, "de/delphi/phi/parser/ast/XorExpr", "xor");
+                break;
+            case Opcode.SHIFT:
+                loadRegister(b);
+                code.pushInt(d);
+                loadRegister(c);
+                code.methodOp(INVOKESTATIC, "de/delphi/phi/parser/ast/ShiftExpr", "shift",
+                        "(" + OBJECT_DESC + "I" + OBJECT_DESC + ")" + OBJECT_DESC);
+                storeRegister(a);
+                break;
+            case Opcode.REL:
+                emitRelation(pc, a, b, c, d);
+                break;
+            case Opcode.NOT:
+                loadRegister(b);
+                code.methodOp(INVOKESTATIC, "de/delphi/phi/parser/ast/NotExpr", "not", "(" + OBJECT_DESC + ")" + OBJECT_DESC);
+                storeRegister(a);
+                break;
+            case Opcode.NEG:
+                loadRegister(b);
+                code.methodOp(INVOKESTATIC, "de/delphi/phi/parser/ast/NegationExpr", "negate",
+                        "(" + OBJECT_DESC + ")" + OBJECT_DESC);
+                storeRegister(a);
+                break;
+            case Opcode.JUMP:
+                code.jump(GOTO, currentLabels[a]);
+                break;
+            case Opcode.JUMP_IF_FALSE:
+                loadRegister(a);
+                code.methodOp(INVOKEVIRTUAL, OBJECT, "longValue", "()J");
+                code.op(LCONST_0);
+                code.op(LCMP);
+                code.jump(IFEQ, currentLabels[b]);
+                break;
+            case Opcode.JUMP_UNLESS_REL:
+                emitRelationJump(pc, a, b, c, d);
+                break;
+            case Opcode.INC_SLOT:
+                emitIncrement(pc, a, b, c, d, e);
+                break;
+            case Opcode.CLEAR:
+                code.op(ACONST_NULL);
+                storeRegister(a);
+                break;
+            case Opcode.JUMP_IF_SET:
+                loadRegister(a);
+                code.jump(IFNONNULL, currentLabels[b]);
+                break;
+            case Opcode.ENTER_SCOPE:
+                code.typeOp(NEW, SCOPE);
+                code.op(DUP);
+                loadScope();
+                loadChunkConstant(a, LAYOUT);
+                code.methodOp(INVOKESPECIAL, SCOPE, "<init>", "(" + COLLECTION_DESC + LAYOUT_DESC + ")V");
+                code.astore(SCOPE_LOCAL);
+                break;
+            case Opcode.EXIT_SCOPE:
+                loadScope();
+                callVM("exitScope", "(" + COLLECTION_DESC + ")" + COLLECTION_DESC);
+                code.astore(SCOPE_LOCAL);
+                break;
+            case Opcode.GET_MEMBER:
+                emitMember(pc, firstRegister + a, firstRegister + b, c);
+                break;
+            case Opcode.GET_MEMBER_PATH:
+                //The first member is kept in the scratch local, so a deoptimization still finds the object
+                emitMember(pc, scratch, firstRegister + b, c);
+                emitMember(pc, firstRegister + a, scratch, d);
+                break;
+            case Opcode.SET_MEMBER:
+                loadRegister(a);
+                loadChunkConstant(b, STRING);
+                loadRegister(c);
+                code.methodOp(INVOKEVIRTUAL, OBJECT, "setNamed", "(" + STRING_DESC + OBJECT_DESC + ")V");
+                break;
+            case Opcode.GET_INDEX:
+                emitBinaryCall(a, b, c, VM, "getIndex");
+                break;
+            case Opcode.GET_ELEMENT:
+                emitBinaryCall(a, b, c, VM, "getElement");
+                break;
+            case Opcode.SET_INDEX:
+                loadRegister(a);
+                loadRegister(b);
+                loadRegister(c);
+                callVM("setIndex", "(" + OBJECT_DESC + OBJECT_DESC + OBJECT_DESC + ")V");
+                break;
+            case Opcode.CALL:
+                if(speculates(pc) && emitSpeculativeCall(pc, a, b, c, d, (CallCache) current.constants[e]))
+                    break;
+                emitCall(a, b, c, d, e);
+                break;
+            case Opcode.MAKE_FUNCTION:
+                loadChunkConstant(b, EXPRESSION);
+                loadScope();
+                loadChunkConstant(c, CHUNK);
+                callVM("makeFunction", "(L" + EXPRESSION + ";" + COLLECTION_DESC + "L" + CHUNK + ";)" + OBJECT_DESC);
+                storeRegister(a);
+                break;
+            case Opcode.EVAL:
+            case Opcode.EVAL_RAW:
+                loadChunkConstant(b, EXPRESSION);
+                loadScope();
+                code.methodOp(INVOKEVIRTUAL, EXPRESSION, instructions[pc] == Opcode.EVAL ? "evalAndLookUp" : "eval",
+                        "(" + COLLECTION_DESC + ")" + OBJECT_DESC);
+                storeRegister(a);
+                break;
+            case Opcode.RETURN:
+                loadRegister(a);
+                emitReturn();
+                break;
+            case Opcode.TAIL_CALL:
+                emitCallArguments(a, b, c, d);
+                if(current != chunk){
+                    //The call of an inlined function is made here, so the caller gets the result
+                    code.methodOp(INVOKEVIRTUAL, CALL_CACHE, "call",
+                            "(L" + FUNCTION + ";[" + OBJECT_DESC + ")" + OBJECT_DESC);
+                }else
+                    code.methodOp(INVOKEVIRTUAL, CALL_CACHE, "tailCall",
+                            "(L" + FUNCTION + ";[" + OBJECT_DESC + ")L" + TAIL_CALL + ";");
+                emitReturn();
+                break;
+            default:
+                throw new IllegalStateException("Invalid opcode " + instructions[pc] + " at position " + pc + ".");
+        }
+    }
+
+    private void emitBinaryCall(int dst, int left, int right, String owner, String name){
+        loadRegister(left);
+        loadRegister(right);
+        code.methodOp(INVOKESTATIC, owner, name, BINARY_DESC);
+        storeRegister(dst);
+    }
+
+    /**
+     * Emits an arithmetic operation with inline paths for two INTs and two FLOATs, or only for two INTs if the
+     * operation speculates on them.
+     */
+    private void emitArithmetic(int pc, int dst, int left, int right, int longOpcode, int doubleOpcode, String owner,
+                                String name){
+        ClassFileWriter.Label notInt = speculates(pc) ? deoptimization(pc) : code.newLabel();
+        ClassFileWriter.Label generic = speculates(pc) ? deoptimization(pc) : code.newLabel();
+        ClassFileWriter.Label end = code.newLabel();
+
+        emitTypeCheck(left, INT, notInt);
+        emitTypeCheck(right, INT, generic);
+        code.typeOp(NEW, INT);
+        code.op(DUP);
+        emitUnbox(left, INT, "longValue", "()J");
+        emitUnbox(right, INT, "longValue", "()J");
+        code.op(longOpcode);
+        code.methodOp(INVOKESPECIAL, INT, "<init>", "(J)V");
+        storeRegister(dst);
+        if(speculates(pc))
+            return;
+        code.jump(GOTO, end);
+
+        code.mark(notInt);
+        emitTypeCheck(left, FLOAT, generic);
+        emitTypeCheck(right, FLOAT, generic);
+        code.typeOp(NEW, FLOAT);
+        code.op(DUP);
+        emitUnbox(left, FLOAT, "doubleValue", "()D");
+        emitUnbox(right, FLOAT, "doubleValue", "()D");
+        code.op(doubleOpcode);
+        code.methodOp(INVOKESPECIAL, FLOAT, "<init>", "(D)V");
+        storeRegister(dst);
+        code.jump(GOTO, end);
+
+        code.mark(generic);
+        emitBinaryCall(dst, left, right, owner, name);
+        code.mark(end);
+    }
+
+    /**
+     * Emits a comparison with an inline path for two INTs. If the comparison speculates on INTs, there is no other
+     * path.
+     */
+    private void emitRelation(int pc, int dst, int left, int right, int operator){
+        ClassFileWriter.Label generic = speculates(pc) ? deoptimization(pc) : code.newLabel();
+        ClassFileWriter.Label isFalse = code.newLabel();
+        ClassFileWriter.Label end = code.newLabel();
+
+        emitTypeCheck(left, INT, generic);
+        emitTypeCheck(right, INT, generic);
+        emitUnbox(left, INT, "longValue", "()J");
+        emitUnbox(right, INT, "longValue", "()J");
+        code.op(LCMP);
+        emitJumpUnless(operator, isFalse);
+        code.fieldOp(GETSTATIC, INT, "TRUE", "L" + INT + ";");
+        storeRegister(dst);
+        code.jump(GOTO, end);
+        code.mark(isFalse);
+        code.fieldOp(GETSTATIC, INT, "FALSE", "L" + INT + ";");
+        storeRegister(dst);
+        code.jump(GOTO, end);
+        if(speculates(pc)){
+            code.mark(end);
+            return;
+        }
+
+        code.mark(generic);
+        loadRegister(left);
+        code.pushInt(operator);
+        loadRegister(right);
+        callVM("relation", "(" + OBJECT_DESC + "I" + OBJECT_DESC + ")" + OBJECT_DESC);
+        storeRegister(dst);
+        code.mark(end);
+    }
+
+    /**
+     * Emits a jump that is taken unless the result of an LCMP satisfies the operator.
+     */
+    private void emitJumpUnless(int operator, ClassFileWriter.Label target){
+        switch(operator){
+            case RelationalExpr.OP_EQUALS: code.jump(IFNE, target); break;
+            case RelationalExpr.OP_NOT_EQUALS: code.jump(IFEQ, target); break;
+            case RelationalExpr.OP_LESS_THAN: code.jump(IFGE, target); break;
+            case RelationalExpr.OP_LESS_EQUALS: code.jump(IFGT, target); break;
+            case RelationalExpr.OP_GREATER_THAN: code.jump(IFLE, target); break;
+            default: code.jump(IFLT, target); break;
+        }
+    }
+
+    /**
+     * Emits a jump that is taken unless a comparison holds, with an inline path for two INTs like emitRelation().
+     */
+    private void emitRelationJump(int pc, int left, int right, int operator, int target){
+        ClassFileWriter.Label generic = speculates(pc) ? deoptimization(pc) : code.newLabel();
+
+        emitTypeCheck(left, INT, generic);
+        emitTypeCheck(right, INT, generic);
+        emitUnbox(left, INT, "longValue", "()J");
+        emitUnbox(right, INT, "longValue", "()J");
+        code.op(LCMP);
+        emitJumpUnless(operator, currentLabels[target]);
+        if(speculates(pc))
+            return;
+
+        ClassFileWriter.Label end = code.newLabel();
+        code.jump(GOTO, end);
+        code.mark(generic);
+        loadRegister(left);
+        code.pushInt(operator);
+        loadRegister(right);
+        callVM("relation", "(" + OBJECT_DESC + "I" + OBJECT_DESC + ")" + OBJECT_DESC);
+        code.methodOp(INVOKEVIRTUAL, OBJECT, "longValue", "()J");
+        code.op(LCONST_0);
+        code.op(LCMP);
+        code.jump(IFEQ, currentLabels[target]);
+        code.mark(end);
+    }
+
+    /**
+     * Emits the increment of a variable by an INT constant, with an inline path for an INT variable. The value of
+     * the variable is kept in the scratch local.
+     */
+    private void emitIncrement(int pc, int depth, int slot, int layout, int name, int step){
+        ClassFileWriter.Label generic = speculates(pc) ? deoptimization(pc) : code.newLabel();
+        ClassFileWriter.Label store = code.newLabel();
+
+        loadScope();
+        code.pushInt(depth);
+        code.pushInt(slot);
+        loadChunkConstant(layout, LAYOUT);
+        loadChunkConstant(name, STRING);
+        callVM("loadSlot", "(" + COLLECTION_DESC + "II" + LAYOUT_DESC + STRING_DESC + ")" + OBJECT_DESC);
+        code.astore(scratch);
+
+        code.aload(scratch);
+        code.typeOp(INSTANCEOF, INT);
+        code.jump(IFEQ, generic);
+        code.typeOp(NEW, INT);
+        code.op(DUP);
+        code.aload(scratch);
+        code.typeOp(CHECKCAST, INT);
+        code.methodOp(INVOKEVIRTUAL, INT, "longValue", "()J");
+        loadChunkConstant(step, OBJECT);
+        code.typeOp(CHECKCAST, INT);
+        code.methodOp(INVOKEVIRTUAL, INT, "longValue", "()J");
+        code.op(LADD);
+        code.methodOp(INVOKESPECIAL, INT, "<init>", "(J)V");
+        code.astore(scratch);
+        if(!speculates(pc)){
+            code.jump(GOTO, store);
+            code.mark(generic);
+            code.aload(scratch);
+            loadScope();
+            code.methodOp(INVOKESTATIC, EXPRESSION, "bindAndLookUp", "(" + OBJECT_DESC + COLLECTION_DESC + ")" + OBJECT_DESC);
+            loadChunkConstant(step, OBJECT);
+            code.methodOp(INVOKESTATIC, "de/delphi/phi/parser/ast/AddExpr", "add", BINARY_DESC);
+            code.astore(scratch);
+        }
+
+        code.mark(store);
+        loadScope();
+        code.pushInt(depth);
+        code.pushInt(slot);
+        loadChunkConstant(layout, LAYOUT);
+        loadChunkConstant(name, STRING);
+        code.aload(scratch);
+        callVM("storeSlot", "(" + COLLECTION_DESC + "II" + LAYOUT_DESC + STRING_DESC + OBJECT_DESC + ")V");
+    }
+
+    private void emitTypeCheck(int register, String type, ClassFileWriter.Label otherwise){
+        loadRegister(register);
+        code.typeOp(INSTANCEOF, type);
+        code.jump(IFEQ, otherwise);
+    }
+
+    private void emitUnbox(int register, String type, String method, String descriptor){
+        loadRegister(register);
+        code.typeOp(CHECKCAST, type);
+        code.methodOp(INVOKEVIRTUAL, type, method, descriptor);
+    }
+
+    private void emitCall(int dst, int function, int first, int numParams, int cache){
+        emitCallArguments(function, first, numParams, cache);
+        code.methodOp(INVOKEVIRTUAL, CALL_CACHE, "call", "(L" + FUNCTION + ";[" + OBJECT_DESC + ")" + OBJECT_DESC);
+        storeRegister(dst);
+    }
+
+    /**
+     * Pushes the CallCache, the called function and the array of arguments for a call of the CallCache.
+     */
+    private void emitCallArguments(int function, int first, int numParams, int cache){
+        loadChunkConstant(cache, CALL_CACHE);
+        loadRegister(function);
+        callVM("toFunction", "(" + OBJECT_DESC + ")L" + FUNCTION + ";");
+        code.pushInt(numParams);
+        code.typeOp(ANEWARRAY, OBJECT);
+        for(int i = 0; i < numParams; i++){
+            code.op(DUP);
+            code.pushInt(i);
+            loadRegister(first + i);
+            code.op(AASTORE);
+        }
+    }
+
+    /**
+     * Returns whether the instruction at the given position is compiled speculatively.
+     */
+    private boolean speculates(int pc){
+        return speculate && current == chunk && !chunk.genericSites[pc];
+    }
+
+    /**
+     * Returns the label of the code that deoptimizes at the given instruction. The code is emitted after all
+     * instructions, and it must be jumped to before the instruction has any effect.
+     */
+    private ClassFileWriter.Label deoptimization(int pc){
+        if(deoptimizations[pc] == null)
+            deoptimizations[pc] = code.newLabel();
+        return deoptimizations[pc];
+    }
+
+    /**
+     * Emits the code that continues the execution in the VirtualMachine for every instruction that speculates.
+     */
+    private void emitDeoptimizations(){
+        int chunkConstant = addConstant(chunk);
+        for(int pc = 0; pc < deoptimizations.length; pc++){
+            if(deoptimizations[pc] == null)
+                continue;
+            code.mark(deoptimizations[pc]);
+            loadConstant(chunkConstant, CHUNK);
+            loadScope();
+            code.pushInt(chunk.numRegisters);
+            code.typeOp(ANEWARRAY, OBJECT);
+            for(int i = 0; i < chunk.numRegisters; i++){
+                code.op(DUP);
+                code.pushInt(i);
+                loadRegister(i);
+                code.op(AASTORE);
+            }
+            code.pushInt(pc);
+            callVM("deoptimize", "(L" + CHUNK + ";" + COLLECTION_DESC + "[" + OBJECT_DESC + "I)" + OBJECT_DESC);
+            code.op(ARETURN);
+        }
+    }
+
+    /**
+     * Emits a call that speculates on the code of the function that has always been called here so far, which is
+     * called directly with the binding of the arguments computed in advance.
+     *
+     * The guards compare the code of the called function, not the function itself: Every execution of a definition
+     * creates a new function with its own creation scope, and a function stored in the generated class would keep
+     * that scope reachable as long as the chunk.
+     * @return Whether the call could be emitted. If not, nothing has been emitted.
+     */
+    private boolean emitSpeculativeCall(int pc, int dst, int function, int first, int numParams, CallCache cache){
+        PhiFunction target = cache.getMonomorphicTarget();
+        if(target == null)
+            return false;
+        ParameterBinding binding;
+        try{
+            binding = cache.getBinding(target);
+        }catch(PhiRuntimeException e){
+            return false;
+        }
+        boolean inline = canInline(target);
+        int bindingConstant = addConstant(binding);
+        ClassFileWriter.Label deoptimize = deoptimization(pc);
+
+        loadRegister(function);
+        if(inline){
+            code.typeOp(INSTANCEOF, COMPILED_FUNCTION);
+            code.jump(IFEQ, deoptimize);
+            loadRegister(function);
+            code.typeOp(CHECKCAST, COMPILED_FUNCTION);
+            code.methodOp(INVOKEVIRTUAL, COMPILED_FUNCTION, "getChunk", "()L" + CHUNK + ";");
+            loadConstant(addConstant(((CompiledFunction) target).getChunk()), CHUNK);
+        }else{
+            code.typeOp(INSTANCEOF, FUNCTION);
+            code.jump(IFEQ, deoptimize);
+            loadRegister(function);
+            code.typeOp(CHECKCAST, FUNCTION);
+            code.methodOp(INVOKEVIRTUAL, FUNCTION, "getBody", "()L" + FUNCTION_BODY + ";");
+            loadConstant(addConstant(target.getBody()), FUNCTION_BODY);
+        }
+        code.jump(IF_ACMPNE, deoptimize);
+        //Functions with computed parameter names can need different bindings for the same code
+        loadRegister(function);
+        code.typeOp(CHECKCAST, FUNCTION);
+        loadConstant(bindingConstant, BINDING);
+        code.methodOp(INVOKEVIRTUAL, FUNCTION, "accepts", "(L" + BINDING + ";)Z");
+        code.jump(IFEQ, deoptimize);
+
+        if(inline){
+            emitInlinedCall(dst, function, ((CompiledFunction) target).getChunk(), first, numParams, bindingConstant);
+            return true;
+        }
+
+        loadRegister(function);
+        code.typeOp(CHECKCAST, FUNCTION);
+        code.pushInt(numParams);
+        code.typeOp(ANEWARRAY, OBJECT);
+        for(int i = 0; i < numParams; i++){
+            code.op(DUP);
+            code.pushInt(i);
+            loadRegister(first + i);
+            code.op(AASTORE);
+        }
+        loadConstant(bindingConstant, BINDING);
+        code.methodOp(INVOKEVIRTUAL, FUNCTION, "call", "([" + OBJECT_DESC + "L" + BINDING + ";)" + OBJECT_DESC);
+        storeRegister(dst);
+        return true;
+    }
+
+    /**
+     * Returns whether the body of a function is small enough to be inlined and compiled completely. Functions that
+     * call themselves are not inlined into their own body, and inlined functions are not inlined any further.
+     */
+    private boolean canInline(PhiFunction target){
+        if(!(target instanceof CompiledFunction))
+            return false;
+        Chunk body = ((CompiledFunction) target).getChunk();
+        if(body == chunk || body.code.length > MAX_INLINED_LENGTH ||
+                inlinedLength + body.code.length > MAX_TOTAL_INLINED_LENGTH)
+            return false;
+
+        //The interpreter may return a TailCall, which only PhiFunction.call() completes
+        for(int pc = 0; pc < body.code.length; pc += Opcode.getNumOperands(body.code[pc]) + 1){
+            if(body.code[pc] == Opcode.EVAL || body.code[pc] == Opcode.EVAL_RAW)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Emits the body of a function in place of a call. The body is executed in a scope created by the function, so
+     * it sees the parameters and the creation scope of the function just like in a call, and closures created in it
+     * capture that scope. The registers of the body become local variables of their own, and a RETURN stores the
+     * result of the call and continues after the body, where the scope of the caller is restored.
+     */
+    private void emitInlinedCall(int dst, int function, Chunk body, int first, int numParams, int bindingConstant){
+        int savedScope = numLocals;
+        int bodyRegisters = savedScope + 1;
+        numLocals = Math.max(numLocals, bodyRegisters + body.numRegisters);
+        inlinedCalls++;
+        inlinedLength += body.code.length;
+
+        loadRegister(function);
+        code.typeOp(CHECKCAST, COMPILED_FUNCTION);
+        code.pushInt(numParams);
+        code.typeOp(ANEWARRAY, OBJECT);
+        for(int i = 0; i < numParams; i++){
+            code.op(DUP);
+            code.pushInt(i);
+            loadRegister(first + i);
+            code.op(AASTORE);
+        }
+        loadConstant(bindingConstant, BINDING);
+        code.methodOp(INVOKEVIRTUAL, COMPILED_FUNCTION, "enter",
+                "([" + OBJECT_DESC + "L" + BINDING + ";)L" + SCOPE + ";");
+        loadScope();
+        code.astore(savedScope);
+        code.astore(SCOPE_LOCAL);
+        for(int i = 0; i < body.numRegisters; i++){
+            code.op(ACONST_NULL);
+            code.astore(bodyRegisters + i);
+        }
+
+        current = body;
+        currentLabels = new ClassFileWriter.Label[body.code.length];
+        firstRegister = bodyRegisters;
+        firstConstant = classData.size();
+        for(Object constant: body.constants)
+            addConstant(constant);
+        inlinedResult = FIRST_REGISTER + dst;
+        inlinedExit = code.newLabel();
+
+        for(int pc = 0; pc < body.code.length; pc += Opcode.getNumOperands(body.code[pc]) + 1)
+            currentLabels[pc] = code.newLabel();
+        for(int pc = 0; pc < body.code.length; pc += Opcode.getNumOperands(body.code[pc]) + 1){
+            code.mark(currentLabels[pc]);
+            emitInstruction(pc);
+        }
+
+        code.mark(inlinedExit);
+        code.aload(savedScope);
+        code.astore(SCOPE_LOCAL);
+        current = chunk;
+        currentLabels = labels;
+        firstRegister = FIRST_REGISTER;
+        firstConstant = 0;
+    }
+
+    /**
+     * Ends the execution of the current chunk with the value on the stack.
+     */
+    private void emitReturn(){
+        if(current == chunk){
+            code.op(ARETURN);
+            return;
+        }
+        code.astore(inlinedResult);
+        code.jump(GOTO, inlinedExit);
+    }
+
+    /**
+     * Emits the read of a member through a MemberCache, between local variables.
+     */
+    private void emitMember(int pc, int dst, int obj, int cache){
+        if(speculates(pc) && emitSpeculativeMember(pc, dst, obj, (MemberCache) current.constants[cache]))
+            return;
+        loadChunkConstant(cache, MEMBER_CACHE);
+        code.aload(obj);
+        code.methodOp(INVOKEVIRTUAL, MEMBER_CACHE, "get", "(" + OBJECT_DESC + ")" + OBJECT_DESC);
+        code.astore(dst);
+    }
+
+    /**
+     * Emits a member access between local variables that speculates on the only shape that has been seen here so
+     * far. If the member is stored in a superclass, the access also speculates that the superclass list of the
+     * collection and the inheritance structure have not changed. The superclass list and the owner of the member are
+     * only referenced weakly, so that the collections of one execution of a script do not stay reachable as long as
+     * its chunks. If the superclass list has been collected, no collection can have it and the guard fails.
+     * @return Whether the access could be emitted. If not, nothing has been emitted.
+     */
+    private boolean emitSpeculativeMember(int pc, int dst, int obj, MemberCache cache){
+        MemberCache.Entry entry = cache.getMonomorphicEntry();
+        if(entry == null)
+            return false;
+        ClassFileWriter.Label deoptimize = deoptimization(pc);
+
+        //Subclasses of PhiCollection, like scopes, are not cached
+        code.aload(obj);
+        code.methodOp(INVOKEVIRTUAL, "java/lang/Object", "getClass", "()Ljava/lang/Class;");
+        code.pushClass(COLLECTION);
+        code.jump(IF_ACMPNE, deoptimize);
+        code.aload(obj);
+        code.typeOp(CHECKCAST, COLLECTION);
+        code.methodOp(INVOKEVIRTUAL, COLLECTION, "getShape", "()L" + SHAPE + ";");
+        loadConstant(addConstant(entry.getShape()), SHAPE);
+        code.jump(IF_ACMPNE, deoptimize);
+
+        if(entry.getOwner() == null){
+            code.aload(obj);
+            code.typeOp(CHECKCAST, COLLECTION);
+        }else{
+            code.methodOp(INVOKESTATIC, COLLECTION, "getInheritanceVersion", "()I");
+            code.pushInt(entry.getVersion());
+            code.jump(IF_ICMPNE, deoptimize);
+            code.aload(obj);
+            code.typeOp(CHECKCAST, COLLECTION);
+            code.pushInt(entry.getSuperIndex());
+            code.methodOp(INVOKEVIRTUAL, COLLECTION, "getNamedValue", "(I)" + OBJECT_DESC);
+            loadConstant(addConstant(new WeakReference<>(entry.getSuperClasses())), WEAK_REFERENCE);
+            code.methodOp(INVOKEVIRTUAL, WEAK_REFERENCE, "get", "()Ljava/lang/Object;");
+            code.jump(IF_ACMPNE, deoptimize);
+            //The owner is reachable from the superclass list as long as the inheritance version does not change
+            loadConstant(addConstant(new WeakReference<>(entry.getOwner())), WEAK_REFERENCE);
+            code.methodOp(INVOKEVIRTUAL, WEAK_REFERENCE, "get", "()Ljava/lang/Object;");
+            code.typeOp(CHECKCAST, COLLECTION);
+        }
+        code.pushInt(entry.getIndex());
+        code.methodOp(INVOKEVIRTUAL, COLLECTION, "getNamedValue", "(I)" + OBJECT_DESC);
+        code.astore(dst);
+        return true;
+    }
+}
@@ -0,0 +1,224 @@
+package de.delphi.phi.vm;
+
+import de.delphi.phi.ScopeLayout;
+import de.delphi.phi.data.PhiInt;
+import de.delphi.phi.data.PhiObject;
+import de.delphi.phi.data.Type;
+import de.delphi.phi.parser.ast.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Finds the expressions in a loop whose value does not change while the loop runs, so that the Compiler evaluates
+ * them only once per execution of the loop.
+ *
+ * The analysis is conservative: A loop that contains anything that may have effects the analysis does not know about,
+ * like calls, function definitions or expressions the Compiler leaves to the interpreter, has no invariants at all.
+ * Otherwise an expression is invariant if it only consists of literals, operators, member accesses and subscripts on
+ * variables that are not written anywhere in the loop. Variables are identified by name, so shadowed variables count
+ * as written as well. Since any collection may be an alias of any other one, a member access is only invariant if no
+ * member with the same name and no {@code super} member is assigned in the loop, and no subscript is assigned at all
+ * (which may change the superclass list of a collection). Subscripts are invariant under the same conditions.
+ *
+ * Invariant expressions may still fail, or not be evaluated at all in some iterations. The Compiler therefore
+ * evaluates them where they are, on their first evaluation in each execution of the loop, and reuses the result for
+ * the following iterations.
+ */
+final class LoopInvariants {
+
+    /**
+     * Whether the loop may do something the analysis can not follow
+     */
+    private boolean unknownEffects;
+
+    private final Set<String> writtenVariables = new HashSet<>();
+
+    private final Set<String> writtenMembers = new HashSet<>();
+
+    private boolean writesSubscripts;
+
+    private LoopInvariants(){
+
+    }
+
+    /**
+     * Returns the largest expressions in the condition, body and iteration of a loop that are invariant in it.
+     * Literals and variables on their own are not included.
+     * @param loop A WhileExpr or ForExpr.
+     */
+    static List<Expression> find(Expression loop){
+        LoopInvariants analysis = new LoopInvariants();
+        analysis.scanEffects(loop);
+        List<Expression> invariants = new ArrayList<>();
+        if(analysis.unknownEffects)
+            return invariants;
+
+        boolean isFor = loop instanceof ForExpr;
+        for(int i = isFor ? 1 : 0; i < loop.countChildren(); i++)
+            analysis.collect(loop.getChild(i), invariants);
+        return invariants;
+    }
+
+    /**
+     * Returns the names of the variables and members an expression may assign, or null if it may have effects the
+     * analysis does not know about. Declarations count as assignments.
+     */
+    static Set<String> findWrittenNames(Expression expr){
+        LoopInvariants analysis = new LoopInvariants();
+        analysis.scanEffects(expr);
+        if(analysis.unknownEffects)
+            return null;
+        Set<String> names = new HashSet<>(analysis.writtenVariables);
+        names.addAll(analysis.writtenMembers);
+        return names;
+    }
+
+    /**
+     * Records the variables and members the expression writes to, and whether it has effects that are not known.
+     */
+    private void scanEffects(Expression expr){
+        if(expr == null || unknownEffects)
+            return;
+
+        if(expr instanceof Atom)
+            return;
+        else if(expr instanceof MemberAccessExpr){
+            if(((MemberAccessExpr) expr).getCache() == null)
+                unknownEffects = true;
+            scanEffects(expr.getChild(0));
+            return;
+        }
+        else if(expr instanceof VariableDeclarationExpr){
+            for(int i = 0; i < expr.countChildren(); i += 2){
+                Expression name = expr.getChild(i);
+                if(name instanceof Atom && ((Atom) name).isVariable())
+                    writtenVariables.add(((Atom) name).getName());
+                else
+                    unknownEffects = true;
+                scanEffects(expr.getChild(i + 1));
+            }
+            return;
+        }
+        else if(expr instanceof AssignExpr){
+            Expression left = expr.getChild(0);
+            if(((AssignExpr) expr).assignsVariable())
+                writtenVariables.add(((Atom) left).getName());
+            else if(left instanceof MemberAccessExpr && ((MemberAccessExpr) left).getCache() != null){
+                writtenMembers.add(((MemberAccessExpr) left).getCache().getName());
+                scanEffects(left.getChild(0));
+            }
+            else if(left instanceof SubscriptExpr){
+                writesSubscripts = true;
+                scanEffects(left);
+            }
+            else
+                unknownEffects = true;
+            scanEffects(expr.getChild(1));
+            return;
+        }
+        else if(!(expr instanceof BinaryExpr || expr instanceof NotExpr || expr instanceof NegationExpr ||
+                expr instanceof CompoundExpr || expr instanceof IfExpr || expr instanceof WhileExpr ||
+                expr instanceof ForExpr || expr instanceof BreakExpr || expr instanceof ContinueExpr ||
+                expr instanceof ReturnExpr || expr instanceof SubscriptExpr)){
+            unknownEffects = true;
+            return;
+        }
+
+        for(int i = 0; i < expr.countChildren(); i++)
+            scanEffects(expr.getChild(i));
+    }
+
+    private static boolean opensScope(Expression expr){
+        ScopeLayout layout = expr.getLayout();
+        return layout == null || !layout.isEmpty();
+    }
+
+    /**
+     * Returns whether the expression may evaluate to a symbol, which is then looked up in the current scope.
+     */
+    static boolean mayBeName(Expression expr){
+        if(expr instanceof Atom)
+            return ((Atom) expr).isVariable();
+        if(expr instanceof MemberAccessExpr || expr instanceof SubscriptExpr)
+            return true;
+        if(expr instanceof AddExpr){
+            //- only works on numbers
+            BinaryExpr add = (BinaryExpr) expr;
+            if(add.getOperator(expr.countChildren() - 1) == AddExpr.OP_SUB)
+                return false;
+            for(int i = 0; i < expr.countChildren(); i++){
+                if(mayBeName(expr.getChild(i)))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the value of an INT literal, or -1 if the expression is not an INT literal or its value is negative.
+     */
+    static long intLiteral(Expression expr){
+        if(!(expr instanceof Atom))
+            return -1;
+        PhiObject content = ((Atom) expr).getContent();
+        return content instanceof PhiInt ? Math.max(((PhiInt) content).longValue(), -1) : -1;
+    }
+
+    private boolean isInvariant(Expression expr){
+        if(expr instanceof Atom){
+            Atom atom = (Atom) expr;
+            if(!atom.isVariable())
+                return atom.getContent().getType() != Type.SYMBOL;
+            //Variables that are looked up by name can only be shadowed by declarations, which are writes as well
+            return !writtenVariables.contains(atom.getName());
+        }
+        if(expr instanceof MemberAccessExpr){
+            //Scopes are collections as well, so variables may be members of other collections
+            String name = ((MemberAccessExpr) expr).getCache().getName();
+            if(writtenMembers.contains(name) || writtenVariables.contains(name) || writtenMembers.contains("super") ||
+                    writesSubscripts)
+                return false;
+        }
+        else if(expr instanceof SubscriptExpr){
+            if(writesSubscripts || writtenMembers.contains("super"))
+                return false;
+        }
+        else if(expr instanceof AddExpr){
+            //The symbol would be looked up in a scope that may change
+            if(mayBeName(expr))
+                return false;
+        }
+        else if(!(expr instanceof BinaryExpr || expr instanceof NotExpr || expr instanceof NegationExpr))
+            return false;
+
+        //Unary operators do not open scopes
+        boolean unary = expr instanceof NotExpr || expr instanceof NegationExpr;
+        if(!unary && opensScope(expr))
+            return false;
+        //The name of a member is not an expression of its own
+        int numChildren = expr instanceof MemberAccessExpr ? 1 : expr.countChildren();
+        for(int i = 0; i < numChildren; i++){
+            if(!isInvariant(expr.getChild(i)))
+                return false;
+        }
+        return true;
+    }
+
+    private void collect(Expression expr, List<Expression> invariants){
+        if(expr == null || expr instanceof Atom)
+            return;
+        if(isInvariant(expr)){
+            invariants.add(expr);
+            return;
+        }
+        if(expr instanceof MemberAccessExpr){
+            collect(expr.getChild(0), invariants);
+            return;
+        }
+        for(int i = 0; i < expr.countChildren(); i++)
+            collect(expr.getChild(i), invariants);
+    }
+}
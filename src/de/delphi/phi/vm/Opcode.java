@@ -0,0 +1,170 @@
+package de.delphi.phi.vm;
+
+/**
+ * Opcodes of the register based bytecode.
+ *
+ * An instruction is stored as its opcode followed by its operands in the code array of a Chunk. Operands are
+ * register numbers (d = destination, s/a/b/... = sources), indices into the constant pool of the chunk (k...) or
+ * absolute code positions for jumps.
+ *
+ * The opcodes from JUMP_UNLESS_REL on are superinstructions: They do the work of a frequent sequence of other
+ * instructions in one dispatch (see {@code InstructionStatistics} for finding such sequences).
+ */
+public final class Opcode {
+
+    /** LOAD_CONST d kValue: d = constant */
+    public static final int LOAD_CONST = 0;
+
+    /** LOAD_SLOT d depth slot kLayout kName: d = variable at a resolved address, by name if the address is invalid */
+    public static final int LOAD_SLOT = 1;
+
+    /** LOAD_NAME d kName: d = variable looked up by name */
+    public static final int LOAD_NAME = 2;
+
+    /** STORE_SLOT s depth slot kLayout kName: variable at a resolved address = s */
+    public static final int STORE_SLOT = 3;
+
+    /** STORE_NAME s kName: variable looked up by name = s */
+    public static final int STORE_NAME = 4;
+
+    /** DECLARE_SLOT slot kLayout kName: declares a variable in the slot of the current scope */
+    public static final int DECLARE_SLOT = 5;
+
+    /** STORE_DECLARED s slot kLayout kName: sets a variable declared with DECLARE_SLOT */
+    public static final int STORE_DECLARED = 6;
+
+    /** DECLARE_NAME kName: declares a variable by name in the current scope */
+    public static final int DECLARE_NAME = 7;
+
+    /** MOVE d s: d = s */
+    public static final int MOVE = 8;
+
+    /** LOOKUP d: if d is a symbol, d = value of the symbol in the current scope */
+    public static final int LOOKUP = 9;
+
+    /** ADD d a b: d = a + b */
+    public static final int ADD = 10;
+
+    /** SUB d a b: d = a - b */
+    public static final int SUB = 11;
+
+    /** MUL d a b: d = a * b */
+    public static final int MUL = 12;
+
+    /** DIV d a b: d = a / b */
+    public static final int DIV = 13;
+
+    /** MOD d a b: d = a % b */
+    public static final int MOD = 14;
+
+    /** AND d a b: d = a &amp; b */
+    public static final int AND = 15;
+
+    /** OR d a b: d = a | b */
+    public static final int OR = 16;
+
+    /** XOR d a b: d = a ^ b */
+    public static final int XOR = 17;
+
+    /** SHIFT d a b operator: d = a &lt;&lt; b or d = a &gt;&gt; b, with operators from ShiftExpr */
+    public static final int SHIFT = 18;
+
+    /** REL d a b operator: d = 1 if the relation holds, 0 otherwise, with operators from RelationalExpr */
+    public static final int REL = 19;
+
+    /** NOT d s: d = ~s */
+    public static final int NOT = 20;
+
+    /** NEG d s: d = -s */
+    public static final int NEG = 21;
+
+    /** JUMP target */
+    public static final int JUMP = 22;
+
+    /** JUMP_IF_FALSE s target: jumps if s is 0 */
+    public static final int JUMP_IF_FALSE = 23;
+
+    /** ENTER_SCOPE kLayout: makes a new scope with the given layout the current scope */
+    public static final int ENTER_SCOPE = 24;
+
+    /** EXIT_SCOPE: makes the parent of the current scope the current scope */
+    public static final int EXIT_SCOPE = 25;
+
+    /** GET_MEMBER d s kCache: d = s.name, read through the MemberCache kCache */
+    public static final int GET_MEMBER = 26;
+
+    /** SET_MEMBER d kName s: d.name = s */
+    public static final int SET_MEMBER = 27;
+
+    /** GET_INDEX d s index: d = s[index] */
+    public static final int GET_INDEX = 28;
+
+    /** SET_INDEX d index s: d[index] = s */
+    public static final int SET_INDEX = 29;
+
+    /** CALL d function first count kCache: d = function(first, ..., first + count - 1), bound by the CallCache kCache */
+    public static final int CALL = 30;
+
+    /** MAKE_FUNCTION d kDefinition kChunk: d = function created by the definition, executed as the chunk */
+    public static final int MAKE_FUNCTION = 31;
+
+    /** EVAL d kExpression: d = value of an expression evaluated by the tree walking interpreter */
+    public static final int EVAL = 32;
+
+    /** EVAL_RAW d kExpression: like EVAL, but a symbol that results from the expression is not looked up */
+    public static final int EVAL_RAW = 33;
+
+    /** RETURN s: ends the execution of the chunk with the result s */
+    public static final int RETURN = 34;
+
+    /** TAIL_CALL function first count kCache: ends the execution of the chunk with a TailCall, to be made by the caller */
+    public static final int TAIL_CALL = 35;
+
+    /** CLEAR d: d = no value, used for the registers that hold loop invariant values */
+    public static final int CLEAR = 36;
+
+    /** JUMP_IF_SET s target: jumps if s holds a value */
+    public static final int JUMP_IF_SET = 37;
+
+    /** GET_ELEMENT d s index: d = s[index], for an INT index that is known to be in range */
+    public static final int GET_ELEMENT = 38;
+
+    /** JUMP_UNLESS_REL a b operator target: jumps unless a operator b holds, like REL followed by JUMP_IF_FALSE */
+    public static final int JUMP_UNLESS_REL = 39;
+
+    /** INC_SLOT depth slot kLayout kName kStep: variable at a resolved address += kStep, for an INT literal step */
+    public static final int INC_SLOT = 40;
+
+    /** GET_MEMBER_PATH d s kCache1 kCache2: d = s.name1.name2, like two GET_MEMBER instructions */
+    public static final int GET_MEMBER_PATH = 41;
+
+    private static final String[] NAMES = {
+            "LOAD_CONST", "LOAD_SLOT", "LOAD_NAME", "STORE_SLOT", "STORE_NAME", "DECLARE_SLOT", "STORE_DECLARED",
+            "DECLARE_NAME", "MOVE", "LOOKUP", "ADD", "SUB", "MUL", "DIV", "MOD", "AND", "OR", "XOR", "SHIFT", "REL",
+            "NOT", "NEG", "JUMP", "JUMP_IF_FALSE", "ENTER_SCOPE", "EXIT_SCOPE", "GET_MEMBER", "SET_MEMBER",
+            "GET_INDEX", "SET_INDEX", "CALL", "MAKE_FUNCTION", "EVAL", "EVAL_RAW", "RETURN",
+            "TAIL_CALL", "CLEAR", "JUMP_IF_SET", "GET_ELEMENT",
+            "JUMP_UNLESS_REL", "INC_SLOT", "GET_MEMBER_PATH"
+    };
+
+    private static final int[] NUM_OPERANDS = {
+            2, 5, 2, 5, 2, 3, 4,
+            1, 2, 1, 3, 3, 3, 3, 3, 3, 3, 3, 4, 4,
+            2, 2, 1, 2, 1, 0, 3, 3,
+            3, 3, 5, 3, 2, 2, 1,
+            4, 1, 2, 3,
+            4, 5, 4
+    };
+
+    private Opcode(){
+
+    }
+
+    public static String getName(int opcode){
+        return NAMES[opcode];
+    }
+
+    public static int getNumOperands(int opcode){
+        return NUM_OPERANDS[opcode];
+    }
+}
@@ -0,0 +1,137 @@
+package de.delphi.phi.vm;
+
+import de.delphi.phi.data.Type;
+import de.delphi.phi.parser.ast.*;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Finds collection definitions that do not escape the subscript or member access they are used in, like
+ * {@code ([x, y])[1]}, {@code ([a = p.x, b = p.y]).b} or {@code ([1, 2, 3]).length}, so that the Compiler can
+ * evaluate their members into registers instead of creating the collection.
+ *
+ * The members of a collection definition are evaluated with the new collection as their scope. Evaluating them in
+ * the enclosing scope instead gives the same result as long as they can not observe the collection, so they may only
+ * consist of literals, operators, member accesses, subscripts and variables. Every variable has to be neither a
+ * member of the collection nor one of the special members {@code this}, {@code length} and {@code super}, and
+ * operators that may compute a name to look up are not allowed. Only members that certainly exist are replaced, so
+ * an invalid index still raises its error when the collection is created.
+ */
+final class TemporaryCollections {
+
+    /**
+     * The access reads the length of the collection
+     */
+    static final int LENGTH = -2;
+
+    /**
+     * The collection has to be created
+     */
+    static final int NONE = -1;
+
+    private TemporaryCollections(){
+
+    }
+
+    /**
+     * Returns which member of a collection definition is read by a subscript or member access.
+     * @param access A SubscriptExpr or MemberAccessExpr that is evaluated as a value.
+     * @return The index of the child of the collection definition that holds the member, LENGTH if the access reads
+     * the length, or NONE if the collection can not be replaced.
+     */
+    static int findMember(Expression access){
+        if(!(access.getChild(0) instanceof CollectionDefinitionExpr))
+            return NONE;
+        Expression collection = access.getChild(0);
+
+        //Names of the members, which must not be looked up in the collection
+        Set<String> names = new HashSet<>();
+        for(int i = 0; i < collection.countChildren(); i += 2){
+            if(collection.getChild(i + 1) == null)
+                continue;
+            String name = symbolName(collection.getChild(i));
+            if(name == null || isSpecial(name))
+                return NONE;
+            names.add(name);
+        }
+        for(int i = 0; i < collection.countChildren(); i += 2){
+            Expression value = collection.getChild(i + 1);
+            //Unnamed members are not looked up
+            boolean portable = value == null ? isPortable(collection.getChild(i), names, true) :
+                    isPortable(value, names, false);
+            if(!portable)
+                return NONE;
+        }
+
+        if(access instanceof SubscriptExpr){
+            //Unnamed members are stored at their position among all members, named members leave a NULL behind
+            long index = LoopInvariants.intLiteral(access.getChild(1));
+            if(index < 0 || 2 * index >= collection.countChildren() ||
+                    collection.getChild((int) (2 * index + 1)) != null)
+                return NONE;
+            return (int) (2 * index);
+        }
+        else if(access instanceof MemberAccessExpr && ((MemberAccessExpr) access).getCache() != null){
+            String name = ((MemberAccessExpr) access).getCache().getName();
+            if(name.equals("length"))
+                return LENGTH;
+            //Later definitions of a member overwrite earlier ones
+            for(int i = collection.countChildren() - 2; i >= 0; i -= 2){
+                if(collection.getChild(i + 1) != null && name.equals(symbolName(collection.getChild(i))))
+                    return i + 1;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Returns the length of the collection created by a collection definition, which is the position of its last
+     * unnamed member plus one.
+     */
+    static int findLength(Expression collection){
+        for(int i = collection.countChildren() - 1; i > 0; i -= 2){
+            if(collection.getChild(i) == null)
+                return (i + 1) / 2;
+        }
+        return 0;
+    }
+
+    private static boolean isSpecial(String name){
+        return name.equals("this") || name.equals("length") || name.equals("super");
+    }
+
+    private static String symbolName(Expression expr){
+        if(expr instanceof Atom && ((Atom) expr).getContent().getType() == Type.SYMBOL)
+            return ((Atom) expr).getName();
+        return null;
+    }
+
+    /**
+     * Returns whether an expression evaluates the same in the enclosing scope as in the collection.
+     * @param raw Whether the result of the expression is used without looking it up.
+     */
+    private static boolean isPortable(Expression expr, Set<String> names, boolean raw){
+        if(expr instanceof Atom){
+            Atom atom = (Atom) expr;
+            if(atom.getContent().getType() != Type.SYMBOL)
+                return true;
+            return atom.isVariable() && !isSpecial(atom.getName()) && !names.contains(atom.getName());
+        }
+        if(expr instanceof MemberAccessExpr){
+            MemberAccessExpr member = (MemberAccessExpr) expr;
+            return member.getCache() != null && isPortable(expr.getChild(0), names, false);
+        }
+        if(expr instanceof AddExpr && !raw && LoopInvariants.mayBeName(expr))
+            return false;
+        if(!(expr instanceof BinaryExpr || expr instanceof NotExpr || expr instanceof NegationExpr ||
+                expr instanceof SubscriptExpr))
+            return false;
+
+        for(int i = 0; i < expr.countChildren(); i++){
+            if(!isPortable(expr.getChild(i), names, false))
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,189 @@
+package de.delphi.phi.vm;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Promotes chunks that are executed often from the VirtualMachine to JVM code.
+ *
+ * Chunks that are attached to a TieredCompilation count their executions and the jumps back to the start of their
+ * loops. Once either count reaches its threshold, the chunk is compiled by the JitCompiler on a background thread,
+ * while the VirtualMachine keeps executing it until the JVM code is installed. Executions that are in a loop at that
+ * point switch to the JVM code at the next jump back to the start of the loop (on-stack replacement), so long running
+ * loops are compiled even if their chunk is only executed once. Chunks that are only executed once and have no long
+ * running loops, like most top level scripts, are never compiled.
+ *
+ * Every chunk is compiled on its own, so only the functions that are actually called often are promoted. Each
+ * promotion is reported to the listeners of the TieredCompilation.
+ *
+ * The counts are collected together with the operand types and call targets seen by the VirtualMachine, so the
+ * JitCompiler speculates on them for promoted chunks. If a speculation fails, the chunk goes back to the
+ * VirtualMachine (see {@code Chunk.getDeoptimizationCount()}) and is promoted again without it.
+ */
+public class TieredCompilation {
+
+    public static final int DEFAULT_INVOCATION_THRESHOLD = 1000;
+
+    public static final int DEFAULT_BACK_EDGE_THRESHOLD = 10000;
+
+    /**
+     * Describes the promotion of a chunk to JVM code.
+     */
+    public static final class Promotion {
+
+        private final Chunk chunk;
+
+        private final int invocations, backEdges;
+
+        private final boolean compiled;
+
+        private final long compileTime;
+
+        Promotion(Chunk chunk, int invocations, int backEdges, boolean compiled, long compileTime){
+            this.chunk = chunk;
+            this.invocations = invocations;
+            this.backEdges = backEdges;
+            this.compiled = compiled;
+            this.compileTime = compileTime;
+        }
+
+        public Chunk getChunk(){
+            return chunk;
+        }
+
+        /**
+         * Returns how often the chunk had been executed when it was queued for compilation.
+         */
+        public int getInvocationCount(){
+            return invocations;
+        }
+
+        /**
+         * Returns how often the loops of the chunk had jumped back when it was queued for compilation.
+         */
+        public int getBackEdgeCount(){
+            return backEdges;
+        }
+
+        /**
+         * Returns whether the chunk was compiled to JVM code. If not, it stays in the VirtualMachine.
+         */
+        public boolean isCompiled(){
+            return compiled;
+        }
+
+        /**
+         * Returns the time the compilation took, in nanoseconds.
+         */
+        public long getCompileTime(){
+            return compileTime;
+        }
+
+        @Override
+        public String toString() {
+            return (compiled ? "Compiled" : "Failed to compile") + " chunk after " + invocations + " invocations and "
+                    + backEdges + " back edges in " + compileTime / 1000 + "us";
+        }
+    }
+
+    private volatile int invocationThreshold, backEdgeThreshold;
+
+    private final List<Consumer<Promotion>> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Executes the compilations of promoted chunks
+     */
+    private final Executor compiler;
+
+    public TieredCompilation(){
+        this(DEFAULT_INVOCATION_THRESHOLD, DEFAULT_BACK_EDGE_THRESHOLD);
+    }
+
+    /**
+     * Creates a TieredCompilation with the given thresholds, which compiles chunks one at a time on a background
+     * thread. The thread does not keep the JVM alive.
+     * @param invocationThreshold Number of executions after which a chunk is compiled.
+     * @param backEdgeThreshold Number of jumps back to the start of a loop after which a chunk is compiled.
+     */
+    public TieredCompilation(int invocationThreshold, int backEdgeThreshold){
+        this(invocationThreshold, backEdgeThreshold, Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "Phi tiered compilation");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    /**
+     * Creates a TieredCompilation with the given thresholds.
+     * @param invocationThreshold Number of executions after which a chunk is compiled.
+     * @param backEdgeThreshold Number of jumps back to the start of a loop after which a chunk is compiled.
+     * @param compiler Executes the compilations. An executor that runs tasks directly compiles chunks on the thread
+     *                 that promotes them.
+     */
+    public TieredCompilation(int invocationThreshold, int backEdgeThreshold, Executor compiler){
+        this.invocationThreshold = invocationThreshold;
+        this.backEdgeThreshold = backEdgeThreshold;
+        this.compiler = compiler;
+    }
+
+    public int getInvocationThreshold(){
+        return invocationThreshold;
+    }
+
+    public void setInvocationThreshold(int invocationThreshold){
+        this.invocationThreshold = invocationThreshold;
+    }
+
+    public int getBackEdgeThreshold(){
+        return backEdgeThreshold;
+    }
+
+    public void setBackEdgeThreshold(int backEdgeThreshold){
+        this.backEdgeThreshold = backEdgeThreshold;
+    }
+
+    /**
+     * Registers a listener that is called by the compiler after each promotion.
+     */
+    public void addListener(Consumer<Promotion> listener){
+        listeners.add(listener);
+    }
+
+    public void removeListener(Consumer<Promotion> listener){
+        listeners.remove(listener);
+    }
+
+    /**
+     * Counts the executions of a chunk and the bodies of all functions defined in it from now on.
+     * @param chunk A chunk created by the Compiler.
+     */
+    public void attach(Chunk chunk){
+        for(Object constant: chunk.constants){
+            if(constant instanceof Chunk)
+                attach((Chunk) constant);
+        }
+        if(chunk.jitCode == null)
+            chunk.tiering = this;
+    }
+
+    /**
+     * Queues a chunk for compilation, unless it already has been queued.
+     */
+    synchronized void promote(Chunk chunk){
+        if(chunk.tiering != this || chunk.queued)
+            return;
+        chunk.queued = true;
+
+        int invocations = chunk.invocations, backEdges = chunk.backEdges;
+        compiler.execute(() -> {
+            long start = System.nanoTime();
+            boolean compiled = JitCompiler.compileSingle(chunk);
+            Promotion promotion = new Promotion(chunk, invocations, backEdges, compiled, System.nanoTime() - start);
+            for(Consumer<Promotion> listener: listeners)
+                listener.accept(promotion);
+        });
+    }
+}
@@ -0,0 +1,501 @@
+package de.delphi.phi.vm;
+
+import de.delphi.phi.PhiRuntimeException;
+import de.delphi.phi.PhiScope;
+import de.delphi.phi.PhiTypeException;
+import de.delphi.phi.ScopeLayout;
+import de.delphi.phi.data.*;
+import de.delphi.phi.parser.ast.*;
+
+import java.util.Arrays;
+
+/**
+ * Executes Chunks created by the Compiler.
+ *
+ * Every execution of a chunk gets its own set of registers, so a chunk can be executed recursively and by several
+ * threads at the same time. Variables are stored in the same scopes the tree walking interpreter uses.
+ */
+public class VirtualMachine {
+
+    private VirtualMachine(){
+
+    }
+
+    /**
+     * Compiles and executes an expression. The result is the same as that of {@code expr.evalAndLookUp(scope)}.
+     * @param expr A resolved expression.
+     * @param scope The scope to execute the expression in.
+     * @return The value of the expression.
+     * @throws PhiRuntimeException If an error occurs during the execution.
+     */
+    public static PhiObject eval(Expression expr, PhiCollection scope) throws PhiRuntimeException {
+        return execute(Compiler.compile(expr), scope);
+    }
+
+    /**
+     * Executes a chunk. Calls are made on the Java stack.
+     * @param chunk The chunk to execute.
+     * @param scope The scope to execute the chunk in.
+     * @return The operand of the RETURN instruction that ended the execution.
+     * @throws PhiRuntimeException If an error occurs during the execution.
+     */
+    public static PhiObject execute(Chunk chunk, PhiCollection scope) throws PhiRuntimeException {
+        JitCode jitCode = chunk.jitCode;
+        if(jitCode != null)
+            return jitCode.execute(scope);
+
+        TieredCompilation tiering = chunk.tiering;
+        if(tiering != null && !chunk.queued && ++chunk.invocations >= tiering.getInvocationThreshold())
+            tiering.promote(chunk);
+        return run(chunk, scope, new PhiObject[chunk.numRegisters], 0, null);
+    }
+
+    /**
+     * Executes a chunk, keeping the frames of calls between compiled functions on the heap instead of the Java stack.
+     * The depth of recursion is then limited by the given size of the stack rather than the size of the Java stack.
+     * All chunks are executed by the VirtualMachine, even if they have been compiled to JVM code. Functions that are
+     * called by the tree walking interpreter (e.g. for expressions the Compiler does not support) still use the
+     * Java stack.
+     * @param chunk The chunk to execute.
+     * @param scope The scope to execute the chunk in.
+     * @param maxStackSize The maximum size of the frames on the stack, in bytes (see CallStack).
+     * @return The operand of the RETURN instruction that ended the execution.
+     * @throws PhiRuntimeException If an error occurs during the execution or the stack grows too large.
+     */
+    public static PhiObject executeOnHeap(Chunk chunk, PhiCollection scope, long maxStackSize) throws PhiRuntimeException {
+        return run(chunk, scope, new PhiObject[chunk.numRegisters], 0, new CallStack(maxStackSize));
+    }
+
+    /**
+     * Continues the execution of a chunk whose JVM code made a speculation that does not hold. The chunk is
+     * executed by the VirtualMachine from the instruction that made the speculation, with the registers the JVM
+     * code had at that point.
+     */
+    static PhiObject deoptimize(Chunk chunk, PhiCollection scope, PhiObject[] registers, int pc)
+            throws PhiRuntimeException {
+        chunk.deoptimize(pc);
+        return run(chunk, scope, registers, pc, null);
+    }
+
+    /**
+     * Executes a chunk in the interpreter loop.
+     * @param registers The registers of the execution.
+     * @param pc The position of the first instruction to execute.
+     * @param stack The stack that keeps the frames of calls of compiled functions, or null if calls are made on the
+     *              Java stack.
+     */
+    private static PhiObject run(Chunk chunk, PhiCollection scope, PhiObject[] registers, int pc, CallStack stack)
+            throws PhiRuntimeException {
+        int[] code = chunk.code;
+        Object[] constants = chunk.constants;
+
+        while(true){
+            switch(code[pc]){
+                case Opcode.LOAD_CONST:
+                    registers[code[pc + 1]] = (PhiObject) constants[code[pc + 2]];
+                    pc += 3;
+                    break;
+                case Opcode.LOAD_SLOT:
+                    registers[code[pc + 1]] = loadSlot(scope, code[pc + 2], code[pc + 3],
+                            (ScopeLayout) constants[code[pc + 4]], (String) constants[code[pc + 5]]);
+                    pc += 6;
+                    break;
+                case Opcode.LOAD_NAME:
+                    registers[code[pc + 1]] = scope.getNamed((String) constants[code[pc + 2]]);
+                    pc += 3;
+                    break;
+                case Opcode.STORE_SLOT:
+                    storeSlot(scope, code[pc + 2], code[pc + 3], (ScopeLayout) constants[code[pc + 4]],
+                            (String) constants[code[pc + 5]], registers[code[pc + 1]]);
+                    pc += 6;
+                    break;
+                case Opcode.STORE_NAME:
+                    scope.setNamed((String) constants[code[pc + 2]], registers[code[pc + 1]]);
+                    pc += 3;
+                    break;
+                case Opcode.DECLARE_SLOT:
+                    declareSlot(scope, code[pc + 1], (ScopeLayout) constants[code[pc + 2]], (String) constants[code[pc + 3]]);
+                    pc += 4;
+                    break;
+                case Opcode.STORE_DECLARED:
+                    storeDeclared(scope, code[pc + 2], (ScopeLayout) constants[code[pc + 3]],
+                            (String) constants[code[pc + 4]], registers[code[pc + 1]]);
+                    pc += 5;
+                    break;
+                case Opcode.DECLARE_NAME:
+                    declareName(scope, (String) constants[code[pc + 1]]);
+                    pc += 2;
+                    break;
+                case Opcode.MOVE:
+                    registers[code[pc + 1]] = registers[code[pc + 2]];
+                    pc += 3;
+                    break;
+                case Opcode.LOOKUP:
+                    registers[code[pc + 1]] = Expression.bindAndLookUp(registers[code[pc + 1]], scope);
+                    pc += 2;
+                    break;
+                case Opcode.ADD: {
+                    PhiObject a = registers[code[pc + 2]], b = registers[code[pc + 3]];
+                    if(a instanceof PhiInt && b instanceof PhiInt)
+                        registers[code[pc + 1]] = new PhiInt(a.longValue() + b.longValue());
+                    else{
+                        chunk.genericSites[pc] = true;
+                        registers[code[pc + 1]] = AddExpr.add(a, b);
+                    }
+                    pc += 4;
+                    break;
+                }
+                case Opcode.SUB: {
+                    PhiObject a = registers[code[pc + 2]], b = registers[code[pc + 3]];
+                    if(a instanceof PhiInt && b instanceof PhiInt)
+                        registers[code[pc + 1]] = new PhiInt(a.longValue() - b.longValue());
+                    else{
+                        chunk.genericSites[pc] = true;
+                        registers[code[pc + 1]] = AddExpr.sub(a, b);
+                    }
+                    pc += 4;
+                    break;
+                }
+                case Opcode.MUL: {
+                    PhiObject a = registers[code[pc + 2]], b = registers[code[pc + 3]];
+                    if(a instanceof PhiInt && b instanceof PhiInt)
+                        registers[code[pc + 1]] = new PhiInt(a.longValue() * b.longValue());
+                    else{
+                        chunk.genericSites[pc] = true;
+                        registers[code[pc + 1]] = MulExpr.mul(a, b);
+                    }
+                    pc += 4;
+                    break;
+                }
+                case Opcode.DIV:
+                    registers[code[pc + 1]] = MulExpr.div(registers[code[pc + 2]], registers[code[pc + 3]]);
+                    pc += 4;
+                    break;
+                case Opcode.MOD:
+                    registers[code[pc + 1]] = MulExpr.mod(registers[code[pc + 2]], registers[code[pc + 3]]);
+                    pc += 4;
+                    break;
+                case Opcode.AND:
+                    registers[code[pc + 1]] = AndExpr.and(registers[code[pc + 2]], registers[code[pc + 3]]);
+                    pc += 4;
+                    break;
+                case Opcode.OR:
+                    registers[code[pc + 1]] = OrExpr.or(registers[code[pc + 2]], registers[code[pc + 3]]);
+                    pc += 4;
+                    break;
+                case Opcode.XOR:
+                    registers[code[pc + 1]] = XorExpr.xor(registers[code[pc + 2]], registers[code[pc + 3]]);
+                    pc += 4;
+                    break;
+                case Opcode.SHIFT:
+                    registers[code[pc + 1]] = ShiftExpr.shift(registers[code[pc + 2]], code[pc + 4],
+                            registers[code[pc + 3]]);
+                    pc += 5;
+                    break;
+                case Opcode.REL: {
+                    PhiObject a = registers[code[pc + 2]], b = registers[code[pc + 3]];
+                    if(!(a instanceof PhiInt) || !(b instanceof PhiInt))
+                        chunk.genericSites[pc] = true;
+                    registers[code[pc + 1]] = relation(a, code[pc + 4], b);
+                    pc += 5;
+                    break;
+                }
+                case Opcode.NOT:
+                    registers[code[pc + 1]] = NotExpr.not(registers[code[pc + 2]]);
+                    pc += 3;
+                    break;
+                case Opcode.NEG:
+                    registers[code[pc + 1]] = NegationExpr.negate(registers[code[pc + 2]]);
+                    pc += 3;
+                    break;
+                case Opcode.JUMP: {
+                    int target = code[pc + 1];
+                    if(target < pc){
+                        TieredCompilation tiering = chunk.tiering;
+                        if(tiering != null && !chunk.queued && ++chunk.backEdges >= tiering.getBackEdgeThreshold())
+                            tiering.promote(chunk);
+
+                        //Loops that run long enough to be compiled continue in the JVM code (on-stack replacement)
+                        JitCode jitCode = chunk.jitCode;
+                        if(jitCode != null && stack == null)
+                            return jitCode.resume(scope, registers, target);
+                    }
+                    pc = target;
+                    break;
+                }
+                case Opcode.JUMP_IF_FALSE:
+                    if(registers[code[pc + 1]].longValue() == 0)
+                        pc = code[pc + 2];
+                    else
+                        pc += 3;
+                    break;
+                case Opcode.JUMP_UNLESS_REL: {
+                    PhiObject a = registers[code[pc + 1]], b = registers[code[pc + 2]];
+                    boolean holds;
+                    if(a instanceof PhiInt && b instanceof PhiInt)
+                        holds = compareInts(a.longValue(), code[pc + 3], b.longValue());
+                    else{
+                        chunk.genericSites[pc] = true;
+                        holds = RelationalExpr.relOp(a, code[pc + 3], b);
+                    }
+                    pc = holds ? pc + 5 : code[pc + 4];
+                    break;
+                }
+                case Opcode.INC_SLOT: {
+                    int depth = code[pc + 1], slot = code[pc + 2];
+                    ScopeLayout layout = (ScopeLayout) constants[code[pc + 3]];
+                    String name = (String) constants[code[pc + 4]];
+                    PhiObject step = (PhiObject) constants[code[pc + 5]];
+                    PhiObject value = loadSlot(scope, depth, slot, layout, name);
+                    if(value instanceof PhiInt)
+                        value = new PhiInt(value.longValue() + step.longValue());
+                    else{
+                        chunk.genericSites[pc] = true;
+                        value = AddExpr.add(Expression.bindAndLookUp(value, scope), step);
+                    }
+                    storeSlot(scope, depth, slot, layout, name, value);
+                    pc += 6;
+                    break;
+                }
+                case Opcode.CLEAR:
+                    registers[code[pc + 1]] = null;
+                    pc += 2;
+                    break;
+                case Opcode.JUMP_IF_SET:
+                    if(registers[code[pc + 1]] != null)
+                        pc = code[pc + 2];
+                    else
+                        pc += 3;
+                    break;
+                case Opcode.ENTER_SCOPE:
+                    scope = new PhiScope(scope, (ScopeLayout) constants[code[pc + 1]]);
+                    pc += 2;
+                    break;
+                case Opcode.EXIT_SCOPE:
+                    scope = exitScope(scope);
+                    pc += 1;
+                    break;
+                case Opcode.GET_MEMBER:
+                    registers[code[pc + 1]] = ((MemberCache) constants[code[pc + 3]]).get(registers[code[pc + 2]]);
+                    pc += 4;
+                    break;
+                case Opcode.GET_MEMBER_PATH: {
+                    PhiObject object = ((MemberCache) constants[code[pc + 3]]).get(registers[code[pc + 2]]);
+                    registers[code[pc + 1]] = ((MemberCache) constants[code[pc + 4]]).get(object);
+                    pc += 5;
+                    break;
+                }
+                case Opcode.SET_MEMBER:
+                    registers[code[pc + 1]].setNamed((String) constants[code[pc + 2]], registers[code[pc + 3]]);
+                    pc += 4;
+                    break;
+                case Opcode.GET_INDEX:
+                    registers[code[pc + 1]] = getIndex(registers[code[pc + 2]], registers[code[pc + 3]]);
+                    pc += 4;
+                    break;
+                case Opcode.GET_ELEMENT:
+                    registers[code[pc + 1]] = getElement(registers[code[pc + 2]], registers[code[pc + 3]]);
+                    pc += 4;
+                    break;
+                case Opcode.SET_INDEX:
+                    setIndex(registers[code[pc + 1]], registers[code[pc + 2]], registers[code[pc + 3]]);
+                    pc += 4;
+                    break;
+                case Opcode.CALL: {
+                    PhiObject function = registers[code[pc + 2]];
+                    if(stack != null && function instanceof CompiledFunction){
+                        CompiledFunction callee = (CompiledFunction) function;
+                        PhiObject[] arguments = Arrays.copyOfRange(registers, code[pc + 3], code[pc + 3] + code[pc + 4]);
+                        PhiCollection calleeScope = callee.enter(arguments,
+                                ((CallCache) constants[code[pc + 5]]).getBinding(callee));
+                        stack.push(chunk, pc, registers, scope);
+
+                        chunk = callee.getChunk();
+                        code = chunk.code;
+                        constants = chunk.constants;
+                        registers = new PhiObject[chunk.numRegisters];
+                        scope = calleeScope;
+                        pc = 0;
+                        break;
+                    }
+                    registers[code[pc + 1]] = call((CallCache) constants[code[pc + 5]], function, registers,
+                            code[pc + 3], code[pc + 4]);
+                    pc += 6;
+                    break;
+                }
+                case Opcode.MAKE_FUNCTION:
+                    registers[code[pc + 1]] = makeFunction((Expression) constants[code[pc + 2]], scope,
+                            (Chunk) constants[code[pc + 3]]);
+                    pc += 4;
+                    break;
+                case Opcode.EVAL:
+                    registers[code[pc + 1]] = ((Expression) constants[code[pc + 2]]).evalAndLookUp(scope);
+                    pc += 3;
+                    break;
+                case Opcode.EVAL_RAW:
+                    registers[code[pc + 1]] = ((Expression) constants[code[pc + 2]]).eval(scope);
+                    pc += 3;
+                    break;
+                case Opcode.TAIL_CALL:
+                    if(stack == null)
+                        return tailCall((CallCache) constants[code[pc + 4]], registers[code[pc + 1]], registers,
+                                code[pc + 2], code[pc + 3]);
+                    //The call replaces the register of the function, where RETURN finds it
+                    registers[code[pc + 1]] = tailCall((CallCache) constants[code[pc + 4]], registers[code[pc + 1]],
+                            registers, code[pc + 2], code[pc + 3]);
+                    //fall through
+                case Opcode.RETURN: {
+                    PhiObject result = registers[code[pc + 1]];
+                    if(stack == null)
+                        return result;
+
+                    if(result instanceof TailCall){
+                        TailCall call = (TailCall) result;
+                        if(call.getFunction() instanceof CompiledFunction){
+                            //The frame of the returning function is reused for the called function
+                            PhiCollection calleeScope = call.createScope();
+                            chunk = ((CompiledFunction) call.getFunction()).getChunk();
+                            code = chunk.code;
+                            constants = chunk.constants;
+                            registers = new PhiObject[chunk.numRegisters];
+                            scope = calleeScope;
+                            pc = 0;
+                            break;
+                        }
+                        result = call.complete();
+                    }
+                    if(stack.isEmpty())
+                        return result;
+
+                    CallStack.Frame caller = stack.pop();
+                    chunk = caller.chunk;
+                    code = chunk.code;
+                    constants = chunk.constants;
+                    registers = caller.registers;
+                    scope = caller.scope;
+                    pc = caller.pc;
+                    registers[code[pc + 1]] = result;
+                    pc += 6;
+                    break;
+                }
+                default:
+                    throw new PhiRuntimeException("Invalid opcode " + code[pc] + " at position " + pc + ".");
+            }
+        }
+    }
+
+    /*
+     * The following methods implement the instructions that are too large to be emitted inline. They are shared
+     * with the code generated by the JitCompiler.
+     */
+
+    static PhiObject loadSlot(PhiCollection scope, int depth, int slot, ScopeLayout layout, String name)
+            throws PhiRuntimeException {
+        PhiObject value = null;
+        PhiScope declaringScope = PhiScope.getEnclosingScope(scope, depth, layout);
+        if(declaringScope != null)
+            value = declaringScope.getSlot(slot);
+        //null means that the variable has not been declared yet, so it may still be found further up.
+        if(value == null)
+            value = scope.getNamed(name);
+        return value;
+    }
+
+    static void storeSlot(PhiCollection scope, int depth, int slot, ScopeLayout layout, String name, PhiObject value)
+            throws PhiRuntimeException {
+        PhiScope declaringScope = PhiScope.getEnclosingScope(scope, depth, layout);
+        if(declaringScope != null && declaringScope.getSlot(slot) != null)
+            declaringScope.setSlot(slot, value);
+        else
+            scope.setNamed(name, value);
+    }
+
+    static void declareSlot(PhiCollection scope, int slot, ScopeLayout layout, String name) throws PhiRuntimeException {
+        PhiScope declaringScope = PhiScope.getEnclosingScope(scope, 0, layout);
+        if(declaringScope != null)
+            declaringScope.declareSlot(slot);
+        else
+            declareName(scope, name);
+    }
+
+    static void storeDeclared(PhiCollection scope, int slot, ScopeLayout layout, String name, PhiObject value)
+            throws PhiRuntimeException {
+        PhiScope declaringScope = PhiScope.getEnclosingScope(scope, 0, layout);
+        if(declaringScope != null)
+            declaringScope.setSlot(slot, value);
+        else
+            scope.setNamed(name, value);
+    }
+
+    static void declareName(PhiCollection scope, String name) throws PhiRuntimeException {
+        scope.createMember(new PhiSymbol(name));
+    }
+
+    static PhiCollection exitScope(PhiCollection scope){
+        return ((PhiScope) scope).getParentScope();
+    }
+
+    static PhiObject relation(PhiObject a, int operator, PhiObject b) throws PhiRuntimeException {
+        boolean result;
+        if(a instanceof PhiInt && b instanceof PhiInt)
+            result = compareInts(a.longValue(), operator, b.longValue());
+        else
+            result = RelationalExpr.relOp(a, operator, b);
+        return result ? PhiInt.TRUE : PhiInt.FALSE;
+    }
+
+    static PhiObject getIndex(PhiObject collection, PhiObject index) throws PhiRuntimeException {
+        return collection.getUnnamed(toIndex(index));
+    }
+
+    /**
+     * Reads an element of a collection at an index that is known to be an INT with 0 <= index < collection.length.
+     * Scopes report the length of their parent, so they are read like with GET_INDEX.
+     */
+    static PhiObject getElement(PhiObject collection, PhiObject index) throws PhiRuntimeException {
+        if(collection.getClass() == PhiCollection.class)
+            return ((PhiCollection) collection).getElement((int) ((PhiInt) index).longValue());
+        return getIndex(collection, index);
+    }
+
+    static void setIndex(PhiObject collection, PhiObject index, PhiObject value) throws PhiRuntimeException {
+        collection.setUnnamed(toIndex(index), value);
+    }
+
+    static PhiFunction toFunction(PhiObject function) throws PhiRuntimeException {
+        if(function.getType() != Type.FUNCTION)
+            throw new PhiTypeException(function.getType() + " is not callable.");
+        return (PhiFunction) function;
+    }
+
+    static PhiObject call(CallCache cache, PhiObject function, PhiObject[] registers, int first, int count)
+            throws PhiRuntimeException {
+        return cache.call(toFunction(function), Arrays.copyOfRange(registers, first, first + count));
+    }
+
+    static PhiObject tailCall(CallCache cache, PhiObject function, PhiObject[] registers, int first, int count)
+            throws PhiRuntimeException {
+        return cache.tailCall(toFunction(function), Arrays.copyOfRange(registers, first, first + count));
+    }
+
+    static PhiObject makeFunction(Expression definition, PhiCollection scope, Chunk chunk) throws PhiRuntimeException {
+        return new CompiledFunction((PhiFunction) definition.eval(scope), chunk);
+    }
+
+    private static boolean compareInts(long a, int operator, long b){
+        switch(operator){
+            case RelationalExpr.OP_EQUALS: return a == b;
+            case RelationalExpr.OP_NOT_EQUALS: return a != b;
+            case RelationalExpr.OP_LESS_THAN: return a < b;
+            case RelationalExpr.OP_LESS_EQUALS: return a <= b;
+            case RelationalExpr.OP_GREATER_THAN: return a > b;
+            default: return a >= b;
+        }
+    }
+
+    private static int toIndex(PhiObject index) throws PhiRuntimeException {
+        if(index.getType() != Type.INT)
+            throw new PhiTypeException("Subscript must be of type INT.");
+        return (int) index.longValue();
+    }
+}
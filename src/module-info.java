@@ -5,6 +5,7 @@ module Phi {
     exports de.delphi.phi;
     exports de.delphi.phi.data;
     exports de.delphi.phi.parser.ast;
+    exports de.delphi.phi.vm;
 
     provides javax.script.ScriptEngineFactory with de.delphi.phi.PhiScriptEngineFactory;
 }
\ No newline at end of file
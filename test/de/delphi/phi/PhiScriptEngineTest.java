@@ -1,7 +1,43 @@
 package de.delphi.phi;
 
+import de.delphi.phi.data.PhiObject;
+import org.junit.Test;
+
+import javax.script.ScriptException;
+
+import static de.delphi.phi.Polyfill.assertThrows;
 import static org.junit.Assert.*;
 
 public class PhiScriptEngineTest {
 
-}
\ No newline at end of file
+    private static final String COUNT = "var count = (lambda(n) -> {if n == 0 then return 0; 1 + count(n - 1)}); ";
+
+    private long eval(PhiScriptEngine engine, String script) throws ScriptException, PhiException{
+        return ((PhiObject) engine.eval(script)).longValue();
+    }
+
+    @Test
+    public void testEvaluators() throws ScriptException, PhiException{
+        for(PhiScriptEngine.Evaluator evaluator: PhiScriptEngine.Evaluator.values()){
+            PhiScriptEngine engine = new PhiScriptEngine();
+            engine.setEvaluator(evaluator);
+            assertEquals(evaluator.toString(), 55, eval(engine, "var fib = (lambda(n) -> " +
+                    "{if n < 2 then return n; fib(n - 1) + fib(n - 2)}); fib(10)"));
+            assertEquals("Variables were not kept between scripts.", 8, eval(engine, "fib(6)"));
+        }
+    }
+
+    @Test
+    public void testHeapStack() throws ScriptException, PhiException{
+        //Far deeper than the Java stack allows when every call uses several Java frames
+        PhiScriptEngine engine = new PhiScriptEngine();
+        engine.setEvaluator(PhiScriptEngine.Evaluator.HEAP_STACK);
+        assertEquals(300000, eval(engine, COUNT + "count(300000)"));
+
+        engine.setMaxStackSize(100000);
+        assertEquals(100, eval(engine, "count(100)"));
+        assertThrows("Stack grew larger than its maximum size.", ScriptException.class,
+                ()->engine.eval("count(10000)")
+        );
+    }
+}
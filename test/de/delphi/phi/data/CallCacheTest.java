@@ -0,0 +1,77 @@
+package de.delphi.phi.data;
+
+import de.delphi.phi.PhiArgumentException;
+import de.delphi.phi.PhiException;
+import de.delphi.phi.PhiScope;
+import de.delphi.phi.parser.Parser;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static de.delphi.phi.Polyfill.assertThrows;
+import static org.junit.Assert.*;
+
+public class CallCacheTest {
+
+    private PhiObject execute(String input, PhiScope scope) throws PhiException, IOException{
+        Parser parser = new Parser(input);
+        PhiObject result;
+        do{
+            result = parser.nextExpression().evalAndLookUp(scope);
+        }while(!parser.eoi());
+        return result;
+    }
+
+    private PhiFunction function(String definition) throws PhiException, IOException{
+        return (PhiFunction) execute(definition, new PhiScope());
+    }
+
+    private PhiObject[] ints(long... values){
+        PhiObject[] result = new PhiObject[values.length];
+        for(int i = 0; i < values.length; i++)
+            result[i] = new PhiInt(values[i]);
+        return result;
+    }
+
+    @Test
+    public void testBinding() throws PhiException, IOException{
+        PhiFunction f = function("lambda(a, b = 10, c = 100) -> a + 2 * b + 3 * c");
+        CallCache cache = new CallCache(new String[]{"c", null, "a"});
+        assertEquals(4 + 20 + 3, cache.call(f, ints(1, 2, 4)).longValue());
+        assertEquals(4 + 20 + 3, cache.call(f, ints(1, 2, 4)).longValue());
+        assertArrayEquals(new Object[]{f.getBody()}, cache.getTargets());
+
+        CallCache unnamed = new CallCache(2);
+        assertEquals(1 + 4 + 300, unnamed.call(f, ints(1, 2)).longValue());
+        assertThrows("Too many parameters were accepted.", PhiArgumentException.class,
+                ()->new CallCache(4).call(f, ints(1, 2, 3, 4))
+        );
+        assertThrows("Missing parameter was accepted.", PhiArgumentException.class,
+                ()->new CallCache(new String[]{"b"}).call(f, ints(1))
+        );
+        assertThrows("Unknown parameter was accepted.", PhiArgumentException.class,
+                ()->new CallCache(new String[]{"d"}).call(f, ints(1))
+        );
+    }
+
+    @Test
+    public void testMegamorphic() throws PhiException, IOException{
+        CallCache cache = new CallCache(1);
+        for(int i = 0; i <= CallCache.MAX_ENTRIES; i++){
+            PhiFunction f = function("lambda(x) -> x + " + i);
+            assertEquals(i + 1, cache.call(f, ints(1)).longValue());
+        }
+        assertTrue(cache.isMegamorphic());
+        assertEquals(0, cache.getTargets().length);
+        assertEquals(3, cache.call(function("lambda(x, y = 2) -> x + y"), ints(1)).longValue());
+    }
+
+    @Test
+    public void testCallSites() throws PhiException, IOException{
+        PhiScope scope = new PhiScope();
+        assertEquals(1, execute("var f = (lambda(x) -> x); f(x = 1, 2)", scope).longValue());
+        assertEquals(6, execute("var g = (lambda(a, b = 2) -> lambda(c) -> a * b * c); " +
+                "var s = 0; for var i = 1; i <= 3; i += 1 do {var k = g(1, b = i); s += k(1)}; s", scope).longValue());
+        assertEquals(15, execute("var h = (lambda(n) -> {if n == 0 then return 0; n + h(n - 1)}); h(5)", scope).longValue());
+    }
+}
@@ -0,0 +1,93 @@
+package de.delphi.phi.data;
+
+import de.delphi.phi.PhiAccessException;
+import de.delphi.phi.PhiException;
+import de.delphi.phi.PhiScope;
+import de.delphi.phi.parser.Parser;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static de.delphi.phi.Polyfill.assertThrows;
+import static org.junit.Assert.*;
+
+public class MemberCacheTest {
+
+    private PhiCollection record(String name, long value) throws PhiException{
+        PhiCollection collection = new PhiCollection();
+        collection.createMember(new PhiSymbol(name));
+        collection.setNamed(name, new PhiInt(value));
+        return collection;
+    }
+
+    private PhiCollection inherit(PhiCollection collection, PhiCollection superClass) throws PhiException{
+        PhiCollection superClasses = new PhiCollection();
+        superClasses.createMember(new PhiInt(0));
+        superClasses.setUnnamed(0, superClass);
+        collection.setNamed("super", superClasses);
+        return collection;
+    }
+
+    @Test
+    public void testOwnMembers() throws PhiException{
+        MemberCache cache = new MemberCache("x");
+        for(int i = 0; i < 10; i++)
+            assertEquals(i, cache.get(record("x", i)).longValue());
+
+        PhiCollection other = record("y", 1);
+        other.createMember(new PhiSymbol("x"));
+        assertEquals(PhiNull.NULL, cache.get(other));
+        assertThrows("Missing member was found.", PhiAccessException.class, ()->cache.get(record("y", 1)));
+        assertFalse(cache.isMegamorphic());
+    }
+
+    @Test
+    public void testSuperClassMembers() throws PhiException{
+        MemberCache cache = new MemberCache("x");
+        PhiCollection base = record("x", 1);
+        PhiCollection derived = inherit(record("y", 2), base);
+        assertEquals(1, cache.get(derived).longValue());
+        assertEquals(1, cache.get(derived).longValue());
+
+        base.setNamed("x", new PhiInt(3));
+        assertEquals(3, cache.get(derived).longValue());
+
+        //Members that shadow the cached one must be found
+        PhiCollection middle = new PhiCollection();
+        inherit(middle, base);
+        derived.getSuperClasses().setUnnamed(0, middle);
+        assertEquals(3, cache.get(derived).longValue());
+        middle.createMember(new PhiSymbol("x"));
+        assertEquals(PhiNull.NULL, cache.get(derived));
+
+        inherit(derived, record("x", 4));
+        assertEquals(4, cache.get(derived).longValue());
+    }
+
+    @Test
+    public void testMegamorphic() throws PhiException{
+        MemberCache cache = new MemberCache("x");
+        for(int i = 0; i <= MemberCache.MAX_ENTRIES; i++){
+            PhiCollection collection = record("m" + i, i);
+            collection.createMember(new PhiSymbol("x"));
+            collection.setNamed("x", new PhiInt(i));
+            assertEquals(i, cache.get(collection).longValue());
+        }
+        assertTrue(cache.isMegamorphic());
+        assertEquals(5, cache.get(record("x", 5)).longValue());
+        assertTrue(new MemberCache("length").isMegamorphic());
+    }
+
+    @Test
+    public void testMemberAccess() throws PhiException, IOException{
+        Parser parser = new Parser("var base = ([scale = 2]); var l = ([0]); l[0] = base; var f = (lambda(r) -> r.v * r.scale); " +
+                "var s = 0; for var i = 0; i < 10; i += 1 do {var r = ([v = i]); r.super = l; s += f(r)}; " +
+                "var r = ([v = 9]); r.super = l; base.scale = 3; s += f(r); s");
+        PhiScope scope = new PhiScope();
+        PhiObject result;
+        do{
+            result = parser.nextExpression().evalAndLookUp(scope);
+        }while(!parser.eoi());
+        assertEquals(90 + 27, result.longValue());
+    }
+}
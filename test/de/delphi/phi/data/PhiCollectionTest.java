@@ -254,4 +254,44 @@ public class PhiCollectionTest {
                 b.getUnnamed(0).longValue());
         assertNotSame(copy2.getSuperClasses().getUnnamed(0), b);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testShapes() throws PhiException{
+        PhiCollection first = new PhiCollection();
+        PhiCollection second = new PhiCollection();
+        for(PhiCollection coll: new PhiCollection[]{first, second}){
+            coll.createMember(new PhiSymbol("x"));
+            coll.createMember(new PhiSymbol("y"));
+        }
+        assertSame("Collections with the same members do not share a shape.", first.getShape(), second.getShape());
+        assertEquals(1, first.getShape().indexOf("y"));
+
+        second.setNamed("y", new PhiInt(2));
+        assertEquals(PhiNull.NULL, first.getNamed("y"));
+        assertEquals(2, second.getNamed("y").longValue());
+
+        PhiCollection large = new PhiCollection();
+        for(int i = 0; i <= Shape.MAX_MEMBERS; i++){
+            large.createMember(new PhiSymbol("m" + i));
+            large.setNamed("m" + i, new PhiInt(i));
+        }
+        assertNull("Collection with too many members still uses a shape.", large.getShape());
+        for(int i = 0; i <= Shape.MAX_MEMBERS; i++)
+            assertEquals(i, large.getNamed("m" + i).longValue());
+        assertEquals(Shape.MAX_MEMBERS + 1, large.memberNames().size());
+
+        //The limit on new shapes is counted per collection, not per shape
+        for(int i = 0; i < 40; i++){
+            PhiCollection single = new PhiCollection();
+            single.createMember(new PhiSymbol("first" + i));
+            assertNotNull("Collection with a new member name does not use a shape.", single.getShape());
+        }
+
+        setupInheritanceStructure();
+        assertThrows("Creating circular inheritance succeeded.", PhiStructureException.class,
+                ()->d.setNamed("super", aSuper)
+        );
+        assertEquals("Rollback of super broke inheritance.", "y", c.getNamed("test2").toString());
+        assertFalse(d.memberNames().contains("super"));
+    }
+}
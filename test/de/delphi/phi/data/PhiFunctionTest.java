@@ -13,6 +13,7 @@ import java.util.List;
 
 import static de.delphi.phi.Polyfill.assertThrows;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
 
 public class PhiFunctionTest {
 
@@ -97,4 +98,21 @@ public class PhiFunctionTest {
         assertEquals("Function does not work.", 5, func.call(createParameters(11, 6)).longValue());
         assertEquals("Default value is not used.", 1, func.call(createParameters(11)).longValue());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testBoundParams() throws PhiRuntimeException {
+        PhiFunction func = createFunctionWithDefaults();
+        ParameterList paramList = func.getParameterList();
+        ParameterBinding binding = paramList.bind(new String[]{"b", null});
+        assertEquals(2, func.call(new PhiObject[]{new PhiInt(3), new PhiInt(11)}, binding).longValue());
+
+        binding = paramList.bind(new String[]{null});
+        PhiScope scope = paramList.supplyParameters(new PhiObject[]{new PhiInt(11)}, binding);
+        assertEquals(10, scope.getNamed("b").longValue());
+        assertNotSame("Default value was not copied.", scope.getNamed("b"),
+                paramList.supplyParameters(new PhiObject[]{new PhiInt(11)}, binding).getNamed("b"));
+        assertThrows("Binding without value for a parameter succeeded.", PhiArgumentException.class,
+                ()->paramList.bind(new String[]{"b"})
+        );
+    }
+}
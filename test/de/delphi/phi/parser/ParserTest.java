@@ -21,6 +21,7 @@ public class ParserTest {
                        "{a b}\n break\n break(1)\n continue\n continue(1)\n return 1\n" +
                        "var a\n var a = 1\n function a(b) b;\n [1]";
         Parser parser = new Parser(input);
+        parser.setConstantFolding(false);
 
         assertTrue(parser.nextExpression() instanceof AddExpr);
         assertTrue(parser.nextExpression() instanceof AddExpr);
@@ -83,7 +84,9 @@ public class ParserTest {
 
     @Test
     public void testOperatorPrecedence() throws IOException, PhiSyntaxException{
-        Expression testExpr1 = new Parser("1 + 2 - 3 * - 4 / (5 + 6)").nextExpression();
+        Parser parser = new Parser("1 + 2 - 3 * - 4 / (5 + 6)");
+        parser.setConstantFolding(false);
+        Expression testExpr1 = parser.nextExpression();
         assertTrue(getInnerExpression(testExpr1) instanceof AddExpr);
         assertTrue(getInnerExpression(testExpr1, 2) instanceof MulExpr);
         assertTrue(getInnerExpression(testExpr1, 2, 1) instanceof NegationExpr);
@@ -0,0 +1,89 @@
+package de.delphi.phi.parser.ast;
+
+import de.delphi.phi.PhiException;
+import de.delphi.phi.PhiRuntimeException;
+import de.delphi.phi.PhiScope;
+import de.delphi.phi.PhiTypeException;
+import de.delphi.phi.data.PhiObject;
+import de.delphi.phi.data.Type;
+import de.delphi.phi.parser.Parser;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static de.delphi.phi.Polyfill.assertThrows;
+import static org.junit.Assert.*;
+
+public class ConstantFolderTest {
+
+    private Expression parse(String input) throws PhiException, IOException{
+        return new Parser(input).nextExpression();
+    }
+
+    private PhiObject literal(String input) throws PhiException, IOException{
+        Expression expr = parse(input);
+        assertTrue(input + " was not folded.", expr instanceof Atom);
+        return ((Atom) expr).getContent();
+    }
+
+    private PhiObject eval(String input) throws PhiException, IOException{
+        Parser parser = new Parser(input);
+        PhiScope scope = new PhiScope();
+        PhiObject result;
+        do{
+            result = parser.nextExpression().evalAndLookUp(scope);
+        }while(!parser.eoi());
+        return result;
+    }
+
+    @Test
+    public void testLiterals() throws PhiException, IOException{
+        assertEquals(3600000, literal("60 * 60 * 1000").longValue());
+        assertEquals("ab1", literal("\"a\" + \"b\" + 1").toString());
+        assertEquals(Type.FLOAT, literal("1 + 0.5").getType());
+        assertEquals(-1, literal("!0").longValue());
+        assertEquals(-5, literal("-5").longValue());
+        assertEquals(1, literal("1 < 2 <= 2").longValue());
+        assertEquals(0, literal("3 < 2 < 5").longValue());
+        assertEquals(12, literal("1 << 2 | 8").longValue());
+
+        Expression partial = parse("2 * 3 * x");
+        assertTrue(partial instanceof MulExpr);
+        assertEquals(2, partial.countChildren());
+        assertEquals(6, ((Atom) partial.getChild(0)).getContent().longValue());
+    }
+
+    @Test
+    public void testErrorsAreKept() {
+        assertThrows("Subtraction from a string", PhiTypeException.class, () -> eval("\"a\" - 1"));
+        assertThrows("Division by zero", PhiRuntimeException.class, () -> eval("1 / 0"));
+        assertThrows("Inversion of a float", PhiTypeException.class, () -> eval("!1.5"));
+    }
+
+    @Test
+    public void testIdentities() throws PhiException, IOException{
+        assertTrue(parse("(x - y) * 1") instanceof AddExpr);
+        assertTrue(parse("(x < y) + 0") instanceof RelationalExpr);
+        assertTrue(parse("1 * (x * 2)") instanceof MulExpr);
+        assertTrue(parse("(x * 2.0) - 0") instanceof MulExpr);
+        assertEquals(2, parse("(x - y) * 1 / 1 * z").countChildren());
+
+        //Strings would be concatenated and -0.0 + 0 is 0.0
+        assertTrue(parse("x + 0") instanceof AddExpr);
+        assertTrue(parse("(x * 2.0) + 0") instanceof AddExpr);
+        assertEquals(0.0, eval("var x = -0.0; x * 1.0 + 0").doubleValue(), 0.0);
+        assertEquals(1 / -0.0, 1 / eval("var x = -0.0; x * 1.0 - 0").doubleValue(), 0.0);
+        assertTrue(parse("x * 1") instanceof MulExpr);
+        assertThrows("Multiplication of a string", PhiTypeException.class, () -> eval("var x = \"a\"; x * 1"));
+    }
+
+    @Test
+    public void testConditionals() throws PhiException, IOException{
+        assertEquals(2, eval("if 1 then 2 else 3").longValue());
+        assertEquals(3, eval("if 1 < 0 then 2 else 3").longValue());
+        assertEquals(Type.NULL, eval("if 0 then 2").getType());
+        //The branch still has a scope of its own
+        assertEquals(5, eval("var x = 5; if 1 then var x = 2; x").longValue());
+        assertEquals(10, eval("var f = (lambda(n) -> {if 1 then return n * 2; 0}); f(5)").longValue());
+    }
+}
@@ -0,0 +1,108 @@
+package de.delphi.phi.parser.ast;
+
+import de.delphi.phi.PhiException;
+import de.delphi.phi.PhiScope;
+import de.delphi.phi.data.PhiInt;
+import de.delphi.phi.data.PhiObject;
+import de.delphi.phi.data.PhiSymbol;
+import de.delphi.phi.parser.Parser;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ReentrancyTest {
+
+    private List<Expression> parse(String input) throws PhiException, IOException{
+        Parser parser = new Parser(input);
+        List<Expression> expressions = new ArrayList<>();
+        do{
+            expressions.add(parser.nextExpression());
+        }while(!parser.eoi());
+        return expressions;
+    }
+
+    private PhiObject eval(List<Expression> expressions, PhiScope scope) throws PhiException{
+        PhiObject result = null;
+        for(Expression expr: expressions)
+            result = expr.evalAndLookUp(scope);
+        return result;
+    }
+
+    @Test
+    public void testRecursiveReturn() throws PhiException, IOException{
+        //The return of the innermost call must not end the outer calls
+        List<Expression> script = parse("var f = (lambda(n) -> {if n == 0 then return 0; f(n - 1) + 1}); f(5)");
+        assertEquals(5, eval(script, new PhiScope()).longValue());
+    }
+
+    @Test
+    public void testRecursiveLoops() throws PhiException, IOException{
+        //Every call runs the same loop, the break of one call must not end the loops of the others
+        List<Expression> script = parse("var f = (lambda(n) -> {var s = 0; while 1 do {if s >= n then break; " +
+                "s += 1}; if n > 0 then s + f(n - 1) else s}); f(4)");
+        assertEquals(10, eval(script, new PhiScope()).longValue());
+    }
+
+    @Test
+    public void testTailCalls() throws PhiException, IOException{
+        //Calls in tail position must not use stack space, or these would overflow the stack
+        List<Expression> script = parse("var sum = (lambda(n, acc = 0) -> if n == 0 then acc else sum(n - 1, acc + n)); " +
+                "sum(100000)");
+        assertEquals(5000050000L, eval(script, new PhiScope()).longValue());
+
+        script = parse("var even = (lambda(n) -> {if n == 0 then return 1; return odd(n - 1)}); " +
+                "var odd = (lambda(n) -> {if n == 0 then return 0; even(n - 1)}); even(100001) * 10 + odd(100001)");
+        assertEquals(1, eval(script, new PhiScope()).longValue());
+    }
+
+    @Test
+    public void testRepeatedDefinition() throws PhiException, IOException{
+        //Functions created by the same definition share their parameters, but not the default values
+        List<Expression> script = parse("var fs = ([0, 0, 0]); for var i = 0; i < 3; i += 1 do {var k = i; " +
+                "fs[i] = (lambda(x = k * 10, y = 1) -> x + y + k)}; var g = fs[2]; var h = fs[1]; g() * 100 + h(y = 5)");
+        assertEquals(2316, eval(script, new PhiScope()).longValue());
+    }
+
+    @Test
+    public void testConcurrentEvaluation() throws Exception{
+        List<Expression> script = parse("var f = (lambda(n) -> {var s = 0; for var i = 0; i < n; i += 1 do " +
+                "{if i % 3 == 0 then continue; s += i}; return s}); f(limit)");
+
+        int numThreads = 8;
+        long[] results = new long[numThreads];
+        Throwable[] errors = new Throwable[numThreads];
+        Thread[] threads = new Thread[numThreads];
+        for(int t = 0; t < numThreads; t++){
+            final int index = t;
+            threads[t] = new Thread(() -> {
+                try {
+                    for(int k = 0; k < 50; k++){
+                        PhiScope scope = new PhiScope();
+                        scope.createMember(new PhiSymbol("limit"));
+                        scope.setNamed("limit", new PhiInt(100 + index));
+                        results[index] = eval(script, scope).longValue();
+                    }
+                }catch(Throwable e){
+                    errors[index] = e;
+                }
+            });
+            threads[t].start();
+        }
+
+        for(int t = 0; t < numThreads; t++){
+            threads[t].join();
+            assertEquals(null, errors[t]);
+
+            long expected = 0;
+            for(int i = 0; i < 100 + t; i++){
+                if(i % 3 != 0)
+                    expected += i;
+            }
+            assertEquals(expected, results[t]);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package de.delphi.phi.parser.ast;
+
+import de.delphi.phi.PhiAccessException;
+import de.delphi.phi.PhiException;
+import de.delphi.phi.PhiRuntimeException;
+import de.delphi.phi.PhiScope;
+import de.delphi.phi.data.PhiObject;
+import de.delphi.phi.data.Type;
+import de.delphi.phi.parser.Parser;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static de.delphi.phi.Polyfill.assertThrows;
+import static org.junit.Assert.assertEquals;
+
+public class ResolverTest {
+
+    private PhiObject parseAndEval(String input, PhiScope scope) throws PhiException, IOException{
+        Parser parser = new Parser(input);
+        PhiObject result;
+        do{
+            Expression expr = parser.nextExpression();
+            result = expr.evalAndLookUp(scope);
+        }while(!parser.eoi());
+        return result;
+    }
+
+    @Test
+    public void testLocalVariables() throws PhiException, IOException{
+        PhiObject result = parseAndEval("{var a = 2, b = 3; a = a * b; a + b}", new PhiScope());
+        assertEquals(Type.INT, result.getType());
+        assertEquals(9, result.longValue());
+    }
+
+    @Test
+    public void testShadowing() throws PhiException, IOException{
+        PhiScope scope = new PhiScope();
+        PhiObject result = parseAndEval("var a = 1; {var a = 2; a = a + 1}; a", scope);
+        assertEquals(1, result.longValue());
+
+        result = parseAndEval("{var a = 5; {var a = 7; a}}", scope);
+        assertEquals(7, result.longValue());
+    }
+
+    @Test
+    public void testUseBeforeDeclaration() throws PhiException, IOException{
+        //The first access is not yet shadowed by the local variable and finds the global one
+        PhiObject result = parseAndEval("var a = 1; {var b = a; var a = 10; a + b}", new PhiScope());
+        assertEquals(11, result.longValue());
+    }
+
+    @Test
+    public void testClosures() throws PhiException, IOException{
+        PhiScope scope = new PhiScope();
+        PhiObject result = parseAndEval("var mk = (lambda(k) -> lambda(z) -> k + z); var add3 = mk(3); add3(4)", scope);
+        assertEquals(7, result.longValue());
+
+        result = parseAndEval("var x = 1; var g = (lambda(a) -> x + a); x = 10; g(5)", scope);
+        assertEquals(15, result.longValue());
+    }
+
+    @Test
+    public void testRecursion() throws PhiException, IOException{
+        PhiObject result = parseAndEval("var f = (lambda(n) -> if n < 2 then 1 else n * f(n - 1)); f(5)", new PhiScope());
+        assertEquals(120, result.longValue());
+    }
+
+    @Test
+    public void testLoops() throws PhiException, IOException{
+        PhiObject result = parseAndEval("var s = 0; for var i = 0; i < 10; i += 1 do s += i; s", new PhiScope());
+        assertEquals(45, result.longValue());
+
+        result = parseAndEval("var i = 0; while i < 5 do {var t = i; i = t + 1}; i", new PhiScope());
+        assertEquals(5, result.longValue());
+    }
+
+    @Test
+    public void testCollectionMembers() throws PhiException, IOException{
+        PhiObject result = parseAndEval("var o = ([v = 5, inc = (lambda() -> v = v + 1)]); o.inc(); o.v", new PhiScope());
+        assertEquals(6, result.longValue());
+    }
+
+    @Test
+    public void testQuoteInElidedScope() throws PhiException, IOException{
+        PhiScope scope = new PhiScope();
+        PhiObject result = parseAndEval("var x = 0; {var y = 'x; y}", scope);
+        assertEquals(Type.SYMBOL, result.getType());
+        assertEquals("x", result.toString());
+
+        //The temporary created by the quote must not end up in the global scope
+        assertEquals(1, scope.memberNames().size());
+    }
+
+    @Test
+    public void testJumpTargets() throws PhiException, IOException{
+        PhiObject result = parseAndEval("var n = 0; for var i = 0; i < 3; i += 1 do " +
+                "{var j = 0; while 1 do {j += 1; if j > i then break; n += 1}}; n", new PhiScope());
+        assertEquals(3, result.longValue());
+
+        result = parseAndEval("var i = 0; var r = (while 1 do {i += 1; if i == 3 then break(i * 7)}); r", new PhiScope());
+        assertEquals(21, result.longValue());
+
+        //break can not leave the function it is defined in
+        assertThrows("break left its function.", PhiRuntimeException.class,
+                () -> parseAndEval("while 1 do {var f = (lambda() -> break); f()}", new PhiScope()));
+    }
+
+    @Test
+    public void testUndeclaredVariable(){
+        assertThrows("Undeclared variable was found.", PhiAccessException.class,
+                () -> parseAndEval("{var a = 1; b}", new PhiScope()));
+    }
+}
@@ -0,0 +1,98 @@
+package de.delphi.phi.parser.ast;
+
+import de.delphi.phi.PhiException;
+import de.delphi.phi.PhiScope;
+import de.delphi.phi.PhiTypeException;
+import de.delphi.phi.data.*;
+import de.delphi.phi.parser.Parser;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static de.delphi.phi.Polyfill.assertThrows;
+import static org.junit.Assert.assertEquals;
+
+public class SpecializationTest {
+
+    private PhiScope scope(PhiObject a, PhiObject b) throws PhiException{
+        PhiScope scope = new PhiScope();
+        scope.createMember(new PhiSymbol("a"));
+        scope.setNamed("a", a);
+        scope.createMember(new PhiSymbol("b"));
+        scope.setNamed("b", b);
+        return scope;
+    }
+
+    @Test
+    public void testBinarySpecialization() throws PhiException, IOException{
+        BinaryExpr expr = (BinaryExpr) new Parser("a + b").nextExpression();
+        assertEquals(Specialization.UNINITIALIZED, expr.getSpecialization(1));
+
+        assertEquals(3, expr.evalAndLookUp(scope(new PhiInt(1), new PhiInt(2))).longValue());
+        assertEquals(Specialization.INT, expr.getSpecialization(1));
+        assertEquals(7, expr.evalAndLookUp(scope(new PhiInt(3), new PhiInt(4))).longValue());
+        assertEquals(Specialization.INT, expr.getSpecialization(1));
+
+        //A type change makes the operator generic, but still computes the right result
+        assertEquals(3.5, expr.evalAndLookUp(scope(new PhiInt(1), new PhiFloat(2.5))).doubleValue(), 0.0);
+        assertEquals(Specialization.GENERIC, expr.getSpecialization(1));
+        assertEquals(5, expr.evalAndLookUp(scope(new PhiInt(2), new PhiInt(3))).longValue());
+        assertEquals("xy", expr.evalAndLookUp(scope(new PhiString("x"), new PhiString("y"))).toString());
+    }
+
+    @Test
+    public void testStringSpecialization() throws PhiException, IOException{
+        BinaryExpr expr = (BinaryExpr) new Parser("a - b").nextExpression();
+        PhiScope strings = scope(new PhiString("x"), new PhiString("y"));
+        assertThrows("Strings can not be subtracted", PhiTypeException.class, () -> expr.evalAndLookUp(strings));
+
+        BinaryExpr comparison = (BinaryExpr) new Parser("a < b").nextExpression();
+        assertEquals(1, comparison.evalAndLookUp(strings).longValue());
+        assertEquals(Specialization.STRING, comparison.getSpecialization(1));
+        assertEquals(0, comparison.evalAndLookUp(scope(new PhiString("y"), new PhiString("x"))).longValue());
+    }
+
+    @Test
+    public void testFloatComparison() throws PhiException, IOException{
+        //NaN has to be compared exactly like the generic implementation does
+        for(String operator: new String[]{"==", "!=", "<", "<=", ">", ">="}){
+            BinaryExpr specialized = (BinaryExpr) new Parser("a " + operator + " b").nextExpression();
+            PhiScope floats = scope(new PhiFloat(1.0), new PhiFloat(Double.NaN));
+            long result = specialized.evalAndLookUp(floats).longValue();
+            assertEquals(Specialization.FLOAT, specialized.getSpecialization(1));
+
+            BinaryExpr generic = (BinaryExpr) new Parser("a " + operator + " b").nextExpression();
+            generic.evalAndLookUp(scope(new PhiInt(1), new PhiFloat(1.0)));
+            assertEquals(Specialization.GENERIC, generic.getSpecialization(1));
+            assertEquals(operator, generic.evalAndLookUp(floats).longValue(), result);
+        }
+    }
+
+    @Test
+    public void testUnarySpecialization() throws PhiException, IOException{
+        UnaryExpr expr = (UnaryExpr) new Parser("-a").nextExpression();
+        assertEquals(-1, expr.evalAndLookUp(scope(new PhiInt(1), PhiNull.NULL)).longValue());
+        assertEquals(Specialization.INT, expr.getSpecialization());
+        assertEquals(-1.5, expr.evalAndLookUp(scope(new PhiFloat(1.5), PhiNull.NULL)).doubleValue(), 0.0);
+        assertEquals(Specialization.GENERIC, expr.getSpecialization());
+    }
+
+    @Test
+    public void testCompoundAssignment() throws PhiException, IOException{
+        Parser parser = new Parser("var x = 0; for var i = 0; i < 10; i += 1 do x += i; x += 0.5; x");
+        PhiScope scope = new PhiScope();
+        PhiObject result = null;
+        do{
+            result = parser.nextExpression().evalAndLookUp(scope);
+        }while(!parser.eoi());
+        assertEquals(45.5, result.doubleValue(), 0.0);
+
+        //Symbols among the operands are looked up, as in an operator
+        parser = new Parser("var k = 3; var q = 'k; var c = ([1, 2, k]); var s = 10; s -= q; s += c[2]; s");
+        scope = new PhiScope();
+        do{
+            result = parser.nextExpression().evalAndLookUp(scope);
+        }while(!parser.eoi());
+        assertEquals(10, result.longValue());
+    }
+}
@@ -0,0 +1,87 @@
+package de.delphi.phi.parser.ast;
+
+import de.delphi.phi.PhiException;
+import de.delphi.phi.data.Type;
+import de.delphi.phi.parser.Parser;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TypeInferenceTest {
+
+    private Expression parse(String input) throws PhiException, IOException{
+        return new Parser(input).nextExpression();
+    }
+
+    private TypeInference infer(String input) throws PhiException, IOException{
+        return TypeInference.infer(parse(input));
+    }
+
+    @Test
+    public void testLiteralsAndOperators() throws PhiException, IOException{
+        Expression expr = parse("{var i = 2; var f = 1.5; var s = \"a\"; i * 3 - i}");
+        assertTrue(TypeInference.infer(expr).isProven(expr, Type.INT));
+        expr = parse("{var i = 2; var f = 1.5; i * f}");
+        assertTrue(TypeInference.infer(expr).isProven(expr, Type.FLOAT));
+        expr = parse("{var i = 2; var s = \"a\"; s + i}");
+        assertTrue(TypeInference.infer(expr).isProven(expr, Type.STRING));
+        expr = parse("{var i = 2; i < 3}");
+        assertTrue(TypeInference.infer(expr).isProven(expr, Type.INT));
+
+        //Results of calls and members are not known
+        expr = parse("{var i = 2; i + f(i)}");
+        assertFalse(TypeInference.infer(expr).isProven(expr, Type.INT));
+        //Symbols among the operands of a compound assignment are looked up
+        expr = parse("{var i = 2; i -= 'k; i * 2}");
+        assertFalse(TypeInference.infer(expr).isProven(expr, Type.INT));
+    }
+
+    @Test
+    public void testFlow() throws PhiException, IOException{
+        //Assignments replace the types of a variable. A variable on its own would be looked up by the parent.
+        Expression expr = parse("{var x = 1; x = \"a\"; x + \"b\"}");
+        assertTrue(TypeInference.infer(expr).isProven(expr, Type.STRING));
+
+        Expression ifExpr = parse("{var x = 1; if y then x = 0.5; x * 2}");
+        TypeInference types = TypeInference.infer(ifExpr);
+        assertEquals(EnumSet.of(Type.INT, Type.FLOAT), types.getTypes(ifExpr));
+        assertEquals(1, types.getWidenings().size());
+        assertTrue(types.getWidenings().get(0).startsWith("x: "));
+
+        //Counters stay INTs, even if the loop breaks
+        types = infer("{var s = 0; for var i = 0; i < 10; i += 1 do {if i == 5 then break; s += 0.5}; s}");
+        String dump = types.dump();
+        assertTrue(dump, dump.contains("i: INT\n"));
+        assertTrue(dump, dump.contains("s: INT, FLOAT\n"));
+        List<String> widenings = types.getWidenings();
+        assertEquals(widenings.toString(), 1, widenings.size());
+        assertTrue(widenings.get(0), widenings.get(0).contains("at the start of a for loop"));
+    }
+
+    @Test
+    public void testEscapes() throws PhiException, IOException{
+        TypeInference types = infer("{var n = 0; var inc = (lambda() -> n += 1); var m = 0; m += 2; n}");
+        String dump = types.dump();
+        assertTrue(dump, dump.contains("n: any\n"));
+        assertTrue(dump, dump.contains("m: INT\n"));
+        assertTrue(dump, dump.contains("n: any type, because it is assigned in a nested function"));
+
+        //Variables of the enclosing function are not known inside of a function
+        Expression expr = parse("{var k = 1; var f = (lambda(a) -> k * a); k * 2}");
+        types = TypeInference.infer(expr);
+        assertTrue(types.isProven(expr, Type.INT));
+        Expression body = expr.getChild(1).getChild(1).getChild(0);
+        assertEquals(EnumSet.of(Type.INT, Type.FLOAT), types.getTypes(body));
+
+        //Assignments before the declaration of a variable store to the variable with the same name outside
+        expr = parse("{var x = 1; {x = 2.5; var x = 3}; x + 1}");
+        types = TypeInference.infer(expr);
+        assertFalse(types.isProven(expr, Type.INT));
+        dump = types.dump();
+        assertTrue(dump, dump.contains("x: any type, because it is assigned before it is declared"));
+    }
+}
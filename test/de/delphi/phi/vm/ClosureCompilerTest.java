@@ -0,0 +1,99 @@
+package de.delphi.phi.vm;
+
+import de.delphi.phi.PhiAccessException;
+import de.delphi.phi.PhiException;
+import de.delphi.phi.PhiRuntimeException;
+import de.delphi.phi.PhiScope;
+import de.delphi.phi.PhiTypeException;
+import de.delphi.phi.data.PhiObject;
+import de.delphi.phi.parser.Parser;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static de.delphi.phi.Polyfill.assertThrows;
+import static org.junit.Assert.assertEquals;
+
+public class ClosureCompilerTest {
+
+    private PhiObject interpret(String input) throws PhiException, IOException{
+        Parser parser = new Parser(input);
+        PhiScope scope = new PhiScope();
+        PhiObject result;
+        do{
+            result = parser.nextExpression().evalAndLookUp(scope);
+        }while(!parser.eoi());
+        return result;
+    }
+
+    private PhiObject execute(String input) throws PhiException, IOException{
+        Parser parser = new Parser(input);
+        PhiScope scope = new PhiScope();
+        PhiObject result;
+        do{
+            result = ClosureCompiler.compile(parser.nextExpression()).eval(scope);
+        }while(!parser.eoi());
+        return result;
+    }
+
+    /**
+     * Asserts that the compiled nodes and the tree walking interpreter produce the same result.
+     */
+    private void assertSameResult(String input) throws PhiException, IOException{
+        assertEquals(input, interpret(input).toString(), execute(input).toString());
+    }
+
+    @Test
+    public void testExpressions() throws PhiException, IOException{
+        assertEquals(7, execute("1 + 2 * 3").longValue());
+        assertEquals(1, execute("3 - 1 - 1").longValue());
+        assertEquals(11, execute("6 & 3 | 8 ^ 1").longValue());
+        assertEquals(4, execute("1 << 4 >> 2").longValue());
+        assertSameResult("1.5 * 2 + 1");
+        assertSameResult("\"a\" + \"b\" + 1");
+        assertSameResult("var x = 2.5; x * 2 - 1");
+        assertSameResult("3 < 2 < 5");
+        assertSameResult("1 < 2 <= 2 != 3");
+        assertSameResult("var x; x");
+        assertEquals(1, execute("var x = 1; {var x = 2; x}; x").longValue());
+        assertEquals(-3, execute("var a = 1, b = a + 2; -b").longValue());
+        assertEquals(14, execute("var x = 4; x += 3; x *= 2; x").longValue());
+        assertEquals(10, execute("var k = 3; var q = 'k; var c = ([1, 2, k]); var s = 10; s -= q; s += c[2]; s")
+                .longValue());
+
+        //Before its declaration, the inner x is assigned by name, which stores to the outer x
+        assertSameResult("var f = (lambda() -> {var x = 1; {x = 2.5; var x = 3}; x + 1}); f()");
+        assertSameResult("var f = (lambda() -> {var x = 1; {var y = x + 0.5; var x = 3; y}}); f()");
+    }
+
+    @Test
+    public void testControlFlow() throws PhiException, IOException{
+        assertEquals(25, execute("var s = 0; for var i = 0; i < 10; i += 1 do {if i % 2 == 0 then continue; s += i}; s").longValue());
+        assertEquals(60, execute("var i = 0; while i < 10 do {i += 1; if i > 5 then break (i * 10)}").longValue());
+        assertEquals(3, execute("var t = 0; for var i = 0; i < 3; i += 1 do for var j = 0; j < 3; j += 1 do " +
+                "{if j == 1 then break; t += 1}; t").longValue());
+        assertSameResult("var i = 0; while i < 3 do i += 1");
+        assertEquals(3628800, execute("var f = (lambda(n) -> {if n == 0 then return 1; n * f(n - 1)}); f(10)").longValue());
+        assertEquals(7, execute("var mk = (lambda(a) -> lambda(b) -> a + b); var add3 = mk(3); add3(4)").longValue());
+        assertEquals(4, execute("var f = (lambda(a, b) -> a - b); f(b = 1, a = 5)").longValue());
+        assertEquals(3, execute("var g = (lambda() -> {for var i = 0; i < 10; i += 1 do {if i == 3 then return i}; 99}); g()").longValue());
+        assertEquals(500000500000L, execute("var s = (lambda(n, acc) -> {if n == 0 then return acc; s(n - 1, acc + n)}); " +
+                "s(1000000, 0)").longValue());
+    }
+
+    @Test
+    public void testCollections() throws PhiException, IOException{
+        assertEquals(5, execute("var a = ([1, 2, 3]); a[1] + a.length").longValue());
+        assertEquals(7, execute("var a = ([1, 2, 3]); a[1] += 5; a[1]").longValue());
+        assertEquals(7, execute("var o = ([v = 1]); o.v *= 7; o.v").longValue());
+        assertEquals(2, execute("var c = ([n = 0, inc = (lambda() -> n += 1)]); c.inc(); c.inc(); c.n").longValue());
+    }
+
+    @Test
+    public void testErrors() {
+        assertThrows("Undeclared variable", PhiAccessException.class, () -> execute("undefinedVar"));
+        assertThrows("Break outside of a loop", PhiRuntimeException.class, () -> execute("break"));
+        assertThrows("Call of a non-function", PhiTypeException.class, () -> execute("3(1)"));
+        assertThrows("Addition of a function", PhiTypeException.class, () -> execute("(lambda() -> 1) + 1"));
+    }
+}
@@ -0,0 +1,33 @@
+package de.delphi.phi.vm;
+
+import de.delphi.phi.PhiException;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class InstructionStatisticsTest {
+
+    @Test
+    public void testSequences() throws PhiException, IOException{
+        InstructionStatistics statistics = new InstructionStatistics(2);
+        statistics.addScript("var f = (lambda(a) -> a.x.y + a.x.y); {var s = 0; var t = 1; s + t}");
+        Map<String, Integer> counts = statistics.getCounts();
+        //Function bodies are counted as well
+        assertEquals(2, (int) counts.get("LOAD_SLOT GET_MEMBER_PATH"));
+        assertEquals(2, (int) counts.get("DECLARE_SLOT LOAD_CONST"));
+
+        List<Map.Entry<String, Integer>> frequent = statistics.getMostFrequent(1);
+        assertEquals(1, frequent.size());
+        assertTrue(frequent.get(0).getValue() >= 2);
+
+        //Sequences end at the targets of jumps
+        statistics = new InstructionStatistics(3);
+        statistics.addScript("{var s = 0; while s < 3 do s += 1}");
+        for(String sequence: statistics.getCounts().keySet())
+            assertFalse(sequence, sequence.endsWith("LOAD_SLOT LOAD_SLOT") || sequence.contains("JUMP LOOKUP"));
+    }
+}
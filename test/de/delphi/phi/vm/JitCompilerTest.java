@@ -0,0 +1,72 @@
+package de.delphi.phi.vm;
+
+import de.delphi.phi.PhiException;
+import de.delphi.phi.PhiScope;
+import de.delphi.phi.PhiTypeException;
+import de.delphi.phi.data.PhiObject;
+import de.delphi.phi.parser.Parser;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static de.delphi.phi.Polyfill.assertThrows;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JitCompilerTest {
+
+    private PhiObject execute(String input) throws PhiException, IOException{
+        Parser parser = new Parser(input);
+        PhiScope scope = new PhiScope();
+        PhiObject result;
+        do{
+            Chunk chunk = JitCompiler.compile(parser.nextExpression());
+            assertTrue(input, chunk.isJitCompiled());
+            result = VirtualMachine.execute(chunk, scope);
+        }while(!parser.eoi());
+        return result;
+    }
+
+    @Test
+    public void testArithmetic() throws PhiException, IOException{
+        assertEquals(7, execute("1 + 2 * 3").longValue());
+        assertEquals(4.0, execute("1.5 * 2 + 1").doubleValue(), 0.0);
+        assertEquals("ab", execute("\"a\" + \"b\"").toString());
+        assertEquals(1, execute("1 < 2 < 3").longValue());
+        assertEquals(0, execute("3 < 2 < 5").longValue());
+        assertEquals(11, execute("6 & 3 | 8 ^ 1").longValue());
+    }
+
+    @Test
+    public void testLoops() throws PhiException, IOException{
+        assertEquals(25, execute("var s = 0; for var i = 0; i < 10; i += 1 do {if i % 2 == 0 then continue; s += i}; s").longValue());
+        assertEquals(60, execute("var i = 0; while i < 10 do {i += 1; if i > 5 then break (i * 10)}").longValue());
+    }
+
+    @Test
+    public void testFunctions() throws PhiException, IOException{
+        assertEquals(3628800, execute("var f = (lambda(n) -> {if n == 0 then return 1; n * f(n - 1)}); f(10)").longValue());
+        assertEquals(7, execute("var mk = (lambda(a) -> lambda(b) -> a + b); var add3 = mk(3); add3(4)").longValue());
+        assertEquals(999000, execute("var f = (lambda(n) -> {var s = 0; for var i = 0; i < n; i += 1 do s += 2 * i; s}); " +
+                "f(1000)").longValue());
+    }
+
+    @Test
+    public void testCollections() throws PhiException, IOException{
+        assertEquals(7, execute("var a = ([1, 2, 3]); a[1] += 5; a[1]").longValue());
+        assertEquals(2, execute("var c = ([n = 0, inc = (lambda() -> n += 1)]); c.inc(); c.inc(); c.n").longValue());
+        assertEquals(3, execute("var p = ([x = 1]); var o = ([y = 2]); var l = ([0]); l[0] = p; o.super = l; o.x + o.y").longValue());
+    }
+
+    @Test
+    public void testErrors() {
+        assertThrows("Call of a non-function", PhiTypeException.class, () -> execute("3(1)"));
+        assertThrows("Invalid operand", PhiTypeException.class, () -> execute("1 - \"a\""));
+    }
+
+    @Test
+    public void testHiddenClass() throws PhiException, IOException{
+        Chunk chunk = JitCompiler.compile(new Parser("1 + 1").nextExpression());
+        assertTrue(chunk.jitCode.getClass().isHidden());
+    }
+}
@@ -0,0 +1,198 @@
+package de.delphi.phi.vm;
+
+import de.delphi.phi.PhiException;
+import de.delphi.phi.PhiScope;
+import de.delphi.phi.data.PhiObject;
+import de.delphi.phi.parser.Parser;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TieredCompilationTest {
+
+    private List<Chunk> compile(String input) throws PhiException, IOException{
+        Parser parser = new Parser(input);
+        List<Chunk> chunks = new ArrayList<>();
+        do{
+            chunks.add(Compiler.compile(parser.nextExpression()));
+        }while(!parser.eoi());
+        return chunks;
+    }
+
+    private PhiObject execute(List<Chunk> chunks, PhiScope scope) throws PhiException{
+        PhiObject result = null;
+        for(Chunk chunk: chunks)
+            result = VirtualMachine.execute(chunk, scope);
+        return result;
+    }
+
+    private Chunk functionBody(Chunk chunk){
+        for(Object constant: chunk.constants){
+            if(constant instanceof Chunk)
+                return (Chunk) constant;
+        }
+        return null;
+    }
+
+    @Test
+    public void testPromotion() throws PhiException, IOException, InterruptedException{
+        TieredCompilation tiering = new TieredCompilation(10, 100);
+        BlockingQueue<TieredCompilation.Promotion> promotions = new LinkedBlockingQueue<>();
+        tiering.addListener(promotions::add);
+
+        List<Chunk> script = compile("var f = (lambda(n) -> n * 2); var s = 0; var i = 0");
+        for(Chunk chunk: script)
+            tiering.attach(chunk);
+        PhiScope scope = new PhiScope();
+        execute(script, scope);
+        Chunk body = functionBody(script.get(0));
+        assertEquals(0, body.getInvocationCount());
+
+        List<Chunk> call = compile("s += f(i); i += 1");
+        for(int i = 0; i < 10; i++)
+            execute(call, scope);
+        assertEquals(90, scope.getNamed("s").longValue());
+
+        TieredCompilation.Promotion promotion = promotions.poll(10, TimeUnit.SECONDS);
+        assertNotNull("Function was not promoted.", promotion);
+        assertSame(body, promotion.getChunk());
+        assertEquals(10, promotion.getInvocationCount());
+        assertTrue(promotion.isCompiled());
+        assertTrue(body.isJitCompiled());
+        assertEquals(20, execute(compile("f(10)"), scope).longValue());
+        assertFalse("Chunk executed once was compiled.", script.get(1).isJitCompiled());
+
+        List<Chunk> loop = compile("while i < 1000 do i += 1");
+        tiering.attach(loop.get(0));
+        execute(loop, scope);
+        promotion = promotions.poll(10, TimeUnit.SECONDS);
+        assertNotNull("Loop was not promoted.", promotion);
+        assertSame(loop.get(0), promotion.getChunk());
+        assertEquals(100, promotion.getBackEdgeCount());
+        assertNull(promotions.poll());
+    }
+
+    @Test
+    public void testOnStackReplacement() throws PhiException, IOException{
+        //Chunks are compiled directly, so the loops switch to the JVM code at the next back edge
+        TieredCompilation tiering = new TieredCompilation(1000, 50, Runnable::run);
+        List<TieredCompilation.Promotion> promotions = new ArrayList<>();
+        tiering.addListener(promotions::add);
+
+        List<Chunk> script = compile("var s = 0; for var i = 0; i < 100; i += 1 do {var k = i * 2; " +
+                "if i % 3 == 0 then continue; s += k}; s");
+        for(Chunk chunk: script)
+            tiering.attach(chunk);
+        assertEquals(6534, execute(script, new PhiScope()).longValue());
+        assertEquals(1, promotions.size());
+        assertTrue(script.get(1).isJitCompiled());
+
+        //The inner loop is compiled in the middle of the outer one
+        script = compile("var t = 0; var j = 0; while j < 10 do {var n = 0; while n < 20 do {n += 1; t += j}; j += 1}; t");
+        for(Chunk chunk: script)
+            tiering.attach(chunk);
+        assertEquals(900, execute(script, new PhiScope()).longValue());
+        assertEquals(2, promotions.size());
+        assertEquals(50, promotions.get(1).getBackEdgeCount());
+    }
+
+    @Test
+    public void testDeoptimization() throws PhiException, IOException{
+        TieredCompilation tiering = new TieredCompilation(10, 1000, Runnable::run);
+        PhiScope scope = new PhiScope();
+        List<Chunk> script = compile("var f = (lambda(a, b) -> a * b + 1); var k = f; var g = (lambda(n) -> 1 + k(n, n)); " +
+                "var h = (lambda(p) -> p.x); var l = ([0]); l[0] = ([x = 5]); var o = ([]); o.super = l; var i = 0");
+        for(Chunk chunk: script)
+            tiering.attach(chunk);
+        execute(script, scope);
+        List<Chunk> calls = compile("i += g(i) + h(o)");
+        for(int i = 0; i < 20; i++)
+            execute(calls, scope);
+        Chunk f = functionBody(script.get(0)), g = functionBody(script.get(2)), h = functionBody(script.get(3));
+        assertTrue(f.isJitCompiled() && g.isJitCompiled() && h.isJitCompiled());
+
+        //Operands of a different type
+        assertEquals(7.25, execute(compile("f(2.5, 2.5)"), scope).doubleValue(), 0.0);
+        assertEquals(2.0, execute(compile("f(2, 0.5)"), scope).doubleValue(), 0.0);
+        assertEquals(1, f.getDeoptimizationCount());
+        assertFalse(f.isJitCompiled());
+
+        //Call target replaced after the compilation
+        execute(compile("k = (lambda(a, b) -> a - b)"), scope);
+        assertEquals(1, execute(compile("g(3)"), scope).longValue());
+        assertEquals(1, g.getDeoptimizationCount());
+
+        //Member found in a superclass that is replaced
+        execute(compile("l = ([0]); l[0] = ([x = 7]); o.super = l"), scope);
+        assertEquals(7, execute(compile("h(o)"), scope).longValue());
+        assertEquals(1, h.getDeoptimizationCount());
+
+        //Recompiled without the failed speculations
+        for(int i = 0; i < 20; i++)
+            execute(compile("f(1.5, 1); g(2); h(o)"), scope);
+        assertTrue(f.isJitCompiled() && g.isJitCompiled() && h.isJitCompiled());
+        assertEquals(1, f.getDeoptimizationCount());
+        assertEquals(2.5, execute(compile("f(1.5, 1)"), scope).doubleValue(), 0.0);
+    }
+
+    @Test
+    public void testInlining() throws PhiException, IOException{
+        TieredCompilation tiering = new TieredCompilation(10, 1000, Runnable::run);
+        PhiScope scope = new PhiScope();
+        List<Chunk> script = compile("var sq = (lambda(x) -> x * x); var mk = (lambda(a) -> lambda(b) -> a + b); " +
+                "var add = mk(10); var abs = (lambda(x) -> {if x < 0 then return -x; x}); " +
+                "var counter = (lambda(start) -> {var c = start + 1; lambda() -> c * 2}); " +
+                "var g = (lambda(n) -> {var s = 0; for var i = 0; i < n; i += 1 do " +
+                "{s += sq(i) + add(i) + abs(i - 3); var f = counter(i); s += f()}; s})");
+        for(Chunk chunk: script)
+            tiering.attach(chunk);
+        execute(script, scope);
+
+        //0..4: squares 30, add 60, abs 3 + 2 + 1 + 0 + 1, closures 30
+        List<Chunk> call = compile("g(5)");
+        for(int i = 0; i < 20; i++)
+            assertEquals(127, execute(call, scope).longValue());
+        Chunk g = functionBody(script.get(5));
+        assertTrue(g.isJitCompiled());
+        //The closures created by counter share their code, so f() is inlined as well
+        assertEquals(5, g.getInlinedCallCount());
+
+        //The guard of the inlined function fails
+        execute(compile("sq = (lambda(x) -> x)"), scope);
+        assertEquals(107, execute(call, scope).longValue());
+        assertEquals(1, g.getDeoptimizationCount());
+        assertEquals(0, g.getInlinedCallCount());
+    }
+
+    @Test
+    public void testSuperinstructions() throws PhiException, IOException{
+        TieredCompilation tiering = new TieredCompilation(10, 1000, Runnable::run);
+        PhiScope scope = new PhiScope();
+        List<Chunk> script = compile("var f = (lambda(n, o) -> {var s = 0; for var i = 0; i < n; i += 1 do s += o.p.q; " +
+                "var t = n; t += 1; s + t})");
+        for(Chunk chunk: script)
+            tiering.attach(chunk);
+        execute(script, scope);
+        Chunk f = functionBody(script.get(0));
+        String listing = f.toString();
+        assertTrue(listing, listing.contains("JUMP_UNLESS_REL") && listing.contains("INC_SLOT") &&
+                listing.contains("GET_MEMBER_PATH"));
+
+        List<Chunk> call = compile("f(4, ([p = ([q = 2])]))");
+        for(int i = 0; i < 20; i++)
+            assertEquals(13, execute(call, scope).longValue());
+        assertTrue(f.isJitCompiled());
+
+        //The comparison and the increment see FLOATs, and the members are found in another shape
+        assertEquals(12.5, execute(compile("f(3.5, ([p = ([q = 2])]))"), scope).doubleValue(), 0.0);
+        assertEquals(1, f.getDeoptimizationCount());
+        assertEquals(13, execute(compile("f(2, ([r = 1, p = ([q = 5])]))"), scope).longValue());
+    }
+}
@@ -0,0 +1,170 @@
+package de.delphi.phi.vm;
+
+import de.delphi.phi.PhiAccessException;
+import de.delphi.phi.PhiException;
+import de.delphi.phi.PhiRuntimeException;
+import de.delphi.phi.PhiScope;
+import de.delphi.phi.PhiTypeException;
+import de.delphi.phi.data.PhiObject;
+import de.delphi.phi.parser.Parser;
+import de.delphi.phi.parser.ast.Expression;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static de.delphi.phi.Polyfill.assertThrows;
+import static org.junit.Assert.assertEquals;
+
+public class VirtualMachineTest {
+
+    private PhiObject interpret(String input) throws PhiException, IOException{
+        Parser parser = new Parser(input);
+        PhiScope scope = new PhiScope();
+        PhiObject result;
+        do{
+            result = parser.nextExpression().evalAndLookUp(scope);
+        }while(!parser.eoi());
+        return result;
+    }
+
+    private PhiObject execute(String input) throws PhiException, IOException{
+        Parser parser = new Parser(input);
+        PhiScope scope = new PhiScope();
+        PhiObject result;
+        do{
+            Expression expr = parser.nextExpression();
+            result = VirtualMachine.execute(Compiler.compile(expr), scope);
+        }while(!parser.eoi());
+        return result;
+    }
+
+    /**
+     * Asserts that the VirtualMachine and the tree walking interpreter produce the same result.
+     */
+    private void assertSameResult(String input) throws PhiException, IOException{
+        assertEquals(input, interpret(input).toString(), execute(input).toString());
+    }
+
+    @Test
+    public void testArithmetic() throws PhiException, IOException{
+        assertEquals(7, execute("1 + 2 * 3").longValue());
+        assertEquals(1, execute("3 - 1 - 1").longValue());
+        assertEquals(11, execute("6 & 3 | 8 ^ 1").longValue());
+        assertEquals(4, execute("1 << 4 >> 2").longValue());
+        assertSameResult("1.5 * 2 + 1");
+        assertSameResult("\"a\" + \"b\"");
+        assertSameResult("1 < 2 < 3");
+        assertSameResult("3 < 2 < 5");
+    }
+
+    @Test
+    public void testVariables() throws PhiException, IOException{
+        assertEquals(7, execute("var x = 4; x += 3; x").longValue());
+        //Symbols among the operands of a compound assignment are looked up
+        assertSameResult("var k = 3; var q = 'k; var c = ([1, 2, k]); var s = 10; s -= q; s += c[2]; s");
+        assertSameResult("var k = 3; var o = ([m = 'k]); " +
+                "var f = (lambda() -> {var t = o.m; t += 1; o.m *= t; o.m}); f()");
+        assertEquals(2, execute("var a = 1, b = a + 1; b").longValue());
+        assertEquals(1, execute("var x = 1; {var x = 2; x}; x").longValue());
+        assertSameResult("var x; x");
+    }
+
+    @Test
+    public void testLoops() throws PhiException, IOException{
+        assertEquals(25, execute("var s = 0; for var i = 0; i < 10; i += 1 do {if i % 2 == 0 then continue; s += i}; s").longValue());
+        assertEquals(60, execute("var i = 0; while i < 10 do {i += 1; if i > 5 then break (i * 10)}").longValue());
+        assertEquals(3, execute("var t = 0; for var i = 0; i < 3; i += 1 do for var j = 0; j < 3; j += 1 do " +
+                "{if j == 1 then break; t += 1}; t").longValue());
+        assertSameResult("var i = 0; while i < 3 do i += 1");
+    }
+
+    @Test
+    public void testFunctions() throws PhiException, IOException{
+        assertEquals(3628800, execute("var f = (lambda(n) -> {if n == 0 then return 1; n * f(n - 1)}); f(10)").longValue());
+        assertEquals(7, execute("var mk = (lambda(a) -> lambda(b) -> a + b); var add3 = mk(3); add3(4)").longValue());
+        assertEquals(4, execute("var f = (lambda(a, b) -> a - b); f(b = 1, a = 5)").longValue());
+        assertEquals(5, execute("var f = (lambda(x = 5) -> x); f()").longValue());
+        assertEquals(10, execute("var h = (lambda(n) -> {var r = 0; {var k = n; while 1 do " +
+                "{if k == 0 then return r; r += k; k -= 1}}}); h(4)").longValue());
+        assertEquals(3, execute("var g = (lambda() -> {for var i = 0; i < 10; i += 1 do {if i == 3 then return i}; 99}); g()").longValue());
+        assertEquals(500000500000L, execute("var s = (lambda(n, acc) -> {if n == 0 then return acc; s(n - 1, acc + n)}); " +
+                "s(1000000, 0)").longValue());
+    }
+
+    @Test
+    public void testCollections() throws PhiException, IOException{
+        assertEquals(5, execute("var a = ([1, 2, 3]); a[1] + a.length").longValue());
+        assertEquals(7, execute("var a = ([1, 2, 3]); a[1] += 5; a[1]").longValue());
+        assertEquals(7, execute("var o = ([v = 1]); o.v *= 7; o.v").longValue());
+        assertEquals(2, execute("var c = ([n = 0, inc = (lambda() -> n += 1)]); c.inc(); c.inc(); c.n").longValue());
+        assertEquals(3, execute("var p = ([x = 1]); var o = ([y = 2]); var l = ([0]); l[0] = p; o.super = l; o.x + o.y").longValue());
+    }
+
+    @Test
+    public void testLoopInvariants() throws PhiException, IOException{
+        Parser parser = new Parser("for var i = 0; i < a.length * o.lim; i += 1 do s += a[1] * k");
+        Chunk chunk = Compiler.compile(parser.nextExpression());
+        assertEquals(2, chunk.toString().split("JUMP_IF_SET").length - 1);
+        assertEquals(48, execute("var a = ([1, 2, 3]); var o = ([lim = 4]); var s = 0; var k = 2; " +
+                "for var i = 0; i < a.length * o.lim; i += 1 do s += a[1] * k; s").longValue());
+
+        //Members, superclasses and indices that change in the loop
+        assertSameResult("var o = ([lim = 3]); var n = 0; while n < o.lim do {n += 1; if n == 2 then o.lim = 5}; n");
+        assertSameResult("var p = ([x = 1]); var q = ([x = 10]); var l = ([0]); var m = ([0]); l[0] = p; m[0] = q; " +
+                "var o = ([]); o.super = l; var s = 0; for var i = 0; i < 3; i += 1 do {s += o.x; o.super = m}; s");
+        assertSameResult("var a = ([1, 2, 3]); var s = 0; for var i = 0; i < 3; i += 1 do {s += a[0] + a.length; a[0] = 5}; s");
+        assertSameResult("var x = 1; var s = 0; for var i = 0; i < 3; i += 1 do {s += x * 2; var x = 5}; s");
+
+        //Invariants are only evaluated when the loop reaches them
+        assertSameResult("var o = ([]); var n = 0; while n > 0 do n += o.missing; n");
+        assertThrows("Invariant member missing", PhiAccessException.class,
+                () -> execute("var o = ([]); var n = 0; while n < 1 do n += o.missing"));
+    }
+
+    @Test
+    public void testCountedLoops() throws PhiException, IOException{
+        Parser parser = new Parser("for var i = 0; i < c.length; i += 1 do {s += c[i] * d[i]; if c.length > i then s += c[i]}");
+        Chunk chunk = Compiler.compile(parser.nextExpression());
+        assertEquals(2, chunk.toString().split("GET_ELEMENT").length - 1);
+        parser = new Parser("for var i = 0; i < c.length; i += 1 do {s += c[i]; i += 1}");
+        chunk = Compiler.compile(parser.nextExpression());
+        assertEquals(0, chunk.toString().split("GET_ELEMENT").length - 1);
+
+        assertEquals(10, execute("var c = ([1, 2, 3, 4]); var s = 0; for var i = 0; i < c.length; i += 1 do s += c[i]; s").longValue());
+        //Collections that change, inherit elements or are no collections
+        assertSameResult("var c = ([1, 2, 3]); var s = 0; for var i = 0; i < c.length; i += 1 do {c[i] *= 2; s += c[i]}; s");
+        assertSameResult("var p = ([5, 6, 7]); var l = ([0]); l[0] = p; var c = ([1]); c.super = l; var s = 0; " +
+                "for var i = 0; c.length > i; i += 2 do s += c[i]; s");
+        assertThrows("Length of a string", PhiTypeException.class,
+                () -> execute("var c = \"abc\"; var s = 0; for var i = 0; i < c.length; i += 1 do s += c[i]"));
+    }
+
+    @Test
+    public void testTemporaryCollections() throws PhiException, IOException{
+        Parser parser = new Parser("([x * 2, y - 1])[1] + ([a = p.x, b = -y]).b + ([1, 2, 3]).length");
+        Chunk chunk = Compiler.compile(parser.nextExpression());
+        assertEquals(0, chunk.toString().split("EVAL").length - 1);
+        assertEquals(14, execute("var x = 3; var y = 4; var p = ([x = 1]); " +
+                "([x * 2, y - 1])[1] + ([a = p.x, b = y * 2]).b + ([1, 2, 3]).length").longValue());
+
+        //Unnamed members are not looked up, and members are evaluated in the collection
+        assertSameResult("var x = 3; ([x, 2])[0]");
+        assertSameResult("var x = 3; ([a = 1, x = 2, b = x]).b");
+        assertSameResult("var x = 3; ([a = 1, a = x * 2]).a");
+        assertSameResult("var x = 3; ([x, length])[1]");
+        assertSameResult("var o = ([n = 0]); var s = ([o.n = 5, o.n * 2])[1]; s + o.n");
+        //Named members take up a position as well
+        assertSameResult("([a = 1, 2])[0]");
+        assertSameResult("([a = 1, 2]).length");
+        assertSameResult("var x = 3; ([1, a = x, 2])[1]");
+        assertThrows("Index out of bounds", PhiAccessException.class, () -> execute("([1, 2])[2]"));
+        assertThrows("Error in an unused member", PhiTypeException.class, () -> execute("([1 * \"a\", 2])[1]"));
+    }
+
+    @Test
+    public void testErrors() {
+        assertThrows("Undeclared variable", PhiAccessException.class, () -> execute("undefinedVar"));
+        assertThrows("Break outside of a loop", PhiRuntimeException.class, () -> execute("break"));
+        assertThrows("Call of a non-function", PhiTypeException.class, () -> execute("3(1)"));
+    }
+}